@@ -0,0 +1,77 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * StreamName.parse() vs. the validateStreamName() / getDruid() / getFilename() sequence it replaced (copied below),
+ * which split the streamName three times and ran a regex over the concatenated druid.
+ *
+ * ./gradlew jmh -Pjmh.includes=StreamNameBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamNameBenchmark
+{
+    @Param({ "bb/123/cd/4567/mp4:bb123cd4567_sl.mp4", "bb/123/cd/4567/bb123cd4567_sl.mp4?stacks_token=abcdefghijklmnopqrstuvwxyz0123456789" })
+    public String streamName;
+
+    @Benchmark
+    public void streamNameParse(Blackhole blackhole)
+    {
+        StreamName parsed = StreamName.parse(streamName);
+        blackhole.consume(parsed.druid());
+        blackhole.consume(parsed.filename());
+    }
+
+    @Benchmark
+    public void splitAndRegex(Blackhole blackhole)
+    {
+        if (Legacy.validateStreamName(streamName))
+        {
+            blackhole.consume(Legacy.getDruid(streamName));
+            blackhole.consume(Legacy.getFilename(streamName));
+        }
+    }
+
+    /** the SulWowza methods StreamName replaced, minus their logging */
+    static class Legacy
+    {
+        private static final int DRUID_TREE_LENGTH = "aa/123/bb/4567".length();
+        private static final Pattern DRUID_REGEX_PATTERN = Pattern.compile("[a-z]{2}\\d{3}[a-z]{2}\\d{4}");
+
+        static boolean validateStreamName(String streamName)
+        {
+            if (streamName == null || streamName.length() <= DRUID_TREE_LENGTH)
+                return false;
+            return streamName.split("/").length == 5;
+        }
+
+        static String getDruid(String streamName)
+        {
+            String[] pieces = streamName.split("/");
+            String druid = pieces[0] + pieces[1] + pieces[2] + pieces[3];
+            return DRUID_REGEX_PATTERN.matcher(druid).matches() ? druid : null;
+        }
+
+        static String getFilename(String streamName)
+        {
+            String myStreamName = streamName;
+            int questionMarkIndex = streamName.indexOf('?');
+            if (questionMarkIndex > 0)
+                myStreamName = streamName.substring(0, questionMarkIndex);
+            String filename = myStreamName.substring(myStreamName.lastIndexOf('/') + 1);
+            int colonIndex = filename.indexOf(':');
+            if (colonIndex > 0)
+                filename = filename.substring(colonIndex + 1);
+            return filename.length() > 0 ? filename : null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.validator.routines.InetAddressValidator;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Taking the first x-forwarded-for entry and checking it's a dotted quad with a single scan (IpAddresses.parseIpv4())
+ * vs. the split / InetAddressValidator / String.matches() chain it replaced (copied below), and the cost of walking
+ * the entries right to left past trusted proxies instead.
+ *
+ * ./gradlew jmh -Pjmh.includes=UserIpBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserIpBenchmark
+{
+    @Param({ "171.64.0.1", "171.64.0.1, 10.1.2.3, 10.4.5.6" })
+    public String xForwardedFor;
+
+    private CidrTrie trustedProxies;
+
+    @Setup
+    public void setUp()
+    {
+        trustedProxies = CidrTrie.parse("10.0.0.0/8, 172.16.0.0/12, 192.168.0.0/16, 2001:db8::/32");
+    }
+
+    @Benchmark
+    public long singleScan()
+    {
+        int end = xForwardedFor.indexOf(',');
+        String userIp = (end < 0 ? xForwardedFor : xForwardedFor.substring(0, end)).trim();
+        return IpAddresses.parseIpv4(userIp);
+    }
+
+    @Benchmark
+    public String trustedProxyWalk()
+    {
+        return SulWowza.lastUntrustedEntry(xForwardedFor, trustedProxies);
+    }
+
+    @Benchmark
+    public boolean splitAndRegex()
+    {
+        String userIp = xForwardedFor.split(",")[0].trim();
+        return InetAddressValidator.getInstance().isValid(userIp) && userIp.matches("\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}");
+    }
+}
@@ -0,0 +1,100 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Request timeout for stacks that follows stacks' recent latency:  multiplier times the p99 of the round trips
+ * recorded over the last one to two windows, bounded by floorMillis and ceilingMillis.  Until there are minSamples
+ * round trips to go on (e.g. at startup, or after a stretch where every request timed out), it's the ceiling.
+ *
+ * Only round trips stacks actually answered should be recorded;  a timed out request's duration is just the timeout.
+ */
+class AdaptiveTimeout
+{
+    static final double PERCENTILE = 0.99;
+    /** how often the timeout is recomputed from the histogram */
+    static final long RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double multiplier;
+    /** as given;  floorMillis is this, capped at the ceiling */
+    private final long requestedFloorMillis;
+    private final long floorMillis;
+    private final long ceilingMillis;
+    private final long minSamples;
+    private final LongSupplier nanoClock;
+    private final RollingLatencyHistogram latencies;
+
+    private volatile long timeoutMillis;
+    private volatile long computedAt;
+
+    AdaptiveTimeout(double multiplier, long floorMillis, long ceilingMillis, long minSamples, long windowSeconds)
+    {
+        this(multiplier, floorMillis, ceilingMillis, minSamples, windowSeconds, System::nanoTime);
+    }
+
+    AdaptiveTimeout(double multiplier, long floorMillis, long ceilingMillis, long minSamples, long windowSeconds,
+                    LongSupplier nanoClock)
+    {
+        this(multiplier, floorMillis, ceilingMillis, minSamples, nanoClock, new RollingLatencyHistogram(windowSeconds, nanoClock));
+    }
+
+    private AdaptiveTimeout(double multiplier, long floorMillis, long ceilingMillis, long minSamples, LongSupplier nanoClock,
+                            RollingLatencyHistogram latencies)
+    {
+        this.multiplier = multiplier;
+        this.ceilingMillis = ceilingMillis;
+        this.requestedFloorMillis = floorMillis;
+        this.floorMillis = Math.min(floorMillis, ceilingMillis);
+        this.minSamples = minSamples;
+        this.nanoClock = nanoClock;
+        this.latencies = latencies;
+        computedAt = nanoClock.getAsLong();
+        timeoutMillis = compute();
+    }
+
+    /** the same, bounded above by ceilingMillis instead, and going on from the round trips recorded so far;
+     * for when the configured timeouts change */
+    AdaptiveTimeout withCeilingMillis(long ceilingMillis)
+    {
+        return new AdaptiveTimeout(multiplier, requestedFloorMillis, ceilingMillis, minSamples, nanoClock, latencies);
+    }
+
+    void recordNanos(long durationNanos)
+    {
+        latencies.recordNanos(durationNanos);
+    }
+
+    /** the timeout to use for the next request, in milliseconds */
+    long currentTimeoutMillis()
+    {
+        long now = nanoClock.getAsLong();
+        if (now - computedAt >= RECOMPUTE_NANOS)
+        {
+            computedAt = now;
+            timeoutMillis = compute();
+        }
+        return timeoutMillis;
+    }
+
+    private long compute()
+    {
+        if (latencies.count() < minSamples)
+            return ceilingMillis;
+        long millis = (long) Math.ceil(latencies.percentileMicros(PERCENTILE) * multiplier / 1000.0);
+        return Math.min(ceilingMillis, Math.max(floorMillis, millis));
+    }
+
+    /** p99 of the recorded round trips, in milliseconds (rounded up);  0 if none have been recorded */
+    long p99Millis()
+    {
+        return (latencies.percentileMicros(PERCENTILE) + 999) / 1000;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AdaptiveTimeout[multiplier=" + multiplier + ", floorMillis=" + floorMillis + ", ceilingMillis=" + ceilingMillis +
+                ", minSamples=" + minSamples + ", windowSeconds=" + latencies.getWindowSeconds() + "]";
+    }
+}
@@ -0,0 +1,352 @@
+package edu.stanford.dlss.wowza;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Writes one JSON line per authorization decision to a file, e.g.
+ *
+ *   {"time":"2026-10-18T17:02:03.456Z","protocol":"hls","druid":"bb012cd3456","filename":"video.mp4",
+ *    "userIp":"171.64.1.2","outcome":"accepted","reason":"approval_cache","cacheHit":true,"latencyMicros":41}
+ *
+ * without the deciding (Wowza) thread doing any formatting or I/O:  record() just fills in a slot of a ring buffer
+ * allocated up front, and a background thread formats and writes the slots in order, flushing whenever it runs out
+ * of them.  If the writer falls behind by a whole ring, record() drops (and counts) the decision instead of waiting.
+ *
+ * Once the file reaches maxFileBytes it's renamed to file.1 (file.1 to file.2, and so on, keeping maxFiles old files)
+ * and a new one started.
+ *
+ * The reason for a decision is noted, by whichever part of the verification makes it, with noteReason(), and
+ * picked up with takeReason() by the caller recording the decision on the same thread.
+ */
+class AuditLog
+{
+    /** why an authorization decision went the way it did */
+    enum Reason
+    {
+        INVALID_CONFIGURATION, INVALID_TOKEN, INVALID_USER_IP, INVALID_STREAM_NAME, QUEUE_FULL, LOCAL_VERIFIER,
+        APPROVAL_CACHE, REJECTION_CACHE, COALESCED, STACKS, CONCURRENCY_LIMIT, CIRCUIT_BREAKER, BAD_URL, STACKS_TIMEOUT,
+        STACKS_ERROR, UNEXPECTED_ERROR;
+
+        final String jsonName = name().toLowerCase();
+
+        boolean isCacheHit()
+        {
+            return this == APPROVAL_CACHE || this == REJECTION_CACHE;
+        }
+    }
+
+    private static final ThreadLocal<Reason> REASON = new ThreadLocal<>();
+    /** how long the writer sleeps when it has nothing to write */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final class Slot
+    {
+        long epochMillis;
+        String protocol;
+        String druid;
+        String filename;
+        String userIp;
+        boolean accepted;
+        Reason reason;
+        long latencyNanos;
+    }
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final Consumer<IOException> errorHandler;
+    private final Slot[] slots;
+    /** per slot:  the sequence number a producer may fill it for, or that plus one once it's filled */
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong nextToFill = new AtomicLong();
+    private final Thread writer;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean closing;
+
+    // only touched by the writer thread
+    private long nextToWrite;
+    private OutputStream out;
+    private long fileBytes;
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * starts the writer thread;  capacity is rounded up to a power of two.  errorHandler is called (on the writer
+     * thread) if the file can't be written;  the decisions being written then are lost.
+     */
+    AuditLog(Path file, int capacity, long maxFileBytes, int maxFiles, Consumer<IOException> errorHandler)
+    {
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.errorHandler = errorHandler;
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        mask = size - 1;
+        slots = new Slot[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        writer = new Thread(this::writeUntilClosed, "SulWowza-audit-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** notes why the current thread's authorization decision went the way it did */
+    static void noteReason(Reason reason)
+    {
+        REASON.set(reason);
+    }
+
+    /** the reason last noted on this thread, or null;  clears it */
+    static Reason takeReason()
+    {
+        Reason reason = REASON.get();
+        if (reason != null)
+            REASON.set(null);
+        return reason;
+    }
+
+    /** queues a decision to be written;  false if it was dropped because the writer is a whole ring behind */
+    boolean record(String protocol, String druid, String filename, String userIp, boolean accepted, Reason reason, long latencyNanos)
+    {
+        long sequence;
+        while (true)
+        {
+            sequence = nextToFill.get();
+            long available = sequences.get((int) sequence & mask);
+            if (available < sequence || closing)
+            {
+                dropped.increment();
+                return false;
+            }
+            if (available == sequence && nextToFill.compareAndSet(sequence, sequence + 1))
+                break;
+        }
+        int index = (int) sequence & mask;
+        Slot slot = slots[index];
+        slot.epochMillis = System.currentTimeMillis();
+        slot.protocol = protocol;
+        slot.druid = druid;
+        slot.filename = filename;
+        slot.userIp = userIp;
+        slot.accepted = accepted;
+        slot.reason = reason;
+        slot.latencyNanos = latencyNanos;
+        sequences.set(index, sequence + 1); // publishes the slot to the writer
+        return true;
+    }
+
+    private void writeUntilClosed()
+    {
+        while (true)
+        {
+            boolean wasClosing = closing;
+            if (!writeAvailable())
+            {
+                flush();
+                if (wasClosing && nextToWrite == nextToFill.get())
+                    break; // nothing claimed but not yet filled, either
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        closeFile();
+    }
+
+    /** writes the slots filled so far, in order;  false if there were none */
+    private boolean writeAvailable()
+    {
+        boolean any = false;
+        while (true)
+        {
+            int index = (int) nextToWrite & mask;
+            if (sequences.get(index) != nextToWrite + 1)
+                return any;
+            Slot slot = slots[index];
+            format(slot);
+            slot.protocol = slot.druid = slot.filename = slot.userIp = null;
+            sequences.set(index, nextToWrite + slots.length); // free for the producer a ring ahead
+            nextToWrite++;
+            any = true;
+            write();
+        }
+    }
+
+    private void format(Slot slot)
+    {
+        line.setLength(0);
+        line.append("{\"time\":\"").append(Instant.ofEpochMilli(slot.epochMillis)).append('"');
+        appendField("protocol", slot.protocol);
+        appendField("druid", slot.druid);
+        appendField("filename", slot.filename);
+        appendField("userIp", slot.userIp);
+        line.append(",\"outcome\":\"").append(slot.accepted ? "accepted" : "rejected").append('"');
+        if (slot.reason != null)
+        {
+            line.append(",\"reason\":\"").append(slot.reason.jsonName).append('"');
+            line.append(",\"cacheHit\":").append(slot.reason.isCacheHit());
+        }
+        line.append(",\"latencyMicros\":").append(TimeUnit.NANOSECONDS.toMicros(slot.latencyNanos)).append("}\n");
+    }
+
+    /** "name":"value" (JSON escaped), or nothing if value is null */
+    private void appendField(String name, String value)
+    {
+        if (value == null)
+            return;
+        line.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                line.append('\\').append(c);
+            else if (c < 0x20)
+                line.append(String.format("\\u%04x", (int) c));
+            else
+                line.append(c);
+        }
+        line.append('"');
+    }
+
+    private void write()
+    {
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        try
+        {
+            if (out != null && fileBytes + bytes.length > maxFileBytes && fileBytes > 0)
+                rotate();
+            if (out == null)
+                open();
+            out.write(bytes);
+            fileBytes += bytes.length;
+            written.increment();
+        }
+        catch (IOException e)
+        {
+            failed.increment();
+            closeFile();
+            errorHandler.accept(e);
+        }
+    }
+
+    private void open()
+            throws IOException
+    {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        fileBytes = Files.size(file);
+    }
+
+    /** file.(maxFiles-1) becomes file.maxFiles (replacing it), ..., file becomes file.1 */
+    private void rotate()
+            throws IOException
+    {
+        closeFile();
+        if (maxFiles == 0)
+        {
+            Files.deleteIfExists(file);
+            return;
+        }
+        for (int i = maxFiles - 1; i >= 0; i--)
+        {
+            Path from = i == 0 ? file : rotated(i);
+            if (Files.exists(from))
+                Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path rotated(int generation)
+    {
+        return file.resolveSibling(file.getFileName() + "." + generation);
+    }
+
+    private void flush()
+    {
+        if (out == null)
+            return;
+        try
+        {
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            failed.increment();
+            closeFile();
+            errorHandler.accept(e);
+        }
+    }
+
+    private void closeFile()
+    {
+        if (out == null)
+            return;
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            // flushed already, or flush reported the problem
+        }
+        out = null;
+    }
+
+    /** stops taking decisions, and waits up to timeoutMillis for the writer to write those already recorded;
+     * true if it did */
+    boolean close(long timeoutMillis)
+    {
+        closing = true;
+        LockSupport.unpark(writer);
+        try
+        {
+            writer.join(timeoutMillis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return !writer.isAlive();
+    }
+
+    long writtenCount()
+    {
+        return written.sum();
+    }
+
+    long droppedCount()
+    {
+        return dropped.sum();
+    }
+
+    long failedCount()
+    {
+        return failed.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AuditLog[file=" + file + ", capacity=" + slots.length + ", maxFileBytes=" + maxFileBytes + ", maxFiles=" + maxFiles +
+                ", written=" + writtenCount() + ", dropped=" + droppedCount() + ", failed=" + failedCount() + "]";
+    }
+}
@@ -0,0 +1,170 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of authorization decisions, by protocol and outcome and by the reason for them (see AuditLog.Reason), and
+ * latency histograms for whole authorizations and for the stacks round trip alone.
+ *
+ * Everything is a LongAdder or a LatencyHistogram, so recording never takes a lock, and neither does reading:  a
+ * reader just sums what's there, and may see a decision counted in one place and not yet in another.  The counts
+ * only ever go up, since the module started.
+ */
+class AuthorizationMetrics
+{
+    /** how the viewer is streaming */
+    enum Protocol
+    {
+        HLS, DASH, RTMP, HTTP;
+
+        final String label = name().toLowerCase();
+    }
+
+    private static final int PROTOCOLS = Protocol.values().length;
+    private static final int REASONS = AuditLog.Reason.values().length;
+
+    /** [accepted ? 1 : 0][protocol] */
+    private final LongAdder[][] byProtocol = adders(2, PROTOCOLS);
+    /** [accepted ? 1 : 0][reason];  decisions with no reason aren't counted here */
+    private final LongAdder[][] byReason = adders(2, REASONS);
+    private final LatencyHistogram authorizationLatency = new LatencyHistogram();
+    private final LongAdder authorizationMicros = new LongAdder();
+    private final LatencyHistogram stacksLatency = new LatencyHistogram();
+    private final LongAdder stacksMicros = new LongAdder();
+    /** authorizations waiting for, and being run by, a thread of the authorization pool */
+    private final LongAdder poolWaiting = new LongAdder();
+    private final LongAdder poolRunning = new LongAdder();
+
+    private static LongAdder[][] adders(int rows, int columns)
+    {
+        LongAdder[][] adders = new LongAdder[rows][columns];
+        for (LongAdder[] row : adders)
+            for (int i = 0; i < columns; i++)
+                row[i] = new LongAdder();
+        return adders;
+    }
+
+    /** counts a decision, and how long it took, from the start of authorization */
+    void recordDecision(Protocol protocol, boolean accepted, AuditLog.Reason reason, long latencyNanos)
+    {
+        int outcome = accepted ? 1 : 0;
+        byProtocol[outcome][protocol.ordinal()].increment();
+        if (reason != null)
+            byReason[outcome][reason.ordinal()].increment();
+        long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+        authorizationLatency.recordMicros(micros);
+        authorizationMicros.add(micros);
+    }
+
+    /** records how long a verify_token request to stacks took to be answered (or to fail) */
+    void recordStacksRoundTrip(long nanos)
+    {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        stacksLatency.recordMicros(micros);
+        stacksMicros.add(micros);
+    }
+
+    /** an authorization is about to be handed to the authorization pool */
+    void poolTaskQueued()
+    {
+        poolWaiting.increment();
+    }
+
+    /** the pool refused the authorization poolTaskQueued() was called for */
+    void poolTaskRejected()
+    {
+        poolWaiting.decrement();
+    }
+
+    void poolTaskStarted()
+    {
+        poolWaiting.decrement();
+        poolRunning.increment();
+    }
+
+    void poolTaskFinished()
+    {
+        poolRunning.decrement();
+    }
+
+    /** authorizations queued for the authorization pool;  unlike the pool's own queue size, doesn't take a lock */
+    long poolWaitingCount()
+    {
+        return Math.max(0, poolWaiting.sum());
+    }
+
+    /** authorizations being run by the authorization pool;  unlike the pool's active count, doesn't take a lock */
+    long poolRunningCount()
+    {
+        return Math.max(0, poolRunning.sum());
+    }
+
+    long accepted(Protocol protocol)
+    {
+        return byProtocol[1][protocol.ordinal()].sum();
+    }
+
+    long rejected(Protocol protocol)
+    {
+        return byProtocol[0][protocol.ordinal()].sum();
+    }
+
+    long accepted(AuditLog.Reason reason)
+    {
+        return byReason[1][reason.ordinal()].sum();
+    }
+
+    long rejected(AuditLog.Reason reason)
+    {
+        return byReason[0][reason.ordinal()].sum();
+    }
+
+    long acceptedTotal()
+    {
+        long total = 0;
+        for (LongAdder adder : byProtocol[1])
+            total += adder.sum();
+        return total;
+    }
+
+    long rejectedTotal()
+    {
+        long total = 0;
+        for (LongAdder adder : byProtocol[0])
+            total += adder.sum();
+        return total;
+    }
+
+    /** whole authorizations, from the session (or play request) arriving to the decision */
+    LatencyHistogram authorizationLatency()
+    {
+        return authorizationLatency;
+    }
+
+    /** the sum of all authorization latencies, in microseconds */
+    long authorizationMicros()
+    {
+        return authorizationMicros.sum();
+    }
+
+    /** verify_token requests to stacks, from sending to the answer (or failure) */
+    LatencyHistogram stacksLatency()
+    {
+        return stacksLatency;
+    }
+
+    /** the sum of all stacks round trips, in microseconds */
+    long stacksMicros()
+    {
+        return stacksMicros.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AuthorizationMetrics[accepted=" + acceptedTotal() + ", rejected=" + rejectedTotal() +
+                ", p50=" + authorizationLatency.percentileMicros(0.5) + "us, p99=" + authorizationLatency.percentileMicros(0.99) +
+                "us, stacksP50=" + stacksLatency.percentileMicros(0.5) + "us, stacksP99=" + stacksLatency.percentileMicros(0.99) + "us]";
+    }
+}
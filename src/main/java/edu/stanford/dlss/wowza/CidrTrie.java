@@ -0,0 +1,146 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.Arrays;
+
+/**
+ * A set of IPv4 and IPv6 address ranges in CIDR notation (e.g. "10.0.0.0/8, 2001:db8::/32, 171.64.1.2"), held as a
+ * trie over the 128 bits of an IpAddress (IPv4 ranges sit under the IPv4-mapped prefix), four bits per level.
+ *
+ * Nodes are just runs of 16 slots in one int array:  a slot holds the index of the child node for that nibble, 0 for
+ * none, or MATCHED if a range covers everything below it.  A range whose prefix length isn't a multiple of four
+ * marks all the slots it covers at the last level, so contains() reads one slot per nibble and stops at the first
+ * MATCHED or empty one:  at most 32 steps for an IPv6 address, and 8 for an IPv4 address, which starts from the node
+ * for the IPv4-mapped prefix.  However many ranges there are, that's all it does.
+ *
+ * Immutable once parsed, so it can be shared between threads.
+ */
+final class CidrTrie
+{
+    private static final int STRIDE = 4;
+    private static final int FANOUT = 1 << STRIDE;
+    private static final int MATCHED = -1;
+    private static final IpAddress IPV4_MAPPED_PREFIX = IpAddress.ofIpv4(0);
+    private static final int IPV4_MAPPED_NIBBLES = 96 / STRIDE;
+
+    private final int[] slots;
+    /** where IPv4 lookups start:  the node for the IPv4-mapped prefix, or MATCHED, or 0 if there's no IPv4 range */
+    private final int ipv4Root;
+    private final String ranges;
+
+    private CidrTrie(int[] slots, String ranges)
+    {
+        this.slots = slots;
+        this.ranges = ranges;
+        int node = 0;
+        for (int i = 0; i < IPV4_MAPPED_NIBBLES && node != MATCHED; i++)
+        {
+            node = slots[FANOUT * node + nibbleAt(IPV4_MAPPED_PREFIX, i)];
+            if (node == 0)
+                break;
+        }
+        this.ipv4Root = node;
+    }
+
+    /**
+     * parses a comma separated list of address ranges;  an address without a prefix length is a range of one.
+     * @throws IllegalArgumentException naming the first entry that isn't a valid address range
+     */
+    static CidrTrie parse(String cidrs)
+    {
+        int[] slots = new int[FANOUT * 32];
+        int nodes = 1; // the root
+        StringBuilder ranges = new StringBuilder();
+        for (String cidr : cidrs.split(","))
+        {
+            cidr = cidr.trim();
+            if (cidr.length() == 0)
+                continue;
+            int slash = cidr.indexOf('/');
+            String addressPart = slash < 0 ? cidr : cidr.substring(0, slash);
+            IpAddress address = IpAddress.parse(addressPart);
+            if (address == null)
+                throw new IllegalArgumentException("invalid address range: " + cidr);
+            // an IPv4 prefix length counts from the start of the IPv4 part of the mapped address
+            int offset = addressPart.indexOf(':') < 0 ? 96 : 0;
+            int prefixLength = 128;
+            if (slash >= 0)
+            {
+                try
+                {
+                    prefixLength = offset + Integer.parseInt(cidr.substring(slash + 1));
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new IllegalArgumentException("invalid address range: " + cidr, e);
+                }
+                if (prefixLength < offset || prefixLength > 128)
+                    throw new IllegalArgumentException("invalid address range: " + cidr);
+            }
+            ranges.append(ranges.length() == 0 ? "" : ", ").append(cidr);
+
+            // walk (adding nodes as needed) to the node holding the range's last, possibly partial, nibble
+            int lastNibble = prefixLength == 0 ? 0 : (prefixLength - 1) / STRIDE;
+            int node = 0;
+            for (int i = 0; i < lastNibble && node != MATCHED; i++)
+            {
+                int slot = FANOUT * node + nibbleAt(address, i);
+                if (slots[slot] == 0)
+                {
+                    if (FANOUT * (nodes + 1) > slots.length)
+                        slots = Arrays.copyOf(slots, 2 * slots.length);
+                    slots[slot] = nodes++;
+                }
+                node = slots[slot];
+            }
+            if (node == MATCHED)
+                continue; // already covered by a shorter range
+
+            // then mark every slot the rest of the prefix covers;  anything below them is never reached now
+            int uncovered = (FANOUT - 1) >> (prefixLength - STRIDE * lastNibble);
+            int first = nibbleAt(address, lastNibble) & ~uncovered;
+            for (int nibble = first; nibble <= (first | uncovered); nibble++)
+                slots[FANOUT * node + nibble] = MATCHED;
+        }
+        return new CidrTrie(Arrays.copyOf(slots, FANOUT * nodes), ranges.toString());
+    }
+
+    /** true if address is in any of the ranges */
+    boolean contains(IpAddress address)
+    {
+        int node = 0;
+        int i = 0;
+        if (address.isIpv4())
+        {
+            if (ipv4Root <= 0)
+                return ipv4Root == MATCHED;
+            node = ipv4Root;
+            i = IPV4_MAPPED_NIBBLES;
+        }
+        // full-length ranges end in a MATCHED slot at the last nibble, so this always stops by then
+        for (;; i++)
+        {
+            int next = slots[FANOUT * node + nibbleAt(address, i)];
+            if (next <= 0)
+                return next == MATCHED;
+            node = next;
+        }
+    }
+
+    boolean isEmpty()
+    {
+        return ranges.isEmpty();
+    }
+
+    /** the i'th most significant nibble of address */
+    private static int nibbleAt(IpAddress address, int i)
+    {
+        long half = i < 16 ? address.high() : address.low();
+        return (int) (half >>> (60 - STRIDE * (i & 15))) & (FANOUT - 1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return ranges;
+    }
+}
@@ -0,0 +1,231 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker around calls to stacks, so that an outage gets an immediate answer instead of every session
+ * waiting out the connect and read timeouts.
+ *
+ * CLOSED:  calls go through, and the outcomes of the last windowSize calls are kept.  Once at least minimumCalls
+ *   are in the window, if the percentage that failed (transport errors, timeouts, 5xx) reaches failureRateThreshold,
+ *   or the percentage slower than slowCallNanos reaches slowCallRateThreshold, the breaker opens.
+ * OPEN:  calls are refused without contacting stacks, until openNanos have passed.
+ * HALF_OPEN:  up to halfOpenCalls trial calls go through (others are refused);  once they've all completed, the
+ *   breaker closes if they're under both thresholds, or opens again if not.
+ *
+ * Each state change is reported once to the TransitionListener.
+ */
+class CircuitBreaker
+{
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    interface TransitionListener
+    {
+        void onTransition(State from, State to, String reason);
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final TransitionListener listener;
+    private final LongSupplier nanoClock;
+
+    /** written only while holding this;  volatile so getState() can read it without */
+    private volatile State state = State.CLOSED;
+    // guarded by this
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int next;
+    private int recorded;
+    private int failures;
+    private int slows;
+    private long openedAt;
+    private int halfOpenPermitsIssued;
+
+    private final LongAdder notPermitted = new LongAdder();
+    private final LongAdder timesOpened = new LongAdder();
+
+    CircuitBreaker(int windowSize, int minimumCalls, int failureRateThreshold, int slowCallRateThreshold,
+                   long slowCallMillis, long openSeconds, int halfOpenCalls, TransitionListener listener)
+    {
+        this(windowSize, minimumCalls, failureRateThreshold, slowCallRateThreshold, slowCallMillis, openSeconds,
+             halfOpenCalls, listener, System::nanoTime);
+    }
+
+    CircuitBreaker(int windowSize, int minimumCalls, int failureRateThreshold, int slowCallRateThreshold,
+                   long slowCallMillis, long openSeconds, int halfOpenCalls, TransitionListener listener,
+                   LongSupplier nanoClock)
+    {
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+        this.halfOpenCalls = halfOpenCalls;
+        this.listener = listener;
+        this.nanoClock = nanoClock;
+        failedCalls = new boolean[Math.max(windowSize, halfOpenCalls)];
+        slowCalls = new boolean[Math.max(windowSize, halfOpenCalls)];
+    }
+
+    /** true if a call may go to stacks now;  if so, its outcome must be passed to onCallComplete() */
+    boolean tryAcquirePermission()
+    {
+        State from;
+        synchronized (this)
+        {
+            if (state == State.CLOSED)
+                return true;
+            if (state == State.HALF_OPEN)
+                return issueHalfOpenPermit();
+            if (nanoClock.getAsLong() - openedAt < openNanos)
+            {
+                notPermitted.increment();
+                return false;
+            }
+            from = transitionTo(State.HALF_OPEN);
+            issueHalfOpenPermit();
+        }
+        notifyListener(from, State.HALF_OPEN, "open for " + TimeUnit.NANOSECONDS.toSeconds(openNanos) + "s; trying " +
+                       halfOpenCalls + " calls");
+        return true;
+    }
+
+    /** guarded by this */
+    private boolean issueHalfOpenPermit()
+    {
+        if (halfOpenPermitsIssued >= halfOpenCalls)
+        {
+            notPermitted.increment();
+            return false;
+        }
+        halfOpenPermitsIssued++;
+        return true;
+    }
+
+    /** record the outcome of a permitted call;  failed means stacks didn't give a meaningful answer */
+    void onCallComplete(long durationNanos, boolean failed)
+    {
+        State from;
+        State to;
+        String reason;
+        synchronized (this)
+        {
+            if (state == State.OPEN)
+                return; // a straggler from before the breaker opened
+            record(failed, durationNanos >= slowCallNanos);
+            int requiredCalls = state == State.HALF_OPEN ? halfOpenCalls : minimumCalls;
+            if (recorded < requiredCalls)
+                return;
+
+            int failureRate = failures * 100 / recorded;
+            int slowCallRate = slows * 100 / recorded;
+            String rates = "failure rate " + failureRate + "%, slow call rate " + slowCallRate + "% over " + recorded + " calls";
+            if (failureRate >= failureRateThreshold || slowCallRate >= slowCallRateThreshold)
+            {
+                to = State.OPEN;
+                reason = rates;
+            }
+            else if (state == State.HALF_OPEN)
+            {
+                to = State.CLOSED;
+                reason = rates;
+            }
+            else
+                return;
+            from = transitionTo(to);
+        }
+        notifyListener(from, to, reason);
+    }
+
+    /** guarded by this */
+    private void record(boolean failed, boolean slow)
+    {
+        if (recorded == failedCalls.length || (state == State.CLOSED && recorded == windowSize))
+        {
+            // evict the oldest outcome
+            int oldest = Math.floorMod(next - recorded, failedCalls.length);
+            if (failedCalls[oldest])
+                failures--;
+            if (slowCalls[oldest])
+                slows--;
+            recorded--;
+        }
+        failedCalls[next] = failed;
+        slowCalls[next] = slow;
+        next = (next + 1) % failedCalls.length;
+        recorded++;
+        if (failed)
+            failures++;
+        if (slow)
+            slows++;
+    }
+
+    /** guarded by this;  starts a fresh window for the new state and returns the old state */
+    private State transitionTo(State to)
+    {
+        State from = state;
+        state = to;
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        slows = 0;
+        halfOpenPermitsIssued = 0;
+        if (to == State.OPEN)
+        {
+            openedAt = nanoClock.getAsLong();
+            timesOpened.increment();
+        }
+        return from;
+    }
+
+    private void notifyListener(State from, State to, String reason)
+    {
+        if (listener != null)
+            listener.onTransition(from, to, reason);
+    }
+
+    State getState()
+    {
+        return state;
+    }
+
+    /** failure percentage over the calls currently in the window */
+    synchronized int failureRate()
+    {
+        return recorded == 0 ? 0 : failures * 100 / recorded;
+    }
+
+    /** slow call percentage over the calls currently in the window */
+    synchronized int slowCallRate()
+    {
+        return recorded == 0 ? 0 : slows * 100 / recorded;
+    }
+
+    /** number of calls refused without contacting stacks */
+    long notPermittedCount()
+    {
+        return notPermitted.sum();
+    }
+
+    long openedCount()
+    {
+        return timesOpened.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CircuitBreaker[state=" + getState() + ", windowSize=" + windowSize + ", minimumCalls=" + minimumCalls +
+                ", failureRateThreshold=" + failureRateThreshold + "%, slowCallRateThreshold=" + slowCallRateThreshold +
+                "%, slowCallMillis=" + TimeUnit.NANOSECONDS.toMillis(slowCallNanos) +
+                ", openSeconds=" + TimeUnit.NANOSECONDS.toSeconds(openNanos) + ", halfOpenCalls=" + halfOpenCalls + "]";
+    }
+}
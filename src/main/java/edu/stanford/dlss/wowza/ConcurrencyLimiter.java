@@ -0,0 +1,199 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive (AIMD) limit on the number of verify_token requests in flight to stacks at once.
+ *
+ * The limit grows by about one per round trip's worth of requests (1/limit per completed request) while stacks keeps
+ * up, and is cut by BACKOFF_RATIO when a request fails (timeout, connection error, 5xx) or when the recent latency
+ * (a moving average over about SHORT_WINDOW requests) is more than LATENCY_TOLERANCE times the baseline (a moving
+ * average over about LONG_WINDOW requests).  Comparing averages rather than single round trips means the ordinary
+ * jitter of a healthy stacks, and the odd slow request, don't count as congestion;  a slowdown has to last a while.
+ * The baseline follows stacks if it gets persistently slower or faster.
+ *
+ * The limit is cut at most once per limit's worth of completed requests, so a burst of failures or slow responses
+ * from one congestion episode counts once rather than collapsing the limit to minLimit.
+ *
+ * Requests beyond the limit wait, up to queueSize of them and for at most queueTimeout, for a slot;  any others are
+ * rejected immediately.
+ */
+class ConcurrencyLimiter
+{
+    static final double BACKOFF_RATIO = 0.9;
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final int SHORT_WINDOW = 30;
+    static final int LONG_WINDOW = 500;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final long queueTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    // written only while holding lock;  volatile so the getters below can read them without it
+    private volatile double limit;
+    private volatile int inFlight;
+    private volatile int waiting;
+    // guarded by lock
+    private double recentNanos;
+    private double baselineNanos;
+    private long samples;
+    private int completionsSinceBackoff;
+
+    private final LongAdder rejected = new LongAdder();
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int queueSize, long queueTimeoutMillis)
+    {
+        this.minLimit = minLimit;
+        this.maxLimit = Math.max(minLimit, maxLimit);
+        this.limit = Math.min(Math.max(initialLimit, minLimit), this.maxLimit);
+        this.completionsSinceBackoff = this.maxLimit; // so the first cut needn't wait
+        this.queueSize = queueSize;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+    }
+
+    /** true if the caller may send a request to stacks, in which case it must call onComplete() or release() after */
+    boolean acquire()
+    {
+        lock.lock();
+        try
+        {
+            if (inFlight < (int) limit)
+            {
+                inFlight++;
+                return true;
+            }
+            if (waiting >= queueSize)
+            {
+                rejected.increment();
+                return false;
+            }
+
+            waiting++;
+            try
+            {
+                long remainingNanos = queueTimeoutNanos;
+                while (inFlight >= (int) limit)
+                {
+                    if (remainingNanos <= 0)
+                    {
+                        rejected.increment();
+                        return false;
+                    }
+                    remainingNanos = slotFreed.awaitNanos(remainingNanos);
+                }
+                inFlight++;
+                return true;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                rejected.increment();
+                return false;
+            }
+            finally
+            {
+                waiting--;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** record how a permitted request went and free its slot;  failed means stacks didn't give a meaningful answer */
+    void onComplete(long durationNanos, boolean failed)
+    {
+        lock.lock();
+        try
+        {
+            inFlight--;
+            if (completionsSinceBackoff < maxLimit)
+                completionsSinceBackoff++;
+            // a failure says nothing about stacks' latency, so it's left out of the averages
+            if (!failed)
+                updateLatencies(durationNanos);
+            if (failed || recentNanos > baselineNanos * LATENCY_TOLERANCE)
+            {
+                if (completionsSinceBackoff >= limit)
+                {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    completionsSinceBackoff = 0;
+                }
+            }
+            else if ((inFlight + 1) * 2 >= limit) // only grow if we were actually using the limit
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            signalFreeSlots();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** free a permitted request's slot without recording anything, e.g. if the request was never sent */
+    void release()
+    {
+        lock.lock();
+        try
+        {
+            inFlight--;
+            signalFreeSlots();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** exponentially weighted moving averages;  plain averages until there are enough samples for the window,
+     * so the first few round trips don't skew them.  guarded by lock */
+    private void updateLatencies(long durationNanos)
+    {
+        samples++;
+        recentNanos += (durationNanos - recentNanos) * Math.max(1.0 / samples, 2.0 / (SHORT_WINDOW + 1));
+        baselineNanos += (durationNanos - baselineNanos) * Math.max(1.0 / samples, 2.0 / (LONG_WINDOW + 1));
+    }
+
+    /** guarded by lock */
+    private void signalFreeSlots()
+    {
+        for (int free = (int) limit - inFlight; free > 0 && waiting > 0; free--)
+            slotFreed.signal();
+    }
+
+    int getLimit()
+    {
+        return (int) limit;
+    }
+
+    int inFlightCount()
+    {
+        return inFlight;
+    }
+
+    /** number of requests waiting for a slot */
+    int queueDepth()
+    {
+        return waiting;
+    }
+
+    /** number of requests turned away, because the queue was full or they waited too long */
+    long rejectedCount()
+    {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConcurrencyLimiter[limit=" + getLimit() + ", minLimit=" + minLimit + ", maxLimit=" + maxLimit +
+                ", queueSize=" + queueSize + ", queueTimeoutMillis=" + TimeUnit.NANOSECONDS.toMillis(queueTimeoutNanos) + "]";
+    }
+}
@@ -0,0 +1,221 @@
+package edu.stanford.dlss.wowza;
+
+/**
+ * An IPv4 or IPv6 address held as a fixed 128 bits in two longs, so that it can be compared, hashed and used as a
+ * key without keeping the string it was parsed from.  IPv4 addresses are held in their IPv4-mapped IPv6 form
+ * (::ffff:a.b.c.d), so "1.2.3.4" and "::ffff:1.2.3.4" are the same address.
+ *
+ * parse() accepts a full dotted quad (see IpAddresses.parseIpv4) or an RFC 4291 IPv6 address:  eight groups of one
+ * to four hex digits, at most one "::" standing in for one or more zero groups, and optionally a dotted quad in
+ * place of the last two groups.  Zone ids ("fe80::1%eth0") and brackets aren't accepted.  toString() gives the
+ * canonical form:  a dotted quad for IPv4, otherwise RFC 5952 (lowercase, no leading zeros, longest run of zero
+ * groups compressed).
+ */
+final class IpAddress
+{
+    private static final int GROUPS = 8;
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFF_0000_0000L;
+
+    private final long high;
+    private final long low;
+
+    private IpAddress(long high, long low)
+    {
+        this.high = high;
+        this.low = low;
+    }
+
+    static IpAddress ofIpv4(int packed)
+    {
+        return new IpAddress(0, IPV4_MAPPED_PREFIX | (packed & 0xFFFF_FFFFL));
+    }
+
+    static IpAddress parse(String address)
+    {
+        return address == null ? null : parse(address, 0, address.length());
+    }
+
+    /** the address in address[start, end), or null if it isn't a valid IPv4 or IPv6 address */
+    static IpAddress parse(CharSequence address, int start, int end)
+    {
+        long ipv4 = IpAddresses.parseIpv4(address, start, end);
+        if (ipv4 != IpAddresses.INVALID)
+            return ofIpv4((int) ipv4);
+        return parseIpv6(address, start, end);
+    }
+
+    /** the address in address[start, end), or null if it isn't a valid IPv6 address;  for callers that have
+     * already tried it as a dotted quad */
+    static IpAddress parseIpv6(CharSequence address, int start, int end)
+    {
+        // groups are shifted into high:low as they're read;  on reaching "::", the groups so far become the head
+        long high = 0;
+        long low = 0;
+        int groups = 0;
+        long headHigh = 0;
+        long headLow = 0;
+        int headGroups = -1; // no "::" yet
+
+        int i = start;
+        if (end - start >= 2 && address.charAt(i) == ':' && address.charAt(i + 1) == ':')
+        {
+            headGroups = 0;
+            i += 2;
+        }
+        while (i < end)
+        {
+            int groupStart = i;
+            int group = 0;
+            int digit;
+            while (i < end && (digit = hexDigit(address.charAt(i))) >= 0)
+            {
+                group = (group << 4) | digit;
+                i++;
+            }
+            if (i < end && address.charAt(i) == '.')
+            {
+                // a dotted quad can only take the place of the last two groups
+                long ipv4 = IpAddresses.parseIpv4(address, groupStart, end);
+                if (ipv4 == IpAddresses.INVALID)
+                    return null;
+                high = (high << 32) | (low >>> 32);
+                low = (low << 32) | ipv4;
+                groups += 2;
+                break;
+            }
+            if (i == groupStart || i - groupStart > 4)
+                return null;
+            high = (high << 16) | (low >>> 48);
+            low = (low << 16) | group;
+            groups++;
+            if (i == end)
+                break;
+            if (address.charAt(i) != ':' || ++i == end)
+                return null; // not a separator, or a trailing single ':'
+            if (address.charAt(i) == ':')
+            {
+                if (headGroups >= 0)
+                    return null; // a second "::"
+                headHigh = high;
+                headLow = low;
+                headGroups = groups;
+                high = 0;
+                low = 0;
+                groups = 0;
+                i++;
+            }
+        }
+
+        if (headGroups < 0)
+            return groups == GROUPS ? new IpAddress(high, low) : null;
+        if (headGroups + groups >= GROUPS)
+            return null; // "::" has to stand for at least one group
+        // move the head groups up to the top of the address, leaving zeros for the "::"
+        int shift = (GROUPS - headGroups) * 16;
+        if (shift >= 128)
+            return new IpAddress(high, low);
+        if (shift >= 64)
+            return new IpAddress((headLow << (shift - 64)) | high, low);
+        return new IpAddress((headHigh << shift) | (headLow >>> (64 - shift)) | high, (headLow << shift) | low);
+    }
+
+    /** ASCII hex digits only, unlike Character.digit() */
+    private static int hexDigit(char c)
+    {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        return -1;
+    }
+
+    /** the most significant 64 bits */
+    long high()
+    {
+        return high;
+    }
+
+    /** the least significant 64 bits */
+    long low()
+    {
+        return low;
+    }
+
+    boolean isIpv4()
+    {
+        return high == 0 && (low >>> 32) == 0xFFFF;
+    }
+
+    /** the packed IPv4 address;  only meaningful if isIpv4() */
+    int ipv4()
+    {
+        return (int) low;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof IpAddress))
+            return false;
+        IpAddress address = (IpAddress) other;
+        return high == address.high && low == address.low;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * Long.hashCode(high) + Long.hashCode(low);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (isIpv4())
+            return IpAddresses.formatIpv4(ipv4());
+
+        // RFC 5952: compress the longest run of two or more zero groups, the first one if there's a tie
+        int bestStart = -1;
+        int bestLength = 1;
+        int runStart = -1;
+        for (int i = 0; i <= GROUPS; i++)
+        {
+            if (i < GROUPS && group(i) == 0)
+            {
+                if (runStart < 0)
+                    runStart = i;
+            }
+            else if (runStart >= 0)
+            {
+                if (i - runStart > bestLength)
+                {
+                    bestStart = runStart;
+                    bestLength = i - runStart;
+                }
+                runStart = -1;
+            }
+        }
+
+        StringBuilder canonical = new StringBuilder(39);
+        for (int i = 0; i < GROUPS; i++)
+        {
+            if (i == bestStart)
+            {
+                canonical.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (canonical.length() > 0 && canonical.charAt(canonical.length() - 1) != ':')
+                canonical.append(':');
+            canonical.append(Integer.toHexString(group(i)));
+        }
+        return canonical.toString();
+    }
+
+    private int group(int i)
+    {
+        long half = i < 4 ? high : low;
+        return (int) (half >>> ((3 - (i % 4)) * 16)) & 0xFFFF;
+    }
+}
@@ -0,0 +1,67 @@
+package edu.stanford.dlss.wowza;
+
+/**
+ * Parses client IP addresses in one pass over their characters, without allocating, into a packed primitive form
+ * that can be used as a cache key or compared against an address range.
+ *
+ * An IPv4 address must be a full dotted quad:  four decimal octets of one to three ASCII digits, each at most 255,
+ * with no leading zeros (which some parsers read as octal).  That's what InetAddressValidator plus the
+ * "\d{1,3}\.\d{1,3}\.\d{1,3}\.\d{1,3}" regex used to accept.
+ */
+final class IpAddresses
+{
+    /** returned by the parse methods for anything that isn't a valid address */
+    static final long INVALID = -1;
+
+    private IpAddresses()
+    {
+    }
+
+    static long parseIpv4(String address)
+    {
+        return address == null ? INVALID : parseIpv4(address, 0, address.length());
+    }
+
+    /**
+     * the IPv4 address in address[start, end) as an unsigned value in the low 32 bits (most significant octet
+     * first, so (int) of it is the packed address), or INVALID
+     */
+    static long parseIpv4(CharSequence address, int start, int end)
+    {
+        long packed = 0;
+        int octets = 0;
+        int octet = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++)
+        {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                if (digits == 3 || (digits == 1 && octet == 0))
+                    return INVALID; // too long, or a leading zero
+                octet = octet * 10 + (c - '0');
+                digits++;
+            }
+            else if (c == '.' && digits > 0 && octets < 3)
+            {
+                if (octet > 255)
+                    return INVALID;
+                packed = (packed << 8) | octet;
+                octets++;
+                octet = 0;
+                digits = 0;
+            }
+            else
+                return INVALID;
+        }
+        if (octets != 3 || digits == 0 || octet > 255)
+            return INVALID;
+        return (packed << 8) | octet;
+    }
+
+    /** e.g. "171.64.0.1" for the packed address 0xAB400001 */
+    static String formatIpv4(int packed)
+    {
+        return (packed >>> 24) + "." + ((packed >>> 16) & 0xFF) + "." + ((packed >>> 8) & 0xFF) + "." + (packed & 0xFF);
+    }
+}
@@ -0,0 +1,249 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for the small documents this plugin deals with (decrypted stacks token payloads,
+ * stacks responses), so that we don't have to ship a JSON library in the plugin jar.
+ *
+ * Objects become Maps, arrays become Lists, numbers become Doubles (or Longs, if integral and in range),
+ * and strings, booleans and null map to themselves.  Malformed input throws IllegalArgumentException.
+ */
+final class JsonParser
+{
+    private final String json;
+    private int pos;
+
+    private JsonParser(String json)
+    {
+        this.json = json;
+    }
+
+    static Object parse(String json)
+    {
+        if (json == null)
+            throw new IllegalArgumentException("no JSON to parse");
+        JsonParser parser = new JsonParser(json);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.pos != json.length())
+            throw parser.error("trailing characters");
+        return value;
+    }
+
+    private Object readValue()
+    {
+        skipWhitespace();
+        if (pos >= json.length())
+            throw error("unexpected end of input");
+        char c = json.charAt(pos);
+        switch (c)
+        {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                return readLiteral("true", Boolean.TRUE);
+            case 'f':
+                return readLiteral("false", Boolean.FALSE);
+            case 'n':
+                return readLiteral("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    return readNumber();
+                throw error("unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> readObject()
+    {
+        Map<String, Object> object = new LinkedHashMap<>();
+        pos++; // '{'
+        skipWhitespace();
+        if (peek() == '}')
+        {
+            pos++;
+            return object;
+        }
+        while (true)
+        {
+            skipWhitespace();
+            if (peek() != '"')
+                throw error("expected object key");
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(key, readValue());
+            skipWhitespace();
+            char c = next();
+            if (c == '}')
+                return object;
+            if (c != ',')
+                throw error("expected ',' or '}'");
+        }
+    }
+
+    private List<Object> readArray()
+    {
+        List<Object> array = new ArrayList<>();
+        pos++; // '['
+        skipWhitespace();
+        if (peek() == ']')
+        {
+            pos++;
+            return array;
+        }
+        while (true)
+        {
+            array.add(readValue());
+            skipWhitespace();
+            char c = next();
+            if (c == ']')
+                return array;
+            if (c != ',')
+                throw error("expected ',' or ']'");
+        }
+    }
+
+    private String readString()
+    {
+        pos++; // opening quote
+        StringBuilder sb = null;
+        int start = pos;
+        while (true)
+        {
+            if (pos >= json.length())
+                throw error("unterminated string");
+            char c = json.charAt(pos);
+            if (c == '"')
+            {
+                String tail = json.substring(start, pos++);
+                return sb == null ? tail : sb.append(tail).toString();
+            }
+            if (c == '\\')
+            {
+                if (sb == null)
+                    sb = new StringBuilder();
+                sb.append(json, start, pos);
+                pos++;
+                sb.append(readEscape());
+                start = pos;
+            }
+            else
+                pos++;
+        }
+    }
+
+    private char readEscape()
+    {
+        char c = next();
+        switch (c)
+        {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (pos + 4 > json.length())
+                    throw error("truncated unicode escape");
+                try
+                {
+                    char unicode = (char) Integer.parseInt(json.substring(pos, pos + 4), 16);
+                    pos += 4;
+                    return unicode;
+                }
+                catch (NumberFormatException e)
+                {
+                    throw error("bad unicode escape");
+                }
+            default:
+                throw error("bad escape '\\" + c + "'");
+        }
+    }
+
+    private Object readNumber()
+    {
+        int start = pos;
+        boolean integral = true;
+        while (pos < json.length())
+        {
+            char c = json.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E')
+                integral = false;
+            else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9')))
+                break;
+            pos++;
+        }
+        String number = json.substring(start, pos);
+        try
+        {
+            if (integral && number.length() < 19)
+                return Long.valueOf(number);
+            return Double.valueOf(number);
+        }
+        catch (NumberFormatException e)
+        {
+            throw error("bad number '" + number + "'");
+        }
+    }
+
+    private Object readLiteral(String literal, Object value)
+    {
+        if (!json.startsWith(literal, pos))
+            throw error("unexpected literal");
+        pos += literal.length();
+        return value;
+    }
+
+    private void skipWhitespace()
+    {
+        while (pos < json.length())
+        {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                return;
+            pos++;
+        }
+    }
+
+    private char peek()
+    {
+        if (pos >= json.length())
+            throw error("unexpected end of input");
+        return json.charAt(pos);
+    }
+
+    private char next()
+    {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char expected)
+    {
+        if (next() != expected)
+            throw error("expected '" + expected + "'");
+    }
+
+    private IllegalArgumentException error(String problem)
+    {
+        return new IllegalArgumentException("invalid JSON at position " + pos + ": " + problem);
+    }
+}
@@ -0,0 +1,118 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram:  values (in microseconds) below
+ * 16 each get their own bucket, and each power of two above that is split into 8 buckets, so a recorded value is
+ * at most 12.5% under the upper bound of its bucket.  Values beyond about 19 hours share the last bucket.
+ *
+ * Percentiles are reported as the upper bound of the bucket they fall in, i.e. they err on the high side.
+ */
+class LatencyHistogram
+{
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    static final long MAX_TRACKABLE_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+    static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    void recordNanos(long nanos)
+    {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void recordMicros(long micros)
+    {
+        counts.incrementAndGet(bucketIndex(Math.min(Math.max(micros, 0), MAX_TRACKABLE_MICROS)));
+    }
+
+    static int bucketIndex(long micros)
+    {
+        if (micros < LINEAR_BUCKETS)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    /** the largest value, in microseconds, that falls in the given bucket */
+    static long bucketUpperBound(int index)
+    {
+        if (index < LINEAR_BUCKETS)
+            return index;
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    long count()
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    /** the value, in microseconds, that the given fraction (e.g. 0.99) of recorded values are at or below;
+     * 0 if nothing has been recorded */
+    long percentileMicros(double fraction)
+    {
+        return percentileMicros(fraction, this);
+    }
+
+    /** as percentileMicros(fraction), over the combined values of the given histograms */
+    static long percentileMicros(double fraction, LatencyHistogram... histograms)
+    {
+        long[] combined = new long[BUCKET_COUNT];
+        for (LatencyHistogram histogram : histograms)
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                combined[i] += histogram.counts.get(i);
+        return percentileMicros(fraction, combined);
+    }
+
+    /** as percentileMicros(fraction), over bucket counts taken with snapshot() */
+    static long percentileMicros(double fraction, long[] combined)
+    {
+        long total = 0;
+        for (long count : combined)
+            total += count;
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += combined[i];
+            if (seen >= rank)
+                return bucketUpperBound(i);
+        }
+        return MAX_TRACKABLE_MICROS;
+    }
+
+    /** a copy of the count in each bucket, so several percentiles can be read from the same values */
+    long[] snapshot()
+    {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            snapshot[i] = counts.get(i);
+        return snapshot;
+    }
+
+    /** the count in each bucket;  for exporting */
+    long bucketCount(int index)
+    {
+        return counts.get(index);
+    }
+
+    void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            counts.set(i, 0);
+    }
+}
@@ -0,0 +1,225 @@
+package edu.stanford.dlss.wowza;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies stacks tokens in-process, without a round trip to stacks.
+ *
+ * Stacks mints a token by JSON-serializing {id, file_name, user_ip, timestamp} and encrypting it with a Rails
+ * ActiveSupport::MessageEncryptor (aes-256-gcm), keyed by PBKDF2 of the app's secret_key_base with the salt
+ * "media_token".  The resulting token is base64(ciphertext)--base64(iv)--base64(auth tag).  Given the same secret,
+ * we can decrypt and authenticate the token, then check that it was minted for this druid, file and user IP.
+ *
+ * This only ever answers definitively when it's sure:
+ *   - APPROVED:  authentic, fields match, and minted no more than maxTokenAge ago
+ *   - REJECTED:  authentic, but minted for a different druid, file or IP (or past its Rails expiry)
+ *   - UNDECIDED: anything else (unfamiliar format or serializer, a token that doesn't authenticate with our key,
+ *     or one older than maxTokenAge), in which case the caller should ask stacks.
+ */
+class LocalTokenVerifier
+{
+    enum Decision { APPROVED, REJECTED, UNDECIDED }
+
+    static final String KEY_SALT = "media_token";
+    static final int KEY_LENGTH_BYTES = 32;
+    static final int GCM_IV_LENGTH_BYTES = 12;
+    static final int GCM_TAG_LENGTH_BYTES = 16;
+    private static final String TOKEN_PART_SEPARATOR = "--";
+
+    private final SecretKeySpec key;
+    private final Duration maxTokenAge;
+    private final Clock clock;
+    private final LongAdder approved = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder undecided = new LongAdder();
+
+    LocalTokenVerifier(byte[] key, Duration maxTokenAge, Clock clock)
+    {
+        this.key = new SecretKeySpec(key, "AES");
+        this.maxTokenAge = maxTokenAge;
+        this.clock = clock;
+    }
+
+    /** the key ActiveSupport::KeyGenerator.new(secretKeyBase, iterations: iterations).generate_key("media_token", 32)
+     * would produce;  digest is the KeyGenerator's hash_digest_class, e.g. "SHA1" (the Rails default) or "SHA256" */
+    static byte[] deriveKey(String secretKeyBase, String digest, int iterations)
+            throws GeneralSecurityException
+    {
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmac" + digest);
+        PBEKeySpec spec = new PBEKeySpec(secretKeyBase.toCharArray(), KEY_SALT.getBytes(StandardCharsets.UTF_8),
+                                         iterations, KEY_LENGTH_BYTES * 8);
+        try
+        {
+            return factory.generateSecret(spec).getEncoded();
+        }
+        finally
+        {
+            spec.clearPassword();
+        }
+    }
+
+    Decision verify(String stacksToken, String druid, String filename, String userIp)
+    {
+        Decision decision = decide(stacksToken, druid, filename, userIp);
+        switch (decision)
+        {
+            case APPROVED:
+                approved.increment();
+                break;
+            case REJECTED:
+                rejected.increment();
+                break;
+            default:
+                undecided.increment();
+        }
+        return decision;
+    }
+
+    private Decision decide(String stacksToken, String druid, String filename, String userIp)
+    {
+        String payload = decrypt(stacksToken);
+        if (payload == null)
+            return Decision.UNDECIDED;
+
+        Map<?, ?> claims;
+        try
+        {
+            Object parsed = JsonParser.parse(payload);
+            if (!(parsed instanceof Map))
+                return Decision.UNDECIDED;
+            claims = (Map<?, ?>) parsed;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return Decision.UNDECIDED; // e.g. Marshal serialized
+        }
+
+        // Rails 7.1+ wraps the value in a metadata envelope if it was given an expiry or purpose
+        Object envelope = claims.get("_rails");
+        if (envelope instanceof Map)
+        {
+            Map<?, ?> metadata = (Map<?, ?>) envelope;
+            Instant expiry = parseInstant(metadata.get("exp"));
+            if (expiry != null && clock.instant().isAfter(expiry))
+                return Decision.REJECTED;
+            if (!(metadata.get("data") instanceof Map))
+                return Decision.UNDECIDED;
+            claims = (Map<?, ?>) metadata.get("data");
+        }
+
+        Object tokenDruid = claims.get("id");
+        Object tokenFilename = claims.get("file_name");
+        Object tokenUserIp = claims.get("user_ip");
+        if (!(tokenDruid instanceof String) || !(tokenFilename instanceof String) || !(tokenUserIp instanceof String))
+            return Decision.UNDECIDED;
+        if (!withoutDruidPrefix((String) tokenDruid).equals(withoutDruidPrefix(druid)) ||
+                !tokenFilename.equals(filename) || !sameAddress((String) tokenUserIp, userIp))
+            return Decision.REJECTED;
+
+        Instant mintedAt = parseInstant(claims.get("timestamp"));
+        if (mintedAt == null)
+            return Decision.UNDECIDED;
+        if (Duration.between(mintedAt, clock.instant()).compareTo(maxTokenAge) > 0)
+            return Decision.UNDECIDED; // stacks may have a more generous policy;  let it decide
+        return Decision.APPROVED;
+    }
+
+    /** the authenticated plaintext of an aes-256-gcm MessageEncryptor token, or null if it isn't one of ours */
+    String decrypt(String stacksToken)
+    {
+        int firstSeparator = stacksToken.indexOf(TOKEN_PART_SEPARATOR);
+        int secondSeparator = firstSeparator < 0 ? -1 : stacksToken.indexOf(TOKEN_PART_SEPARATOR, firstSeparator + 2);
+        if (secondSeparator < 0 || stacksToken.indexOf(TOKEN_PART_SEPARATOR, secondSeparator + 2) >= 0)
+            return null;
+
+        try
+        {
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] ciphertext = decoder.decode(stacksToken.substring(0, firstSeparator));
+            byte[] iv = decoder.decode(stacksToken.substring(firstSeparator + 2, secondSeparator));
+            byte[] authTag = decoder.decode(stacksToken.substring(secondSeparator + 2));
+            if (iv.length != GCM_IV_LENGTH_BYTES || authTag.length != GCM_TAG_LENGTH_BYTES)
+                return null;
+
+            // the JCE expects the tag appended to the ciphertext
+            byte[] sealed = new byte[ciphertext.length + authTag.length];
+            System.arraycopy(ciphertext, 0, sealed, 0, ciphertext.length);
+            System.arraycopy(authTag, 0, sealed, ciphertext.length, authTag.length);
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH_BYTES * 8, iv));
+            return new String(cipher.doFinal(sealed), StandardCharsets.UTF_8);
+        }
+        catch (IllegalArgumentException | GeneralSecurityException e)
+        {
+            // not base64, or (AEADBadTagException) tampered or encrypted with a different secret, e.g. mid key rotation
+            return null;
+        }
+    }
+
+    private static String withoutDruidPrefix(String druid)
+    {
+        return druid.startsWith("druid:") ? druid.substring("druid:".length()) : druid;
+    }
+
+    /** stacks may have written an IPv6 address differently, e.g. uncompressed or in uppercase */
+    private static boolean sameAddress(String tokenUserIp, String userIp)
+    {
+        if (tokenUserIp.equals(userIp))
+            return true;
+        IpAddress tokenAddress = IpAddress.parse(tokenUserIp);
+        return tokenAddress != null && tokenAddress.equals(IpAddress.parse(userIp));
+    }
+
+    /** ActiveSupport serializes times as ISO 8601 strings;  tolerate epoch seconds too */
+    private static Instant parseInstant(Object value)
+    {
+        if (value instanceof Number)
+            return Instant.ofEpochSecond(((Number) value).longValue());
+        if (!(value instanceof String))
+            return null;
+        try
+        {
+            return OffsetDateTime.parse((String) value).toInstant();
+        }
+        catch (DateTimeParseException e)
+        {
+            return null;
+        }
+    }
+
+    Duration getMaxTokenAge()
+    {
+        return maxTokenAge;
+    }
+
+    long approvedCount()
+    {
+        return approved.sum();
+    }
+
+    long rejectedCount()
+    {
+        return rejected.sum();
+    }
+
+    long undecidedCount()
+    {
+        return undecided.sum();
+    }
+}
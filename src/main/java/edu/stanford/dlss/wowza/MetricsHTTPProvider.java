@@ -0,0 +1,369 @@
+package edu.stanford.dlss.wowza;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import com.wowza.wms.http.HTTProvider2Base;
+import com.wowza.wms.http.IHTTPRequest;
+import com.wowza.wms.http.IHTTPResponse;
+import com.wowza.wms.module.ModuleBase;
+import com.wowza.wms.vhost.IVHost;
+
+/**
+ * Serves the metrics of every running SulWowza module in Prometheus text exposition format:  authorization counts
+ * and latency percentiles, cache, pool and concurrency statistics, the circuit breaker, and the health of each stacks
+ * endpoint, labelled with the application and application instance of the module.
+ *
+ * A scrape only reads LongAdders, cache statistics, histogram buckets and volatile fields, so it never takes a lock
+ * the authorization path takes (which is why there are no queue sizes from the thread pools themselves:  reading
+ * those would).  Counts are read one after another, not as of one instant, so related counts may be off by the
+ * decisions made during the scrape.
+ */
+public class MetricsHTTPProvider extends HTTProvider2Base
+{
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    @Override
+    public void onHTTPRequest(IVHost vhost, IHTTPRequest req, IHTTPResponse resp)
+    {
+        if (!doHTTPAuthentication(vhost, req, resp))
+            return;
+
+        byte[] body = format(SulWowza.running).getBytes(StandardCharsets.UTF_8);
+        resp.setHeader("Content-Type", CONTENT_TYPE);
+        resp.setResponseCode(200);
+        try
+        {
+            OutputStream out = resp.getOutputStream();
+            out.write(body);
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            ModuleBase.getLogger().warn(this.getClass().getSimpleName() + " unable to send metrics: " + e);
+        }
+    }
+
+    /** the metrics of the given modules, in Prometheus text exposition format */
+    static String format(Iterable<SulWowza> running)
+    {
+        List<SulWowza> modules = new ArrayList<>();
+        for (SulWowza module : running)
+            modules.add(module);
+        modules.sort(Comparator.comparing((SulWowza module) -> module.applicationName).thenComparing(module -> module.instanceName));
+
+        StringBuilder out = new StringBuilder(8192 * Math.max(1, modules.size()));
+        writeAuthorizations(out, modules);
+        writeLatency(out, modules, "sul_wowza_authorization_duration_seconds",
+                     "Time from a session or play request arriving to its authorization decision.",
+                     AuthorizationMetrics::authorizationLatency, AuthorizationMetrics::authorizationMicros);
+        writeLatency(out, modules, "sul_wowza_stacks_request_duration_seconds",
+                     "Time from sending a verify_token request to stacks to its answer or failure.",
+                     AuthorizationMetrics::stacksLatency, AuthorizationMetrics::stacksMicros);
+        writeCaches(out, modules);
+        writePools(out, modules);
+        writeCircuitBreaker(out, modules);
+        writeStacksEndpoints(out, modules);
+        writeReporting(out, modules);
+        return out.toString();
+    }
+
+    private static void writeAuthorizations(StringBuilder out, List<SulWowza> modules)
+    {
+        header(out, "sul_wowza_authorizations_total", "counter", "Authorization decisions, by protocol and outcome.");
+        for (SulWowza module : modules)
+            for (AuthorizationMetrics.Protocol protocol : AuthorizationMetrics.Protocol.values())
+            {
+                String labels = labels(module) + ",protocol=\"" + protocol.label + "\"";
+                sample(out, "sul_wowza_authorizations_total", labels + ",outcome=\"accepted\"", module.metrics.accepted(protocol));
+                sample(out, "sul_wowza_authorizations_total", labels + ",outcome=\"rejected\"", module.metrics.rejected(protocol));
+            }
+
+        header(out, "sul_wowza_authorization_reasons_total", "counter",
+               "Authorization decisions, by outcome and the reason for it; only reasons that have occurred are listed.");
+        for (SulWowza module : modules)
+            for (AuditLog.Reason reason : AuditLog.Reason.values())
+            {
+                String labels = labels(module) + ",reason=\"" + reason.jsonName + "\"";
+                long accepted = module.metrics.accepted(reason);
+                long rejected = module.metrics.rejected(reason);
+                if (accepted > 0)
+                    sample(out, "sul_wowza_authorization_reasons_total", labels + ",outcome=\"accepted\"", accepted);
+                if (rejected > 0)
+                    sample(out, "sul_wowza_authorization_reasons_total", labels + ",outcome=\"rejected\"", rejected);
+            }
+    }
+
+    /** a summary, with quantiles read from one snapshot of the histogram */
+    private static void writeLatency(StringBuilder out, List<SulWowza> modules, String name, String help,
+                                     Function<AuthorizationMetrics, LatencyHistogram> histogram,
+                                     ToLongFunction<AuthorizationMetrics> sumMicros)
+    {
+        header(out, name, "summary", help);
+        for (SulWowza module : modules)
+        {
+            String labels = labels(module);
+            long[] buckets = histogram.apply(module.metrics).snapshot();
+            long count = 0;
+            for (long bucket : buckets)
+                count += bucket;
+            for (double quantile : QUANTILES)
+            {
+                double seconds = count == 0 ? Double.NaN : seconds(LatencyHistogram.percentileMicros(quantile, buckets));
+                sample(out, name, labels + ",quantile=\"" + quantile + "\"", seconds);
+            }
+            sample(out, name + "_sum", labels, seconds(sumMicros.applyAsLong(module.metrics)));
+            sample(out, name + "_count", labels, count);
+        }
+    }
+
+    private static void writeCaches(StringBuilder out, List<SulWowza> modules)
+    {
+        header(out, "sul_wowza_cache_entries", "gauge", "Entries in the verify_token decision caches.");
+        for (SulWowza module : modules)
+        {
+            sample(out, "sul_wowza_cache_entries", cacheLabels(module, "approval"), module.verificationCache.size());
+            sample(out, "sul_wowza_cache_entries", cacheLabels(module, "rejection"), module.rejectionCache.size());
+        }
+        header(out, "sul_wowza_cache_hits_total", "counter", "Verify_token decisions answered from a cache.");
+        for (SulWowza module : modules)
+        {
+            sample(out, "sul_wowza_cache_hits_total", cacheLabels(module, "approval"), module.verificationCache.hitCount());
+            sample(out, "sul_wowza_cache_hits_total", cacheLabels(module, "rejection"), module.rejectionCache.hitCount());
+        }
+        header(out, "sul_wowza_cache_misses_total", "counter", "Verify_token decisions looked for in a cache and not found.");
+        for (SulWowza module : modules)
+        {
+            sample(out, "sul_wowza_cache_misses_total", cacheLabels(module, "approval"), module.verificationCache.missCount());
+            sample(out, "sul_wowza_cache_misses_total", cacheLabels(module, "rejection"), module.rejectionCache.missCount());
+        }
+        header(out, "sul_wowza_cache_evictions_total", "counter", "Verify_token decisions evicted from a cache, for size or age.");
+        for (SulWowza module : modules)
+        {
+            sample(out, "sul_wowza_cache_evictions_total", cacheLabels(module, "approval"), module.verificationCache.evictionCount());
+            sample(out, "sul_wowza_cache_evictions_total", cacheLabels(module, "rejection"), module.rejectionCache.evictionCount());
+        }
+    }
+
+    private static void writePools(StringBuilder out, List<SulWowza> modules)
+    {
+        header(out, "sul_wowza_authorization_pool_threads", "gauge", "Threads the authorization pool may run; absent if stacksAsyncAuthorization is off.");
+        for (SulWowza module : modules)
+        {
+            ThreadPoolExecutor executor = module.authorizationExecutor;
+            if (executor != null)
+                sample(out, "sul_wowza_authorization_pool_threads", labels(module), executor.getMaximumPoolSize());
+        }
+        header(out, "sul_wowza_authorization_pool_running", "gauge", "Authorizations being run by the authorization pool.");
+        for (SulWowza module : modules)
+            sample(out, "sul_wowza_authorization_pool_running", labels(module), module.metrics.poolRunningCount());
+        header(out, "sul_wowza_authorization_pool_waiting", "gauge", "Authorizations queued for the authorization pool.");
+        for (SulWowza module : modules)
+            sample(out, "sul_wowza_authorization_pool_waiting", labels(module), module.metrics.poolWaitingCount());
+
+        header(out, "sul_wowza_verifications_total", "counter", "Verify_token checks run, and those that shared one already in flight instead.");
+        for (SulWowza module : modules)
+        {
+            SingleFlight singleFlight = module.singleFlight;
+            sample(out, "sul_wowza_verifications_total", labels(module) + ",result=\"executed\"", singleFlight.executionCount());
+            sample(out, "sul_wowza_verifications_total", labels(module) + ",result=\"coalesced\"", singleFlight.collapsedCount());
+        }
+        header(out, "sul_wowza_verifications_in_flight", "gauge", "Distinct verify_token checks in flight.");
+        for (SulWowza module : modules)
+            sample(out, "sul_wowza_verifications_in_flight", labels(module), module.singleFlight.inFlightCount());
+
+        header(out, "sul_wowza_verification_batches_total", "counter", "Batched verify_token requests sent to stacks.");
+        for (SulWowza module : modules)
+        {
+            VerificationBatcher batcher = module.verificationBatcher;
+            if (batcher != null)
+                sample(out, "sul_wowza_verification_batches_total", labels(module), batcher.batchCount());
+        }
+        header(out, "sul_wowza_verification_batch_items_total", "counter", "Verify_token checks sent in batches.");
+        for (SulWowza module : modules)
+        {
+            VerificationBatcher batcher = module.verificationBatcher;
+            if (batcher != null)
+                sample(out, "sul_wowza_verification_batch_items_total", labels(module), batcher.itemCount());
+        }
+
+        header(out, "sul_wowza_concurrency_limit", "gauge", "Verify_token requests allowed in flight to stacks at once.");
+        for (SulWowza module : modules)
+        {
+            ConcurrencyLimiter limiter = module.concurrencyLimiter;
+            if (limiter != null)
+                sample(out, "sul_wowza_concurrency_limit", labels(module), limiter.getLimit());
+        }
+        header(out, "sul_wowza_concurrency_in_flight", "gauge", "Verify_token requests in flight to stacks.");
+        for (SulWowza module : modules)
+        {
+            ConcurrencyLimiter limiter = module.concurrencyLimiter;
+            if (limiter != null)
+                sample(out, "sul_wowza_concurrency_in_flight", labels(module), limiter.inFlightCount());
+        }
+        header(out, "sul_wowza_concurrency_waiting", "gauge", "Verify_token requests waiting for the concurrency limit.");
+        for (SulWowza module : modules)
+        {
+            ConcurrencyLimiter limiter = module.concurrencyLimiter;
+            if (limiter != null)
+                sample(out, "sul_wowza_concurrency_waiting", labels(module), limiter.queueDepth());
+        }
+        header(out, "sul_wowza_concurrency_rejected_total", "counter", "Verify_token requests turned away by the concurrency limit.");
+        for (SulWowza module : modules)
+        {
+            ConcurrencyLimiter limiter = module.concurrencyLimiter;
+            if (limiter != null)
+                sample(out, "sul_wowza_concurrency_rejected_total", labels(module), limiter.rejectedCount());
+        }
+    }
+
+    private static void writeCircuitBreaker(StringBuilder out, List<SulWowza> modules)
+    {
+        header(out, "sul_wowza_circuit_breaker_state", "gauge", "1 for the state the stacks circuit breaker is in, 0 for the others.");
+        for (SulWowza module : modules)
+        {
+            CircuitBreaker breaker = module.circuitBreaker;
+            if (breaker == null)
+                continue;
+            CircuitBreaker.State current = breaker.getState();
+            for (CircuitBreaker.State state : CircuitBreaker.State.values())
+                sample(out, "sul_wowza_circuit_breaker_state", labels(module) + ",state=\"" + state.name().toLowerCase() + "\"",
+                       state == current ? 1 : 0);
+        }
+        header(out, "sul_wowza_circuit_breaker_opened_total", "counter", "Times the stacks circuit breaker has opened.");
+        for (SulWowza module : modules)
+        {
+            CircuitBreaker breaker = module.circuitBreaker;
+            if (breaker != null)
+                sample(out, "sul_wowza_circuit_breaker_opened_total", labels(module), breaker.openedCount());
+        }
+        header(out, "sul_wowza_circuit_breaker_not_permitted_total", "counter", "Verify_token requests refused by the open circuit breaker.");
+        for (SulWowza module : modules)
+        {
+            CircuitBreaker breaker = module.circuitBreaker;
+            if (breaker != null)
+                sample(out, "sul_wowza_circuit_breaker_not_permitted_total", labels(module), breaker.notPermittedCount());
+        }
+    }
+
+    private static void writeStacksEndpoints(StringBuilder out, List<SulWowza> modules)
+    {
+        header(out, "sul_wowza_stacks_endpoint_up", "gauge", "1 if the stacks endpoint is considered healthy, else 0.");
+        for (SulWowza module : modules)
+            for (StacksEndpoints.Endpoint endpoint : endpoints(module))
+                sample(out, "sul_wowza_stacks_endpoint_up", endpointLabels(module, endpoint), endpoint.isHealthy() ? 1 : 0);
+        header(out, "sul_wowza_stacks_endpoint_latency_seconds", "gauge", "Moving average of round trips to the stacks endpoint.");
+        for (SulWowza module : modules)
+            for (StacksEndpoints.Endpoint endpoint : endpoints(module))
+                sample(out, "sul_wowza_stacks_endpoint_latency_seconds", endpointLabels(module, endpoint), endpoint.latencyMillis() / 1000.0);
+        header(out, "sul_wowza_stacks_endpoint_requests_total", "counter", "Verify_token requests sent to the stacks endpoint.");
+        for (SulWowza module : modules)
+            for (StacksEndpoints.Endpoint endpoint : endpoints(module))
+                sample(out, "sul_wowza_stacks_endpoint_requests_total", endpointLabels(module, endpoint), endpoint.requestCount());
+        header(out, "sul_wowza_stacks_endpoint_failures_total", "counter", "Verify_token requests to the stacks endpoint that failed.");
+        for (SulWowza module : modules)
+            for (StacksEndpoints.Endpoint endpoint : endpoints(module))
+                sample(out, "sul_wowza_stacks_endpoint_failures_total", endpointLabels(module, endpoint), endpoint.failureCount());
+        header(out, "sul_wowza_stacks_hedged_requests_total", "counter", "Verify_token requests hedged to a second stacks endpoint.");
+        for (SulWowza module : modules)
+        {
+            StacksEndpoints stacksEndpoints = module.stacksEndpoints;
+            if (stacksEndpoints != null)
+                sample(out, "sul_wowza_stacks_hedged_requests_total", labels(module), stacksEndpoints.hedgeCount());
+        }
+    }
+
+    private static void writeReporting(StringBuilder out, List<SulWowza> modules)
+    {
+        header(out, "sul_wowza_honeybadger_notices_total", "counter", "Honeybadger notices, by what became of them.");
+        for (SulWowza module : modules)
+        {
+            NoticeQueue queue = module.noticeQueue;
+            if (queue == null)
+                continue;
+            sample(out, "sul_wowza_honeybadger_notices_total", labels(module) + ",result=\"delivered\"", queue.deliveredCount());
+            sample(out, "sul_wowza_honeybadger_notices_total", labels(module) + ",result=\"failed\"", queue.failedCount());
+            sample(out, "sul_wowza_honeybadger_notices_total", labels(module) + ",result=\"dropped\"", queue.droppedCount());
+        }
+        header(out, "sul_wowza_audit_log_records_total", "counter", "Authorization decisions for the audit log, by what became of them.");
+        for (SulWowza module : modules)
+        {
+            AuditLog auditLog = module.auditLog;
+            if (auditLog == null)
+                continue;
+            sample(out, "sul_wowza_audit_log_records_total", labels(module) + ",result=\"written\"", auditLog.writtenCount());
+            sample(out, "sul_wowza_audit_log_records_total", labels(module) + ",result=\"dropped\"", auditLog.droppedCount());
+            sample(out, "sul_wowza_audit_log_records_total", labels(module) + ",result=\"failed\"", auditLog.failedCount());
+        }
+        header(out, "sul_wowza_log_lines_suppressed_total", "counter", "Per-session log lines dropped by logSampling, by category.");
+        for (SulWowza module : modules)
+            for (SessionLog.Category category : SessionLog.Category.values())
+                sample(out, "sul_wowza_log_lines_suppressed_total", labels(module) + ",category=\"" + category.propertyName + "\"",
+                       module.sessionLog.suppressedCount(category));
+    }
+
+    private static List<StacksEndpoints.Endpoint> endpoints(SulWowza module)
+    {
+        StacksEndpoints stacksEndpoints = module.stacksEndpoints;
+        return stacksEndpoints == null ? List.of() : stacksEndpoints.getEndpoints();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value)
+    {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value)
+    {
+        out.append(name).append('{').append(labels).append("} ");
+        if (Double.isNaN(value))
+            out.append("NaN");
+        else
+            out.append(value);
+        out.append('\n');
+    }
+
+    private static double seconds(long micros)
+    {
+        return micros / (double) TimeUnit.SECONDS.toMicros(1);
+    }
+
+    /** application="...",instance="..." for the module */
+    static String labels(SulWowza module)
+    {
+        return "application=\"" + escape(module.applicationName) + "\",instance=\"" + escape(module.instanceName) + "\"";
+    }
+
+    private static String cacheLabels(SulWowza module, String cache)
+    {
+        return labels(module) + ",cache=\"" + cache + "\"";
+    }
+
+    private static String endpointLabels(SulWowza module, StacksEndpoints.Endpoint endpoint)
+    {
+        return labels(module) + ",endpoint=\"" + escape(endpoint.baseUrl) + "\"";
+    }
+
+    /** a label value with backslashes, double quotes and newlines escaped, as the exposition format requires */
+    static String escape(String value)
+    {
+        if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+            return value;
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,21 @@
+package edu.stanford.dlss.wowza;
+
+/**
+ * What's sent to Honeybadger for reportNotice():  the message, and the exception that caused it, if any.  The stack
+ * trace of where the notice was reported is only captured if there's no cause, since a cause carries its own, and
+ * capturing one is most of the cost of building a notice.
+ */
+class Notice extends Throwable
+{
+    private static final long serialVersionUID = 1L;
+
+    Notice(String message, Throwable cause)
+    {
+        this(message, cause, cause == null);
+    }
+
+    Notice(String message, Throwable cause, boolean captureStackTrace)
+    {
+        super(message, cause, false, captureStackTrace);
+    }
+}
@@ -0,0 +1,267 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Cuts down the Honeybadger notices sent when many viewers hit the same problem at once, e.g. during a stacks outage.
+ *
+ * Notices are grouped by fingerprint:  the message with its variable-looking words (anything with a digit or URL
+ * punctuation in it, such as an IP address, URL or stream name) masked, plus the class of its cause.  The first
+ * notice with a fingerprint is sent right away;  the rest in the following window are only counted, keeping a few
+ * of their messages as samples, and sent as one summary notice when the window ends.
+ *
+ * Notices whose message contains one of the keys in samplingRates are first sampled at that rate (0 to 1):  the
+ * ones not picked are just counted.
+ */
+class NoticeAggregator
+{
+    /** beyond this many fingerprints in a window, notices aren't aggregated, so memory stays bounded */
+    static final int MAX_FINGERPRINTS = 1000;
+
+    private static class Window
+    {
+        final long start;
+        final String firstMessage;
+        final double samplingRate;
+        int repeats;
+        final List<String> samples = new ArrayList<>();
+
+        Window(long start, String firstMessage, double samplingRate)
+        {
+            this.start = start;
+            this.firstMessage = firstMessage;
+            this.samplingRate = samplingRate;
+        }
+    }
+
+    private final long windowNanos;
+    private final int maxSamples;
+    private final Map<String, Double> samplingRates;
+    private final Consumer<String> summarySink;
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService closer;
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder summaries = new LongAdder();
+
+    /** summarySink is given the message of each summary notice */
+    NoticeAggregator(long windowMillis, int maxSamples, Map<String, Double> samplingRates, Consumer<String> summarySink)
+    {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxSamples = maxSamples;
+        this.samplingRates = Collections.unmodifiableMap(new LinkedHashMap<>(samplingRates));
+        this.summarySink = summarySink;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("SulWowza-notice-aggregator-%d")
+                                                                                                         .setDaemon(true)
+                                                                                                         .build());
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.scheduleWithFixedDelay(this::closeExpiredWindows, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        closer = executor;
+    }
+
+    /** true if the notice should be sent now;  false if it was merged into a window or sampled out */
+    boolean record(String message, Throwable cause)
+    {
+        double samplingRate = samplingRate(message);
+        if (samplingRate < 1 && ThreadLocalRandom.current().nextDouble() >= samplingRate)
+        {
+            sampledOut.increment();
+            return false;
+        }
+
+        String fingerprint = fingerprint(message, cause);
+        if (windows.size() >= MAX_FINGERPRINTS && !windows.containsKey(fingerprint))
+            return true;
+        long now = System.nanoTime();
+        String[] summary = new String[1];
+        boolean[] opened = new boolean[1];
+        windows.compute(fingerprint, (key, window) -> {
+            if (window != null && now - window.start < windowNanos)
+            {
+                window.repeats++;
+                if (window.samples.size() < maxSamples && !window.samples.contains(message) && !message.equals(window.firstMessage))
+                    window.samples.add(message);
+                return window;
+            }
+            summary[0] = window == null ? null : summarize(window);
+            opened[0] = true;
+            return new Window(now, message, samplingRate);
+        });
+        if (summary[0] != null)
+            sendSummary(summary[0]);
+        if (!opened[0])
+            merged.increment();
+        return opened[0];
+    }
+
+    /** sends summaries for the windows that have ended */
+    void closeExpiredWindows()
+    {
+        long now = System.nanoTime();
+        for (String fingerprint : windows.keySet())
+        {
+            String[] summary = new String[1];
+            windows.computeIfPresent(fingerprint, (key, window) -> {
+                if (now - window.start < windowNanos)
+                    return window;
+                summary[0] = summarize(window);
+                return null;
+            });
+            if (summary[0] != null)
+                sendSummary(summary[0]);
+        }
+    }
+
+    /** sends summaries for all open windows, and stops closing them on a timer */
+    void flush()
+    {
+        closer.shutdown();
+        for (String fingerprint : windows.keySet())
+        {
+            String[] summary = new String[1];
+            windows.computeIfPresent(fingerprint, (key, window) -> {
+                summary[0] = summarize(window);
+                return null;
+            });
+            if (summary[0] != null)
+                sendSummary(summary[0]);
+        }
+    }
+
+    private void sendSummary(String summary)
+    {
+        summaries.increment();
+        summarySink.accept(summary);
+    }
+
+    /** null if nothing was merged into the window */
+    private String summarize(Window window)
+    {
+        if (window.repeats == 0)
+            return null;
+        StringBuilder summary = new StringBuilder(window.firstMessage.trim());
+        summary.append(" (").append(window.repeats).append(" more like this within ").append(windowDescription());
+        if (window.samplingRate < 1)
+            summary.append(", sampled at ").append(window.samplingRate);
+        if (!window.samples.isEmpty())
+            summary.append("; e.g. ").append(String.join(" | ", window.samples));
+        return summary.append(')').toString();
+    }
+
+    private String windowDescription()
+    {
+        if (windowNanos % TimeUnit.SECONDS.toNanos(1) == 0)
+            return TimeUnit.NANOSECONDS.toSeconds(windowNanos) + "s";
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos) + "ms";
+    }
+
+    /** the rate for the first samplingRates key that message contains, or 1 */
+    double samplingRate(String message)
+    {
+        for (Map.Entry<String, Double> entry : samplingRates.entrySet())
+            if (message.contains(entry.getKey()))
+                return entry.getValue();
+        return 1;
+    }
+
+    /** message with its variable-looking words replaced by "*", plus the class of cause, if any */
+    static String fingerprint(String message, Throwable cause)
+    {
+        StringBuilder fingerprint = new StringBuilder(message.length() + 40);
+        int length = message.length();
+        int i = 0;
+        while (i < length)
+        {
+            int wordEnd = i;
+            while (wordEnd < length && !Character.isWhitespace(message.charAt(wordEnd)))
+                wordEnd++;
+            if (isVariable(message, i, wordEnd))
+                fingerprint.append('*');
+            else
+                fingerprint.append(message, i, wordEnd);
+            while (wordEnd < length && Character.isWhitespace(message.charAt(wordEnd)))
+                fingerprint.append(message.charAt(wordEnd++));
+            i = wordEnd;
+        }
+        if (cause != null)
+            fingerprint.append(" | ").append(cause.getClass().getName());
+        return fingerprint.toString();
+    }
+
+    /** a word with a digit, '/', '%', '@', '=' or '?' in it, or a ':' anywhere but its end */
+    private static boolean isVariable(String message, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = message.charAt(i);
+            if (Character.isDigit(c) || c == '/' || c == '%' || c == '@' || c == '=' || c == '?' || (c == ':' && i < end - 1))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * parses sampling rates like "User IP missing or invalid=0.1, unable to verify stacks token=0.5"
+     * @throws IllegalArgumentException if an entry isn't a key, '=' and a rate from 0 to 1
+     */
+    static Map<String, Double> parseSamplingRates(String rates)
+    {
+        Map<String, Double> parsed = new LinkedHashMap<>();
+        for (String entry : rates.split(","))
+        {
+            if (entry.trim().isEmpty())
+                continue;
+            int equals = entry.lastIndexOf('=');
+            String key = equals < 0 ? "" : entry.substring(0, equals).trim();
+            double rate;
+            try
+            {
+                rate = equals < 0 ? -1 : Double.parseDouble(entry.substring(equals + 1).trim());
+            }
+            catch (NumberFormatException e)
+            {
+                rate = -1;
+            }
+            if (key.isEmpty() || !(rate >= 0 && rate <= 1))
+                throw new IllegalArgumentException("invalid sampling rate: " + entry.trim());
+            parsed.put(key, rate);
+        }
+        return parsed;
+    }
+
+    long mergedCount()
+    {
+        return merged.sum();
+    }
+
+    long sampledOutCount()
+    {
+        return sampledOut.sum();
+    }
+
+    long summaryCount()
+    {
+        return summaries.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NoticeAggregator[window=" + windowDescription() + ", maxSamples=" + maxSamples +
+                ", samplingRates=" + samplingRates + ", merged=" + mergedCount() + ", sampledOut=" + sampledOutCount() +
+                ", summaries=" + summaryCount() + "]";
+    }
+}
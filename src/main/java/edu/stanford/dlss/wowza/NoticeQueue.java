@@ -0,0 +1,109 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Delivers error notices (to Honeybadger) on a background thread, so that the thread reporting one, usually a Wowza
+ * thread authorizing a viewer, never waits on the HTTP call.  At most capacity notices wait for delivery:  offer()
+ * never blocks, and drops (and counts) a notice if the queue is full, e.g. during a flood of identical errors.
+ *
+ * flush() stops taking notices, and waits a while for those already queued to be delivered.
+ */
+class NoticeQueue
+{
+    private final int capacity;
+    private final Consumer<Throwable> delivery;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    NoticeQueue(int capacity, Consumer<Throwable> delivery)
+    {
+        this.capacity = capacity;
+        this.delivery = delivery;
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(capacity),
+                                          new ThreadFactoryBuilder().setNameFormat("SulWowza-notices-%d")
+                                                                    .setDaemon(true)
+                                                                    .build());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** queues notice for delivery;  false if it was dropped because the queue is full or has been flushed */
+    boolean offer(Throwable notice)
+    {
+        try
+        {
+            executor.execute(() -> deliver(notice));
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            dropped.increment();
+            return false;
+        }
+    }
+
+    private void deliver(Throwable notice)
+    {
+        try
+        {
+            delivery.accept(notice);
+            delivered.increment();
+        }
+        catch (RuntimeException e)
+        {
+            failed.increment(); // nowhere to report it
+        }
+    }
+
+    /** stops taking notices, and waits up to timeoutMillis for the queued ones to be delivered;  true if they were */
+    boolean flush(long timeoutMillis)
+    {
+        executor.shutdown();
+        try
+        {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    long deliveredCount()
+    {
+        return delivered.sum();
+    }
+
+    long failedCount()
+    {
+        return failed.sum();
+    }
+
+    long droppedCount()
+    {
+        return dropped.sum();
+    }
+
+    /** notices waiting to be delivered */
+    int pendingCount()
+    {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NoticeQueue[capacity=" + capacity + ", pending=" + pendingCount() + ", delivered=" + deliveredCount() +
+                ", failed=" + failedCount() + ", dropped=" + droppedCount() + "]";
+    }
+}
@@ -0,0 +1,116 @@
+package edu.stanford.dlss.wowza;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds a parameter in a raw query string by scanning it in place, instead of splitting it into a list of decoded
+ * name/value pairs:  only the matched value is decoded (and only if it has to be), so the common case allocates
+ * nothing but the returned String.
+ *
+ * Follows the form decoding URLEncodedUtils.parse() did:  parameters are separated by '&' or ';', surrounding
+ * whitespace is ignored, '+' means a space, %XX sequences are decoded as UTF-8, and a '%' that doesn't start a
+ * valid %XX sequence is kept as is.  A parameter with no '=' has a null value.
+ */
+final class QueryStrings
+{
+    private QueryStrings()
+    {
+    }
+
+    /** the decoded value of the first parameter called name in query[start, end);  null if there's none, or it has no '=' */
+    static String findParam(String query, int start, int end, String name)
+    {
+        int paramStart = start;
+        while (paramStart < end)
+        {
+            int paramEnd = paramStart;
+            int equals = -1;
+            while (paramEnd < end)
+            {
+                char c = query.charAt(paramEnd);
+                if (c == '&' || c == ';')
+                    break;
+                if (c == '=' && equals < 0)
+                    equals = paramEnd;
+                paramEnd++;
+            }
+            int nameEnd = equals < 0 ? paramEnd : equals;
+            if (nameMatches(query, paramStart, nameEnd, name))
+                return equals < 0 ? null : decode(query, equals + 1, paramEnd);
+            paramStart = paramEnd + 1;
+        }
+        return null;
+    }
+
+    private static boolean nameMatches(String query, int start, int end, String name)
+    {
+        start = skipWhitespace(query, start, end);
+        end = trimWhitespace(query, start, end);
+        if (end - start == name.length() && query.regionMatches(start, name, 0, name.length()))
+            return true;
+        // an encoded name is rare, but was matched before
+        return needsDecoding(query, start, end) && name.equals(decode(query, start, end));
+    }
+
+    /** form-decodes query[start, end), trimmed of surrounding whitespace */
+    static String decode(String query, int start, int end)
+    {
+        start = skipWhitespace(query, start, end);
+        end = trimWhitespace(query, start, end);
+        if (!needsDecoding(query, start, end))
+            return query.substring(start, end);
+
+        byte[] bytes = new byte[(end - start) * 3];
+        int length = 0;
+        for (int i = start; i < end; i++)
+        {
+            char c = query.charAt(i);
+            int high;
+            int low;
+            if (c == '+')
+                bytes[length++] = ' ';
+            else if (c == '%' && i + 2 < end &&
+                     (high = Character.digit(query.charAt(i + 1), 16)) >= 0 && (low = Character.digit(query.charAt(i + 2), 16)) >= 0)
+            {
+                bytes[length++] = (byte) ((high << 4) + low);
+                i += 2;
+            }
+            else if (c < 0x80)
+                bytes[length++] = (byte) c;
+            else
+            {
+                int codePoint = query.codePointAt(i);
+                byte[] encoded = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(encoded, 0, bytes, length, encoded.length);
+                length += encoded.length;
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean needsDecoding(String query, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = query.charAt(i);
+            if (c == '%' || c == '+')
+                return true;
+        }
+        return false;
+    }
+
+    private static int skipWhitespace(String query, int start, int end)
+    {
+        while (start < end && Character.isWhitespace(query.charAt(start)))
+            start++;
+        return start;
+    }
+
+    private static int trimWhitespace(String query, int start, int end)
+    {
+        while (end > start && Character.isWhitespace(query.charAt(end - 1)))
+            end--;
+        return end;
+    }
+}
@@ -0,0 +1,121 @@
+package edu.stanford.dlss.wowza;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Short-lived cache of stacks_token verifications that stacks rejected with a 4xx status, so that players and
+ * scripts retrying the same bad token are turned away without another stacks round trip.
+ *
+ * Kept apart from VerificationCache so that rejections can expire much sooner than approvals.  Each status class
+ * has its own TTL (403, 404, and any other 4xx); a TTL of 0 means that class isn't cached.  Only statuses stacks
+ * actually returned are cached:  5xx responses and transport failures (timeouts, IOExceptions) never are, since
+ * they say nothing about the token.
+ */
+class RejectionCache
+{
+    private final Cache<String, Long> rejections;
+    private final long maxSize;
+    private final long forbiddenTtlSeconds;
+    private final long notFoundTtlSeconds;
+    private final long otherClientErrorTtlSeconds;
+    // counted here rather than by the cache, since an entry past its status ttl is a miss
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    RejectionCache(long maxSize, long forbiddenTtlSeconds, long notFoundTtlSeconds, long otherClientErrorTtlSeconds)
+    {
+        this.maxSize = maxSize;
+        this.forbiddenTtlSeconds = forbiddenTtlSeconds;
+        this.notFoundTtlSeconds = notFoundTtlSeconds;
+        this.otherClientErrorTtlSeconds = otherClientErrorTtlSeconds;
+        long longestTtl = Math.max(forbiddenTtlSeconds, Math.max(notFoundTtlSeconds, otherClientErrorTtlSeconds));
+        // entries carry their own expiry (ttl depends on status);  expireAfterWrite just bounds how long they linger
+        rejections = CacheBuilder.newBuilder()
+                                 .maximumSize(Math.max(maxSize, 0))
+                                 .expireAfterWrite(Math.max(longestTtl, 1), TimeUnit.SECONDS)
+                                 .recordStats()
+                                 .build();
+    }
+
+    boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /** the ttl for the given verify_token response status, in seconds;  0 if it shouldn't be cached */
+    long ttlSecondsFor(int status)
+    {
+        if (status == HttpURLConnection.HTTP_FORBIDDEN)
+            return forbiddenTtlSeconds;
+        if (status == HttpURLConnection.HTTP_NOT_FOUND)
+            return notFoundTtlSeconds;
+        if (status >= 400 && status < 500)
+            return otherClientErrorTtlSeconds;
+        return 0;
+    }
+
+    /** true if stacks rejected this key recently enough that the rejection still stands */
+    boolean isRejected(String key)
+    {
+        if (!isEnabled())
+            return false;
+        Long expiresAt = rejections.getIfPresent(key);
+        if (expiresAt != null && System.nanoTime() - expiresAt < 0)
+        {
+            hits.increment();
+            return true;
+        }
+        if (expiresAt != null)
+            rejections.invalidate(key);
+        misses.increment();
+        return false;
+    }
+
+    void recordRejection(String key, int status)
+    {
+        long ttlSeconds = ttlSecondsFor(status);
+        if (isEnabled() && ttlSeconds > 0)
+            rejections.put(key, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds));
+    }
+
+    void invalidateAll()
+    {
+        rejections.invalidateAll();
+    }
+
+    long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /** a new, empty cache with the same TTLs as this one */
+    RejectionCache withMaxSize(long maxSize)
+    {
+        return new RejectionCache(maxSize, forbiddenTtlSeconds, notFoundTtlSeconds, otherClientErrorTtlSeconds);
+    }
+
+    long size()
+    {
+        return rejections.size();
+    }
+
+    long hitCount()
+    {
+        return hits.sum();
+    }
+
+    long missCount()
+    {
+        return misses.sum();
+    }
+
+    long evictionCount()
+    {
+        return rejections.stats().evictionCount();
+    }
+}
@@ -0,0 +1,67 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency histogram over a rolling period:  two LatencyHistograms take turns, so percentiles cover the last one to
+ * two windows.  Once a window has run its length, the older histogram is cleared and becomes the current one;  if
+ * two window lengths pass with nothing recorded, both are cleared.
+ */
+class RollingLatencyHistogram
+{
+    private final long windowNanos;
+    private final LongSupplier nanoClock;
+    private final LatencyHistogram[] windows = { new LatencyHistogram(), new LatencyHistogram() };
+    private volatile int current;
+    private volatile long windowStartedAt;
+
+    RollingLatencyHistogram(long windowSeconds, LongSupplier nanoClock)
+    {
+        this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+        this.nanoClock = nanoClock;
+        windowStartedAt = nanoClock.getAsLong();
+    }
+
+    void recordNanos(long durationNanos)
+    {
+        rotateIfDue();
+        windows[current].recordNanos(durationNanos);
+    }
+
+    long count()
+    {
+        rotateIfDue();
+        return windows[0].count() + windows[1].count();
+    }
+
+    /** the value, in microseconds, that the given fraction of recent values are at or below;  0 if there are none */
+    long percentileMicros(double fraction)
+    {
+        rotateIfDue();
+        return LatencyHistogram.percentileMicros(fraction, windows);
+    }
+
+    private void rotateIfDue()
+    {
+        long now = nanoClock.getAsLong();
+        if (now - windowStartedAt < windowNanos)
+            return;
+        synchronized (this)
+        {
+            if (now - windowStartedAt < windowNanos)
+                return;
+            int older = 1 - current;
+            windows[older].reset();
+            if (now - windowStartedAt >= 2 * windowNanos)
+                windows[current].reset(); // nothing recent enough to keep in either window
+            current = older;
+            windowStartedAt = now;
+        }
+    }
+
+    long getWindowSeconds()
+    {
+        return TimeUnit.NANOSECONDS.toSeconds(windowNanos);
+    }
+}
@@ -0,0 +1,238 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.wowza.wms.logging.WMSLogger;
+
+/**
+ * The info and debug lines SulWowza logs for every session:  each is only built if its level is enabled and its
+ * category's sampler lets it through, from a template with "{}" placeholders for the arguments, so a line nobody
+ * will see costs a level check.
+ *
+ * A category can be limited to so many lines per second:  the lines after that, in the same second, are dropped and
+ * counted, and the next line logged says how many were.  So at low volume everything is logged, and at high volume
+ * a steady sample is.  Errors and warnings don't go through here;  they're always logged.
+ */
+class SessionLog
+{
+    /** what a line is about, for sampling */
+    enum Category
+    {
+        /** sessions being created and authorized */
+        SESSION,
+        /** verify_token requests to stacks, and what stacks said */
+        VERIFY,
+        /** verify_token decisions answered from a cache */
+        CACHE;
+
+        final String propertyName = name().toLowerCase();
+    }
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** lets through up to perSecond lines a second, counting the rest */
+    private static final class Sampler
+    {
+        final int perSecond;
+        final AtomicLong second = new AtomicLong(Long.MIN_VALUE);
+        final AtomicInteger admitted = new AtomicInteger();
+        final AtomicLong suppressed = new AtomicLong();
+        final AtomicLong totalSuppressed = new AtomicLong();
+
+        Sampler(int perSecond)
+        {
+            this.perSecond = perSecond;
+        }
+
+        boolean admit(long nowNanos)
+        {
+            long now = nowNanos / NANOS_PER_SECOND;
+            long current = second.get();
+            if (now != current && second.compareAndSet(current, now))
+                admitted.set(0); // a line or two may slip in either side of this;  it's sampling
+            if (admitted.incrementAndGet() <= perSecond)
+                return true;
+            suppressed.incrementAndGet();
+            totalSuppressed.incrementAndGet();
+            return false;
+        }
+    }
+
+    private final String prefix;
+    private final Supplier<WMSLogger> logger;
+    /** by Category ordinal;  null for a category that isn't limited */
+    private volatile Sampler[] samplers = new Sampler[Category.values().length];
+
+    /** lines are prefixed with moduleName and a space;  logger is asked for the logger each time */
+    SessionLog(String moduleName, Supplier<WMSLogger> logger)
+    {
+        this.prefix = moduleName + " ";
+        this.logger = logger;
+    }
+
+    /** lines per second for each limited category;  the others aren't limited */
+    void setLimits(Map<Category, Integer> linesPerSecond)
+    {
+        Sampler[] replacement = new Sampler[Category.values().length];
+        for (Map.Entry<Category, Integer> limit : linesPerSecond.entrySet())
+            replacement[limit.getKey().ordinal()] = new Sampler(limit.getValue());
+        samplers = replacement;
+    }
+
+    void info(Category category, String template, Object arg)
+    {
+        WMSLogger log = logger.get();
+        if (log.isInfoEnabled())
+        {
+            String suppressed = admit(category);
+            if (suppressed != null)
+                log.info(format(template, arg, null, null, suppressed));
+        }
+    }
+
+    void info(Category category, String template, Object arg1, Object arg2)
+    {
+        WMSLogger log = logger.get();
+        if (log.isInfoEnabled())
+        {
+            String suppressed = admit(category);
+            if (suppressed != null)
+                log.info(format(template, arg1, arg2, null, suppressed));
+        }
+    }
+
+    void info(Category category, String template, Object arg1, Object arg2, Object arg3)
+    {
+        WMSLogger log = logger.get();
+        if (log.isInfoEnabled())
+        {
+            String suppressed = admit(category);
+            if (suppressed != null)
+                log.info(format(template, arg1, arg2, arg3, suppressed));
+        }
+    }
+
+    void debug(Category category, String template, Object arg)
+    {
+        WMSLogger log = logger.get();
+        if (log.isDebugEnabled())
+        {
+            String suppressed = admit(category);
+            if (suppressed != null)
+                log.debug(format(template, arg, null, null, suppressed));
+        }
+    }
+
+    void debug(Category category, String template, Object arg1, Object arg2)
+    {
+        WMSLogger log = logger.get();
+        if (log.isDebugEnabled())
+        {
+            String suppressed = admit(category);
+            if (suppressed != null)
+                log.debug(format(template, arg1, arg2, null, suppressed));
+        }
+    }
+
+    void debug(Category category, String template, Object arg1, Object arg2, Object arg3)
+    {
+        WMSLogger log = logger.get();
+        if (log.isDebugEnabled())
+        {
+            String suppressed = admit(category);
+            if (suppressed != null)
+                log.debug(format(template, arg1, arg2, arg3, suppressed));
+        }
+    }
+
+    /** null if the line should be dropped;  otherwise what to add to it about lines dropped before it (maybe "") */
+    private String admit(Category category)
+    {
+        Sampler sampler = samplers[category.ordinal()];
+        if (sampler == null)
+            return "";
+        if (!sampler.admit(System.nanoTime()))
+            return null;
+        long suppressed = sampler.suppressed.getAndSet(0);
+        return suppressed == 0 ? "" : " (" + suppressed + " " + category.propertyName + " lines suppressed)";
+    }
+
+    /** template with its "{}"s replaced by arg1, arg2 and arg3 in turn, prefixed, with suffix added */
+    private String format(String template, Object arg1, Object arg2, Object arg3, String suffix)
+    {
+        StringBuilder line = new StringBuilder(prefix.length() + template.length() + 64 + suffix.length());
+        line.append(prefix);
+        int start = 0;
+        int args = 0;
+        int placeholder;
+        while (args < 3 && (placeholder = template.indexOf("{}", start)) >= 0)
+        {
+            line.append(template, start, placeholder).append(args == 0 ? arg1 : args == 1 ? arg2 : arg3);
+            args++;
+            start = placeholder + 2;
+        }
+        return line.append(template, start, template.length()).append(suffix).toString();
+    }
+
+    /** lines dropped from category so far */
+    long suppressedCount(Category category)
+    {
+        Sampler sampler = samplers[category.ordinal()];
+        return sampler == null ? 0 : sampler.totalSuppressed.get();
+    }
+
+    /**
+     * parses limits like "session=20, verify=50"
+     * @throws IllegalArgumentException if an entry isn't a category, '=' and a positive number of lines per second
+     */
+    static Map<Category, Integer> parseLimits(String limits)
+    {
+        Map<Category, Integer> parsed = new EnumMap<>(Category.class);
+        for (String entry : limits.split(","))
+        {
+            if (entry.trim().isEmpty())
+                continue;
+            int equals = entry.indexOf('=');
+            Category category = null;
+            int perSecond = 0;
+            if (equals > 0)
+            {
+                String name = entry.substring(0, equals).trim();
+                for (Category candidate : Category.values())
+                    if (candidate.propertyName.equals(name))
+                        category = candidate;
+                try
+                {
+                    perSecond = Integer.parseInt(entry.substring(equals + 1).trim());
+                }
+                catch (NumberFormatException e)
+                {
+                    perSecond = 0;
+                }
+            }
+            if (category == null || perSecond < 1)
+                throw new IllegalArgumentException("invalid log sampling limit: " + entry.trim());
+            parsed.put(category, perSecond);
+        }
+        return parsed;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder limits = new StringBuilder();
+        Sampler[] current = samplers;
+        for (Category category : Category.values())
+        {
+            Sampler sampler = current[category.ordinal()];
+            if (sampler != null)
+                limits.append(limits.length() == 0 ? "" : ", ").append(category.propertyName).append('=').append(sampler.perSecond).append("/s");
+        }
+        return "SessionLog[" + (limits.length() == 0 ? "unlimited" : limits) + "]";
+    }
+}
@@ -0,0 +1,101 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Coalesces concurrent identical stacks_token verifications:  the first caller for a key runs the verification,
+ * and any caller arriving with the same key while it's in flight waits for and shares that result, instead of
+ * opening its own connection to stacks.  Once the verification finishes, the key is forgotten, so later callers
+ * start a fresh one (and should normally be answered by VerificationCache or RejectionCache before getting here).
+ *
+ * However the leader's verification ends, including with an Error, the callers sharing it are released;  and none
+ * waits longer than the waitMillis it was given, in case the leader itself is stuck.
+ */
+class SingleFlight
+{
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /** waitMillis is how long a caller sharing an in-flight verification waits for it before giving up (rejecting) */
+    boolean execute(String key, long waitMillis, BooleanSupplier verification)
+    {
+        CompletableFuture<Boolean> ours = new CompletableFuture<>();
+        CompletableFuture<Boolean> theirs = inFlight.putIfAbsent(key, ours);
+        if (theirs != null)
+        {
+            collapsed.increment();
+            return await(theirs, waitMillis);
+        }
+
+        executions.increment();
+        try
+        {
+            boolean result = verification.getAsBoolean();
+            ours.complete(result);
+            return result;
+        }
+        catch (Throwable t)
+        {
+            ours.completeExceptionally(t);
+            throw t;
+        }
+        finally
+        {
+            inFlight.remove(key, ours);
+        }
+    }
+
+    /** anything but the leader's answer within waitMillis counts as a rejection */
+    private boolean await(CompletableFuture<Boolean> leader, long waitMillis)
+    {
+        try
+        {
+            return leader.get(waitMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            timedOut.increment();
+            return false;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e)
+        {
+            return false;
+        }
+    }
+
+    /** number of verifications actually run */
+    long executionCount()
+    {
+        return executions.sum();
+    }
+
+    /** number of callers that shared an in-flight verification rather than running their own */
+    long collapsedCount()
+    {
+        return collapsed.sum();
+    }
+
+    /** number of callers that gave up waiting for a shared verification */
+    long timedOutCount()
+    {
+        return timedOut.sum();
+    }
+
+    int inFlightCount()
+    {
+        return inFlight.size();
+    }
+}
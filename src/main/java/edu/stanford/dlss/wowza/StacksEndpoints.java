@@ -0,0 +1,332 @@
+package edu.stanford.dlss.wowza;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The stacks backends verify_token requests may go to, when stacksURL lists more than one.
+ *
+ * Each request goes to the healthy endpoint with the lowest recent latency (an exponentially weighted moving average
+ * of its round trips, starting at 0 so each endpoint gets tried).  An endpoint becomes unhealthy after
+ * unhealthyThreshold consecutive failures (timeouts, connection errors, 5xx), whether from real requests or from the
+ * background health probes, and healthy again after its next success.  If none are healthy, the least bad one is used.
+ *
+ * With hedging on, a request that hasn't been answered within its endpoint's recent p95 latency is also sent to the
+ * next best endpoint, and whichever answers first wins.  A request the endpoint fails sooner than that (a 5xx or a
+ * connection error) goes to the next best right away, rather than failing the viewer until the endpoint is marked
+ * unhealthy.
+ */
+class StacksEndpoints
+{
+    static final double EWMA_WEIGHT = 0.2;
+    /** how much faster another healthy endpoint has to be before requests move to it from the one in use */
+    static final double SWITCH_MARGIN = 0.25;
+    static final double HEDGE_PERCENTILE = 0.95;
+    /** round trips an endpoint needs before its p95 is trusted as a hedging delay */
+    static final int HEDGE_MIN_SAMPLES = 20;
+    static final int LATENCY_WINDOW_SECONDS = 60;
+
+    interface HealthProbe
+    {
+        /** true if the stacks at baseUrl is able to answer */
+        boolean probe(String baseUrl) throws Exception;
+    }
+
+    interface HealthListener
+    {
+        void onHealthChange(Endpoint endpoint, boolean healthy);
+    }
+
+    static class Endpoint
+    {
+        final String baseUrl;
+        private volatile boolean healthy = true;
+        private volatile double latencyNanos;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final RollingLatencyHistogram latencies = new RollingLatencyHistogram(LATENCY_WINDOW_SECONDS, System::nanoTime);
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        Endpoint(String baseUrl)
+        {
+            this.baseUrl = baseUrl;
+        }
+
+        boolean isHealthy()
+        {
+            return healthy;
+        }
+
+        /** moving average of round trips to this endpoint, in milliseconds */
+        double latencyMillis()
+        {
+            return latencyNanos / 1_000_000.0;
+        }
+
+        long requestCount()
+        {
+            return requests.sum();
+        }
+
+        long failureCount()
+        {
+            return failures.sum();
+        }
+
+        /** how long to wait for this endpoint before hedging, or -1 if it hasn't enough history to say */
+        long hedgeDelayNanos()
+        {
+            if (latencies.count() < HEDGE_MIN_SAMPLES)
+                return -1;
+            return TimeUnit.MICROSECONDS.toNanos(latencies.percentileMicros(HEDGE_PERCENTILE));
+        }
+
+        @Override
+        public String toString()
+        {
+            return baseUrl;
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+    private final int unhealthyThreshold;
+    private final boolean hedging;
+    private final HealthListener listener;
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder switches = new LongAdder();
+    /** the endpoint requests last went to */
+    private volatile Endpoint current;
+    private ScheduledThreadPoolExecutor healthChecker;
+
+    StacksEndpoints(List<String> baseUrls, int unhealthyThreshold, boolean hedging, HealthListener listener)
+    {
+        List<Endpoint> list = new ArrayList<>();
+        for (String baseUrl : baseUrls)
+            list.add(new Endpoint(baseUrl));
+        this.endpoints = Collections.unmodifiableList(list);
+        this.unhealthyThreshold = unhealthyThreshold;
+        this.hedging = hedging;
+        this.listener = listener;
+    }
+
+    List<Endpoint> getEndpoints()
+    {
+        return endpoints;
+    }
+
+    boolean isHedging()
+    {
+        return hedging;
+    }
+
+    /** the endpoint the next request should go to */
+    Endpoint best()
+    {
+        Endpoint best = bestExcept(null);
+        Endpoint incumbent = current;
+        if (best == incumbent)
+            return best;
+        // only the endpoint in use gets fresh round trips, so without some margin its ordinary jitter alone would
+        // keep moving requests back and forth
+        if (incumbent != null && incumbent.healthy && best.healthy && best.latencyNanos > incumbent.latencyNanos * (1 - SWITCH_MARGIN))
+            return incumbent;
+        if (incumbent != null)
+            switches.increment();
+        current = best;
+        return best;
+    }
+
+    /** the endpoint a hedged request should go to, or null if there's no healthy alternative to first */
+    Endpoint hedgeFor(Endpoint first)
+    {
+        Endpoint second = bestExcept(first);
+        return second != null && second.healthy ? second : null;
+    }
+
+    private Endpoint bestExcept(Endpoint excluded)
+    {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints)
+        {
+            if (endpoint == excluded)
+                continue;
+            if (best == null || isBetter(endpoint, best))
+                best = endpoint;
+        }
+        return best;
+    }
+
+    private static boolean isBetter(Endpoint candidate, Endpoint incumbent)
+    {
+        if (candidate.healthy != incumbent.healthy)
+            return candidate.healthy;
+        if (!candidate.healthy && candidate.consecutiveFailures.get() != incumbent.consecutiveFailures.get())
+            return candidate.consecutiveFailures.get() < incumbent.consecutiveFailures.get();
+        return candidate.latencyNanos < incumbent.latencyNanos;
+    }
+
+    /** url (built on the first endpoint's base URL) re-rooted on endpoint's base URL */
+    String urlFor(Endpoint endpoint, String url)
+    {
+        String primaryBaseUrl = endpoints.get(0).baseUrl;
+        if (endpoint == endpoints.get(0) || !url.startsWith(primaryBaseUrl))
+            return url;
+        return endpoint.baseUrl + url.substring(primaryBaseUrl.length());
+    }
+
+    /** record a real request's round trip;  failed means the endpoint didn't give a meaningful answer */
+    void recordRequest(Endpoint endpoint, long durationNanos, boolean failed)
+    {
+        endpoint.requests.increment();
+        if (failed)
+        {
+            endpoint.failures.increment();
+            recordFailure(endpoint);
+        }
+        else
+        {
+            endpoint.latencies.recordNanos(durationNanos);
+            recordSuccess(endpoint, durationNanos);
+        }
+    }
+
+    /** record a request given up on (e.g. a hedged request the other endpoint answered first) after durationNanos;
+     * it says nothing about the endpoint's health, but it was at least that slow */
+    void recordAbandonedRequest(Endpoint endpoint, long durationNanos)
+    {
+        endpoint.requests.increment();
+        // only a lower bound on its round trip, so it may make the endpoint look slower but never faster
+        if (durationNanos > endpoint.latencyNanos)
+            updateLatency(endpoint, durationNanos);
+    }
+
+    void recordHedge()
+    {
+        hedges.increment();
+    }
+
+    long hedgeCount()
+    {
+        return hedges.sum();
+    }
+
+    /** number of times requests moved from one endpoint to another */
+    long switchCount()
+    {
+        return switches.sum();
+    }
+
+    private void recordSuccess(Endpoint endpoint, long durationNanos)
+    {
+        updateLatency(endpoint, durationNanos);
+        endpoint.consecutiveFailures.set(0);
+        if (!endpoint.healthy)
+        {
+            endpoint.healthy = true;
+            notifyListener(endpoint, true);
+        }
+    }
+
+    private static void updateLatency(Endpoint endpoint, long durationNanos)
+    {
+        double previous = endpoint.latencyNanos;
+        endpoint.latencyNanos = previous == 0 ? durationNanos : previous + EWMA_WEIGHT * (durationNanos - previous);
+    }
+
+    private void recordFailure(Endpoint endpoint)
+    {
+        if (endpoint.consecutiveFailures.incrementAndGet() >= unhealthyThreshold && endpoint.healthy)
+        {
+            endpoint.healthy = false;
+            notifyListener(endpoint, false);
+        }
+    }
+
+    private void notifyListener(Endpoint endpoint, boolean healthy)
+    {
+        if (listener != null)
+            listener.onHealthChange(endpoint, healthy);
+    }
+
+    /** probe each endpoint once */
+    void checkHealth(HealthProbe probe)
+    {
+        for (Endpoint endpoint : endpoints)
+        {
+            long start = System.nanoTime();
+            boolean answered;
+            try
+            {
+                answered = probe.probe(endpoint.baseUrl);
+            }
+            catch (Exception e)
+            {
+                answered = false;
+            }
+            if (answered)
+                recordSuccess(endpoint, System.nanoTime() - start);
+            else
+                recordFailure(endpoint);
+        }
+    }
+
+    /** probe all endpoints every intervalSeconds on a background thread, until shutdown() */
+    synchronized void startHealthChecks(HealthProbe probe, long intervalSeconds)
+    {
+        if (healthChecker != null)
+            return;
+        healthChecker = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("SulWowza-health-check-%d")
+                                                                                     .setDaemon(true)
+                                                                                     .build());
+        healthChecker.scheduleWithFixedDelay(() -> checkHealth(probe), 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    synchronized void shutdown()
+    {
+        if (healthChecker != null)
+            healthChecker.shutdownNow();
+        healthChecker = null;
+    }
+
+    /** completes with the first response that isn't a 5xx;  if neither is, with the last outcome */
+    static CompletableFuture<HttpResponse<Void>> firstAnswer(CompletableFuture<HttpResponse<Void>> first,
+                                                             CompletableFuture<HttpResponse<Void>> second)
+    {
+        CompletableFuture<HttpResponse<Void>> answer = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(2);
+        AtomicReference<HttpResponse<Void>> errorResponse = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (CompletableFuture<HttpResponse<Void>> attempt : List.of(first, second))
+            attempt.whenComplete((response, error) ->
+            {
+                if (response != null && response.statusCode() < HttpURLConnection.HTTP_INTERNAL_ERROR)
+                {
+                    answer.complete(response);
+                    return;
+                }
+                if (response != null)
+                    errorResponse.set(response);
+                else
+                    failure.set(error);
+                if (outstanding.decrementAndGet() == 0)
+                {
+                    if (errorResponse.get() != null)
+                        answer.complete(errorResponse.get());
+                    else
+                        answer.completeExceptionally(failure.get());
+                }
+            });
+        return answer;
+    }
+}
@@ -0,0 +1,47 @@
+package edu.stanford.dlss.wowza;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Holds the java.net.http.HttpClient shared by all SulWowza instances for talking to stacks.  The client keeps
+ * connections alive and reuses them (multiplexing over HTTP/2 where stacks supports it), so that most
+ * verifications don't pay for a TCP and TLS handshake.
+ *
+ * The JDK client's pool is tuned only with JVM-wide system properties (jdk.httpclient.connectionPoolSize,
+ * jdk.httpclient.keepalive.timeout, ...), which belong on the Wowza command line rather than to any one application,
+ * so they're left alone here;  see the README.
+ */
+final class StacksHttpClient
+{
+    private static volatile HttpClient client;
+    private static volatile Duration clientConnectTimeout;
+
+    private StacksHttpClient()
+    {}
+
+    /** the shared client;  rebuilt (releasing the old one's pool to the GC) only if connectTimeout changes */
+    static HttpClient get(Duration connectTimeout)
+    {
+        // read the timeout first;  build() writes it last, so a match means the client read next is the matching one
+        Duration currentConnectTimeout = clientConnectTimeout;
+        HttpClient current = client;
+        if (current != null && connectTimeout.equals(currentConnectTimeout))
+            return current;
+        return build(connectTimeout);
+    }
+
+    private static synchronized HttpClient build(Duration connectTimeout)
+    {
+        if (client == null || !connectTimeout.equals(clientConnectTimeout))
+        {
+            client = HttpClient.newBuilder()
+                               .version(HttpClient.Version.HTTP_2)
+                               .followRedirects(HttpClient.Redirect.NORMAL) // as HttpURLConnection did
+                               .connectTimeout(connectTimeout)
+                               .build();
+            clientConnectTimeout = connectTimeout;
+        }
+        return client;
+    }
+}
@@ -0,0 +1,171 @@
+package edu.stanford.dlss.wowza;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Warms up the path to stacks after a restart, so the first viewers don't pay for it:  for each stacks base URL,
+ * resolves the host (filling the JVM's DNS cache), then sends connections concurrent probe requests, which opens
+ * that many pooled connections (or, over HTTP/2, one multiplexed connection) and completes their TLS handshakes,
+ * leaving the TLS sessions cached for resumption.
+ *
+ * Runs on its own daemon thread;  the timings of each step are kept for logging and monitoring.
+ */
+class StacksWarmup
+{
+    interface Prober
+    {
+        /** sends a cheap request to url without waiting for the answer */
+        CompletableFuture<HttpResponse<Void>> probe(URL url) throws IOException;
+    }
+
+    /** how warming up one stacks base URL went */
+    static class Timing
+    {
+        final String baseUrl;
+        long dnsNanos = -1;
+        long firstResponseNanos = -1;
+        long allResponsesNanos = -1;
+        int answered;
+        String failure;
+
+        Timing(String baseUrl)
+        {
+            this.baseUrl = baseUrl;
+        }
+
+        @Override
+        public String toString()
+        {
+            return baseUrl + ": dns " + millis(dnsNanos) + ", first response " + millis(firstResponseNanos) +
+                    ", all responses " + millis(allResponsesNanos) + ", " + answered + " answered" +
+                    (failure == null ? "" : ", failed: " + failure);
+        }
+
+        private static String millis(long nanos)
+        {
+            return nanos < 0 ? "-" : TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+        }
+    }
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder().setNameFormat("SulWowza-stacks-warmup-%d")
+                                                                                   .setDaemon(true)
+                                                                                   .build();
+
+    private final List<String> baseUrls;
+    private final String probePath;
+    private final int connections;
+    private final Prober prober;
+    private final List<Timing> timings = Collections.synchronizedList(new ArrayList<>());
+    private volatile long totalNanos = -1;
+
+    StacksWarmup(List<String> baseUrls, String probePath, int connections, Prober prober)
+    {
+        this.baseUrls = baseUrls;
+        this.probePath = probePath;
+        this.connections = connections;
+        this.prober = prober;
+    }
+
+    /** warms up in the background;  the future completes when done */
+    CompletableFuture<Void> start()
+    {
+        return CompletableFuture.runAsync(this::run, runnable -> THREAD_FACTORY.newThread(runnable).start());
+    }
+
+    /** warms up on the calling thread */
+    void run()
+    {
+        long start = System.nanoTime();
+        for (String baseUrl : baseUrls)
+            timings.add(warmUp(baseUrl));
+        totalNanos = System.nanoTime() - start;
+    }
+
+    private Timing warmUp(String baseUrl)
+    {
+        Timing timing = new Timing(baseUrl);
+        try
+        {
+            URL probeUrl = new URL(baseUrl + probePath);
+            long start = System.nanoTime();
+            InetAddress.getAllByName(probeUrl.getHost());
+            timing.dnsNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<CompletableFuture<HttpResponse<Void>>> probes = new ArrayList<>();
+            for (int i = 0; i < connections; i++)
+                probes.add(prober.probe(probeUrl));
+            CompletableFuture.anyOf(probes.toArray(new CompletableFuture<?>[0])).handle((response, error) -> null).join();
+            timing.firstResponseNanos = System.nanoTime() - start;
+            CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).handle((response, error) -> null).join();
+            timing.allResponsesNanos = System.nanoTime() - start;
+
+            for (CompletableFuture<HttpResponse<Void>> probe : probes)
+            {
+                HttpResponse<Void> response = probe.isCompletedExceptionally() ? null : probe.getNow(null);
+                if (response != null && response.statusCode() < HttpURLConnection.HTTP_INTERNAL_ERROR)
+                    timing.answered++;
+                else if (timing.failure == null)
+                    timing.failure = response != null ? "status " + response.statusCode() : String.valueOf(probeError(probe));
+            }
+        }
+        catch (Exception e)
+        {
+            timing.failure = e.toString();
+        }
+        return timing;
+    }
+
+    private static Throwable probeError(CompletableFuture<HttpResponse<Void>> probe)
+    {
+        Throwable error = probe.handle((response, e) -> e).join();
+        while (error instanceof CompletionException && error.getCause() != null)
+            error = error.getCause();
+        return error;
+    }
+
+    List<Timing> getTimings()
+    {
+        synchronized (timings)
+        {
+            return new ArrayList<>(timings);
+        }
+    }
+
+    /** how long the whole warmup took, or -1 if it hasn't finished */
+    long totalMillis()
+    {
+        long nanos = totalNanos;
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /** true if warmup has finished and every probe was answered */
+    boolean succeeded()
+    {
+        if (totalNanos < 0)
+            return false;
+        for (Timing timing : getTimings())
+            if (timing.failure != null)
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StacksWarmup[connections=" + connections + ", probePath=" + probePath + ", totalMillis=" + totalMillis() + "]";
+    }
+}
@@ -0,0 +1,137 @@
+package edu.stanford.dlss.wowza;
+
+/**
+ * A Wowza streamName of the form "aa/000/aa/0000/[protocol:]filename[?query]", i.e. druid tree, then the media
+ * file name (optionally prefixed by a protocol such as "mp4:"), then optionally a query string, parsed in one pass
+ * over its characters.
+ *
+ * parse() returns null if the streamName doesn't have that shape (missing, too short, not 4 slashes before the query
+ * string, or nothing after the last one).  Otherwise, druid() is null unless the druid tree is exactly two lowercase
+ * letters / three digits / two lowercase letters / four digits, and filename() is null if there's nothing left of it
+ * once the protocol is removed;  isValid() is true if both are there.
+ */
+final class StreamName
+{
+    private static final int DRUID_TREE_LENGTH = "aa/000/aa/0000".length();
+    private static final int DRUID_LENGTH = "aa000aa0000".length();
+    /** druid tree shape:  'a' is a lowercase letter, '0' a digit, '/' itself */
+    private static final String DRUID_TREE_SHAPE = "aa/000/aa/0000/";
+
+    private final String streamName;
+    private final String druid;
+    private final String filename;
+    private final int lastSlash;
+    private final int colon;
+    private final int queryStart;
+
+    private StreamName(String streamName, String druid, String filename, int lastSlash, int colon, int queryStart)
+    {
+        this.streamName = streamName;
+        this.druid = druid;
+        this.filename = filename;
+        this.lastSlash = lastSlash;
+        this.colon = colon;
+        this.queryStart = queryStart;
+    }
+
+    static StreamName parse(String streamName)
+    {
+        if (streamName == null || streamName.length() <= DRUID_TREE_LENGTH)
+            return null;
+
+        int length = streamName.length();
+        int slashes = 0;
+        int lastSlash = -1;
+        int colon = -1;
+        int queryStart = -1;
+        boolean druidShaped = true;
+        for (int i = 0; i < length; i++)
+        {
+            char c = streamName.charAt(i);
+            if (c == '?')
+            {
+                queryStart = i;
+                break;
+            }
+            if (c == '/')
+            {
+                slashes++;
+                lastSlash = i;
+            }
+            else if (c == ':' && slashes == 4 && colon < 0 && i > lastSlash + 1)
+                colon = i;
+            if (slashes < 4 || (slashes == 4 && lastSlash == i))
+                druidShaped = druidShaped && i < DRUID_TREE_SHAPE.length() && fitsShape(c, DRUID_TREE_SHAPE.charAt(i));
+        }
+        int pathEnd = queryStart < 0 ? length : queryStart;
+        if (slashes != 4 || lastSlash == pathEnd - 1)
+            return null;
+
+        String druid = druidShaped && lastSlash == DRUID_TREE_LENGTH ? druidFrom(streamName) : null;
+        int filenameStart = colon < 0 ? lastSlash + 1 : colon + 1;
+        String filename = filenameStart < pathEnd ? streamName.substring(filenameStart, pathEnd) : null;
+        return new StreamName(streamName, druid, filename, lastSlash, colon, queryStart);
+    }
+
+    private static boolean fitsShape(char c, char shape)
+    {
+        switch (shape)
+        {
+            case 'a':
+                return c >= 'a' && c <= 'z';
+            case '0':
+                return c >= '0' && c <= '9';
+            default:
+                return c == shape;
+        }
+    }
+
+    /** the druid tree's characters without the slashes;  only called once its shape is checked */
+    private static String druidFrom(String streamName)
+    {
+        char[] druid = new char[DRUID_LENGTH];
+        int j = 0;
+        for (int i = 0; i < DRUID_TREE_LENGTH; i++)
+        {
+            char c = streamName.charAt(i);
+            if (c != '/')
+                druid[j++] = c;
+        }
+        return new String(druid);
+    }
+
+    /** e.g. "oo000oo0000";  null if the druid tree isn't a valid druid */
+    String druid()
+    {
+        return druid;
+    }
+
+    /** the media file name, without protocol prefix or query string;  null if empty */
+    String filename()
+    {
+        return filename;
+    }
+
+    /** e.g. "mp4" for "oo/000/oo/0000/mp4:file.mp4";  null if there's no protocol prefix */
+    String protocol()
+    {
+        return colon < 0 ? null : streamName.substring(lastSlash + 1, colon);
+    }
+
+    /** whatever follows the '?', if there's one;  otherwise null */
+    String query()
+    {
+        return queryStart < 0 ? null : streamName.substring(queryStart + 1);
+    }
+
+    boolean isValid()
+    {
+        return druid != null && filename != null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return streamName;
+    }
+}
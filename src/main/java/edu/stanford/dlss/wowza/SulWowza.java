@@ -1,18 +1,38 @@
 package edu.stanford.dlss.wowza;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.*;
-import java.nio.charset.Charset;
-import java.util.List;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.commons.validator.routines.InetAddressValidator;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 import com.google.common.escape.Escaper;
 import com.google.common.net.PercentEscaper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.honeybadger.reporter.HoneybadgerUncaughtExceptionHandler;
 import io.honeybadger.reporter.HoneybadgerReporter;
@@ -21,7 +41,9 @@ import io.honeybadger.reporter.config.StandardConfigContext;
 
 import com.wowza.wms.amf.AMFDataList;
 import com.wowza.wms.application.ApplicationInstance;
+import com.wowza.wms.application.IApplication;
 import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
 import com.wowza.wms.client.IClient;
 import com.wowza.wms.httpstreamer.cupertinostreaming.httpstreamer.HTTPStreamerSessionCupertino;
 import com.wowza.wms.httpstreamer.model.IHTTPStreamerSession;
@@ -33,14 +55,63 @@ import com.wowza.wms.request.RequestFunction;
 public class SulWowza extends ModuleBase
 {
     static String stacksTokenVerificationBaseUrl;
+    /** builds verify_token URLs on stacksTokenVerificationBaseUrl;  set up in onAppStart, and again if that changes */
+    static volatile VerifyTokenUrlTemplate verifyTokenUrlTemplate;
     static String stacksUrlErrorMsg = "rejecting due to invalid stacksURL property (" + stacksTokenVerificationBaseUrl + ")";
     static final String HONEYBADGER_API_KEY_ENV_VAR = "WOWZA_HONEYBADGER_API_KEY";
     static final String HONEYBADGER_ENV_NAME_ENV_VAR = "WOWZA_HONEYBADGER_ENV";
+    static final String STACKS_SECRET_KEY_BASE_ENV_VAR = "WOWZA_STACKS_SECRET_KEY_BASE";
     static int stacksConnectionTimeout;
     static int stacksReadTimeout;
+    /** the timeouts actually used, in milliseconds:  stacks*TimeoutMillis if set, otherwise stacks*Timeout seconds */
+    static volatile long stacksConnectionTimeoutMillis = TimeUnit.SECONDS.toMillis(SulWowza.DEFAULT_STACKS_CONNECTION_TIMEOUT);
+    static volatile long stacksReadTimeoutMillis = TimeUnit.SECONDS.toMillis(SulWowza.DEFAULT_STACKS_READ_TIMEOUT);
     static NoticeReporter noticeReporter;
+    /** delivers Honeybadger notices off the reporting thread;  null (notices sent synchronously) outside onAppStart..onAppStop */
+    NoticeQueue noticeQueue;
+    /** merges repeats of a notice into one summary per window;  null if aggregation is off */
+    NoticeAggregator noticeAggregator;
+    /** where authorization decisions are recorded;  null if auditLogFile isn't set */
+    AuditLog auditLog;
+    /** the info and debug lines logged for every session, sampled per logSampling */
+    SessionLog sessionLog = new SessionLog(getClass().getSimpleName(), SulWowza::getLogger);
+    /** counts and latencies of authorization decisions since the module started */
+    final AuthorizationMetrics metrics = new AuthorizationMetrics();
+    /** the module instances between onAppStart and onAppStop, for MetricsHTTPProvider */
+    static final Set<SulWowza> running = ConcurrentHashMap.newKeySet();
+    /** the application and application instance this module was started for */
+    String applicationName = "";
+    String instanceName = "";
     StandardConfigContext honeybadgerConfig;
     SulEnvironment environment;
+    /** replaced whole, never changed, when resized at runtime;  volatile so readers needn't lock */
+    volatile VerificationCache verificationCache = new VerificationCache(DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE, DEFAULT_STACKS_TOKEN_CACHE_TTL);
+    SingleFlight singleFlight = new SingleFlight();
+    /** verifies tokens without asking stacks;  null unless stacksLocalTokenVerification is set */
+    LocalTokenVerifier localTokenVerifier;
+    /** fails verifications fast while stacks is unhealthy;  null unless stacksCircuitBreaker is true */
+    CircuitBreaker circuitBreaker;
+    /** bounds the verify_token requests in flight to stacks;  null unless stacksConcurrencyLimit is true */
+    ConcurrencyLimiter concurrencyLimiter;
+    /** request timeout that follows stacks' recent latency;  null unless stacksAdaptiveTimeout is set */
+    volatile AdaptiveTimeout adaptiveTimeout;
+    /** the stacks backends to spread verify_token requests over;  null unless stacksURL lists more than one */
+    StacksEndpoints stacksEndpoints;
+    /** sends verify_token requests to stacks in bulk;  null unless stacksBatchVerification is set */
+    VerificationBatcher verificationBatcher;
+    /** the last background warmup of connections to stacks;  null unless stacksWarmup is set */
+    StacksWarmup stacksWarmup;
+    /** runs HTTP streaming session authorization off the session-create thread;  null unless stacksAsyncAuthorization is set */
+    ThreadPoolExecutor authorizationExecutor;
+    /** proxies whose x-forwarded-for entries are skipped to find the user's IP;  null unless trustedProxies is set */
+    CidrTrie trustedProxies;
+    /** replaced whole, never changed, when resized at runtime;  volatile so readers needn't lock */
+    volatile RejectionCache rejectionCache = new RejectionCache(DEFAULT_STACKS_TOKEN_REJECTION_CACHE_MAX_SIZE,
+                                                                DEFAULT_STACKS_TOKEN_REJECTION_CACHE_FORBIDDEN_TTL,
+                                                                DEFAULT_STACKS_TOKEN_REJECTION_CACHE_NOT_FOUND_TTL,
+                                                                DEFAULT_STACKS_TOKEN_REJECTION_CACHE_CLIENT_ERROR_TTL);
+    /** the name this instance's SulWowzaMXBean is registered under;  null if it isn't */
+    ObjectName mbeanName;
 
 
     /** configuration is invalid if the stacks url is malformed */
@@ -58,16 +129,44 @@ public class SulWowza extends ModuleBase
      * defined in the IModuleOnApp interface */
     public void onAppStart(IApplicationInstance appInstance)
     {
+        IApplication application = appInstance.getApplication();
+        applicationName = application == null || application.getName() == null ? "" : application.getName();
+        instanceName = appInstance.getName() == null ? "" : appInstance.getName();
+        running.add(this);
         initHoneybadger();
         registerUncaughtExceptionHandler();
         initNoticeReporter();
+        setNoticeQueue(appInstance);
+        setNoticeAggregator(appInstance);
+        setLogSampling(appInstance);
         setStacksConnectionTimeout(appInstance);
         setStacksReadTimeout(appInstance);
+        setAdaptiveTimeout(appInstance);
+        setVerificationCache(appInstance);
+        setRejectionCache(appInstance);
+        setAuthorizationExecutor(appInstance);
+        setLocalTokenVerifier(appInstance);
+        setCircuitBreaker(appInstance);
+        setConcurrencyLimiter(appInstance);
+        setVerificationBatcher(appInstance);
+        setTrustedProxies(appInstance);
+        setAuditLog(appInstance);
         stacksTokenVerificationBaseUrl = getStacksUrl(appInstance);
+        String[] stacksBaseUrls = { stacksTokenVerificationBaseUrl };
+        if (stacksTokenVerificationBaseUrl != null && stacksTokenVerificationBaseUrl.indexOf(',') >= 0)
+        {
+            stacksBaseUrls = stacksTokenVerificationBaseUrl.trim().split("\\s*,\\s*");
+            // verify_token URLs are built on the first;  requests are re-rooted on whichever endpoint they go to
+            stacksTokenVerificationBaseUrl = stacksBaseUrls[0];
+        }
         try
         {
-            new URL(stacksTokenVerificationBaseUrl);
-            getLogger().info(this.getClass().getSimpleName() + " stacksURL is " + stacksTokenVerificationBaseUrl);
+            for (String stacksBaseUrl : stacksBaseUrls)
+                new URL(stacksBaseUrl);
+            verifyTokenUrlTemplate = new VerifyTokenUrlTemplate(stacksTokenVerificationBaseUrl);
+            getLogger().info(this.getClass().getSimpleName() + " stacksURL is " + String.join(", ", stacksBaseUrls));
+            setStacksEndpoints(appInstance, stacksBaseUrls);
+            warmUpStacks(appInstance, stacksBaseUrls);
         }
         catch (MalformedURLException e)
         {
@@ -76,6 +175,22 @@ public class SulWowza extends ModuleBase
             getLogger().error(msg, e);
             reportNotice(msg, e);
         }
+        registerMBean(appInstance);
+    }
+
+    /** invoked when a Wowza application instance is stopped;
+     * defined in the IModuleOnApp interface */
+    public void onAppStop(IApplicationInstance appInstance)
+    {
+        running.remove(this);
+        unregisterMBean();
+        if (authorizationExecutor != null)
+            authorizationExecutor.shutdown();
+        if (stacksEndpoints != null)
+            stacksEndpoints.shutdown();
+        closeAuditLog();
+        flushNoticeAggregator();
+        flushNoticeQueue();
     }
 
     /** Invoked when an HTTP MPEGDash Streaming session is created;
@@ -86,12 +201,16 @@ public class SulWowza extends ModuleBase
         if (invalidConfiguration)
         {
             getLogger().error(this.getClass().getSimpleName() + " onHTTPMPEGDashStreamingSessionCreate: " + stacksUrlErrorMsg + "; streamName: " + httpSession.getStreamName());
+            recordDecision(AuthorizationMetrics.Protocol.DASH, null, null, false, AuditLog.Reason.INVALID_CONFIGURATION, System.nanoTime());
             httpSession.rejectSession();
         }
         else
         {
-            getLogger().info(this.getClass().getSimpleName() + " onHTTPMPEGDashStreamingSessionCreate: " + httpSession.getStreamName());
-            authorizeSession(httpSession);
+            sessionLog.info(SessionLog.Category.SESSION, "onHTTPMPEGDashStreamingSessionCreate: {}", httpSession.getStreamName());
+            if (authorizationExecutor != null)
+                authorizeSessionAsync(httpSession);
+            else
+                authorizeSession(httpSession);
         }
     }
 
@@ -103,12 +222,16 @@ public class SulWowza extends ModuleBase
         if (invalidConfiguration)
         {
             getLogger().error(this.getClass().getSimpleName() + " onHTTPCupertinoStreamingSessionCreate: " + stacksUrlErrorMsg + "; streamName: " + httpSession.getStreamName());
+            recordDecision(AuthorizationMetrics.Protocol.HLS, null, null, false, AuditLog.Reason.INVALID_CONFIGURATION, System.nanoTime());
             httpSession.rejectSession();
         }
         else
         {
-            getLogger().info(this.getClass().getSimpleName() + " onHTTPCupertinoStreamingSessionCreate: " + httpSession.getStreamName());
-            authorizeSession(httpSession);
+            sessionLog.info(SessionLog.Category.SESSION, "onHTTPCupertinoStreamingSessionCreate: {}", httpSession.getStreamName());
+            if (authorizationExecutor != null)
+                authorizeSessionAsync(httpSession);
+            else
+                authorizeSession(httpSession);
         }
     }
 
@@ -126,6 +249,7 @@ public class SulWowza extends ModuleBase
         if (invalidConfiguration)
         {
             getLogger().error(this.getClass().getSimpleName() + " play: " + stacksUrlErrorMsg + "; streamName:  " + streamName);
+            recordDecision(AuthorizationMetrics.Protocol.RTMP, null, null, false, AuditLog.Reason.INVALID_CONFIGURATION, System.nanoTime());
             client.shutdownClient();
         }
         else
@@ -180,13 +304,144 @@ public class SulWowza extends ModuleBase
 
     // --------------------------------- the public API is above this line ----------------------------------------
 
+    /** default max number of Honeybadger notices waiting to be sent;  more are dropped */
+    public static final int DEFAULT_HONEYBADGER_NOTICE_QUEUE_SIZE = 1000;
+
+    /** default time onAppStop waits for queued Honeybadger notices to be sent, in milliseconds */
+    public static final int DEFAULT_HONEYBADGER_FLUSH_TIMEOUT_MILLIS = 5000;
+
+    /** how long onAppStop waits for queued notices to be sent;  set from honeybadgerFlushTimeoutMillis */
+    long honeybadgerFlushTimeoutMillis = DEFAULT_HONEYBADGER_FLUSH_TIMEOUT_MILLIS;
+
+    /** sets up the queue Honeybadger notices are sent from, sized by the honeybadgerNoticeQueueSize property, with
+     * honeybadgerFlushTimeoutMillis for onAppStop (defaults used if invalid) */
+    void setNoticeQueue(IApplicationInstance appInstance)
+    {
+        int queueSize = DEFAULT_HONEYBADGER_NOTICE_QUEUE_SIZE;
+        int flushTimeout = DEFAULT_HONEYBADGER_FLUSH_TIMEOUT_MILLIS;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            queueSize = positiveOrDefault(props.getPropertyInt("honeybadgerNoticeQueueSize", DEFAULT_HONEYBADGER_NOTICE_QUEUE_SIZE),
+                                          DEFAULT_HONEYBADGER_NOTICE_QUEUE_SIZE);
+            flushTimeout = positiveOrDefault(props.getPropertyInt("honeybadgerFlushTimeoutMillis", DEFAULT_HONEYBADGER_FLUSH_TIMEOUT_MILLIS),
+                                             DEFAULT_HONEYBADGER_FLUSH_TIMEOUT_MILLIS);
+        }
+        catch (Exception e)
+        {
+            getLogger().info(this.getClass().getSimpleName() + " unable to read Honeybadger notice queue settings from properties; using defaults ", e);
+        }
+
+        NoticeQueue previous = noticeQueue;
+        if (previous != null)
+            previous.flush(0);
+        honeybadgerFlushTimeoutMillis = flushTimeout;
+        noticeQueue = new NoticeQueue(queueSize, this::sendNotice);
+        getLogger().info(this.getClass().getSimpleName() + " honeybadgerNoticeQueueSize is " + queueSize +
+                            ", honeybadgerFlushTimeoutMillis is " + flushTimeout);
+    }
+
+    /** waits (up to honeybadgerFlushTimeoutMillis) for queued notices to be sent;  later ones are sent synchronously */
+    void flushNoticeQueue()
+    {
+        NoticeQueue queue = noticeQueue;
+        if (queue == null)
+            return;
+        noticeQueue = null;
+        if (queue.flush(honeybadgerFlushTimeoutMillis))
+            getLogger().info(this.getClass().getSimpleName() + " flushed Honeybadger notices: " + queue);
+        else
+            getLogger().warn(this.getClass().getSimpleName() + " gave up waiting for Honeybadger notices to be sent: " + queue);
+    }
+
+    /** default time repeats of a Honeybadger notice are merged into one summary notice, in seconds */
+    public static final int DEFAULT_HONEYBADGER_AGGREGATION_WINDOW = 60;
+
+    /** default number of merged notices' messages included in a summary notice */
+    public static final int DEFAULT_HONEYBADGER_AGGREGATION_SAMPLES = 3;
+
+    /** sets up notice aggregation from the honeybadgerAggregationWindow, honeybadgerAggregationSamples and
+     * honeybadgerSamplingRates properties;  uses defaults if invalid.  A honeybadgerAggregationWindow of 0 (the
+     * default) turns aggregation, and sampling, off. */
+    void setNoticeAggregator(IApplicationInstance appInstance)
+    {
+        NoticeAggregator previous = noticeAggregator;
+        noticeAggregator = null;
+        if (previous != null)
+            previous.flush();
+
+        int window = 0;
+        int samples = DEFAULT_HONEYBADGER_AGGREGATION_SAMPLES;
+        Map<String, Double> samplingRates = Collections.emptyMap();
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            window = props.getPropertyInt("honeybadgerAggregationWindow", 0);
+            if (window < 0)
+                window = DEFAULT_HONEYBADGER_AGGREGATION_WINDOW;
+            samples = props.getPropertyInt("honeybadgerAggregationSamples", DEFAULT_HONEYBADGER_AGGREGATION_SAMPLES);
+            if (samples < 0)
+                samples = DEFAULT_HONEYBADGER_AGGREGATION_SAMPLES;
+            String rates = props.getPropertyStr("honeybadgerSamplingRates", "");
+            if (rates != null)
+                samplingRates = NoticeAggregator.parseSamplingRates(rates);
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read Honeybadger aggregation settings from properties; using defaults ";
+            getLogger().error(msg, e);
+            reportNotice(msg, e);
+        }
+
+        if (window == 0)
+        {
+            getLogger().info(this.getClass().getSimpleName() + " honeybadgerAggregationWindow is 0; every notice is sent");
+            return;
+        }
+        noticeAggregator = new NoticeAggregator(TimeUnit.SECONDS.toMillis(window), samples, samplingRates,
+                                                summary -> queueNotice(new Notice(summary, null, false)));
+        getLogger().info(this.getClass().getSimpleName() + " honeybadgerAggregationWindow is " + window +
+                            ", honeybadgerAggregationSamples is " + samples + ", honeybadgerSamplingRates is " + samplingRates);
+    }
+
+    /** sends summaries of the notices merged so far, and stops aggregating */
+    void flushNoticeAggregator()
+    {
+        NoticeAggregator aggregator = noticeAggregator;
+        if (aggregator == null)
+            return;
+        noticeAggregator = null;
+        aggregator.flush();
+        getLogger().info(this.getClass().getSimpleName() + " flushed Honeybadger notice aggregation: " + aggregator);
+    }
+
+    /** limits the per-session info and debug lines logged to so many a second per category, per the logSampling
+     * property (e.g. "session=20, verify=50");  categories not mentioned, or all if it isn't set, aren't limited. */
+    void setLogSampling(IApplicationInstance appInstance)
+    {
+        try
+        {
+            String limits = appInstance.getProperties().getPropertyStr("logSampling", "");
+            sessionLog.setLimits(SessionLog.parseLimits(limits == null ? "" : limits));
+        }
+        catch (Exception e)
+        {
+            sessionLog.setLimits(Collections.emptyMap());
+            String msg = this.getClass().getSimpleName() + " unable to read logSampling from properties; session lines aren't sampled ";
+            getLogger().error(msg, e);
+            reportNotice(msg, e);
+        }
+        getLogger().info(this.getClass().getSimpleName() + " logSampling is " + sessionLog);
+    }
+
     /** default setting for stacks service connection timeout (time to establish a connection), in seconds */
     public static final int DEFAULT_STACKS_CONNECTION_TIMEOUT = 20;
 
     // TODO:  this approach expects the properties to be set in Application.xml
     //   maybe that's good, or maybe we want to load a java properties file from our plugin jar itself?
     // NOTE:  aware of duplicated code;  shameless green phase
-    /** gets stacksConnectionTimeout from properties; uses default if invalid */
+    /** gets stacksConnectionTimeout from properties, overridden by stacksConnectionTimeoutMillis if that's set;
+     * uses default if invalid */
     void setStacksConnectionTimeout(IApplicationInstance appInstance)
     {
         try
@@ -194,6 +449,10 @@ public class SulWowza extends ModuleBase
             stacksConnectionTimeout = appInstance.getProperties().getPropertyInt("stacksConnectionTimeout", DEFAULT_STACKS_CONNECTION_TIMEOUT);
             if (stacksConnectionTimeout < 1)
                 stacksConnectionTimeout = DEFAULT_STACKS_CONNECTION_TIMEOUT;
+            stacksConnectionTimeoutMillis = TimeUnit.SECONDS.toMillis(stacksConnectionTimeout);
+            int millis = appInstance.getProperties().getPropertyInt("stacksConnectionTimeoutMillis", 0);
+            if (millis > 0)
+                stacksConnectionTimeoutMillis = millis;
         }
         catch (Exception e)
         {
@@ -201,8 +460,9 @@ public class SulWowza extends ModuleBase
             getLogger().info(msg, e);
             reportNotice(msg, e);
             stacksConnectionTimeout = DEFAULT_STACKS_CONNECTION_TIMEOUT;
+            stacksConnectionTimeoutMillis = TimeUnit.SECONDS.toMillis(SulWowza.DEFAULT_STACKS_CONNECTION_TIMEOUT);
         }
-        getLogger().info(this.getClass().getSimpleName() + " stacksConnectionTimeout is " + String.valueOf(stacksConnectionTimeout));
+        getLogger().info(this.getClass().getSimpleName() + " stacksConnectionTimeout is " + String.valueOf(stacksConnectionTimeoutMillis) + "ms");
     }
 
     /** default setting for stacks service read timeout (time for reading stream after connection is established),
@@ -212,7 +472,8 @@ public class SulWowza extends ModuleBase
     // TODO:  this approach expects the properties to be set in Application.xml
     //   maybe that's good, or maybe we want to load a java properties file from our plugin jar itself?
     // NOTE:  aware of duplicated code;  shameless green phase
-    /** gets stacksReadTimeout from properties; uses default if invalid */
+    /** gets stacksReadTimeout from properties, overridden by stacksReadTimeoutMillis if that's set;
+     * uses default if invalid */
     void setStacksReadTimeout(IApplicationInstance appInstance)
     {
         try
@@ -220,6 +481,10 @@ public class SulWowza extends ModuleBase
             stacksReadTimeout = appInstance.getProperties().getPropertyInt("stacksReadTimeout", DEFAULT_STACKS_READ_TIMEOUT);
             if (stacksReadTimeout < 1)
                 stacksReadTimeout = DEFAULT_STACKS_READ_TIMEOUT;
+            stacksReadTimeoutMillis = TimeUnit.SECONDS.toMillis(stacksReadTimeout);
+            int millis = appInstance.getProperties().getPropertyInt("stacksReadTimeoutMillis", 0);
+            if (millis > 0)
+                stacksReadTimeoutMillis = millis;
         }
         catch (Exception e)
         {
@@ -227,12 +492,610 @@ public class SulWowza extends ModuleBase
             getLogger().info(msg, e);
             reportNotice(msg, e);
             stacksReadTimeout = DEFAULT_STACKS_READ_TIMEOUT;
+            stacksReadTimeoutMillis = TimeUnit.SECONDS.toMillis(SulWowza.DEFAULT_STACKS_READ_TIMEOUT);
+        }
+        getLogger().info(this.getClass().getSimpleName() + " stacksReadTimeout is " + String.valueOf(stacksReadTimeoutMillis) + "ms");
+    }
+
+    /** default multiple of stacks' p99 latency used as the request timeout in adaptive mode */
+    public static final String DEFAULT_STACKS_ADAPTIVE_TIMEOUT_MULTIPLIER = "3";
+
+    /** default lowest request timeout in adaptive mode, in milliseconds */
+    public static final int DEFAULT_STACKS_ADAPTIVE_TIMEOUT_FLOOR = 250;
+
+    /** default number of round trips to stacks needed before adaptive mode departs from the configured timeouts */
+    public static final int DEFAULT_STACKS_ADAPTIVE_TIMEOUT_MIN_SAMPLES = 100;
+
+    /** default length of each window of the rolling latency histogram, in seconds */
+    public static final int DEFAULT_STACKS_ADAPTIVE_TIMEOUT_WINDOW = 60;
+
+    /** if the stacksAdaptiveTimeout property is true, sets up the request timeout to follow stacks' recent latency,
+     * from the stacksAdaptiveTimeout* properties (defaults used if invalid), bounded above by the configured
+     * connection plus read timeouts;  must be called after setStacksConnectionTimeout and setStacksReadTimeout */
+    void setAdaptiveTimeout(IApplicationInstance appInstance)
+    {
+        double multiplier = Double.parseDouble(DEFAULT_STACKS_ADAPTIVE_TIMEOUT_MULTIPLIER);
+        int floor = DEFAULT_STACKS_ADAPTIVE_TIMEOUT_FLOOR;
+        int minSamples = DEFAULT_STACKS_ADAPTIVE_TIMEOUT_MIN_SAMPLES;
+        int window = DEFAULT_STACKS_ADAPTIVE_TIMEOUT_WINDOW;
+        adaptiveTimeout = null;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            if (!props.getPropertyBoolean("stacksAdaptiveTimeout", false))
+            {
+                getLogger().info(this.getClass().getSimpleName() + " stacksAdaptiveTimeout is off");
+                return;
+            }
+            String multiplierStr = props.getPropertyStr("stacksAdaptiveTimeoutMultiplier", DEFAULT_STACKS_ADAPTIVE_TIMEOUT_MULTIPLIER);
+            if (multiplierStr != null && Double.parseDouble(multiplierStr) >= 1)
+                multiplier = Double.parseDouble(multiplierStr);
+            floor = positiveOrDefault(props.getPropertyInt("stacksAdaptiveTimeoutFloor", floor), floor);
+            minSamples = positiveOrDefault(props.getPropertyInt("stacksAdaptiveTimeoutMinSamples", minSamples), minSamples);
+            window = positiveOrDefault(props.getPropertyInt("stacksAdaptiveTimeoutWindow", window), window);
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacksAdaptiveTimeout settings from properties; using defaults ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+        }
+        adaptiveTimeout = new AdaptiveTimeout(multiplier, floor, stacksConnectionTimeoutMillis + stacksReadTimeoutMillis, minSamples, window);
+        getLogger().info(this.getClass().getSimpleName() + " stacksAdaptiveTimeout is " + adaptiveTimeout);
+    }
+
+    /** how long a request to stacks may take in all, from connecting to receiving the response headers */
+    long stacksRequestTimeoutMillis()
+    {
+        AdaptiveTimeout adaptive = adaptiveTimeout;
+        if (adaptive != null)
+            return adaptive.currentTimeoutMillis();
+        return stacksConnectionTimeoutMillis + stacksReadTimeoutMillis;
+    }
+
+    /**
+     * changes the stacks connection and read timeouts of a running module (e.g. from JMX).  Like the properties they
+     * come from, they're shared by every application instance, so each running one's adaptive timeout, if it has
+     * one, is bounded by the new total from here on.
+     * @throws IllegalArgumentException if either is less than 1ms
+     */
+    static synchronized void changeStacksTimeouts(long connectionMillis, long readMillis)
+    {
+        if (connectionMillis < 1 || readMillis < 1)
+            throw new IllegalArgumentException("stacks timeouts must be at least 1ms, not " + connectionMillis + "ms and " + readMillis + "ms");
+        stacksConnectionTimeoutMillis = connectionMillis;
+        stacksReadTimeoutMillis = readMillis;
+        for (SulWowza module : running)
+        {
+            AdaptiveTimeout adaptive = module.adaptiveTimeout;
+            if (adaptive != null)
+                module.adaptiveTimeout = adaptive.withCeilingMillis(connectionMillis + readMillis);
         }
-        getLogger().info(this.getClass().getSimpleName() + " stacksReadTimeout is " + String.valueOf(stacksReadTimeout));
+        getLogger().info(SulWowza.class.getSimpleName() + " stacksConnectionTimeout changed to " + connectionMillis +
+                            "ms, stacksReadTimeout to " + readMillis + "ms");
+    }
+
+    /** default maximum number of positive stacks_token verification decisions to cache */
+    public static final int DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE = 10000;
+
+    /** default time a positive stacks_token verification decision stays cached, in seconds */
+    public static final int DEFAULT_STACKS_TOKEN_CACHE_TTL = 30;
+
+    /** builds the verification cache from stacksTokenCacheMaxSize and stacksTokenCacheTTL properties;
+     * uses defaults if invalid.  A stacksTokenCacheMaxSize of 0 disables caching. */
+    void setVerificationCache(IApplicationInstance appInstance)
+    {
+        int maxSize = DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE;
+        int ttl = DEFAULT_STACKS_TOKEN_CACHE_TTL;
+        try
+        {
+            maxSize = appInstance.getProperties().getPropertyInt("stacksTokenCacheMaxSize", DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE);
+            if (maxSize < 0)
+                maxSize = DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE;
+            ttl = appInstance.getProperties().getPropertyInt("stacksTokenCacheTTL", DEFAULT_STACKS_TOKEN_CACHE_TTL);
+            if (ttl < 1)
+                ttl = DEFAULT_STACKS_TOKEN_CACHE_TTL;
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacksTokenCacheMaxSize or stacksTokenCacheTTL from properties; using defaults ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+        }
+        verificationCache = new VerificationCache(maxSize, ttl);
+        getLogger().info(this.getClass().getSimpleName() + " stacksTokenCacheMaxSize is " + String.valueOf(maxSize) +
+                            ", stacksTokenCacheTTL is " + String.valueOf(ttl));
+    }
+
+    /**
+     * replaces the verification cache of a running module (e.g. from JMX) with an empty one of the given size and TTL
+     * @throws IllegalArgumentException if maxSize is negative or ttlSeconds is less than 1
+     */
+    synchronized void changeVerificationCache(long maxSize, long ttlSeconds)
+    {
+        if (maxSize < 0 || ttlSeconds < 1)
+            throw new IllegalArgumentException("invalid stacksTokenCacheMaxSize " + maxSize + " or stacksTokenCacheTTL " + ttlSeconds);
+        verificationCache = new VerificationCache(maxSize, ttlSeconds);
+        getLogger().info(this.getClass().getSimpleName() + " stacksTokenCacheMaxSize changed to " + maxSize +
+                            ", stacksTokenCacheTTL to " + ttlSeconds);
+    }
+
+    /** default maximum number of rejected stacks_token verifications to cache */
+    public static final int DEFAULT_STACKS_TOKEN_REJECTION_CACHE_MAX_SIZE = 10000;
+
+    /** default time a 403 (Forbidden) verify_token response stays cached, in seconds */
+    public static final int DEFAULT_STACKS_TOKEN_REJECTION_CACHE_FORBIDDEN_TTL = 5;
+
+    /** default time a 404 (Not Found) verify_token response stays cached, in seconds */
+    public static final int DEFAULT_STACKS_TOKEN_REJECTION_CACHE_NOT_FOUND_TTL = 30;
+
+    /** default time any other 4xx verify_token response stays cached, in seconds */
+    public static final int DEFAULT_STACKS_TOKEN_REJECTION_CACHE_CLIENT_ERROR_TTL = 5;
+
+    /** builds the rejection cache from the stacksTokenRejectionCache* properties; uses defaults if invalid.
+     * A stacksTokenRejectionCacheMaxSize of 0 disables the cache, a TTL of 0 disables caching that status class. */
+    void setRejectionCache(IApplicationInstance appInstance)
+    {
+        int maxSize = DEFAULT_STACKS_TOKEN_REJECTION_CACHE_MAX_SIZE;
+        int forbiddenTtl = DEFAULT_STACKS_TOKEN_REJECTION_CACHE_FORBIDDEN_TTL;
+        int notFoundTtl = DEFAULT_STACKS_TOKEN_REJECTION_CACHE_NOT_FOUND_TTL;
+        int clientErrorTtl = DEFAULT_STACKS_TOKEN_REJECTION_CACHE_CLIENT_ERROR_TTL;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            maxSize = props.getPropertyInt("stacksTokenRejectionCacheMaxSize", DEFAULT_STACKS_TOKEN_REJECTION_CACHE_MAX_SIZE);
+            if (maxSize < 0)
+                maxSize = DEFAULT_STACKS_TOKEN_REJECTION_CACHE_MAX_SIZE;
+            forbiddenTtl = props.getPropertyInt("stacksTokenRejectionCacheForbiddenTTL", DEFAULT_STACKS_TOKEN_REJECTION_CACHE_FORBIDDEN_TTL);
+            if (forbiddenTtl < 0)
+                forbiddenTtl = DEFAULT_STACKS_TOKEN_REJECTION_CACHE_FORBIDDEN_TTL;
+            notFoundTtl = props.getPropertyInt("stacksTokenRejectionCacheNotFoundTTL", DEFAULT_STACKS_TOKEN_REJECTION_CACHE_NOT_FOUND_TTL);
+            if (notFoundTtl < 0)
+                notFoundTtl = DEFAULT_STACKS_TOKEN_REJECTION_CACHE_NOT_FOUND_TTL;
+            clientErrorTtl = props.getPropertyInt("stacksTokenRejectionCacheClientErrorTTL", DEFAULT_STACKS_TOKEN_REJECTION_CACHE_CLIENT_ERROR_TTL);
+            if (clientErrorTtl < 0)
+                clientErrorTtl = DEFAULT_STACKS_TOKEN_REJECTION_CACHE_CLIENT_ERROR_TTL;
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacksTokenRejectionCache settings from properties; using defaults ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+        }
+        rejectionCache = new RejectionCache(maxSize, forbiddenTtl, notFoundTtl, clientErrorTtl);
+        getLogger().info(this.getClass().getSimpleName() + " stacksTokenRejectionCacheMaxSize is " + String.valueOf(maxSize) +
+                            ", TTLs (403/404/other 4xx) are " + forbiddenTtl + "/" + notFoundTtl + "/" + clientErrorTtl);
+    }
+
+    /**
+     * replaces the rejection cache of a running module (e.g. from JMX) with an empty one of the given size
+     * @throws IllegalArgumentException if maxSize is negative
+     */
+    synchronized void changeRejectionCacheMaxSize(long maxSize)
+    {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("invalid stacksTokenRejectionCacheMaxSize " + maxSize);
+        rejectionCache = rejectionCache.withMaxSize(maxSize);
+        getLogger().info(this.getClass().getSimpleName() + " stacksTokenRejectionCacheMaxSize changed to " + maxSize);
+    }
+
+    /** forgets every cached verify_token decision, approvals and rejections, e.g. after a stacks fix */
+    void invalidateCaches()
+    {
+        verificationCache.invalidateAll();
+        rejectionCache.invalidateAll();
+        getLogger().info(this.getClass().getSimpleName() + " verify_token decision caches invalidated");
+    }
+
+    /** default number of threads authorizing HTTP streaming sessions when stacksAsyncAuthorization is set */
+    public static final int DEFAULT_STACKS_ASYNC_AUTHORIZATION_THREADS = 32;
+
+    /** default number of HTTP streaming sessions that may wait for an authorization thread */
+    public static final int DEFAULT_STACKS_ASYNC_AUTHORIZATION_QUEUE_SIZE = 1000;
+
+    /** if the stacksAsyncAuthorization property is true, sets up the executor HTTP streaming sessions are authorized on,
+     * sized by stacksAsyncAuthorizationThreads and stacksAsyncAuthorizationQueueSize (defaults used if invalid).
+     * Otherwise sessions are authorized synchronously on the thread creating them. */
+    void setAuthorizationExecutor(IApplicationInstance appInstance)
+    {
+        boolean async = false;
+        int threads = DEFAULT_STACKS_ASYNC_AUTHORIZATION_THREADS;
+        int queueSize = DEFAULT_STACKS_ASYNC_AUTHORIZATION_QUEUE_SIZE;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            async = props.getPropertyBoolean("stacksAsyncAuthorization", false);
+            threads = props.getPropertyInt("stacksAsyncAuthorizationThreads", DEFAULT_STACKS_ASYNC_AUTHORIZATION_THREADS);
+            if (threads < 1)
+                threads = DEFAULT_STACKS_ASYNC_AUTHORIZATION_THREADS;
+            queueSize = props.getPropertyInt("stacksAsyncAuthorizationQueueSize", DEFAULT_STACKS_ASYNC_AUTHORIZATION_QUEUE_SIZE);
+            if (queueSize < 1)
+                queueSize = DEFAULT_STACKS_ASYNC_AUTHORIZATION_QUEUE_SIZE;
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacksAsyncAuthorization settings from properties; authorizing synchronously ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+            async = false;
+        }
+
+        if (authorizationExecutor != null)
+            authorizationExecutor.shutdown();
+        if (async)
+        {
+            ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(this.getClass().getSimpleName() + "-authorization-%d")
+                                                                    .setDaemon(true)
+                                                                    .build();
+            authorizationExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                           new ArrayBlockingQueue<>(queueSize), threadFactory);
+            authorizationExecutor.allowCoreThreadTimeOut(true);
+            getLogger().info(this.getClass().getSimpleName() + " stacksAsyncAuthorization is on, with " + threads +
+                                " threads and queue size " + queueSize);
+        }
+        else
+        {
+            authorizationExecutor = null;
+            getLogger().info(this.getClass().getSimpleName() + " stacksAsyncAuthorization is off");
+        }
+    }
+
+    /** default max age of a token that may be approved locally, in seconds;  older tokens are checked with stacks */
+    public static final int DEFAULT_STACKS_TOKEN_MAX_AGE = 30;
+
+    /** default PBKDF2 digest stacks' ActiveSupport::KeyGenerator uses */
+    public static final String DEFAULT_STACKS_TOKEN_KEY_DIGEST = "SHA1";
+
+    /** default PBKDF2 iteration count stacks' ActiveSupport::KeyGenerator uses */
+    public static final int DEFAULT_STACKS_TOKEN_KEY_ITERATIONS = 65536;
+
+    /** if the stacksLocalTokenVerification property is true, sets up in-process token verification using stacks'
+     * secret_key_base from the WOWZA_STACKS_SECRET_KEY_BASE environment variable, with stacksTokenMaxAge,
+     * stacksTokenKeyDigest and stacksTokenKeyIterations properties (defaults used if invalid).
+     * If anything is missing, tokens are verified by stacks as usual. */
+    void setLocalTokenVerifier(IApplicationInstance appInstance)
+    {
+        localTokenVerifier = null;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            if (!props.getPropertyBoolean("stacksLocalTokenVerification", false))
+            {
+                getLogger().info(this.getClass().getSimpleName() + " stacksLocalTokenVerification is off");
+                return;
+            }
+            String secretKeyBase = environment == null ? null : environment.getEnvironmentVariable(STACKS_SECRET_KEY_BASE_ENV_VAR);
+            if (secretKeyBase == null || secretKeyBase.length() == 0)
+            {
+                String msg = this.getClass().getSimpleName() + " stacksLocalTokenVerification requested, but " +
+                                STACKS_SECRET_KEY_BASE_ENV_VAR + " is not set; verifying all tokens with stacks";
+                getLogger().error(msg);
+                reportNotice(msg);
+                return;
+            }
+            int maxAge = props.getPropertyInt("stacksTokenMaxAge", DEFAULT_STACKS_TOKEN_MAX_AGE);
+            if (maxAge < 1)
+                maxAge = DEFAULT_STACKS_TOKEN_MAX_AGE;
+            String digest = props.getPropertyStr("stacksTokenKeyDigest", DEFAULT_STACKS_TOKEN_KEY_DIGEST);
+            if (digest == null || digest.length() == 0)
+                digest = DEFAULT_STACKS_TOKEN_KEY_DIGEST;
+            int iterations = props.getPropertyInt("stacksTokenKeyIterations", DEFAULT_STACKS_TOKEN_KEY_ITERATIONS);
+            if (iterations < 1)
+                iterations = DEFAULT_STACKS_TOKEN_KEY_ITERATIONS;
+
+            byte[] key = LocalTokenVerifier.deriveKey(secretKeyBase, digest, iterations);
+            localTokenVerifier = new LocalTokenVerifier(key, Duration.ofSeconds(maxAge), Clock.systemUTC());
+            getLogger().info(this.getClass().getSimpleName() + " stacksLocalTokenVerification is on, stacksTokenMaxAge is " + maxAge +
+                                ", stacksTokenKeyDigest is " + digest + ", stacksTokenKeyIterations is " + iterations);
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to set up local stacks token verification; verifying all tokens with stacks ";
+            getLogger().error(msg, e);
+            reportNotice(msg, e);
+        }
+    }
+
+    /** default number of most recent stacks calls the circuit breaker judges stacks' health by */
+    public static final int DEFAULT_STACKS_CIRCUIT_BREAKER_WINDOW_SIZE = 50;
+
+    /** default number of calls needed in the window before the circuit breaker may open */
+    public static final int DEFAULT_STACKS_CIRCUIT_BREAKER_MINIMUM_CALLS = 20;
+
+    /** default percentage of failed calls (timeouts, connection errors, 5xx) that opens the circuit breaker */
+    public static final int DEFAULT_STACKS_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = 50;
+
+    /** default duration, in milliseconds, beyond which a call to stacks counts as slow */
+    public static final int DEFAULT_STACKS_CIRCUIT_BREAKER_SLOW_CALL_DURATION = 5000;
+
+    /** default percentage of slow calls that opens the circuit breaker */
+    public static final int DEFAULT_STACKS_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD = 80;
+
+    /** default time the circuit breaker stays open before trying stacks again, in seconds */
+    public static final int DEFAULT_STACKS_CIRCUIT_BREAKER_OPEN_DURATION = 30;
+
+    /** default number of trial calls let through while the circuit breaker is half open */
+    public static final int DEFAULT_STACKS_CIRCUIT_BREAKER_HALF_OPEN_CALLS = 5;
+
+    /** if the stacksCircuitBreaker property is true, sets up the circuit breaker around calls to stacks from the
+     * stacksCircuitBreaker* properties (defaults used if invalid) */
+    void setCircuitBreaker(IApplicationInstance appInstance)
+    {
+        int windowSize = DEFAULT_STACKS_CIRCUIT_BREAKER_WINDOW_SIZE;
+        int minimumCalls = DEFAULT_STACKS_CIRCUIT_BREAKER_MINIMUM_CALLS;
+        int failureRateThreshold = DEFAULT_STACKS_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD;
+        int slowCallDuration = DEFAULT_STACKS_CIRCUIT_BREAKER_SLOW_CALL_DURATION;
+        int slowCallRateThreshold = DEFAULT_STACKS_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD;
+        int openDuration = DEFAULT_STACKS_CIRCUIT_BREAKER_OPEN_DURATION;
+        int halfOpenCalls = DEFAULT_STACKS_CIRCUIT_BREAKER_HALF_OPEN_CALLS;
+        boolean enabled = false;
+        circuitBreaker = null;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            enabled = props.getPropertyBoolean("stacksCircuitBreaker", false);
+            if (!enabled)
+            {
+                getLogger().info(this.getClass().getSimpleName() + " stacksCircuitBreaker is off");
+                return;
+            }
+            windowSize = positiveOrDefault(props.getPropertyInt("stacksCircuitBreakerWindowSize", windowSize), windowSize);
+            minimumCalls = positiveOrDefault(props.getPropertyInt("stacksCircuitBreakerMinimumCalls", minimumCalls), minimumCalls);
+            failureRateThreshold = percentageOrDefault(props.getPropertyInt("stacksCircuitBreakerFailureRateThreshold", failureRateThreshold), failureRateThreshold);
+            slowCallDuration = positiveOrDefault(props.getPropertyInt("stacksCircuitBreakerSlowCallDuration", slowCallDuration), slowCallDuration);
+            slowCallRateThreshold = percentageOrDefault(props.getPropertyInt("stacksCircuitBreakerSlowCallRateThreshold", slowCallRateThreshold), slowCallRateThreshold);
+            openDuration = positiveOrDefault(props.getPropertyInt("stacksCircuitBreakerOpenDuration", openDuration), openDuration);
+            halfOpenCalls = positiveOrDefault(props.getPropertyInt("stacksCircuitBreakerHalfOpenCalls", halfOpenCalls), halfOpenCalls);
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacksCircuitBreaker settings from properties; using defaults ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+        }
+        if (!enabled)
+            return;
+        circuitBreaker = new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold, slowCallRateThreshold,
+                                            slowCallDuration, openDuration, halfOpenCalls, this::onCircuitBreakerTransition);
+        getLogger().info(this.getClass().getSimpleName() + " stacksCircuitBreaker is " + circuitBreaker);
+    }
+
+    private static int positiveOrDefault(int value, int defaultValue)
+    {
+        return value > 0 ? value : defaultValue;
+    }
+
+    private static int percentageOrDefault(int value, int defaultValue)
+    {
+        return value > 0 && value <= 100 ? value : defaultValue;
+    }
+
+    /** each transition is logged (and an opening reported) once, rather than once per refused session */
+    void onCircuitBreakerTransition(CircuitBreaker.State from, CircuitBreaker.State to, String reason)
+    {
+        String msg = this.getClass().getSimpleName() + " stacks circuit breaker " + from + " -> " + to + ": " + reason;
+        if (to == CircuitBreaker.State.OPEN)
+        {
+            msg += "; rejecting stacks_token verifications without asking stacks";
+            getLogger().error(msg);
+            reportNotice(msg);
+        }
+        else
+            getLogger().info(msg);
+    }
+
+    /** default number of verify_token requests allowed in flight to stacks before any latency has been observed */
+    public static final int DEFAULT_STACKS_CONCURRENCY_LIMIT_INITIAL = 20;
+
+    /** default floor for the adaptive limit on verify_token requests in flight */
+    public static final int DEFAULT_STACKS_CONCURRENCY_LIMIT_MIN = 5;
+
+    /** default ceiling for the adaptive limit on verify_token requests in flight */
+    public static final int DEFAULT_STACKS_CONCURRENCY_LIMIT_MAX = 200;
+
+    /** default number of verify_token requests that may wait for a slot once the limit is reached */
+    public static final int DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_SIZE = 50;
+
+    /** default time a verify_token request may wait for a slot, in milliseconds */
+    public static final int DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_TIMEOUT = 100;
+
+    /** if the stacksConcurrencyLimit property is true, sets up the adaptive limit on verify_token requests in
+     * flight from the stacksConcurrencyLimit* properties (defaults used if invalid) */
+    void setConcurrencyLimiter(IApplicationInstance appInstance)
+    {
+        int initialLimit = DEFAULT_STACKS_CONCURRENCY_LIMIT_INITIAL;
+        int minLimit = DEFAULT_STACKS_CONCURRENCY_LIMIT_MIN;
+        int maxLimit = DEFAULT_STACKS_CONCURRENCY_LIMIT_MAX;
+        int queueSize = DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_SIZE;
+        int queueTimeout = DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_TIMEOUT;
+        boolean enabled = false;
+        concurrencyLimiter = null;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            enabled = props.getPropertyBoolean("stacksConcurrencyLimit", false);
+            if (!enabled)
+            {
+                getLogger().info(this.getClass().getSimpleName() + " stacksConcurrencyLimit is off");
+                return;
+            }
+            initialLimit = positiveOrDefault(props.getPropertyInt("stacksConcurrencyLimitInitial", initialLimit), initialLimit);
+            minLimit = positiveOrDefault(props.getPropertyInt("stacksConcurrencyLimitMin", minLimit), minLimit);
+            maxLimit = positiveOrDefault(props.getPropertyInt("stacksConcurrencyLimitMax", maxLimit), maxLimit);
+            queueSize = props.getPropertyInt("stacksConcurrencyLimitQueueSize", queueSize);
+            if (queueSize < 0)
+                queueSize = DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_SIZE;
+            queueTimeout = props.getPropertyInt("stacksConcurrencyLimitQueueTimeout", queueTimeout);
+            if (queueTimeout < 0)
+                queueTimeout = DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_TIMEOUT;
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacksConcurrencyLimit settings from properties; using defaults ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+        }
+        if (!enabled)
+            return;
+        concurrencyLimiter = new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, queueSize, queueTimeout);
+        getLogger().info(this.getClass().getSimpleName() + " stacksConcurrencyLimit is " + concurrencyLimiter);
+    }
+
+    /** default time a batch of verify_token requests waits for more to join it, in milliseconds */
+    public static final int DEFAULT_STACKS_BATCH_WINDOW_MILLIS = 5;
+
+    /** default most verify_token requests sent in one bulk request */
+    public static final int DEFAULT_STACKS_BATCH_MAX_SIZE = 50;
+
+    /** default path (relative to stacksURL) of the bulk verify_token endpoint */
+    public static final String DEFAULT_STACKS_BATCH_PATH = "/media/verify_tokens";
+
+    /** path (relative to stacksURL) of the bulk verify_token endpoint */
+    String stacksBatchPath = DEFAULT_STACKS_BATCH_PATH;
+
+    /** if the stacksBatchVerification property is true, sets up micro-batching of verify_token requests from the
+     * stacksBatch* properties (defaults used if invalid) */
+    void setVerificationBatcher(IApplicationInstance appInstance)
+    {
+        int windowMillis = DEFAULT_STACKS_BATCH_WINDOW_MILLIS;
+        int maxSize = DEFAULT_STACKS_BATCH_MAX_SIZE;
+        String path = DEFAULT_STACKS_BATCH_PATH;
+        verificationBatcher = null;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            if (!props.getPropertyBoolean("stacksBatchVerification", false))
+                return;
+            windowMillis = props.getPropertyInt("stacksBatchWindowMillis", windowMillis);
+            if (windowMillis < 0)
+                windowMillis = DEFAULT_STACKS_BATCH_WINDOW_MILLIS;
+            maxSize = positiveOrDefault(props.getPropertyInt("stacksBatchMaxSize", maxSize), maxSize);
+            String configuredPath = props.getPropertyStr("stacksBatchPath", path);
+            if (configuredPath != null && configuredPath.startsWith("/"))
+                path = configuredPath;
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacksBatchVerification settings from properties; using defaults ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+        }
+        stacksBatchPath = path;
+        verificationBatcher = new VerificationBatcher(windowMillis, maxSize, this::sendStacksBatchRequest);
+        getLogger().info(this.getClass().getSimpleName() + " stacksBatchVerification is " + verificationBatcher + ", stacksBatchPath is " + path);
     }
 
     public static final String DEFAULT_STACKS_TOKEN_VERIFICATION_BASEURL = "http://localhost:3000";
 
+    /** default path on each stacks endpoint the health checks probe */
+    public static final String DEFAULT_STACKS_HEALTH_CHECK_PATH = "/status";
+
+    /** default time between health checks of the stacks endpoints, in seconds */
+    public static final int DEFAULT_STACKS_HEALTH_CHECK_INTERVAL = 10;
+
+    /** default number of consecutive failures after which a stacks endpoint is considered unhealthy */
+    public static final int DEFAULT_STACKS_HEALTH_CHECK_FAILURES = 3;
+
+    /** if stacksURL lists more than one base URL, sets up routing between them, with health checks and optional
+     * hedging per the stacksHealthCheck* and stacksHedging properties (defaults used if invalid) */
+    void setStacksEndpoints(IApplicationInstance appInstance, String[] stacksBaseUrls)
+    {
+        if (stacksEndpoints != null)
+            stacksEndpoints.shutdown();
+        stacksEndpoints = null;
+        if (stacksBaseUrls.length < 2)
+            return;
+
+        String healthCheckPath = DEFAULT_STACKS_HEALTH_CHECK_PATH;
+        int healthCheckInterval = DEFAULT_STACKS_HEALTH_CHECK_INTERVAL;
+        int healthCheckFailures = DEFAULT_STACKS_HEALTH_CHECK_FAILURES;
+        boolean hedging = false;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            String path = props.getPropertyStr("stacksHealthCheckPath", healthCheckPath);
+            if (path != null && path.startsWith("/"))
+                healthCheckPath = path;
+            healthCheckInterval = props.getPropertyInt("stacksHealthCheckInterval", healthCheckInterval);
+            if (healthCheckInterval < 0)
+                healthCheckInterval = DEFAULT_STACKS_HEALTH_CHECK_INTERVAL;
+            healthCheckFailures = positiveOrDefault(props.getPropertyInt("stacksHealthCheckFailures", healthCheckFailures), healthCheckFailures);
+            hedging = props.getPropertyBoolean("stacksHedging", false);
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacks endpoint settings from properties; using defaults ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+        }
+        stacksEndpoints = new StacksEndpoints(Arrays.asList(stacksBaseUrls), healthCheckFailures, hedging, this::onStacksEndpointHealthChange);
+        String probePath = healthCheckPath;
+        if (healthCheckInterval > 0)
+            stacksEndpoints.startHealthChecks(baseUrl -> probeStacksEndpoint(baseUrl + probePath), healthCheckInterval);
+        getLogger().info(this.getClass().getSimpleName() + " stacksHealthCheckPath is " + healthCheckPath + ", stacksHealthCheckInterval is " +
+                            healthCheckInterval + ", stacksHealthCheckFailures is " + healthCheckFailures + ", stacksHedging is " + hedging);
+    }
+
+    /** default number of connections to open to each stacks endpoint at startup */
+    public static final int DEFAULT_STACKS_WARMUP_CONNECTIONS = 4;
+
+    /** if the stacksWarmup property is true, starts resolving and connecting to the stacks endpoints in the
+     * background, per the stacksWarmup* properties (defaults used if invalid), and logs how long it took */
+    void warmUpStacks(IApplicationInstance appInstance, String[] stacksBaseUrls)
+    {
+        int connections = DEFAULT_STACKS_WARMUP_CONNECTIONS;
+        String path = DEFAULT_STACKS_HEALTH_CHECK_PATH;
+        stacksWarmup = null;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            if (!props.getPropertyBoolean("stacksWarmup", false))
+                return;
+            connections = positiveOrDefault(props.getPropertyInt("stacksWarmupConnections", connections), connections);
+            String configuredPath = props.getPropertyStr("stacksWarmupPath", path);
+            if (configuredPath != null && configuredPath.startsWith("/"))
+                path = configuredPath;
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read stacksWarmup settings from properties; using defaults ";
+            getLogger().info(msg, e);
+            reportNotice(msg, e);
+        }
+        StacksWarmup warmup = new StacksWarmup(Arrays.asList(stacksBaseUrls), path, connections, url -> sendStacksRequestAsync(url, "HEAD"));
+        stacksWarmup = warmup;
+        getLogger().info(this.getClass().getSimpleName() + " stacksWarmup is " + warmup);
+        warmup.start().whenComplete((done, error) -> logStacksWarmup(warmup));
+    }
+
+    void logStacksWarmup(StacksWarmup warmup)
+    {
+        for (StacksWarmup.Timing timing : warmup.getTimings())
+        {
+            String msg = this.getClass().getSimpleName() + " stacks warmup " + timing;
+            if (timing.failure == null)
+                getLogger().info(msg);
+            else
+                getLogger().warn(msg);
+        }
+        getLogger().info(this.getClass().getSimpleName() + " stacks warmup finished in " + warmup.totalMillis() + "ms");
+    }
+
+    /** any answer short of a 5xx means the endpoint is up */
+    boolean probeStacksEndpoint(String probeUrl)
+            throws IOException, InterruptedException
+    {
+        return sendStacksRequest(new URL(probeUrl), "HEAD").statusCode() < HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    void onStacksEndpointHealthChange(StacksEndpoints.Endpoint endpoint, boolean healthy)
+    {
+        if (healthy)
+            getLogger().info(this.getClass().getSimpleName() + " stacks endpoint " + endpoint + " is healthy again");
+        else
+            getLogger().error(this.getClass().getSimpleName() + " stacks endpoint " + endpoint + " is unhealthy; routing around it");
+    }
+
     // TODO:  this approach expects the properties to be set in Application.xml
     //   maybe that's good, or maybe we want to load a java properties file from our plugin jar itself?
     /** reads stacksUrl from properties */
@@ -251,85 +1114,362 @@ public class SulWowza extends ModuleBase
         }
     }
 
-    // the user's actual IP address will be the first entry in a comma-separated list
-    // of IP addresses in the "x-forwarded-for" header (as there might be proxies between
-    // the user and wowza).
+    /** if the trustedProxies property lists address ranges (e.g. "10.0.0.0/8, 2001:db8::/32"), sets up the
+     * trustedProxies used by getUserIp;  otherwise, or if any range is invalid, getUserIp uses the first
+     * x-forwarded-for entry */
+    void setTrustedProxies(IApplicationInstance appInstance)
+    {
+        trustedProxies = null;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            String cidrs = props.getPropertyStr("trustedProxies", "");
+            CidrTrie parsed = cidrs == null ? null : CidrTrie.parse(cidrs);
+            if (parsed == null || parsed.isEmpty())
+                getLogger().info(this.getClass().getSimpleName() + " trustedProxies is not set; user IP is the first x-forwarded-for entry");
+            else
+            {
+                trustedProxies = parsed;
+                getLogger().info(this.getClass().getSimpleName() + " trustedProxies is " + parsed);
+            }
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to read trustedProxies from properties; user IP is the first x-forwarded-for entry ";
+            getLogger().error(msg, e);
+            reportNotice(msg, e);
+        }
+    }
+
+    /** default number of authorization decisions that can wait to be written to the audit log;  more are dropped */
+    public static final int DEFAULT_AUDIT_LOG_BUFFER_SIZE = 8192;
+
+    /** default size the audit log file is rotated at, in megabytes */
+    public static final int DEFAULT_AUDIT_LOG_MAX_FILE_SIZE = 100;
+
+    /** default number of rotated audit log files kept */
+    public static final int DEFAULT_AUDIT_LOG_MAX_FILES = 10;
+
+    /** how long onAppStop waits for the audit log to be written, in milliseconds */
+    static final long AUDIT_LOG_CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /** starts the audit log if the auditLogFile property is set, with the auditLogBufferSize, auditLogMaxFileSize
+     * (in megabytes) and auditLogMaxFiles properties;  uses defaults if invalid. */
+    void setAuditLog(IApplicationInstance appInstance)
+    {
+        closeAuditLog();
+        String file = null;
+        int bufferSize = DEFAULT_AUDIT_LOG_BUFFER_SIZE;
+        int maxFileSize = DEFAULT_AUDIT_LOG_MAX_FILE_SIZE;
+        int maxFiles = DEFAULT_AUDIT_LOG_MAX_FILES;
+        try
+        {
+            WMSProperties props = appInstance.getProperties();
+            file = props.getPropertyStr("auditLogFile", "");
+            if (file == null || file.trim().isEmpty())
+            {
+                getLogger().info(this.getClass().getSimpleName() + " auditLogFile is not set; authorization decisions aren't audited");
+                return;
+            }
+            file = file.trim();
+            bufferSize = positiveOrDefault(props.getPropertyInt("auditLogBufferSize", bufferSize), bufferSize);
+            maxFileSize = positiveOrDefault(props.getPropertyInt("auditLogMaxFileSize", maxFileSize), maxFileSize);
+            maxFiles = props.getPropertyInt("auditLogMaxFiles", maxFiles);
+            if (maxFiles < 0)
+                maxFiles = DEFAULT_AUDIT_LOG_MAX_FILES;
+            auditLog = new AuditLog(Paths.get(file), bufferSize, maxFileSize * 1024L * 1024L, maxFiles, this::auditLogFailed);
+            getLogger().info(this.getClass().getSimpleName() + " auditLogFile is " + file + ", auditLogBufferSize is " + bufferSize +
+                                ", auditLogMaxFileSize is " + maxFileSize + "MB, auditLogMaxFiles is " + maxFiles);
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to start audit log " + file + "; authorization decisions aren't audited ";
+            getLogger().error(msg, e);
+            reportNotice(msg, e);
+        }
+    }
+
+    /** called on the audit log's writer thread when it can't write the file */
+    void auditLogFailed(IOException e)
+    {
+        String msg = this.getClass().getSimpleName() + " unable to write audit log ";
+        getLogger().error(msg, e);
+        reportNotice(msg, e);
+    }
+
+    /** waits (a while) for the audit log to write the decisions recorded so far, then stops it */
+    void closeAuditLog()
+    {
+        AuditLog log = auditLog;
+        if (log == null)
+            return;
+        auditLog = null;
+        if (log.close(AUDIT_LOG_CLOSE_TIMEOUT_MILLIS))
+            getLogger().info(this.getClass().getSimpleName() + " closed audit log: " + log);
+        else
+            getLogger().warn(this.getClass().getSimpleName() + " gave up waiting for the audit log to be written: " + log);
+    }
+
+    /** the domain of the names SulWowzaMXBeans are registered under */
+    static final String MBEAN_DOMAIN = "edu.stanford.dlss.wowza";
+
+    /** the name of the SulWowzaMXBean for an application instance */
+    static ObjectName mbeanName(String application, String instance)
+            throws MalformedObjectNameException
+    {
+        return new ObjectName(MBEAN_DOMAIN + ":type=SulWowza,application=" + ObjectName.quote(application) +
+                              ",instance=" + ObjectName.quote(instance));
+    }
+
+    /** if the jmx property is true, registers a SulWowzaMXBean for this application instance with the platform
+     * MBean server, to see its settings and statistics, and change some settings, while it runs */
+    void registerMBean(IApplicationInstance appInstance)
+    {
+        try
+        {
+            if (!appInstance.getProperties().getPropertyBoolean("jmx", false))
+            {
+                getLogger().info(this.getClass().getSimpleName() + " jmx is off");
+                return;
+            }
+            ObjectName name = mbeanName(applicationName, instanceName);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name))
+                server.unregisterMBean(name); // left by an earlier start of this application instance
+            server.registerMBean(new SulWowzaManagement(this), name);
+            mbeanName = name;
+            getLogger().info(this.getClass().getSimpleName() + " jmx is on, as " + name);
+        }
+        catch (Exception e)
+        {
+            String msg = this.getClass().getSimpleName() + " unable to register JMX MBean ";
+            getLogger().error(msg, e);
+            reportNotice(msg, e);
+        }
+    }
+
+    void unregisterMBean()
+    {
+        ObjectName name = mbeanName;
+        if (name == null)
+            return;
+        mbeanName = null;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (JMException e)
+        {
+            getLogger().warn(this.getClass().getSimpleName() + " unable to unregister JMX MBean " + name + ": " + e);
+        }
+    }
+
+    /** counts an authorization decision in metrics, and records it in the audit log, if there is one;  if reason
+     * is null, it's the reason noted on this thread while deciding */
+    void recordDecision(AuthorizationMetrics.Protocol protocol, StreamName parsed, String userIp, boolean accepted, AuditLog.Reason reason,
+                        long startNanos)
+    {
+        AuditLog.Reason noted = AuditLog.takeReason();
+        if (reason == null)
+            reason = noted;
+        long latencyNanos = System.nanoTime() - startNanos;
+        metrics.recordDecision(protocol, accepted, reason, latencyNanos);
+        AuditLog log = auditLog;
+        if (log != null)
+            log.record(protocol.label, parsed == null ? null : parsed.druid(), parsed == null ? null : parsed.filename(), userIp,
+                       accepted, reason, latencyNanos);
+    }
+
+    // the user's actual IP address will be in the comma-separated list of IP addresses in the
+    // "x-forwarded-for" header (as there might be proxies between the user and wowza), each
+    // proxy appending the address it got the request from.  without trustedProxies, that's
+    // the first entry;  with them, it's the last entry that isn't one of our proxies, since
+    // anything to the left of that could have been sent by the user.
+    // IPv6 addresses are returned in canonical (RFC 5952) form.
     // returns an empty string if it can't parse out an IP address.
     String getUserIp(Map<String,String> httpReqHeaders)
     {
         String xForwardedFor = httpReqHeaders.get("x-forwarded-for");
-        getLogger().debug(this.getClass().getSimpleName() + " x-forwarded-for: " + xForwardedFor);
+        sessionLog.debug(SessionLog.Category.SESSION, "x-forwarded-for: {}", xForwardedFor);
 
         // nothing in the header field to parse, return empty string
         if(xForwardedFor == null || xForwardedFor.length() == 0)
             return "";
 
-        String[] userIpArr = xForwardedFor.split(",");
-        return userIpArr[0].trim();
+        String userIp;
+        if (trustedProxies == null)
+        {
+            // only the first entry matters, so don't split the rest of the list
+            int end = xForwardedFor.indexOf(',');
+            userIp = (end < 0 ? xForwardedFor : xForwardedFor.substring(0, end)).trim();
+        }
+        else
+            userIp = lastUntrustedEntry(xForwardedFor, trustedProxies);
+        if (userIp.indexOf(':') < 0)
+            return userIp; // IPv4 (or invalid), nothing to canonicalize
+        IpAddress address = IpAddress.parse(userIp);
+        return address == null ? userIp : address.toString();
+    }
+
+    /** walks the x-forwarded-for entries right to left, skipping those of trusted proxies;  the leftmost entry if
+     * they're all trusted */
+    static String lastUntrustedEntry(String xForwardedFor, CidrTrie trustedProxies)
+    {
+        int end = xForwardedFor.length();
+        while (true)
+        {
+            int comma = xForwardedFor.lastIndexOf(',', end - 1);
+            int start = comma + 1;
+            while (start < end && Character.isWhitespace(xForwardedFor.charAt(start)))
+                start++;
+            int trimmedEnd = end;
+            while (trimmedEnd > start && Character.isWhitespace(xForwardedFor.charAt(trimmedEnd - 1)))
+                trimmedEnd--;
+            IpAddress hop = IpAddress.parse(xForwardedFor, start, trimmedEnd);
+            if (comma < 0 || hop == null || !trustedProxies.contains(hop))
+                return xForwardedFor.substring(start, trimmedEnd);
+            end = comma;
+        }
     }
 
     void authorizeSession(IHTTPStreamerSession httpSession)
     {
+        long start = System.nanoTime();
         String queryStr = httpSession.getQueryStr();
         String stacksToken = getStacksToken(queryStr);
         String userIp = getUserIp(httpSession.getHTTPHeaderMap());
-        getLogger().debug(this.getClass().getSimpleName() + " userIp: " + userIp);
         String streamName = httpSession.getStreamName();
-        getLogger().debug(this.getClass().getSimpleName() + " streamName: " + streamName);
-        if (validateStacksToken(stacksToken) && validateUserIp(userIp) && validateStreamName(streamName))
+        sessionLog.debug(SessionLog.Category.SESSION, "userIp: {}, streamName: {}", userIp, streamName);
+        StreamName parsed = validateStacksToken(stacksToken) && validateUserIp(userIp) ? parseStreamName(streamName) : null;
+        if (parsed != null)
         {
-            String druid = getDruid(streamName);
-            String filename = getFilename(streamName);
+            String druid = parsed.druid();
+            String filename = parsed.filename();
 
-            if (druid != null && filename != null && verifyStacksToken(stacksToken, druid, filename, userIp))
+            if (verifyStacksToken(stacksToken, druid, filename, userIp))
+            {
+                recordDecision(protocolOf(httpSession), parsed, userIp, true, null, start);
                 httpSession.acceptSession();
+            }
             else
-                getLogger().info(this.getClass().getSimpleName() + " druid: " + druid + " filename:" + filename);
+            {
+                sessionLog.info(SessionLog.Category.SESSION, "druid: {} filename:{}", druid, filename);
+                recordDecision(protocolOf(httpSession), parsed, userIp, false, null, start);
                 httpSession.rejectSession();
+            }
         }
         else
+        {
+            recordDecision(protocolOf(httpSession), null, userIp, false, null, start);
+            httpSession.rejectSession();
+        }
+    }
+
+    static AuthorizationMetrics.Protocol protocolOf(IHTTPStreamerSession httpSession)
+    {
+        if (httpSession instanceof HTTPStreamerSessionCupertino)
+            return AuthorizationMetrics.Protocol.HLS;
+        if (httpSession instanceof HTTPStreamerSessionMPEGDash)
+            return AuthorizationMetrics.Protocol.DASH;
+        return AuthorizationMetrics.Protocol.HTTP;
+    }
+
+    /** runs authorizeSession on authorizationExecutor, so that a slow stacks doesn't hold up the Wowza thread
+     * creating the session;  the session is accepted or rejected when verification completes.
+     * Rejects immediately if the executor is saturated. */
+    void authorizeSessionAsync(IHTTPStreamerSession httpSession)
+    {
+        metrics.poolTaskQueued();
+        try
+        {
+            authorizationExecutor.execute(() -> {
+                metrics.poolTaskStarted();
+                try
+                {
+                    authorizeSession(httpSession);
+                }
+                catch (RuntimeException e)
+                {
+                    String msg = this.getClass().getSimpleName() + " unexpected error authorizing streamName " + httpSession.getStreamName() + " ";
+                    getLogger().error(msg, e);
+                    reportNotice(msg, e);
+                    recordDecision(protocolOf(httpSession), null, null, false, AuditLog.Reason.UNEXPECTED_ERROR, System.nanoTime());
+                    httpSession.rejectSession();
+                }
+                finally
+                {
+                    metrics.poolTaskFinished();
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            metrics.poolTaskRejected();
+            getLogger().error(this.getClass().getSimpleName() + " rejecting streamName " + httpSession.getStreamName() +
+                                " because the authorization queue is full");
+            recordDecision(protocolOf(httpSession), null, null, false, AuditLog.Reason.QUEUE_FULL, System.nanoTime());
             httpSession.rejectSession();
+        }
     }
 
     boolean authorizePlay(String queryStr, String userIp, String streamName)
     {
+        long start = System.nanoTime();
         String stacksToken = getStacksToken(queryStr);
-        if (validateStacksToken(stacksToken) && validateUserIp(userIp) && validateStreamName(streamName))
+        StreamName parsed = validateStacksToken(stacksToken) && validateUserIp(userIp) ? parseStreamName(streamName) : null;
+        if (parsed != null)
         {
-            String druid = getDruid(streamName);
-            String filename = getFilename(streamName);
-
-            getLogger().debug(this.getClass().getSimpleName() + " userIp: " + userIp);
-            getLogger().debug(this.getClass().getSimpleName() + " streamName: " + streamName);
-            if (druid != null && filename != null && verifyStacksToken(stacksToken, druid, filename, userIp))
-                return true;
-            else
-                return false;
+            sessionLog.debug(SessionLog.Category.SESSION, "userIp: {}, streamName: {}", userIp, streamName);
+            boolean authorized = verifyStacksToken(stacksToken, parsed.druid(), parsed.filename(), userIp);
+            recordDecision(AuthorizationMetrics.Protocol.RTMP, parsed, userIp, authorized, null, start);
+            return authorized;
         }
         else
+        {
+            recordDecision(AuthorizationMetrics.Protocol.RTMP, null, userIp, false, null, start);
             return false;
+        }
     }
 
-    /** Assumption: stacksToken, druid, userIp and filename are all reasonable values (non-null, not empty, etc.) */
+    /** Assumption: stacksToken, druid, userIp and filename are all reasonable values (non-null, not empty, etc.)
+     * If local token verification is configured, it's tried first, and stacks is only asked if it can't decide. */
     boolean verifyStacksToken(String stacksToken, String druid, String filename, String userIp)
     {
+        if (localTokenVerifier != null)
+        {
+            LocalTokenVerifier.Decision decision = localTokenVerifier.verify(stacksToken, druid, filename, userIp);
+            if (decision != LocalTokenVerifier.Decision.UNDECIDED)
+                AuditLog.noteReason(AuditLog.Reason.LOCAL_VERIFIER);
+            if (decision == LocalTokenVerifier.Decision.APPROVED)
+                return true;
+            if (decision == LocalTokenVerifier.Decision.REJECTED)
+            {
+                sessionLog.info(SessionLog.Category.VERIFY, "stacks token rejected locally for druid {}, filename {}, userIp {}",
+                                druid, filename, userIp);
+                return false;
+            }
+        }
+
         URL fullUrl = getVerifyStacksTokenUrl(stacksToken, druid, filename, userIp);
         if (fullUrl != null)
             return verifyTokenAgainstStacksService(fullUrl);
         else
+        {
+            AuditLog.noteReason(AuditLog.Reason.BAD_URL);
             return false;
+        }
     }
 
     String getStacksToken(String queryStr)
     {
         if (queryStr != null && queryStr.length() > 13) // "stacks_token=" is 13 chars
         {
-            String[] parts = queryStr.split("\\?");
-            String query = parts[parts.length - 1];
-            List<NameValuePair> httpParams = URLEncodedUtils.parse(query, Charset.defaultCharset());
-            for (NameValuePair param : httpParams)
-                if (param.getName().equals("stacks_token"))
-                    return param.getValue();
+            // the query is whatever follows the last '?' (not counting trailing ones), if any
+            int end = queryStr.length();
+            while (end > 0 && queryStr.charAt(end - 1) == '?')
+                end--;
+            int start = queryStr.lastIndexOf('?', end - 1) + 1;
+            return QueryStrings.findParam(queryStr, start, end, "stacks_token");
         }
         return null;
     }
@@ -346,27 +1486,20 @@ public class SulWowza extends ModuleBase
         {
             getLogger().error(this.getClass().getSimpleName() + ": stacksToken missing or implausibly short" +
                                 (stacksToken == null ? "" : ": " + stacksToken));
+            AuditLog.noteReason(AuditLog.Reason.INVALID_TOKEN);
             return false;
         }
     }
 
-    boolean isValidInetAddr(String inetAddress)
-    {
-        return InetAddressValidator.getInstance().isValid(inetAddress);
-    }
-
-    /** it's possible for something like "1.1" or "1" to be a valid IP address, but we want a full four octet address.
-      * this implicitly restricts us to IPv4 for now, though that seems like a safe assumption at the moment.
+    /** it's possible for something like "1.1" or "1" to be a valid IPv4 address, but we want a full four octet address.
+      * IPv6 addresses are fine too.
       * see also: http://docs.oracle.com/javase/6/docs/api/java/net/Inet4Address.html#format
      */
-    boolean isDottedQuadString(String ipAddr)
-    {
-        return ipAddr.matches("\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}");
-    }
-
     boolean validateUserIp(String userIp)
     {
-        if (userIp != null && isValidInetAddr(userIp) && isDottedQuadString(userIp))
+        // the common IPv4 case without allocating;  anything else is parsed once more, as IPv6 only
+        if (IpAddresses.parseIpv4(userIp) != IpAddresses.INVALID ||
+                (userIp != null && IpAddress.parseIpv6(userIp, 0, userIp.length()) != null))
             return true;
         else
         {
@@ -376,86 +1509,52 @@ public class SulWowza extends ModuleBase
             String msg = this.getClass().getSimpleName() + ": User IP missing or invalid" + (userIp == null ? "" : ": " + userIp);
             getLogger().error(msg);
             reportNotice(msg);
+            AuditLog.noteReason(AuditLog.Reason.INVALID_USER_IP);
             return false;
         }
     }
 
     private static final int DRUID_TREE_LENGTH = "aa/123/bb/4567".length();
 
-    /** require streamName to have format "aa/000/aa/0000/sample.mp4"  (druid tree)/(media_fname) */
-    boolean validateStreamName(String streamName)
+    /** parses streamName, which should have the format "aa/000/aa/0000/[protocol:]sample.mp4[?query]"
+     * (druid tree)/(media_fname);  null (with the problem logged) unless it has a valid druid and filename */
+    StreamName parseStreamName(String streamName)
     {
-        if (streamName == null || streamName.length() <= DRUID_TREE_LENGTH)
-        {
-            getLogger().error(this.getClass().getSimpleName() + ": streamName missing or implausibly short" +
-                                (streamName == null ? "" : ": " + streamName));
-            return false;
-        }
-        String[] pieces = streamName.split("/");
-        if (pieces.length == 5)
-            return true;
-        else
+        StreamName parsed = StreamName.parse(streamName);
+        if (parsed == null)
         {
-            getLogger().error(this.getClass().getSimpleName() + ": unable to parse druid and filename from streamName " + streamName);
-            return false;
+            if (streamName == null || streamName.length() <= DRUID_TREE_LENGTH)
+                getLogger().error(this.getClass().getSimpleName() + ": streamName missing or implausibly short" +
+                                    (streamName == null ? "" : ": " + streamName));
+            else
+                getLogger().error(this.getClass().getSimpleName() + ": unable to parse druid and filename from streamName " + streamName);
+            AuditLog.noteReason(AuditLog.Reason.INVALID_STREAM_NAME);
+            return null;
         }
-    }
-
-    static private final Pattern DRUID_REGEX_PATTERN = Pattern.compile("[a-z]{2}\\d{3}[a-z]{2}\\d{4}");
-
-    /** the druid of the media file to be streamed;  needed to verify stacks token
-     * Assumption:  validateStreamName() was already called */
-    String getDruid(String streamName)
-    {
-        String[] pieces = streamName.split("/");
-        String druid = pieces[0] + pieces[1] + pieces[2] + pieces[3];
-        if (DRUID_REGEX_PATTERN.matcher(druid).matches())
-            return druid;
-        else
+        if (parsed.druid() == null)
         {
-            getLogger().error(this.getClass().getSimpleName() + ": can't parse druid from streamName" +
-                    (streamName == null ? "" : ": " + streamName));
+            getLogger().error(this.getClass().getSimpleName() + ": can't parse druid from streamName: " + streamName);
+            AuditLog.noteReason(AuditLog.Reason.INVALID_STREAM_NAME);
             return null;
         }
-    }
-
-    /** the media file to be streamed, as stored under the druid-tree;  needed to verify stacks token
-     * Assumption:  validateStreamName() was already called */
-    String getFilename(String streamName)
-    {
-        String myStreamName = streamName;
-        // remove query string suffix if present
-        int questionMarkIndex = streamName.indexOf('?');
-        if (questionMarkIndex > 0)
-            myStreamName = streamName.substring(0, questionMarkIndex);
-
-        String filename = myStreamName.substring(myStreamName.lastIndexOf('/') + 1);
-        // remove protocol prefix if present
-        int colonIndex = filename.indexOf(':');
-        if (colonIndex > 0)
-            filename = filename.substring(colonIndex + 1);
-
-        if (filename.length() > 0)
-            return filename;
-        else
+        if (parsed.filename() == null)
         {
-            getLogger().error(this.getClass().getSimpleName() + ": can't parse fileName from streamName" +
-                    (streamName == null ? "" : ": " + streamName));
+            getLogger().error(this.getClass().getSimpleName() + ": can't parse fileName from streamName: " + streamName);
+            AuditLog.noteReason(AuditLog.Reason.INVALID_STREAM_NAME);
             return null;
         }
+        return parsed;
     }
 
     /** Assumption: stacksToken, druid, userIp and filename are all reasonable values (non-null, not empty, etc.) */
     URL getVerifyStacksTokenUrl(String stacksToken, String druid, String filename, String userIp)
     {
-        String queryStr = "stacks_token=" + escapeFormParam(stacksToken) + "&user_ip=" + escapeFormParam(userIp);
-        String fullUrl = stacksTokenVerificationBaseUrl + "/media/" +
-                        escapePathSegment(druid) + "/" + escapePathSegment(filename) +
-                        "/verify_token?" + queryStr;
-
         try
         {
-            return new URL(fullUrl);
+            VerifyTokenUrlTemplate template = verifyTokenUrlTemplate;
+            if (template == null || !template.isFor(stacksTokenVerificationBaseUrl))
+                verifyTokenUrlTemplate = template = new VerifyTokenUrlTemplate(stacksTokenVerificationBaseUrl);
+            return template.build(stacksToken, druid, filename, userIp);
         }
         catch (MalformedURLException e)
         {
@@ -466,25 +1565,84 @@ public class SulWowza extends ModuleBase
         }
     }
 
-    /** Assumption: verifyStacksTokenUrl is a valid URL */
+    /** how much longer than the request timeout a caller waits for an identical verification already in flight:
+     * the leader may first wait for a concurrency limit slot or a batch */
+    static final long SINGLE_FLIGHT_WAIT_MARGIN_MILLIS = 1000;
+
+    /** Assumption: verifyStacksTokenUrl is a valid URL.
+     * Positive decisions and 4xx rejections are cached, keyed on the path and query of verifyStacksTokenUrl, which
+     * encode the (stacksToken, druid, filename, userIp) tuple being verified. */
     boolean verifyTokenAgainstStacksService(URL verifyStacksTokenUrl)
     {
+        String cacheKey = verifyStacksTokenUrl.getFile();
+        if (verificationCache.isApproved(cacheKey))
+        {
+            AuditLog.noteReason(AuditLog.Reason.APPROVAL_CACHE);
+            sessionLog.debug(SessionLog.Category.CACHE, "verify_token approval found in cache for {}", verifyStacksTokenUrl);
+            return true;
+        }
+        if (rejectionCache.isRejected(cacheKey))
+        {
+            AuditLog.noteReason(AuditLog.Reason.REJECTION_CACHE);
+            sessionLog.debug(SessionLog.Category.CACHE, "verify_token rejection found in cache for {}", verifyStacksTokenUrl);
+            return false;
+        }
+
+        // the caller that actually asks stacks notes its own reason
+        AuditLog.noteReason(AuditLog.Reason.COALESCED);
+        long waitMillis = stacksRequestTimeoutMillis() + SINGLE_FLIGHT_WAIT_MARGIN_MILLIS;
+        return singleFlight.execute(cacheKey, waitMillis, () -> requestVerificationFromStacks(verifyStacksTokenUrl, cacheKey));
+    }
+
+    /** sends the verify_token request to stacks and caches the decision;  concurrent identical calls are coalesced
+     * by singleFlight, so this runs once per cacheKey at a time */
+    boolean requestVerificationFromStacks(URL verifyStacksTokenUrl, String cacheKey)
+    {
+        ConcurrencyLimiter limiter = concurrencyLimiter;
+        if (limiter != null && !limiter.acquire())
+        {
+            AuditLog.noteReason(AuditLog.Reason.CONCURRENCY_LIMIT);
+            sessionLog.info(SessionLog.Category.VERIFY, "too many verify_token requests in flight (limit {}); rejecting without sending verify_token request to {}",
+                            limiter.getLimit(), verifyStacksTokenUrl);
+            return false;
+        }
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && !breaker.tryAcquirePermission())
+        {
+            AuditLog.noteReason(AuditLog.Reason.CIRCUIT_BREAKER);
+            if (limiter != null)
+                limiter.release();
+            sessionLog.debug(SessionLog.Category.VERIFY, "stacks circuit breaker is {}; rejecting without sending verify_token request to {}",
+                             breaker.getState(), verifyStacksTokenUrl);
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean stacksAnswered = false;
+        AuditLog.noteReason(AuditLog.Reason.STACKS_ERROR);
         try
         {
-            HttpURLConnection stacksConn = getStacksHttpURLConn(verifyStacksTokenUrl, "HEAD");
-            stacksConn.connect();
-            int status = stacksConn.getResponseCode();
-            getLogger().info(this.getClass().getSimpleName() + " sent verify_token request to " + verifyStacksTokenUrl);
-            getLogger().info(this.getClass().getSimpleName() + " verify_token response code is " + String.valueOf(status));
+            int status = sendVerifyTokenRequest(verifyStacksTokenUrl);
+            stacksAnswered = status < HttpURLConnection.HTTP_INTERNAL_ERROR;
+            AuditLog.noteReason(AuditLog.Reason.STACKS);
+            sessionLog.info(SessionLog.Category.VERIFY, "sent verify_token request to {}", verifyStacksTokenUrl);
+            sessionLog.info(SessionLog.Category.VERIFY, "verify_token response code is {}", status);
             if (status == HttpURLConnection.HTTP_OK)
+            {
+                verificationCache.recordApproval(cacheKey);
                 return true;
+            }
             else
+            {
+                rejectionCache.recordRejection(cacheKey, status);
                 return false;
+            }
         }
-        catch (SocketTimeoutException e)
+        catch (HttpTimeoutException e)
         {
             // the connect timeout expired before a connection was established, OR
-            // the read timeout expired before there was data available for read
+            // the request timeout expired before the response headers arrived
+            AuditLog.noteReason(AuditLog.Reason.STACKS_TIMEOUT);
             String msg = this.getClass().getSimpleName() + " unable to verify stacks token at " + verifyStacksTokenUrl + " ";
             getLogger().error(msg, e);
             reportNotice(msg, e);
@@ -495,17 +1653,211 @@ public class SulWowza extends ModuleBase
             getLogger().error(msg, e);
             reportNotice(msg, e);
         }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            getLogger().error(this.getClass().getSimpleName() + " interrupted verifying stacks token at " + verifyStacksTokenUrl, e);
+        }
+        finally
+        {
+            long duration = System.nanoTime() - start;
+            metrics.recordStacksRoundTrip(duration);
+            if (adaptiveTimeout != null && stacksAnswered)
+                adaptiveTimeout.recordNanos(duration);
+            if (breaker != null)
+                breaker.onCallComplete(duration, !stacksAnswered);
+            if (limiter != null)
+                limiter.onComplete(duration, !stacksAnswered);
+        }
         return false;
     }
 
-    HttpURLConnection getStacksHttpURLConn(URL stacksUrl, String requestMethod)
+    /** the status stacks answers the verify_token request with, whether asked on its own or in a batch */
+    int sendVerifyTokenRequest(URL verifyStacksTokenUrl)
+            throws IOException, InterruptedException
+    {
+        VerificationBatcher batcher = verificationBatcher;
+        String baseUrl = stacksTokenVerificationBaseUrl;
+        String url = verifyStacksTokenUrl.toString();
+        if (batcher != null && baseUrl != null && url.startsWith(baseUrl))
+            return batcher.verify(url.substring(baseUrl.length()), stacksRequestTimeoutMillis());
+        StacksEndpoints endpoints = stacksEndpoints;
+        HttpResponse<Void> stacksResponse = endpoints == null ? sendStacksRequest(verifyStacksTokenUrl, "HEAD")
+                                                              : sendToStacksEndpoints(endpoints, verifyStacksTokenUrl);
+        return stacksResponse.statusCode();
+    }
+
+    /** POSTs a batch of verify_token paths (a JSON array) to the bulk verify_token endpoint of the best stacks
+     * endpoint, returning the body of its answer;  anything but a 200 is an IOException */
+    String sendStacksBatchRequest(String jsonPaths)
+            throws IOException, InterruptedException
+    {
+        URL batchUrl = new URL(stacksTokenVerificationBaseUrl + stacksBatchPath);
+        StacksEndpoints endpoints = stacksEndpoints;
+        StacksEndpoints.Endpoint endpoint = endpoints == null ? null : endpoints.best();
+        if (endpoint != null)
+            batchUrl = new URL(endpoints.urlFor(endpoint, batchUrl.toString()));
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            HttpRequest request = HttpRequest.newBuilder(toUri(batchUrl))
+                                             .POST(HttpRequest.BodyPublishers.ofString(jsonPaths))
+                                             .header("Content-Type", "application/json")
+                                             .header("Accept", "application/json")
+                                             .timeout(Duration.ofMillis(stacksRequestTimeoutMillis()))
+                                             .build();
+            HttpClient client = StacksHttpClient.get(Duration.ofMillis(stacksConnectionTimeoutMillis));
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            failed = response.statusCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+            if (response.statusCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException("verify_token batch request to " + batchUrl + " answered " + response.statusCode());
+            sessionLog.info(SessionLog.Category.VERIFY, "sent verify_token batch request to {}", batchUrl);
+            return response.body();
+        }
+        finally
+        {
+            if (endpoint != null)
+                endpoints.recordRequest(endpoint, System.nanoTime() - start, failed);
+        }
+    }
+
+    /** sends the verify_token request to the best stacks endpoint, hedging to the next best if that's enabled
+     * and the first hasn't answered within its p95 latency, or has already failed (5xx or connection error) */
+    HttpResponse<Void> sendToStacksEndpoints(StacksEndpoints endpoints, URL verifyStacksTokenUrl)
+            throws IOException, InterruptedException
+    {
+        StacksEndpoints.Endpoint first = endpoints.best();
+        StacksEndpoints.Endpoint second = endpoints.isHedging() ? endpoints.hedgeFor(first) : null;
+        long hedgeDelayNanos = second == null ? -1 : first.hedgeDelayNanos();
+        if (hedgeDelayNanos < 0)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                HttpResponse<Void> response = sendStacksRequest(new URL(endpoints.urlFor(first, verifyStacksTokenUrl.toString())), "HEAD");
+                endpoints.recordRequest(first, System.nanoTime() - start, response.statusCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR);
+                return response;
+            }
+            catch (IOException e)
+            {
+                endpoints.recordRequest(first, System.nanoTime() - start, true);
+                throw e;
+            }
+        }
+
+        CompletableFuture<HttpResponse<Void>> primary = sendToStacksEndpointAsync(endpoints, first, verifyStacksTokenUrl);
+        CompletableFuture<HttpResponse<Void>> hedge = null;
+        try
+        {
+            try
+            {
+                HttpResponse<Void> response = primary.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+                if (response.statusCode() < HttpURLConnection.HTTP_INTERNAL_ERROR)
+                    return response;
+                sessionLog.debug(SessionLog.Category.VERIFY, "{} answered {}; asking {}", first, response.statusCode(), second);
+            }
+            catch (TimeoutException e)
+            {
+                endpoints.recordHedge();
+                sessionLog.debug(SessionLog.Category.VERIFY, "no answer from {} within {}ms; also asking {}",
+                                 first, TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos), second);
+            }
+            catch (ExecutionException e)
+            {
+                sessionLog.debug(SessionLog.Category.VERIFY, "{} failed ({}); asking {}", first, e.getCause(), second);
+            }
+            // if first already failed, firstAnswer just waits for second (or gives back first's 5xx if second fails too)
+            hedge = sendToStacksEndpointAsync(endpoints, second, verifyStacksTokenUrl);
+            return StacksEndpoints.firstAnswer(primary, hedge).get(stacksRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            throw new HttpTimeoutException("no answer from " + first + " or " + second + " for " + verifyStacksTokenUrl);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("unable to send verify_token request " + verifyStacksTokenUrl, e.getCause());
+        }
+        finally
+        {
+            primary.cancel(true);
+            if (hedge != null)
+                hedge.cancel(true);
+        }
+    }
+
+    /** sends the verify_token request to endpoint without waiting for the answer, recording how it went */
+    CompletableFuture<HttpResponse<Void>> sendToStacksEndpointAsync(StacksEndpoints endpoints, StacksEndpoints.Endpoint endpoint,
+                                                                    URL verifyStacksTokenUrl)
+            throws IOException
+    {
+        long start = System.nanoTime();
+        URL endpointUrl = new URL(endpoints.urlFor(endpoint, verifyStacksTokenUrl.toString()));
+        CompletableFuture<HttpResponse<Void>> request = sendStacksRequestAsync(endpointUrl, "HEAD");
+        // returning request itself (not the stage below) lets the caller's cancel() abort the exchange
+        request.whenComplete((response, error) ->
+        {
+            if (error instanceof CancellationException || (error != null && error.getCause() instanceof CancellationException))
+            {
+                // the other endpoint answered first;  this one took at least this long
+                endpoints.recordAbandonedRequest(endpoint, System.nanoTime() - start);
+                return;
+            }
+            boolean failed = response == null || response.statusCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+            endpoints.recordRequest(endpoint, System.nanoTime() - start, failed);
+        });
+        return request;
+    }
+
+    /** sends a bodiless request to stacks over the shared, pooled StacksHttpClient.
+     * This is also the seam tests stub to fake stacks responses. */
+    HttpResponse<Void> sendStacksRequest(URL stacksUrl, String requestMethod)
+            throws IOException, InterruptedException
+    {
+        HttpClient client = StacksHttpClient.get(Duration.ofMillis(stacksConnectionTimeoutMillis));
+        return client.send(buildStacksRequest(stacksUrl, requestMethod), HttpResponse.BodyHandlers.discarding());
+    }
+
+    /** as sendStacksRequest, without waiting for the response */
+    CompletableFuture<HttpResponse<Void>> sendStacksRequestAsync(URL stacksUrl, String requestMethod)
+            throws IOException
+    {
+        HttpClient client = StacksHttpClient.get(Duration.ofMillis(stacksConnectionTimeoutMillis));
+        return client.sendAsync(buildStacksRequest(stacksUrl, requestMethod), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private HttpRequest buildStacksRequest(URL stacksUrl, String requestMethod)
             throws IOException
     {
-        HttpURLConnection stacksConn = (HttpURLConnection) stacksUrl.openConnection();
-        stacksConn.setRequestMethod(requestMethod);
-        stacksConn.setConnectTimeout(stacksConnectionTimeout * 1000); // need milliseconds
-        stacksConn.setReadTimeout(stacksReadTimeout * 1000);  // need milliseconds
-        return stacksConn;
+        try
+        {
+            // the client's connect timeout bounds connecting;  the request timeout bounds the whole exchange
+            return HttpRequest.newBuilder(toUri(stacksUrl))
+                              .method(requestMethod, HttpRequest.BodyPublishers.noBody())
+                              .timeout(Duration.ofMillis(stacksRequestTimeoutMillis()))
+                              .build();
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException("invalid stacks request URL " + stacksUrl, e);
+        }
+    }
+
+    private static URI toUri(URL stacksUrl)
+            throws IOException
+    {
+        try
+        {
+            return stacksUrl.toURI();
+        }
+        catch (URISyntaxException e)
+        {
+            throw new IOException("invalid stacks request URL " + stacksUrl, e);
+        }
     }
 
     /** We define these escape methods, because the most obvious method to use (URLEncoder.encode) works fine
@@ -538,17 +1890,21 @@ public class SulWowza extends ModuleBase
      * advice.  - @jmartin-sul, 7/2016
      */
     public static final String UNESCAPED_URL_CHARS = "-._~";
+    // PercentEscapers are immutable and thread-safe, so one of each is shared
+    private static final Escaper FORM_PARAM_ESCAPER = new PercentEscaper(UNESCAPED_URL_CHARS, true);
+    // "+" is actually allowed in path segments, and should be treated literally when encountered,
+    // but it seemed safer to encode it, as "%2B" should also be perfectly acceptable.
+    // note also, this permits fewer unescaped characters than Guava's built-in urlPathSegmentEscaper().
+    private static final Escaper PATH_SEGMENT_ESCAPER = new PercentEscaper(UNESCAPED_URL_CHARS, false);
+
     static Escaper formParamEscaper()
     {
-        return new PercentEscaper(UNESCAPED_URL_CHARS, true);
+        return FORM_PARAM_ESCAPER;
     }
 
     static Escaper pathSegmentEscaper()
     {
-        // "+" is actually allowed in path segments, and should be treated literally when encountered,
-        // but it seemed safer to encode it, as "%2B" should also be perfectly acceptable.
-        // note also, this permits fewer unescaped characters than Guava's built-in urlPathSegmentEscaper().
-        return new PercentEscaper(UNESCAPED_URL_CHARS, false);
+        return PATH_SEGMENT_ESCAPER;
     }
 
     static String escapeFormParam(String rawParamVal)
@@ -588,9 +1944,27 @@ public class SulWowza extends ModuleBase
         reportNotice(msg, null);
     }
 
+    /** reports the notice to Honeybadger, unless the aggregator merges it into a later summary or samples it out */
     void reportNotice(String msg, Throwable cause)
     {
-        Throwable t = new Throwable(msg, cause);
+        NoticeAggregator aggregator = noticeAggregator;
+        if (aggregator == null || aggregator.record(msg, cause))
+            queueNotice(new Notice(msg, cause));
+    }
+
+    /** queues the notice to be sent to Honeybadger in the background, or sends it now if there's no queue (before
+     * onAppStart or after onAppStop);  if the queue is full, the notice is dropped (and counted) */
+    void queueNotice(Notice notice)
+    {
+        NoticeQueue queue = noticeQueue;
+        if (queue == null)
+            sendNotice(notice);
+        else if (!queue.offer(notice))
+            getLogger().debug(this.getClass().getSimpleName() + " Honeybadger notice queue is full; dropped notice: " + notice.getMessage());
+    }
+
+    void sendNotice(Throwable t)
+    {
         NoticeReporter reporter = getNoticeReporter();
         if (reporter != null) reporter.reportError(t);
     }
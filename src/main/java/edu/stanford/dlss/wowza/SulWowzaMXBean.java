@@ -0,0 +1,94 @@
+package edu.stanford.dlss.wowza;
+
+/**
+ * What JMX (e.g. jconsole or VisualVM) sees of a running SulWowza module:  one per application instance, named
+ * edu.stanford.dlss.wowza:type=SulWowza,application="...",instance="...".
+ *
+ * The stacks timeouts are shared by every application instance, as they are when read from the properties;  the
+ * caches belong to this one.  Changes take effect for the next authorization, are lost when the application instance
+ * restarts, and never hold up authorizations in progress:  each is a single volatile write, or a new cache swapped in
+ * whole.  A resized cache starts empty.
+ */
+public interface SulWowzaMXBean
+{
+    // settings
+
+    String getStacksUrl();
+
+    boolean isInvalidConfiguration();
+
+    long getStacksConnectionTimeoutMillis();
+
+    /** @throws IllegalArgumentException if less than 1 */
+    void setStacksConnectionTimeoutMillis(long millis);
+
+    long getStacksReadTimeoutMillis();
+
+    /** @throws IllegalArgumentException if less than 1 */
+    void setStacksReadTimeoutMillis(long millis);
+
+    /** the timeout the next verify_token request will get:  the connection plus read timeouts, or less if
+     * stacksAdaptiveTimeout is on */
+    long getStacksRequestTimeoutMillis();
+
+    long getVerificationCacheMaxSize();
+
+    /** 0 turns the cache off;  @throws IllegalArgumentException if negative */
+    void setVerificationCacheMaxSize(long maxSize);
+
+    long getVerificationCacheTtlSeconds();
+
+    /** @throws IllegalArgumentException if less than 1 */
+    void setVerificationCacheTtlSeconds(long ttlSeconds);
+
+    long getRejectionCacheMaxSize();
+
+    /** 0 turns the cache off;  @throws IllegalArgumentException if negative */
+    void setRejectionCacheMaxSize(long maxSize);
+
+    // statistics, since the module started
+
+    long getAcceptedCount();
+
+    long getRejectedCount();
+
+    long getAuthorizationLatencyP50Micros();
+
+    long getAuthorizationLatencyP99Micros();
+
+    long getStacksLatencyP50Micros();
+
+    long getStacksLatencyP99Micros();
+
+    long getVerificationCacheSize();
+
+    long getVerificationCacheHitCount();
+
+    long getVerificationCacheMissCount();
+
+    long getRejectionCacheSize();
+
+    long getRejectionCacheHitCount();
+
+    long getRejectionCacheMissCount();
+
+    long getCoalescedVerificationCount();
+
+    /** "closed", "open" or "half_open";  "off" if stacksCircuitBreaker is off */
+    String getCircuitBreakerState();
+
+    /** -1 if stacksConcurrencyLimit is off */
+    int getConcurrencyLimit();
+
+    /** -1 if stacksConcurrencyLimit is off */
+    int getConcurrencyInFlight();
+
+    long getAuthorizationPoolWaiting();
+
+    long getAuthorizationPoolRunning();
+
+    // operations
+
+    /** forgets every cached verify_token decision, approvals and rejections */
+    void invalidateCaches();
+}
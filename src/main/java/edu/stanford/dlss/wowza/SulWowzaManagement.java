@@ -0,0 +1,224 @@
+package edu.stanford.dlss.wowza;
+
+/**
+ * The SulWowzaMXBean of a SulWowza module.  Everything it reads is a volatile field, a LongAdder, cache statistics or
+ * histogram buckets, so JMX clients polling it never contend with authorizations.  Changes go through the module's
+ * change* methods, one at a time (setters that keep the other half of a pair hold its lock while they read it), so
+ * two changed at once can't undo each other.
+ */
+class SulWowzaManagement implements SulWowzaMXBean
+{
+    private final SulWowza module;
+
+    SulWowzaManagement(SulWowza module)
+    {
+        this.module = module;
+    }
+
+    @Override
+    public String getStacksUrl()
+    {
+        return SulWowza.stacksTokenVerificationBaseUrl;
+    }
+
+    @Override
+    public boolean isInvalidConfiguration()
+    {
+        return module.invalidConfiguration;
+    }
+
+    @Override
+    public long getStacksConnectionTimeoutMillis()
+    {
+        return SulWowza.stacksConnectionTimeoutMillis;
+    }
+
+    @Override
+    public void setStacksConnectionTimeoutMillis(long millis)
+    {
+        synchronized (SulWowza.class)
+        {
+            SulWowza.changeStacksTimeouts(millis, SulWowza.stacksReadTimeoutMillis);
+        }
+    }
+
+    @Override
+    public long getStacksReadTimeoutMillis()
+    {
+        return SulWowza.stacksReadTimeoutMillis;
+    }
+
+    @Override
+    public void setStacksReadTimeoutMillis(long millis)
+    {
+        synchronized (SulWowza.class)
+        {
+            SulWowza.changeStacksTimeouts(SulWowza.stacksConnectionTimeoutMillis, millis);
+        }
+    }
+
+    @Override
+    public long getStacksRequestTimeoutMillis()
+    {
+        return module.stacksRequestTimeoutMillis();
+    }
+
+    @Override
+    public long getVerificationCacheMaxSize()
+    {
+        return module.verificationCache.getMaxSize();
+    }
+
+    @Override
+    public void setVerificationCacheMaxSize(long maxSize)
+    {
+        synchronized (module)
+        {
+            module.changeVerificationCache(maxSize, module.verificationCache.getTtlSeconds());
+        }
+    }
+
+    @Override
+    public long getVerificationCacheTtlSeconds()
+    {
+        return module.verificationCache.getTtlSeconds();
+    }
+
+    @Override
+    public void setVerificationCacheTtlSeconds(long ttlSeconds)
+    {
+        synchronized (module)
+        {
+            module.changeVerificationCache(module.verificationCache.getMaxSize(), ttlSeconds);
+        }
+    }
+
+    @Override
+    public long getRejectionCacheMaxSize()
+    {
+        return module.rejectionCache.getMaxSize();
+    }
+
+    @Override
+    public void setRejectionCacheMaxSize(long maxSize)
+    {
+        module.changeRejectionCacheMaxSize(maxSize);
+    }
+
+    @Override
+    public long getAcceptedCount()
+    {
+        return module.metrics.acceptedTotal();
+    }
+
+    @Override
+    public long getRejectedCount()
+    {
+        return module.metrics.rejectedTotal();
+    }
+
+    @Override
+    public long getAuthorizationLatencyP50Micros()
+    {
+        return module.metrics.authorizationLatency().percentileMicros(0.5);
+    }
+
+    @Override
+    public long getAuthorizationLatencyP99Micros()
+    {
+        return module.metrics.authorizationLatency().percentileMicros(0.99);
+    }
+
+    @Override
+    public long getStacksLatencyP50Micros()
+    {
+        return module.metrics.stacksLatency().percentileMicros(0.5);
+    }
+
+    @Override
+    public long getStacksLatencyP99Micros()
+    {
+        return module.metrics.stacksLatency().percentileMicros(0.99);
+    }
+
+    @Override
+    public long getVerificationCacheSize()
+    {
+        return module.verificationCache.size();
+    }
+
+    @Override
+    public long getVerificationCacheHitCount()
+    {
+        return module.verificationCache.hitCount();
+    }
+
+    @Override
+    public long getVerificationCacheMissCount()
+    {
+        return module.verificationCache.missCount();
+    }
+
+    @Override
+    public long getRejectionCacheSize()
+    {
+        return module.rejectionCache.size();
+    }
+
+    @Override
+    public long getRejectionCacheHitCount()
+    {
+        return module.rejectionCache.hitCount();
+    }
+
+    @Override
+    public long getRejectionCacheMissCount()
+    {
+        return module.rejectionCache.missCount();
+    }
+
+    @Override
+    public long getCoalescedVerificationCount()
+    {
+        return module.singleFlight.collapsedCount();
+    }
+
+    @Override
+    public String getCircuitBreakerState()
+    {
+        CircuitBreaker breaker = module.circuitBreaker;
+        return breaker == null ? "off" : breaker.getState().name().toLowerCase();
+    }
+
+    @Override
+    public int getConcurrencyLimit()
+    {
+        ConcurrencyLimiter limiter = module.concurrencyLimiter;
+        return limiter == null ? -1 : limiter.getLimit();
+    }
+
+    @Override
+    public int getConcurrencyInFlight()
+    {
+        ConcurrencyLimiter limiter = module.concurrencyLimiter;
+        return limiter == null ? -1 : limiter.inFlightCount();
+    }
+
+    @Override
+    public long getAuthorizationPoolWaiting()
+    {
+        return module.metrics.poolWaitingCount();
+    }
+
+    @Override
+    public long getAuthorizationPoolRunning()
+    {
+        return module.metrics.poolRunningCount();
+    }
+
+    @Override
+    public void invalidateCaches()
+    {
+        module.invalidateCaches();
+    }
+}
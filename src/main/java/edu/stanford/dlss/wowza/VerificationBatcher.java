@@ -0,0 +1,263 @@
+package edu.stanford.dlss.wowza;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Micro-batches verify_token requests:  verifications arriving within windowMillis of each other (up to
+ * maxBatchSize of them) go to stacks as one bulk request, and each caller gets back the status stacks gave its item.
+ *
+ * The first caller into an empty batch leads it:  it waits out the window (or until the batch fills), then sends
+ * the batch on its own thread, so no extra threads are needed and no caller waits longer than the window plus the
+ * bulk request.  The others just wait for their item's answer, for at most the window plus the request timeout they
+ * were given, in case the leader itself is stuck.  However the leader's bulk request ends, even with an Error, every
+ * item in the batch gets an answer or an exception.
+ *
+ * Bulk request body:  a JSON array of verify_token paths, relative to the stacks base URL, e.g.
+ *   ["/media/bb000cc1111/file.mp4/verify_token?stacks_token=abc&user_ip=1.2.3.4", ...]
+ * Bulk response body:  a JSON array of the HTTP status each item would have had as its own request, in the same
+ * order, e.g.  [200, 403, ...]
+ */
+class VerificationBatcher
+{
+    interface BatchSender
+    {
+        /** sends the bulk request for paths, returning the body of stacks' answer */
+        String send(String jsonPaths) throws IOException, InterruptedException;
+    }
+
+    private static class Batch
+    {
+        final List<String> paths = new ArrayList<>();
+        final List<CompletableFuture<Integer>> results = new ArrayList<>();
+        boolean closed;
+    }
+
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BatchSender sender;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchFull = lock.newCondition();
+    // guarded by lock
+    private Batch open;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder items = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    VerificationBatcher(long windowMillis, int maxBatchSize, BatchSender sender)
+    {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.sender = sender;
+    }
+
+    /** the HTTP status stacks gave verifyTokenPath (relative to the stacks base URL) in its batch;
+     * throws IOException if the bulk request failed, or didn't answer for every item, and HttpTimeoutException if
+     * there's no answer within the window plus timeoutMillis */
+    int verify(String verifyTokenPath, long timeoutMillis)
+            throws IOException, InterruptedException
+    {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        Batch batch;
+        boolean leader;
+        lock.lock();
+        try
+        {
+            batch = open;
+            leader = batch == null;
+            if (leader)
+            {
+                batch = new Batch();
+                open = batch;
+            }
+            batch.paths.add(verifyTokenPath);
+            batch.results.add(result);
+            if (batch.paths.size() >= maxBatchSize)
+                close(batch);
+            if (leader)
+                awaitWindow(batch);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (leader)
+            send(batch);
+        return await(result, windowNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /** guarded by lock */
+    private void awaitWindow(Batch batch)
+    {
+        long remainingNanos = windowNanos;
+        try
+        {
+            while (!batch.closed && remainingNanos > 0)
+                remainingNanos = batchFull.awaitNanos(remainingNanos);
+        }
+        catch (InterruptedException e)
+        {
+            // send what we have anyway, so the rest of the batch isn't left waiting
+            Thread.currentThread().interrupt();
+        }
+        close(batch);
+    }
+
+    /** guarded by lock;  no more items join batch after this */
+    private void close(Batch batch)
+    {
+        batch.closed = true;
+        if (open == batch)
+            open = null;
+        batchFull.signalAll();
+    }
+
+    private void send(Batch batch)
+    {
+        batches.increment();
+        items.add(batch.paths.size());
+        try
+        {
+            List<Integer> statuses = parseStatuses(sender.send(toJsonArray(batch.paths)), batch.paths.size());
+            for (int i = 0; i < statuses.size(); i++)
+                batch.results.get(i).complete(statuses.get(i));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            failAll(batch, e);
+        }
+        catch (Exception e)
+        {
+            failAll(batch, e);
+        }
+        finally
+        {
+            // e.g. an Error from the sender:  it's the leader's to deal with, but the rest of the batch mustn't wait on it
+            failAll(batch, new IOException("verify_token batch request ended without an answer"));
+        }
+    }
+
+    /** completes the items that haven't been already */
+    private static void failAll(Batch batch, Exception e)
+    {
+        for (CompletableFuture<Integer> result : batch.results)
+            result.completeExceptionally(e);
+    }
+
+    private int await(CompletableFuture<Integer> result, long waitNanos)
+            throws IOException, InterruptedException
+    {
+        try
+        {
+            return result.get(waitNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            timedOut.increment();
+            throw new HttpTimeoutException("no answer from verify_token batch within " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof InterruptedException)
+                throw new IOException("verify_token batch interrupted", cause);
+            throw new IOException("unable to verify stacks token in batch", cause);
+        }
+    }
+
+    static String toJsonArray(List<String> values)
+    {
+        StringBuilder json = new StringBuilder(values.size() * 128);
+        json.append('[');
+        for (int i = 0; i < values.size(); i++)
+        {
+            if (i > 0)
+                json.append(',');
+            appendJsonString(json, values.get(i));
+        }
+        return json.append(']').toString();
+    }
+
+    private static void appendJsonString(StringBuilder json, String value)
+    {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c < 0x20)
+                json.append(String.format("\\u%04x", (int) c));
+            else
+                json.append(c);
+        }
+        json.append('"');
+    }
+
+    /** the statuses in a bulk response, which must be a JSON array of expectedCount integers */
+    static List<Integer> parseStatuses(String json, int expectedCount)
+            throws IOException
+    {
+        Object parsed;
+        try
+        {
+            parsed = JsonParser.parse(json);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException("unparseable verify_token batch response", e);
+        }
+        if (!(parsed instanceof List))
+            throw new IOException("verify_token batch response is not a JSON array");
+        List<?> values = (List<?>) parsed;
+        if (values.size() != expectedCount)
+            throw new IOException("verify_token batch response has " + values.size() + " statuses for " + expectedCount + " tokens");
+        List<Integer> statuses = new ArrayList<>(values.size());
+        for (Object value : values)
+        {
+            if (!(value instanceof Long))
+                throw new IOException("verify_token batch response has non-integer status " + value);
+            statuses.add(((Long) value).intValue());
+        }
+        return statuses;
+    }
+
+    /** number of bulk requests sent */
+    long batchCount()
+    {
+        return batches.sum();
+    }
+
+    /** number of verifications sent in bulk requests */
+    long itemCount()
+    {
+        return items.sum();
+    }
+
+    /** number of callers that gave up waiting for their batch's answer */
+    long timedOutCount()
+    {
+        return timedOut.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "VerificationBatcher[windowMillis=" + TimeUnit.NANOSECONDS.toMillis(windowNanos) + ", maxBatchSize=" + maxBatchSize + "]";
+    }
+}
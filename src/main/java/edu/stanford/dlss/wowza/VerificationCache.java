@@ -0,0 +1,96 @@
+package edu.stanford.dlss.wowza;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * In-process cache of positive stacks_token verification decisions, so that a player which reconnects,
+ * switches renditions or reloads doesn't cost a stacks round trip each time.
+ *
+ * Keys are the path and query of the verify_token request (see SulWowza.getVerifyStacksTokenUrl), which
+ * encode exactly the (stacksToken, druid, filename, userIp) tuple being verified.  The cache is bounded by
+ * size and entries expire a fixed time after they're written.  A maxSize of 0 disables caching.
+ */
+class VerificationCache
+{
+    private final Cache<String, Boolean> approvals;
+    private final long maxSize;
+    private final long ttlSeconds;
+
+    VerificationCache(long maxSize, long ttlSeconds)
+    {
+        this.maxSize = maxSize;
+        this.ttlSeconds = ttlSeconds;
+        approvals = CacheBuilder.newBuilder()
+                                .maximumSize(Math.max(maxSize, 0))
+                                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                                .recordStats()
+                                .build();
+    }
+
+    boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /** true if a positive decision for this key was recorded and hasn't expired */
+    boolean isApproved(String key)
+    {
+        if (!isEnabled())
+            return false;
+        return approvals.getIfPresent(key) != null;
+    }
+
+    void recordApproval(String key)
+    {
+        if (isEnabled())
+            approvals.put(key, Boolean.TRUE);
+    }
+
+    void invalidateAll()
+    {
+        approvals.invalidateAll();
+    }
+
+    long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    long getTtlSeconds()
+    {
+        return ttlSeconds;
+    }
+
+    long size()
+    {
+        return approvals.size();
+    }
+
+    long hitCount()
+    {
+        return approvals.stats().hitCount();
+    }
+
+    long missCount()
+    {
+        return approvals.stats().missCount();
+    }
+
+    /** entries removed because the cache was full or the entry expired (not explicit invalidation) */
+    long evictionCount()
+    {
+        return approvals.stats().evictionCount();
+    }
+
+    @Override
+    public String toString()
+    {
+        CacheStats stats = approvals.stats();
+        return "size=" + approvals.size() + " hits=" + stats.hitCount() + " misses=" + stats.missCount() +
+                " evictions=" + stats.evictionCount();
+    }
+}
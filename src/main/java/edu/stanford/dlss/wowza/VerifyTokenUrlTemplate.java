@@ -0,0 +1,71 @@
+package edu.stanford.dlss.wowza;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Builds verify_token URLs for one stacks base URL, which is parsed once, up front:  each URL is then just its path
+ * and query written into a per-thread buffer, with the druid, filename, token and user IP escaped by the shared
+ * escapers (which return their input as is if there's nothing to escape), and put together with the base's protocol,
+ * host and port without parsing the whole URL again.
+ *
+ * The result is the same as parsing baseUrl + "/media/" + druid + "/" + filename + "/verify_token?stacks_token=" +
+ * stacksToken + "&user_ip=" + userIp with each part escaped.  That's what's done for a base URL with user info, a
+ * query or a fragment, since those don't survive being put back together from their parts.
+ */
+final class VerifyTokenUrlTemplate
+{
+    /** longer buffers aren't kept for reuse, so a freak filename doesn't pin memory to every thread */
+    private static final int MAX_RETAINED_CAPACITY = 4096;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final String baseUrl;
+    private final String protocol;
+    private final String host;
+    private final int port;
+    /** what the buffer starts with:  the base's path and "/media/", or the whole base URL if it isn't simple */
+    private final String head;
+    private final boolean simple;
+
+    /** @throws MalformedURLException if baseUrl isn't a valid URL */
+    VerifyTokenUrlTemplate(String baseUrl)
+            throws MalformedURLException
+    {
+        URL base = new URL(baseUrl);
+        this.baseUrl = baseUrl;
+        protocol = base.getProtocol();
+        host = base.getHost();
+        port = base.getPort();
+        simple = base.getUserInfo() == null && base.getQuery() == null && base.getRef() == null;
+        head = (simple ? base.getPath() : baseUrl) + "/media/";
+    }
+
+    /** true if this template was made from baseUrl */
+    boolean isFor(String baseUrl)
+    {
+        return this.baseUrl == baseUrl || this.baseUrl.equals(baseUrl);
+    }
+
+    /** Assumption: stacksToken, druid, userIp and filename are all reasonable values (non-null, not empty, etc.) */
+    URL build(String stacksToken, String druid, String filename, String userIp)
+            throws MalformedURLException
+    {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        buffer.append(head)
+              .append(SulWowza.escapePathSegment(druid)).append('/')
+              .append(SulWowza.escapePathSegment(filename))
+              .append("/verify_token?stacks_token=").append(SulWowza.escapeFormParam(stacksToken))
+              .append("&user_ip=").append(SulWowza.escapeFormParam(userIp));
+        String file = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY)
+            BUFFER.remove();
+        return simple ? new URL(protocol, host, port, file) : new URL(file);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "VerifyTokenUrlTemplate[" + baseUrl + "]";
+    }
+}
@@ -0,0 +1,136 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class TestAdaptiveTimeout
+{
+    long now;
+    AdaptiveTimeout timeout;
+
+    @Before
+    public void setUp()
+    {
+        now = 0;
+        // 3 x p99, between 100ms and 10s, once there are 10 samples;  60s windows
+        timeout = new AdaptiveTimeout(3, 100, 10000, 10, 60, () -> now);
+    }
+
+    private void record(int count, long millis)
+    {
+        for (int i = 0; i < count; i++)
+            timeout.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private long timeoutAfterRecompute()
+    {
+        now += AdaptiveTimeout.RECOMPUTE_NANOS;
+        return timeout.currentTimeoutMillis();
+    }
+
+    @Test
+    public void ceiling_untilEnoughSamples()
+    {
+        assertEquals(10000, timeout.currentTimeoutMillis());
+        record(9, 50);
+        assertEquals(10000, timeoutAfterRecompute());
+    }
+
+    @Test
+    public void multipleOfP99()
+    {
+        record(100, 50);
+        long millis = timeoutAfterRecompute();
+        assertTrue("timeout " + millis, millis >= 150 && millis <= 150 * 1.125 + 1);
+    }
+
+    @Test
+    public void notRecomputedMoreThanOncePerInterval()
+    {
+        record(100, 50);
+        assertEquals(10000, timeout.currentTimeoutMillis());
+        assertTrue(timeoutAfterRecompute() < 10000);
+    }
+
+    @Test
+    public void boundedByFloorAndCeiling()
+    {
+        record(100, 1);
+        assertEquals(100, timeoutAfterRecompute());
+        record(1000, 20000);
+        assertEquals(10000, timeoutAfterRecompute());
+    }
+
+    @Test
+    public void oldSamplesAgeOut()
+    {
+        record(100, 1000);
+        assertTrue(timeoutAfterRecompute() >= 3000);
+        // the slow samples are still in the previous window after one rotation ...
+        now += TimeUnit.SECONDS.toNanos(60);
+        record(100, 50);
+        assertTrue(timeoutAfterRecompute() >= 3000);
+        // ... and gone after two
+        now += TimeUnit.SECONDS.toNanos(60);
+        record(100, 50);
+        assertTrue(timeoutAfterRecompute() < 200);
+    }
+
+    @Test
+    public void withCeilingMillis_keepsRecordedRoundTrips()
+    {
+        record(100, 1000);
+        assertTrue(timeoutAfterRecompute() >= 3000);
+        timeout = timeout.withCeilingMillis(2000);
+        assertEquals(2000, timeout.currentTimeoutMillis());
+        record(100, 1);
+        timeout = timeout.withCeilingMillis(20000);
+        long millis = timeout.currentTimeoutMillis();
+        assertTrue("timeout " + millis, millis >= 3000 && millis < 20000);
+    }
+
+    @Test
+    public void backToCeiling_ifSamplesStop()
+    {
+        record(100, 50);
+        assertTrue(timeoutAfterRecompute() < 10000);
+        now += TimeUnit.SECONDS.toNanos(120);
+        assertEquals(10000, timeout.currentTimeoutMillis());
+    }
+
+    /** stacks answering with a 20ms median and lognormal jitter, at a steady 100 requests a second, for 5 minutes */
+    @Test
+    public void leavesHeadroomForHealthyJitter()
+    {
+        Random random = new Random(42);
+        // the floor well below stacks' latency, so it's multiplier x p99 being tested
+        timeout = new AdaptiveTimeout(3, 1, 10000, 100, 60, () -> now);
+        long samples = 0;
+        long exceeded = 0;
+        long lowest = Long.MAX_VALUE;
+        long highest = 0;
+        for (int second = 0; second < 300; second++)
+        {
+            long millis = timeoutAfterRecompute();
+            if (second >= 2) // once there are minSamples
+            {
+                lowest = Math.min(lowest, millis);
+                highest = Math.max(highest, millis);
+            }
+            for (int i = 0; i < 100; i++)
+            {
+                long durationNanos = (long) (TimeUnit.MILLISECONDS.toNanos(20) * Math.exp(0.5 * random.nextGaussian()));
+                samples++;
+                if (durationNanos > TimeUnit.MILLISECONDS.toNanos(millis))
+                    exceeded++;
+                timeout.recordNanos(durationNanos);
+            }
+        }
+        assertTrue(exceeded + " of " + samples + " timed out", exceeded * 1000 < samples);
+        assertTrue("timeout between " + lowest + " and " + highest + "ms", highest <= lowest * 1.25);
+    }
+}
@@ -0,0 +1,108 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class TestAuditLog
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void failOnError(IOException e)
+    {
+        throw new AssertionError(e);
+    }
+
+    @Test
+    public void record_writesOneJsonLinePerDecision()
+            throws IOException
+    {
+        Path file = folder.getRoot().toPath().resolve("logs/audit.log");
+        AuditLog log = new AuditLog(file, 16, 1024 * 1024, 2, this::failOnError);
+        assertTrue(log.record("hls", "bb012cd3456", "video.mp4", "171.64.1.2", true, AuditLog.Reason.APPROVAL_CACHE, 41_500));
+        assertTrue(log.record("rtmp", null, null, "1.2.3", false, AuditLog.Reason.INVALID_USER_IP, 2_000));
+        assertTrue(log.close(5000));
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertThat(lines.get(0), startsWith("{\"time\":\""));
+        assertThat(lines.get(0), endsWith("\",\"protocol\":\"hls\",\"druid\":\"bb012cd3456\",\"filename\":\"video.mp4\"," +
+                                          "\"userIp\":\"171.64.1.2\",\"outcome\":\"accepted\",\"reason\":\"approval_cache\"," +
+                                          "\"cacheHit\":true,\"latencyMicros\":41}"));
+        assertThat(lines.get(1), endsWith("\",\"protocol\":\"rtmp\",\"userIp\":\"1.2.3\",\"outcome\":\"rejected\"," +
+                                          "\"reason\":\"invalid_user_ip\",\"cacheHit\":false,\"latencyMicros\":2}"));
+        assertEquals(2, log.writtenCount());
+    }
+
+    @Test
+    public void record_escapesStrings()
+            throws IOException
+    {
+        Path file = folder.getRoot().toPath().resolve("audit.log");
+        AuditLog log = new AuditLog(file, 16, 1024 * 1024, 2, this::failOnError);
+        log.record("hls", "bb012cd3456", "a \"quoted\\\" name\n.mp4", "::1", true, null, 0);
+        assertTrue(log.close(5000));
+        String line = Files.readAllLines(file, StandardCharsets.UTF_8).get(0);
+        assertThat(line, containsString("\"filename\":\"a \\\"quoted\\\\\\\" name\\u000a.mp4\""));
+        assertThat(line, not(containsString("reason")));
+    }
+
+    @Test
+    public void record_rotatesAtMaxFileSize()
+            throws IOException
+    {
+        Path file = folder.getRoot().toPath().resolve("audit.log");
+        AuditLog log = new AuditLog(file, 1024, 1000, 2, this::failOnError);
+        for (int i = 0; i < 50; i++)
+            assertTrue(log.record("dash", "bb012cd3456", "video" + i + ".mp4", "171.64.1.2", true, AuditLog.Reason.STACKS, 1000));
+        assertTrue(log.close(5000));
+
+        assertTrue(Files.exists(file.resolveSibling("audit.log.1")));
+        assertTrue(Files.exists(file.resolveSibling("audit.log.2")));
+        assertFalse(Files.exists(file.resolveSibling("audit.log.3")));
+        assertTrue(Files.size(file) <= 1000);
+        assertTrue(Files.size(file.resolveSibling("audit.log.1")) <= 1000);
+        List<String> newest = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertThat(newest.get(newest.size() - 1), containsString("\"filename\":\"video49.mp4\""));
+        assertEquals(50, log.writtenCount());
+    }
+
+    @Test
+    public void record_dropsOnceClosed()
+    {
+        AuditLog log = new AuditLog(folder.getRoot().toPath().resolve("audit.log"), 16, 1024 * 1024, 2, this::failOnError);
+        assertTrue(log.close(5000));
+        assertFalse(log.record("hls", "bb012cd3456", "video.mp4", "171.64.1.2", true, AuditLog.Reason.STACKS, 0));
+        assertEquals(1, log.droppedCount());
+    }
+
+    @Test
+    public void record_reportsWriteFailures()
+            throws IOException
+    {
+        Path directory = folder.newFolder("audit.log").toPath(); // can't be opened as a file
+        StringBuilder errors = new StringBuilder();
+        AuditLog log = new AuditLog(directory, 16, 1024 * 1024, 2, e -> errors.append(e.getClass().getSimpleName()));
+        log.record("hls", "bb012cd3456", "video.mp4", "171.64.1.2", true, AuditLog.Reason.STACKS, 0);
+        assertTrue(log.close(5000));
+        assertEquals(1, log.failedCount());
+        assertThat(errors.toString(), containsString("Exception"));
+    }
+
+    @Test
+    public void takeReason_returnsNotedReasonOnce()
+    {
+        AuditLog.noteReason(AuditLog.Reason.CIRCUIT_BREAKER);
+        assertEquals(AuditLog.Reason.CIRCUIT_BREAKER, AuditLog.takeReason());
+        assertNull(AuditLog.takeReason());
+    }
+}
@@ -0,0 +1,71 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+public class TestAuthorizationMetrics
+{
+    private final AuthorizationMetrics metrics = new AuthorizationMetrics();
+
+    @Test
+    public void recordDecision_countsByProtocolAndReason()
+    {
+        metrics.recordDecision(AuthorizationMetrics.Protocol.HLS, true, AuditLog.Reason.APPROVAL_CACHE, 1000);
+        metrics.recordDecision(AuthorizationMetrics.Protocol.HLS, true, AuditLog.Reason.STACKS, 1000);
+        metrics.recordDecision(AuthorizationMetrics.Protocol.DASH, false, AuditLog.Reason.INVALID_TOKEN, 1000);
+        metrics.recordDecision(AuthorizationMetrics.Protocol.RTMP, false, AuditLog.Reason.STACKS_TIMEOUT, 1000);
+        metrics.recordDecision(AuthorizationMetrics.Protocol.RTMP, false, null, 1000);
+
+        assertEquals(2, metrics.accepted(AuthorizationMetrics.Protocol.HLS));
+        assertEquals(0, metrics.rejected(AuthorizationMetrics.Protocol.HLS));
+        assertEquals(1, metrics.rejected(AuthorizationMetrics.Protocol.DASH));
+        assertEquals(2, metrics.rejected(AuthorizationMetrics.Protocol.RTMP));
+        assertEquals(1, metrics.accepted(AuditLog.Reason.APPROVAL_CACHE));
+        assertEquals(0, metrics.rejected(AuditLog.Reason.APPROVAL_CACHE));
+        assertEquals(1, metrics.rejected(AuditLog.Reason.INVALID_TOKEN));
+        assertEquals(1, metrics.rejected(AuditLog.Reason.STACKS_TIMEOUT));
+        assertEquals(2, metrics.acceptedTotal());
+        assertEquals(3, metrics.rejectedTotal());
+    }
+
+    @Test
+    public void latencies_areRecordedSeparately()
+    {
+        for (int i = 1; i <= 100; i++)
+            metrics.recordDecision(AuthorizationMetrics.Protocol.HLS, true, AuditLog.Reason.STACKS, TimeUnit.MILLISECONDS.toNanos(i));
+        metrics.recordStacksRoundTrip(TimeUnit.MILLISECONDS.toNanos(40));
+
+        assertEquals(100, metrics.authorizationLatency().count());
+        assertEquals(5050000, metrics.authorizationMicros());
+        long p99 = metrics.authorizationLatency().percentileMicros(0.99);
+        assertTrue(String.valueOf(p99), p99 >= 99000 && p99 <= 99000 * 1.125);
+        assertEquals(1, metrics.stacksLatency().count());
+        assertEquals(40000, metrics.stacksMicros());
+    }
+
+    @Test
+    public void recordDecision_concurrentlyLosesNothing()
+            throws InterruptedException
+    {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+        {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    metrics.recordDecision(AuthorizationMetrics.Protocol.DASH, i % 2 == 0, AuditLog.Reason.STACKS, 1000);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(20000, metrics.accepted(AuthorizationMetrics.Protocol.DASH));
+        assertEquals(20000, metrics.rejected(AuditLog.Reason.STACKS));
+        assertEquals(40000, metrics.authorizationLatency().count());
+    }
+}
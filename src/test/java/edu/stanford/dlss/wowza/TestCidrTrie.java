@@ -0,0 +1,91 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class TestCidrTrie
+{
+    private static boolean contains(CidrTrie trie, String address)
+    {
+        return trie.contains(IpAddress.parse(address));
+    }
+
+    @Test
+    public void contains_ipv4Ranges()
+    {
+        CidrTrie trie = CidrTrie.parse("10.0.0.0/8, 171.64.1.0/24, 192.168.1.1");
+        assertTrue(contains(trie, "10.255.1.2"));
+        assertTrue(contains(trie, "171.64.1.77"));
+        assertTrue(contains(trie, "192.168.1.1"));
+        assertTrue(contains(trie, "::ffff:10.1.1.1"));
+        assertFalse(contains(trie, "11.0.0.1"));
+        assertFalse(contains(trie, "171.64.2.1"));
+        assertFalse(contains(trie, "192.168.1.2"));
+        assertFalse(contains(trie, "::a01:101")); // not IPv4-mapped
+    }
+
+    @Test
+    public void contains_ipv6Ranges()
+    {
+        CidrTrie trie = CidrTrie.parse("2001:db8::/32, fe80::1");
+        assertTrue(contains(trie, "2001:db8:ffff::1"));
+        assertTrue(contains(trie, "fe80::1"));
+        assertFalse(contains(trie, "2001:db9::1"));
+        assertFalse(contains(trie, "fe80::2"));
+        assertFalse(contains(trie, "10.0.0.1"));
+    }
+
+    @Test
+    public void contains_overlappingRanges()
+    {
+        CidrTrie trie = CidrTrie.parse("10.1.2.0/24, 10.0.0.0/8, 10.1.0.0/16");
+        assertTrue(contains(trie, "10.1.2.3"));
+        assertTrue(contains(trie, "10.200.0.1"));
+        assertEquals("10.1.2.0/24, 10.0.0.0/8, 10.1.0.0/16", trie.toString());
+    }
+
+    @Test
+    public void contains_zeroLengthPrefixes()
+    {
+        assertTrue(contains(CidrTrie.parse("0.0.0.0/0"), "1.2.3.4"));
+        assertFalse(contains(CidrTrie.parse("0.0.0.0/0"), "2001:db8::1"));
+        assertTrue(contains(CidrTrie.parse("::/0"), "2001:db8::1"));
+    }
+
+    @Test
+    public void parse_growsPastInitialCapacity()
+    {
+        StringBuilder cidrs = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            cidrs.append("2001:db8:").append(Integer.toHexString(i)).append("::/48,");
+        CidrTrie trie = CidrTrie.parse(cidrs.toString());
+        assertTrue(contains(trie, "2001:db8:c7::1"));
+        assertFalse(contains(trie, "2001:db8:c8::1"));
+    }
+
+    @Test
+    public void parse_emptyList()
+    {
+        assertTrue(CidrTrie.parse(" , ").isEmpty());
+        assertFalse(contains(CidrTrie.parse(""), "1.2.3.4"));
+    }
+
+    @Test
+    public void parse_rejectsInvalidRanges()
+    {
+        String[] invalid = { "10.0.0.0/33", "2001:db8::/129", "10.0.0.0/-1", "10.0.0.0/x", "10.0.0/8", "host.example.com" };
+        for (String cidr : invalid)
+        {
+            try
+            {
+                CidrTrie.parse("10.0.0.0/8, " + cidr);
+                fail(cidr);
+            }
+            catch (IllegalArgumentException e)
+            {
+                assertTrue(e.getMessage(), e.getMessage().endsWith(cidr));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TestCircuitBreaker
+{
+    long now;
+    List<String> transitions;
+    CircuitBreaker breaker;
+
+    static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    @Before
+    public void setUp()
+    {
+        now = 0;
+        transitions = new ArrayList<>();
+        // window of 10, judged after 4 calls, opens at 50% failures or 50% slow calls (>= 1s),
+        // stays open 30s, then lets 2 trial calls through
+        breaker = new CircuitBreaker(10, 4, 50, 50, 1000, 30, 2,
+                                     (from, to, reason) -> transitions.add(from + "->" + to), () -> now);
+    }
+
+    private void calls(int count, long duration, boolean failed)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            assertTrue(breaker.tryAcquirePermission());
+            breaker.onCallComplete(duration, failed);
+        }
+    }
+
+    private void open()
+    {
+        calls(4, FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void staysClosed_belowMinimumCalls()
+    {
+        calls(3, FAST, true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(100, breaker.failureRate());
+    }
+
+    @Test
+    public void staysClosed_belowThresholds()
+    {
+        calls(6, FAST, false);
+        calls(4, SLOW, true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(40, breaker.failureRate());
+        assertEquals(40, breaker.slowCallRate());
+    }
+
+    @Test
+    public void opens_atFailureRateThreshold()
+    {
+        calls(2, FAST, false);
+        calls(2, FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.openedCount());
+        assertEquals(List.of("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    public void opens_atSlowCallRateThreshold()
+    {
+        calls(2, FAST, false);
+        calls(2, SLOW, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void window_forgetsOldestCalls()
+    {
+        calls(4, FAST, false);
+        calls(3, FAST, true);
+        calls(3, FAST, false);
+        assertEquals(30, breaker.failureRate());
+        // the 4 oldest successes slide out, leaving 3 failures of 10 calls, then 4 of 10 ...
+        calls(1, FAST, true);
+        assertEquals(40, breaker.failureRate());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        calls(1, FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void open_refusesCallsUntilOpenDurationPasses()
+    {
+        open();
+        now += TimeUnit.SECONDS.toNanos(29);
+        assertFalse(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(2, breaker.notPermittedCount());
+        now += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpen_limitsTrialCalls_andClosesIfTheySucceed()
+    {
+        open();
+        now += TimeUnit.SECONDS.toNanos(30);
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+        breaker.onCallComplete(FAST, false);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onCallComplete(FAST, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+        // with a fresh window
+        assertEquals(0, breaker.failureRate());
+    }
+
+    @Test
+    public void halfOpen_reopensIfTrialCallsFail()
+    {
+        open();
+        now += TimeUnit.SECONDS.toNanos(30);
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onCallComplete(FAST, false);
+        breaker.onCallComplete(FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.openedCount());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void open_ignoresStragglers()
+    {
+        assertTrue(breaker.tryAcquirePermission());
+        open();
+        breaker.onCallComplete(FAST, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, transitions.size());
+    }
+}
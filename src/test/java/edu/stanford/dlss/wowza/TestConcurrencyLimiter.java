@@ -0,0 +1,176 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class TestConcurrencyLimiter
+{
+    static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    static final long MEDIAN = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Test
+    public void acquire_upToLimit_thenRejectsWithoutQueue()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, 0, 0);
+        assertTrue(limiter.acquire());
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        assertEquals(2, limiter.inFlightCount());
+        assertEquals(1, limiter.rejectedCount());
+        limiter.release();
+        assertTrue(limiter.acquire());
+    }
+
+    @Test
+    public void acquire_rejectsAfterQueueTimeout()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 10, 5, 20);
+        assertTrue(limiter.acquire());
+        long start = System.nanoTime();
+        assertFalse(limiter.acquire());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, limiter.queueDepth());
+        assertEquals(1, limiter.rejectedCount());
+    }
+
+    @Test
+    public void acquire_waiterGetsFreedSlot()
+            throws Exception
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 10, 5, 10000);
+        assertTrue(limiter.acquire());
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(limiter::acquire);
+        while (limiter.queueDepth() == 0)
+            Thread.sleep(1);
+        limiter.onComplete(FAST, false);
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.inFlightCount());
+    }
+
+    @Test
+    public void acquire_rejectsImmediatelyIfQueueFull()
+            throws Exception
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 10, 1, 10000);
+        assertTrue(limiter.acquire());
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(limiter::acquire);
+        while (limiter.queueDepth() == 0)
+            Thread.sleep(1);
+        long start = System.nanoTime();
+        assertFalse(limiter.acquire());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        limiter.release();
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void limit_decreasesOnFailure_downToMin()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 8, 20, 0, 0);
+        assertTrue(limiter.acquire());
+        limiter.onComplete(FAST, true);
+        assertEquals(9, limiter.getLimit());
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue(limiter.acquire());
+            limiter.onComplete(FAST, true);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void limit_ignoresSingleSlowCall()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20, 0, 0);
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(limiter.acquire());
+            limiter.onComplete(FAST, false);
+        }
+        assertTrue(limiter.acquire());
+        limiter.onComplete(FAST * 5, false);
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void limit_decreasesOnSustainedSlowdown()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20, 0, 0);
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(limiter.acquire());
+            limiter.onComplete(FAST, false);
+        }
+        for (int i = 0; i < 30; i++)
+        {
+            assertTrue(limiter.acquire());
+            limiter.onComplete(FAST * 5, false);
+        }
+        assertTrue(limiter.getLimit() < 10);
+    }
+
+    @Test
+    public void limit_cutOncePerLimitsWorthOfFailures()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20, 0, 0);
+        for (int i = 0; i < 5; i++)
+        {
+            assertTrue(limiter.acquire());
+            limiter.onComplete(FAST, true);
+        }
+        assertEquals(9, limiter.getLimit());
+    }
+
+    /** stacks answering with a 20ms median and lognormal jitter, at a steady load, is not congestion */
+    @Test
+    public void limit_holdsUnderHealthyJitter()
+    {
+        for (double sigma : new double[] {0.2, 0.3, 0.5})
+        {
+            Random random = new Random(42);
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 1, 20, 0, 0);
+            for (int calls = 0; calls < 20000; calls += 20)
+            {
+                for (int i = 0; i < 20; i++)
+                    assertTrue("sigma " + sigma + " after " + calls + " calls", limiter.acquire());
+                for (int i = 0; i < 20; i++)
+                {
+                    long durationNanos = (long) (MEDIAN * Math.exp(sigma * random.nextGaussian()));
+                    limiter.onComplete(durationNanos, false);
+                }
+            }
+            assertEquals("sigma " + sigma, 20, limiter.getLimit());
+        }
+    }
+
+    @Test
+    public void limit_growsWhileBusyAndHealthy_upToMax()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 3, 0, 0);
+        for (int i = 0; i < 20; i++)
+        {
+            assertTrue(limiter.acquire());
+            assertTrue(limiter.acquire());
+            limiter.onComplete(FAST, false);
+            limiter.onComplete(FAST, false);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void limit_doesNotGrowWhileIdle()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20, 0, 0);
+        for (int i = 0; i < 50; i++)
+        {
+            assertTrue(limiter.acquire());
+            limiter.onComplete(FAST, false);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+}
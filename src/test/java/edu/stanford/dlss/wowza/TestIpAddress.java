@@ -0,0 +1,71 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class TestIpAddress
+{
+    @Test
+    public void parse_ipv4IsMapped()
+    {
+        IpAddress address = IpAddress.parse("171.64.0.1");
+        assertTrue(address.isIpv4());
+        assertEquals(0xAB400001, address.ipv4());
+        assertEquals(0L, address.high());
+        assertEquals(0xFFFF_AB40_0001L, address.low());
+        assertEquals(address, IpAddress.parse("::ffff:171.64.0.1"));
+        assertEquals(address, IpAddress.parse("0:0:0:0:0:FFFF:AB40:1"));
+        assertEquals("171.64.0.1", IpAddress.parse("::ffff:ab40:1").toString());
+    }
+
+    @Test
+    public void parse_ipv6()
+    {
+        IpAddress address = IpAddress.parse("2001:db8:1:2:3:4:5:6");
+        assertEquals(0x2001_0db8_0001_0002L, address.high());
+        assertEquals(0x0003_0004_0005_0006L, address.low());
+        assertFalse(address.isIpv4());
+        assertEquals(0x2001_0db8_0000_0000L, IpAddress.parse("2001:db8::").high());
+        assertEquals(1L, IpAddress.parse("::1").low());
+        assertEquals(0L, IpAddress.parse("::").low());
+        assertEquals(IpAddress.parse("1:0:0:0:0:0:0:8"), IpAddress.parse("1::8"));
+        assertEquals(IpAddress.parse("1:2:3:4:5:6:7:0"), IpAddress.parse("1:2:3:4:5:6:7::"));
+        assertEquals(IpAddress.parse("1:2:3:4:5:6:102:304"), IpAddress.parse("1:2:3:4:5:6:1.2.3.4"));
+    }
+
+    @Test
+    public void parse_onlyParsesRange()
+    {
+        assertEquals(IpAddress.parse("::1"), IpAddress.parse("[::1]:80", 1, 4));
+    }
+
+    @Test
+    public void parse_rejectsInvalid()
+    {
+        String[] invalid = { null, "", ":", ":::", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1::2::3", ":1::", "1::2:",
+                             "1:2:3:4:5:6:7:8::", "::1:2:3:4:5:6:7:8", "12345::", "g::", "fe80::1%eth0", "[::1]",
+                             "::1.2.3", "::01.2.3.4", "1.2.3.4::", "1:2:3:4:5:6:7:1.2.3.4", "1.1.1" };
+        for (String address : invalid)
+            assertNull(address, IpAddress.parse(address));
+    }
+
+    @Test
+    public void toString_isRfc5952()
+    {
+        assertEquals("2001:db8::1", IpAddress.parse("2001:0DB8:0000:0000:0000:0000:0000:0001").toString());
+        assertEquals("2001:db8::1:0:0:1", IpAddress.parse("2001:db8:0:0:1:0:0:1").toString());
+        assertEquals("1:0:0:2::3", IpAddress.parse("1:0:0:2:0:0:0:3").toString());
+        assertEquals("1:0:2:3:4:5:6:7", IpAddress.parse("1:0:2:3:4:5:6:7").toString());
+        assertEquals("::", IpAddress.parse("0:0:0:0:0:0:0:0").toString());
+        assertEquals("1::", IpAddress.parse("1:0:0:0:0:0:0:0").toString());
+    }
+
+    @Test
+    public void equalsAndHashCode()
+    {
+        assertEquals(IpAddress.parse("2001:db8::1").hashCode(), IpAddress.parse("2001:DB8:0::0:1").hashCode());
+        assertNotEquals(IpAddress.parse("2001:db8::1"), IpAddress.parse("2001:db8::2"));
+        assertEquals(IpAddress.ofIpv4(0x01020304), IpAddress.parse("1.2.3.4"));
+    }
+}
@@ -0,0 +1,40 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class TestIpAddresses
+{
+    @Test
+    public void parseIpv4_packsOctets()
+    {
+        assertEquals(0x01020304L, IpAddresses.parseIpv4("1.2.3.4"));
+        assertEquals(0xAB400001L, IpAddresses.parseIpv4("171.64.0.1"));
+        assertEquals(0xFFFFFFFFL, IpAddresses.parseIpv4("255.255.255.255"));
+        assertEquals(0L, IpAddresses.parseIpv4("0.0.0.0"));
+    }
+
+    @Test
+    public void parseIpv4_onlyParsesRange()
+    {
+        assertEquals(0x0A000001L, IpAddresses.parseIpv4("x 10.0.0.1, 1.2.3.4", 2, 10));
+    }
+
+    @Test
+    public void parseIpv4_rejectsAnythingButDottedQuad()
+    {
+        String[] invalid = { null, "", "1", "1.1", "1.1.1", "1.1.1.1.1", "1.1.1.", ".1.1.1", "1..1.1", "256.1.1.1",
+                             "1.1.1.1000", "01.1.1.1", "1.1.1.00", " 1.1.1.1", "1.1.1.1 ", "a.b.c.d", "::1",
+                             "1.1.1.\u0661" };
+        for (String address : invalid)
+            assertEquals(address, IpAddresses.INVALID, IpAddresses.parseIpv4(address));
+    }
+
+    @Test
+    public void formatIpv4_roundTrips()
+    {
+        assertEquals("171.64.0.1", IpAddresses.formatIpv4((int) IpAddresses.parseIpv4("171.64.0.1")));
+        assertEquals("255.0.255.0", IpAddresses.formatIpv4((int) IpAddresses.parseIpv4("255.0.255.0")));
+    }
+}
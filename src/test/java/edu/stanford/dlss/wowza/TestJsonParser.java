@@ -0,0 +1,56 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class TestJsonParser
+{
+    @Test
+    public void parse_object()
+    {
+        Map<?, ?> object = (Map<?, ?>) JsonParser.parse(" {\"a\": \"b\", \"n\": 12, \"x\": 1.5, \"t\": true, \"f\": false, \"z\": null} ");
+        assertEquals("b", object.get("a"));
+        assertEquals(12L, object.get("n"));
+        assertEquals(1.5, object.get("x"));
+        assertEquals(Boolean.TRUE, object.get("t"));
+        assertEquals(Boolean.FALSE, object.get("f"));
+        assertTrue(object.containsKey("z"));
+        assertNull(object.get("z"));
+    }
+
+    @Test
+    public void parse_nested()
+    {
+        Map<?, ?> object = (Map<?, ?>) JsonParser.parse("{\"list\":[1,[],{}],\"obj\":{\"k\":\"v\"}}");
+        assertEquals(Arrays.asList(1L, Collections.emptyList(), Collections.emptyMap()), object.get("list"));
+        assertEquals(Collections.singletonMap("k", "v"), object.get("obj"));
+    }
+
+    @Test
+    public void parse_stringEscapes()
+    {
+        assertEquals("a\"b\\c/d\neü", JsonParser.parse("\"a\\\"b\\\\c\\/d\\ne\\u00fc\""));
+    }
+
+    @Test
+    public void parse_malformedThrows()
+    {
+        for (String bad : new String[] { "", "{", "{\"a\"}", "[1,]", "\"unterminated", "tru", "{} x", "{\"a\":01x}" })
+        {
+            try
+            {
+                JsonParser.parse(bad);
+                fail("expected IllegalArgumentException for " + bad);
+            }
+            catch (IllegalArgumentException e)
+            {
+                assertTrue(e.getMessage().startsWith("invalid JSON"));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class TestLatencyHistogram
+{
+    @Test
+    public void buckets_coverEveryValueWithBoundedError()
+    {
+        long previousUpperBound = -1;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++)
+        {
+            long upperBound = LatencyHistogram.bucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(previousUpperBound + 1));
+            assertEquals(i, LatencyHistogram.bucketIndex(upperBound));
+            assertTrue((upperBound - (previousUpperBound + 1)) <= (previousUpperBound + 1) / 8);
+            previousUpperBound = upperBound;
+        }
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_MICROS, previousUpperBound);
+    }
+
+    @Test
+    public void percentile_emptyIsZero()
+    {
+        assertEquals(0, new LatencyHistogram().percentileMicros(0.99));
+    }
+
+    @Test
+    public void percentile_withinBucketPrecision()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 1000; micros++)
+            histogram.recordMicros(micros);
+        assertEquals(1000, histogram.count());
+        long p50 = histogram.percentileMicros(0.5);
+        long p99 = histogram.percentileMicros(0.99);
+        assertTrue("p50 " + p50, p50 >= 500 && p50 <= 500 * 1.125);
+        assertTrue("p99 " + p99, p99 >= 990 && p99 <= 990 * 1.125);
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(1000)), histogram.percentileMicros(1.0));
+    }
+
+    @Test
+    public void percentile_combinesHistograms()
+    {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 98; i++)
+            fast.recordMicros(10);
+        slow.recordMicros(100000);
+        slow.recordMicros(100000);
+        assertEquals(10, LatencyHistogram.percentileMicros(0.98, fast, slow));
+        assertTrue(LatencyHistogram.percentileMicros(0.99, fast, slow) >= 100000);
+    }
+
+    @Test
+    public void record_clampsOutOfRangeValues()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(-5);
+        histogram.recordMicros(Long.MAX_VALUE);
+        assertEquals(1, histogram.bucketCount(0));
+        assertEquals(1, histogram.bucketCount(LatencyHistogram.BUCKET_COUNT - 1));
+        histogram.reset();
+        assertEquals(0, histogram.count());
+    }
+}
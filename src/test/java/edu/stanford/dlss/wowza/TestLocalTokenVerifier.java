@@ -0,0 +1,162 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class TestLocalTokenVerifier
+{
+    final static String secretKeyBase = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+    final static String druid = "oo000oo0000";
+    final static String filename = "filename.mp4";
+    final static String userIp = "1.1.1.1";
+    final static Instant now = Instant.parse("2024-05-01T12:00:00Z");
+
+    static byte[] key;
+    LocalTokenVerifier verifier;
+
+    @BeforeClass
+    public static void deriveKey()
+            throws GeneralSecurityException
+    {
+        key = LocalTokenVerifier.deriveKey(secretKeyBase, "SHA1", 1000);
+    }
+
+    @Before
+    public void setUp()
+    {
+        verifier = new LocalTokenVerifier(key, Duration.ofSeconds(30), Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    /** mints a token the way stacks' ActiveSupport::MessageEncryptor (aes-256-gcm, JSON serializer) would */
+    static String mintToken(byte[] key, String payload)
+            throws GeneralSecurityException
+    {
+        byte[] iv = new byte[LocalTokenVerifier.GCM_IV_LENGTH_BYTES];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+        byte[] sealed = cipher.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        int tagStart = sealed.length - LocalTokenVerifier.GCM_TAG_LENGTH_BYTES;
+        Base64.Encoder encoder = Base64.getEncoder();
+        return encoder.encodeToString(Arrays.copyOfRange(sealed, 0, tagStart)) + "--" +
+                encoder.encodeToString(iv) + "--" +
+                encoder.encodeToString(Arrays.copyOfRange(sealed, tagStart, sealed.length));
+    }
+
+    static String payload(String druid, String filename, String userIp, String timestamp)
+    {
+        return "{\"id\":\"" + druid + "\",\"file_name\":\"" + filename + "\",\"user_ip\":\"" + userIp +
+                "\",\"timestamp\":\"" + timestamp + "\"}";
+    }
+
+    @Test
+    public void deriveKey_is256Bits()
+    {
+        assertEquals(LocalTokenVerifier.KEY_LENGTH_BYTES, key.length);
+    }
+
+    @Test
+    public void verify_approvesFreshMatchingToken()
+            throws GeneralSecurityException
+    {
+        String token = mintToken(key, payload(druid, filename, userIp, "2024-05-01T11:59:50.000Z"));
+        assertEquals(LocalTokenVerifier.Decision.APPROVED, verifier.verify(token, druid, filename, userIp));
+        assertEquals(1, verifier.approvedCount());
+    }
+
+    @Test
+    public void verify_approvesDruidPrefixAndOffsetTimestamp()
+            throws GeneralSecurityException
+    {
+        String token = mintToken(key, payload("druid:" + druid, filename, userIp, "2024-05-01T04:59:50.000-07:00"));
+        assertEquals(LocalTokenVerifier.Decision.APPROVED, verifier.verify(token, druid, filename, userIp));
+    }
+
+    @Test
+    public void verify_rejectsMismatchedFields()
+            throws GeneralSecurityException
+    {
+        String token = mintToken(key, payload(druid, filename, userIp, "2024-05-01T11:59:50.000Z"));
+        assertEquals(LocalTokenVerifier.Decision.REJECTED, verifier.verify(token, "pp000pp0000", filename, userIp));
+        assertEquals(LocalTokenVerifier.Decision.REJECTED, verifier.verify(token, druid, "other.mp4", userIp));
+        assertEquals(LocalTokenVerifier.Decision.REJECTED, verifier.verify(token, druid, filename, "2.2.2.2"));
+        assertEquals(3, verifier.rejectedCount());
+    }
+
+    @Test
+    public void verify_comparesIpv6AddressesNotStrings()
+            throws GeneralSecurityException
+    {
+        String token = mintToken(key, payload(druid, filename, "2001:0DB8:0:0:0:0:0:1", "2024-05-01T11:59:50.000Z"));
+        assertEquals(LocalTokenVerifier.Decision.APPROVED, verifier.verify(token, druid, filename, "2001:db8::1"));
+        assertEquals(LocalTokenVerifier.Decision.REJECTED, verifier.verify(token, druid, filename, "2001:db8::2"));
+    }
+
+    @Test
+    public void verify_undecidedForOldToken()
+            throws GeneralSecurityException
+    {
+        String token = mintToken(key, payload(druid, filename, userIp, "2024-05-01T11:00:00.000Z"));
+        assertEquals(LocalTokenVerifier.Decision.UNDECIDED, verifier.verify(token, druid, filename, userIp));
+    }
+
+    @Test
+    public void verify_rejectsExpiredRailsEnvelope()
+            throws GeneralSecurityException
+    {
+        String token = mintToken(key, "{\"_rails\":{\"data\":" + payload(druid, filename, userIp, "2024-05-01T11:59:50.000Z") +
+                                        ",\"exp\":\"2024-05-01T11:59:55.000Z\"}}");
+        assertEquals(LocalTokenVerifier.Decision.REJECTED, verifier.verify(token, druid, filename, userIp));
+    }
+
+    @Test
+    public void verify_undecidedForOtherSecret()
+            throws GeneralSecurityException
+    {
+        byte[] otherKey = LocalTokenVerifier.deriveKey(secretKeyBase + "0", "SHA1", 1000);
+        String token = mintToken(otherKey, payload(druid, filename, userIp, "2024-05-01T11:59:50.000Z"));
+        assertEquals(LocalTokenVerifier.Decision.UNDECIDED, verifier.verify(token, druid, filename, userIp));
+    }
+
+    @Test
+    public void verify_undecidedForTamperedToken()
+            throws GeneralSecurityException
+    {
+        String token = mintToken(key, payload(druid, filename, userIp, "2024-05-01T11:59:50.000Z"));
+        String tampered = (token.charAt(0) == 'A' ? 'B' : 'A') + token.substring(1);
+        assertEquals(LocalTokenVerifier.Decision.UNDECIDED, verifier.verify(tampered, druid, filename, userIp));
+    }
+
+    @Test
+    public void verify_undecidedForNonJsonPayload()
+            throws GeneralSecurityException
+    {
+        String token = mintToken(key, "\u0004\bo:\u0015marshalled");
+        assertEquals(LocalTokenVerifier.Decision.UNDECIDED, verifier.verify(token, druid, filename, userIp));
+    }
+
+    @Test
+    public void verify_undecidedForUnfamiliarFormat()
+    {
+        assertEquals(LocalTokenVerifier.Decision.UNDECIDED, verifier.verify("encryptedStacksMediaToken", druid, filename, userIp));
+        assertEquals(LocalTokenVerifier.Decision.UNDECIDED, verifier.verify("abc--def", druid, filename, userIp));
+        assertEquals(LocalTokenVerifier.Decision.UNDECIDED, verifier.verify("a--b--c--d", druid, filename, userIp));
+        assertEquals(LocalTokenVerifier.Decision.UNDECIDED, verifier.verify("!!!--???--###", druid, filename, userIp));
+        assertEquals(4, verifier.undecidedCount());
+    }
+}
@@ -0,0 +1,129 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+import com.wowza.wms.http.IHTTPRequest;
+import com.wowza.wms.http.IHTTPResponse;
+import com.wowza.wms.vhost.IVHost;
+
+public class TestMetricsHTTPProvider
+{
+    private final SulWowza module = new SulWowza();
+
+    @Before
+    public void setUp()
+    {
+        module.applicationName = "vod";
+        module.instanceName = "_definst_";
+    }
+
+    @Test
+    public void format_countsDecisionsByProtocolAndReason()
+    {
+        module.metrics.recordDecision(AuthorizationMetrics.Protocol.HLS, true, AuditLog.Reason.STACKS, 1000);
+        module.metrics.recordDecision(AuthorizationMetrics.Protocol.HLS, false, AuditLog.Reason.INVALID_TOKEN, 1000);
+
+        String metrics = MetricsHTTPProvider.format(List.of(module));
+
+        assertTrue(metrics, metrics.contains("# TYPE sul_wowza_authorizations_total counter\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_authorizations_total{application=\"vod\",instance=\"_definst_\",protocol=\"hls\",outcome=\"accepted\"} 1\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_authorizations_total{application=\"vod\",instance=\"_definst_\",protocol=\"dash\",outcome=\"rejected\"} 0\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_authorization_reasons_total{application=\"vod\",instance=\"_definst_\",reason=\"invalid_token\",outcome=\"rejected\"} 1\n"));
+        assertFalse(metrics, metrics.contains("reason=\"invalid_token\",outcome=\"accepted\""));
+    }
+
+    @Test
+    public void format_latencySummaryInSeconds()
+    {
+        for (int i = 1; i <= 100; i++)
+            module.metrics.recordDecision(AuthorizationMetrics.Protocol.DASH, true, AuditLog.Reason.STACKS, TimeUnit.MILLISECONDS.toNanos(10));
+
+        String metrics = MetricsHTTPProvider.format(List.of(module));
+
+        assertTrue(metrics, metrics.contains("# TYPE sul_wowza_authorization_duration_seconds summary\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_authorization_duration_seconds{application=\"vod\",instance=\"_definst_\",quantile=\"0.99\"} 0.010239\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_authorization_duration_seconds_sum{application=\"vod\",instance=\"_definst_\"} 1.0\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_authorization_duration_seconds_count{application=\"vod\",instance=\"_definst_\"} 100\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_stacks_request_duration_seconds{application=\"vod\",instance=\"_definst_\",quantile=\"0.5\"} NaN\n"));
+    }
+
+    @Test
+    public void format_cachesAndOptionalParts()
+    {
+        module.verificationCache = new VerificationCache(10, 60);
+        module.verificationCache.recordApproval("key");
+        module.verificationCache.isApproved("key");
+        module.verificationCache.isApproved("other");
+
+        String metrics = MetricsHTTPProvider.format(List.of(module));
+
+        assertTrue(metrics, metrics.contains("sul_wowza_cache_entries{application=\"vod\",instance=\"_definst_\",cache=\"approval\"} 1\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_cache_hits_total{application=\"vod\",instance=\"_definst_\",cache=\"approval\"} 1\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_cache_misses_total{application=\"vod\",instance=\"_definst_\",cache=\"approval\"} 1\n"));
+        // no circuit breaker, so just the headers
+        assertTrue(metrics, metrics.contains("# TYPE sul_wowza_circuit_breaker_state gauge\n"));
+        assertFalse(metrics, metrics.contains("sul_wowza_circuit_breaker_state{"));
+    }
+
+    @Test
+    public void format_circuitBreakerStateAndStacksEndpoints()
+    {
+        module.circuitBreaker = new CircuitBreaker(10, 4, 50, 50, 1000, 30, 2, null);
+        module.stacksEndpoints = new StacksEndpoints(List.of("https://stacks-a.example.edu"), 3, false, (endpoint, healthy) -> {});
+
+        String metrics = MetricsHTTPProvider.format(List.of(module));
+
+        assertTrue(metrics, metrics.contains("sul_wowza_circuit_breaker_state{application=\"vod\",instance=\"_definst_\",state=\"closed\"} 1\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_circuit_breaker_state{application=\"vod\",instance=\"_definst_\",state=\"open\"} 0\n"));
+        assertTrue(metrics, metrics.contains("sul_wowza_stacks_endpoint_up{application=\"vod\",instance=\"_definst_\",endpoint=\"https://stacks-a.example.edu\"} 1\n"));
+    }
+
+    @Test
+    public void format_listsEachFamilyOnceForSeveralModules()
+    {
+        SulWowza other = new SulWowza();
+        other.applicationName = "live";
+        other.instanceName = "_definst_";
+
+        String metrics = MetricsHTTPProvider.format(List.of(module, other));
+
+        assertEquals(metrics.indexOf("# TYPE sul_wowza_authorizations_total"), metrics.lastIndexOf("# TYPE sul_wowza_authorizations_total"));
+        assertTrue(metrics, metrics.indexOf("application=\"live\"") < metrics.indexOf("application=\"vod\""));
+    }
+
+    @Test
+    public void escape_quotesBackslashesAndNewlines()
+    {
+        assertEquals("plain", MetricsHTTPProvider.escape("plain"));
+        assertEquals("a\\\\b\\\"c\\nd", MetricsHTTPProvider.escape("a\\b\"c\nd"));
+    }
+
+    @Test
+    public void onHTTPRequest_writesMetricsOfRunningModules()
+    {
+        IHTTPResponse resp = mock(IHTTPResponse.class);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        when(resp.getOutputStream()).thenReturn(body);
+        SulWowza.running.add(module);
+        try
+        {
+            new MetricsHTTPProvider().onHTTPRequest(mock(IVHost.class), mock(IHTTPRequest.class), resp);
+        }
+        finally
+        {
+            SulWowza.running.remove(module);
+        }
+
+        verify(resp).setHeader("Content-Type", MetricsHTTPProvider.CONTENT_TYPE);
+        verify(resp).setResponseCode(200);
+        assertTrue(body.toString(StandardCharsets.UTF_8).contains("application=\"vod\""));
+    }
+}
@@ -0,0 +1,97 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.*;
+
+public class TestNoticeAggregator
+{
+    private final List<String> summaries = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void record_sendsFirstThenMergesRepeatsIntoOneSummary()
+    {
+        NoticeAggregator aggregator = new NoticeAggregator(60000, 2, Collections.emptyMap(), summaries::add);
+        assertTrue(aggregator.record("unable to verify stacks token at https://stacks/1 ", null));
+        assertFalse(aggregator.record("unable to verify stacks token at https://stacks/2 ", null));
+        assertFalse(aggregator.record("unable to verify stacks token at https://stacks/2 ", null));
+        assertFalse(aggregator.record("unable to verify stacks token at https://stacks/3 ", null));
+        assertFalse(aggregator.record("unable to verify stacks token at https://stacks/4 ", null));
+        assertTrue(summaries.isEmpty());
+        assertEquals(4, aggregator.mergedCount());
+
+        aggregator.flush();
+        assertEquals(Collections.singletonList("unable to verify stacks token at https://stacks/1 (4 more like this within 60s; " +
+                                               "e.g. unable to verify stacks token at https://stacks/2  | " +
+                                               "unable to verify stacks token at https://stacks/3 )"),
+                     summaries);
+    }
+
+    @Test
+    public void record_keepsDifferentFingerprintsApart()
+    {
+        NoticeAggregator aggregator = new NoticeAggregator(60000, 3, Collections.emptyMap(), summaries::add);
+        assertTrue(aggregator.record("unable to read stacksURL from properties", null));
+        assertTrue(aggregator.record("unable to read stacksURL from properties", new IllegalStateException()));
+        assertTrue(aggregator.record("unable to read trustedProxies from properties", null));
+        aggregator.flush();
+        assertTrue(summaries.isEmpty()); // nothing was merged
+    }
+
+    @Test
+    public void record_startsNewWindowOnceExpired()
+            throws InterruptedException
+    {
+        NoticeAggregator aggregator = new NoticeAggregator(200, 3, Collections.emptyMap(), summaries::add);
+        assertTrue(aggregator.record("stream aa/000/1.mp4", null));
+        assertFalse(aggregator.record("stream bb/111/2.mp4", null));
+        Thread.sleep(300);
+        assertTrue(aggregator.record("stream cc/222/3.mp4", null));
+        assertEquals(Collections.singletonList("stream aa/000/1.mp4 (1 more like this within 200ms; e.g. stream bb/111/2.mp4)"), summaries);
+        aggregator.flush();
+        assertEquals(1, summaries.size());
+        assertEquals("NoticeAggregator[window=200ms, maxSamples=3, samplingRates={}, merged=1, sampledOut=0, summaries=1]",
+                     aggregator.toString());
+    }
+
+    @Test
+    public void record_samplesByMessageType()
+    {
+        Map<String, Double> rates = NoticeAggregator.parseSamplingRates("User IP missing or invalid=0, circuit breaker = 1");
+        NoticeAggregator aggregator = new NoticeAggregator(60000, 3, rates, summaries::add);
+        for (int i = 0; i < 100; i++)
+            assertFalse(aggregator.record("User IP missing or invalid: 10.0.0." + i, null));
+        assertEquals(100, aggregator.sampledOutCount());
+        assertTrue(aggregator.record("stacks circuit breaker CLOSED -> OPEN", null));
+        assertTrue(aggregator.record("something else", null));
+        aggregator.flush();
+    }
+
+    @Test
+    public void fingerprint_masksVariableWords()
+    {
+        assertEquals("SulWowza: User IP missing or invalid: *",
+                     NoticeAggregator.fingerprint("SulWowza: User IP missing or invalid: 2001:db8::1", null));
+        assertEquals("SulWowza unexpected error authorizing streamName *",
+                     NoticeAggregator.fingerprint("SulWowza unexpected error authorizing streamName mp4:bb/012/cd3456/x.mp4", null));
+        assertEquals("unable to verify stacks token at * | java.io.IOException",
+                     NoticeAggregator.fingerprint("unable to verify stacks token at https://stacks/media/verify_token?stacks_token=x", new java.io.IOException()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseSamplingRates_rejectsRateAboveOne()
+    {
+        NoticeAggregator.parseSamplingRates("User IP missing or invalid=2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseSamplingRates_rejectsMissingRate()
+    {
+        NoticeAggregator.parseSamplingRates("User IP missing or invalid");
+    }
+}
@@ -0,0 +1,106 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+public class TestNoticeQueue
+{
+    @Test
+    public void offer_deliversOnAnotherThread()
+            throws InterruptedException
+    {
+        List<String> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(1);
+        NoticeQueue queue = new NoticeQueue(10, notice -> {
+            threads.add(Thread.currentThread().getName());
+            delivered.countDown();
+        });
+        assertTrue(queue.offer(new Throwable("oops")));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertTrue(threads.get(0), threads.get(0).startsWith("SulWowza-notices-"));
+    }
+
+    @Test
+    public void offer_dropsWhenFull()
+            throws InterruptedException
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NoticeQueue queue = new NoticeQueue(2, notice -> {
+            started.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(queue.offer(new Throwable("1")));
+        assertTrue(started.await(5, TimeUnit.SECONDS)); // being delivered, so not in the queue
+        assertTrue(queue.offer(new Throwable("2")));
+        assertTrue(queue.offer(new Throwable("3")));
+        assertFalse(queue.offer(new Throwable("4")));
+        assertEquals(2, queue.pendingCount());
+        assertEquals(1, queue.droppedCount());
+
+        release.countDown();
+        assertTrue(queue.flush(5000));
+        assertEquals(3, queue.deliveredCount());
+    }
+
+    @Test
+    public void flush_deliversQueuedNoticesThenRefusesMore()
+    {
+        List<String> messages = new CopyOnWriteArrayList<>();
+        NoticeQueue queue = new NoticeQueue(100, notice -> messages.add(notice.getMessage()));
+        for (int i = 0; i < 50; i++)
+            queue.offer(new Throwable("notice " + i));
+        assertTrue(queue.flush(5000));
+        assertEquals(50, messages.size());
+        assertEquals("notice 49", messages.get(49));
+
+        assertFalse(queue.offer(new Throwable("too late")));
+        assertEquals(1, queue.droppedCount());
+    }
+
+    @Test
+    public void flush_timesOut()
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        NoticeQueue queue = new NoticeQueue(10, notice -> {
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+        queue.offer(new Throwable("stuck"));
+        assertFalse(queue.flush(50));
+        release.countDown();
+    }
+
+    @Test
+    public void failedDeliveriesAreCounted()
+    {
+        NoticeQueue queue = new NoticeQueue(10, notice -> {
+            throw new IllegalStateException("honeybadger is down");
+        });
+        queue.offer(new Throwable("1"));
+        queue.offer(new Throwable("2"));
+        assertTrue(queue.flush(5000));
+        assertEquals(2, queue.failedCount());
+        assertEquals(0, queue.deliveredCount());
+        assertEquals("NoticeQueue[capacity=10, pending=0, delivered=0, failed=2, dropped=0]", queue.toString());
+    }
+}
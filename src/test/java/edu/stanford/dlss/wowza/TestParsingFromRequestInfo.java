@@ -2,6 +2,8 @@ package edu.stanford.dlss.wowza;
 
 import static org.junit.Assert.*;
 
+import java.util.Map;
+
 import org.junit.*;
 
 
@@ -56,6 +58,14 @@ public class TestParsingFromRequestInfo
         assertNull(testModule.getStacksToken(streamName + "?" + myQueryStr));
     }
 
+    @Test
+    public void getStacksToken_usesTextAfterLastQuestionMark()
+    {
+        assertEquals(stacksToken, testModule.getStacksToken("a?b?" + queryStr));
+        assertEquals(stacksToken, testModule.getStacksToken(streamName + "?" + queryStr + "??"));
+        assertNull(testModule.getStacksToken(queryStr + "?other=x"));
+    }
+
     @Test
     public void getStacksTokenNullWhenEmptyStr()
     {
@@ -72,44 +82,85 @@ public class TestParsingFromRequestInfo
     @Test
     public void getDruid()
     {
-        assertEquals("oo000oo0000", testModule.getDruid("oo/000/oo/0000/stream.mp4")); // oo000oo000 has valid druid format
-        assertEquals("oo000oo0000", testModule.getDruid("oo/000/oo/0000/a"));
-        assertNull(testModule.getDruid("oo/00/oo/0000/"));  // oo00oo0000 is not a valid druid format
-        assertNull(testModule.getDruid("a/b/c/d/anything.without%slash"));  // abcd is not a valid druid format
-        assertNull(testModule.getDruid("a/b/c/d/"));
+        assertEquals("oo000oo0000", druid("oo/000/oo/0000/stream.mp4")); // oo000oo000 has valid druid format
+        assertEquals("oo000oo0000", druid("oo/000/oo/0000/a"));
+        assertNull(druid("oo/00/oo/0000/"));  // oo00oo0000 is not a valid druid format
+        assertNull(druid("a/b/c/d/anything.without%slash"));  // abcd is not a valid druid format
+        assertNull(druid("a/b/c/d/"));
     }
 
     @Test
     public void getDruidWhenQueryParams()
     {
-        assertEquals("oo000oo0000", testModule.getDruid("oo/000/oo/0000/stream.mp4" + "?" + queryStr));
-        assertEquals("oo000oo0000", testModule.getDruid("oo/000/oo/0000/a" + "?" + queryStr));
+        assertEquals("oo000oo0000", druid("oo/000/oo/0000/stream.mp4" + "?" + queryStr));
+        assertEquals("oo000oo0000", druid("oo/000/oo/0000/a" + "?" + queryStr));
     }
 
     @Test
     public void getFilename()
     {
-        assertEquals("stream.mp4", testModule.getFilename("oo/00/oo/0000/stream.mp4"));
-        assertEquals("anything.without%slash", testModule.getFilename("a/b/c/d/anything.without%slash"));
-        assertNull(testModule.getFilename("a/b/c/d/"));
+        assertEquals("stream.mp4", filename("oo/00/oo/0000/stream.mp4"));
+        assertEquals("anything.without%slash", filename("a/b/c/d/anything.without%slash"));
+        assertNull(filename("a/b/c/d/"));
     }
 
     @Test
     public void getFilenameWhenProtocol()
     {
-        assertEquals("stream.mp4", testModule.getFilename("oo/00/oo/0000/mp4:stream.mp4"));
-        assertEquals("anything.without%slash", testModule.getFilename("a/b/c/d/mp3:anything.without%slash"));
-        assertNull(testModule.getFilename("a/b/c/d/mp3:"));
+        assertEquals("stream.mp4", filename("oo/00/oo/0000/mp4:stream.mp4"));
+        assertEquals("anything.without%slash", filename("a/b/c/d/mp3:anything.without%slash"));
+        assertNull(filename("a/b/c/d/mp3:"));
     }
 
     @Test
     public void getFilenameWhenQueryParams()
     {
-        assertEquals("stream.mp4", testModule.getFilename("oo/00/oo/0000/stream.mp4?" + queryStr));
-        assertEquals("stream.mp4", testModule.getFilename("oo/00/oo/0000/mp4:stream.mp4?" + queryStr));
-        assertEquals("anything.without%slash", testModule.getFilename("a/b/c/d/anything.without%slash?" + queryStr));
-        assertEquals("anything.without%slash", testModule.getFilename("a/b/c/d/mp3:anything.without%slash?" + queryStr));
-        assertNull(testModule.getFilename("a/b/c/d/?" + queryStr));
-        assertNull(testModule.getFilename("a/b/c/d/mp3:?" + queryStr));
+        assertEquals("stream.mp4", filename("oo/00/oo/0000/stream.mp4?" + queryStr));
+        assertEquals("stream.mp4", filename("oo/00/oo/0000/mp4:stream.mp4?" + queryStr));
+        assertEquals("anything.without%slash", filename("a/b/c/d/anything.without%slash?" + queryStr));
+        assertEquals("anything.without%slash", filename("a/b/c/d/mp3:anything.without%slash?" + queryStr));
+        assertNull(filename("a/b/c/d/?" + queryStr));
+        assertNull(filename("a/b/c/d/mp3:?" + queryStr));
+    }
+
+    @Test
+    public void getUserIp_firstForwardedForEntry()
+    {
+        assertEquals("1.2.3.4", testModule.getUserIp(Map.of("x-forwarded-for", "1.2.3.4")));
+        assertEquals("1.2.3.4", testModule.getUserIp(Map.of("x-forwarded-for", " 1.2.3.4 , 10.0.0.1,10.0.0.2")));
+        assertEquals("", testModule.getUserIp(Map.of("x-forwarded-for", ",10.0.0.1")));
+        assertEquals("", testModule.getUserIp(Map.of("x-forwarded-for", ",")));
+        assertEquals("", testModule.getUserIp(Map.of()));
+    }
+
+    @Test
+    public void getUserIp_canonicalizesIpv6()
+    {
+        assertEquals("2001:db8::1", testModule.getUserIp(Map.of("x-forwarded-for", "2001:0DB8:0:0:0:0:0:1, 10.0.0.1")));
+        assertEquals("1.2.3.4", testModule.getUserIp(Map.of("x-forwarded-for", "::ffff:1.2.3.4")));
+        assertEquals("not:an:address", testModule.getUserIp(Map.of("x-forwarded-for", "not:an:address")));
+    }
+
+    @Test
+    public void getUserIp_skipsTrustedProxiesRightToLeft()
+    {
+        testModule.trustedProxies = CidrTrie.parse("10.0.0.0/8, 2001:db8::/32");
+        assertEquals("1.2.3.4", testModule.getUserIp(Map.of("x-forwarded-for", "6.6.6.6, 1.2.3.4, 10.0.0.1,10.0.0.2")));
+        assertEquals("2001:db9::1", testModule.getUserIp(Map.of("x-forwarded-for", "2001:0DB9::1, 2001:db8::5")));
+        assertEquals("10.0.0.1", testModule.getUserIp(Map.of("x-forwarded-for", "10.0.0.1, 10.0.0.2")));
+        assertEquals("garbage", testModule.getUserIp(Map.of("x-forwarded-for", "1.2.3.4, garbage , 10.0.0.2")));
+        assertEquals("1.2.3.4", testModule.getUserIp(Map.of("x-forwarded-for", "1.2.3.4")));
+    }
+
+    private static String druid(String streamName)
+    {
+        StreamName parsed = StreamName.parse(streamName);
+        return parsed == null ? null : parsed.druid();
+    }
+
+    private static String filename(String streamName)
+    {
+        StreamName parsed = StreamName.parse(streamName);
+        return parsed == null ? null : parsed.filename();
     }
 }
@@ -0,0 +1,77 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class TestQueryStrings
+{
+    private static String find(String query)
+    {
+        return QueryStrings.findParam(query, 0, query.length(), "stacks_token");
+    }
+
+    @Test
+    public void findParam_ignoresOtherParams()
+    {
+        assertEquals("abc", find("a=1&stacks_token=abc&b=2"));
+        assertEquals("abc", find("a=1;stacks_token=abc"));
+        assertEquals("abc", find("&&stacks_token=abc&&"));
+        assertEquals("1", find("stacks_token=1&stacks_token=2"));
+    }
+
+    @Test
+    public void findParam_onlyScansRange()
+    {
+        String query = "stacks_token=abc&x=1";
+        assertEquals("ab", QueryStrings.findParam(query, 0, 15, "stacks_token"));
+        assertNull(QueryStrings.findParam(query, 1, query.length(), "stacks_token"));
+    }
+
+    @Test
+    public void findParam_nullWhenMissingOrNoValue()
+    {
+        assertNull(find("a=1&b=2"));
+        assertNull(find("stacks_token&stacks_token=abc"));
+        assertNull(find("STACKS_TOKEN=abc"));
+        assertNull(find("stacks+token=abc"));
+        assertEquals("", find("stacks_token=&x=1"));
+    }
+
+    @Test
+    public void findParam_trimsWhitespace()
+    {
+        assertEquals("abc", find(" stacks_token = abc "));
+    }
+
+    @Test
+    public void findParam_decodesNameAndValue()
+    {
+        assertEquals("abc", find("stacks%5Ftoken=abc"));
+        assertEquals("a b c", find("stacks_token=a+b%20c"));
+        assertEquals("a=b", find("stacks_token=a%3Db"));
+        assertEquals("a=b", find("stacks_token=a=b"));
+    }
+
+    @Test
+    public void decode_utf8()
+    {
+        assertEquals("\u00e9t\u00e9", QueryStrings.decode("%C3%A9t%C3%A9", 0, 13));
+        assertEquals("\u00e9+", QueryStrings.decode("\u00e9%2B", 0, 4));
+        assertEquals("\ud83d\ude00", QueryStrings.decode("\ud83d\ude00+", 0, 2));
+    }
+
+    @Test
+    public void decode_keepsMalformedEscapes()
+    {
+        assertEquals("%zz", QueryStrings.decode("%zz", 0, 3));
+        assertEquals("a%", QueryStrings.decode("a%", 0, 2));
+        assertEquals("%4", QueryStrings.decode("%4", 0, 2));
+    }
+
+    @Test
+    public void decode_undecodedValueIsSubstring()
+    {
+        assertEquals("bcd", QueryStrings.decode("abcde", 1, 4));
+    }
+}
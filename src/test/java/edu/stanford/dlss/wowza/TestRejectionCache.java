@@ -0,0 +1,60 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.net.HttpURLConnection;
+
+public class TestRejectionCache
+{
+    final static String cacheKey = "/media/oo000oo0000/filename.ext/verify_token?stacks_token=encryptedStacksMediaToken&user_ip=0.0.0.0";
+
+    @Test
+    public void isRejected_trueAfterForbidden()
+    {
+        RejectionCache cache = new RejectionCache(10, 5, 30, 5);
+        assertFalse(cache.isRejected(cacheKey));
+        cache.recordRejection(cacheKey, HttpURLConnection.HTTP_FORBIDDEN);
+        assertTrue(cache.isRejected(cacheKey));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void ttlSecondsFor_usesStatusClass()
+    {
+        RejectionCache cache = new RejectionCache(10, 1, 2, 3);
+        assertEquals(1, cache.ttlSecondsFor(HttpURLConnection.HTTP_FORBIDDEN));
+        assertEquals(2, cache.ttlSecondsFor(HttpURLConnection.HTTP_NOT_FOUND));
+        assertEquals(3, cache.ttlSecondsFor(HttpURLConnection.HTTP_UNAUTHORIZED));
+        assertEquals(3, cache.ttlSecondsFor(HttpURLConnection.HTTP_BAD_REQUEST));
+    }
+
+    @Test
+    public void recordRejection_ignoresServerErrors()
+    {
+        RejectionCache cache = new RejectionCache(10, 5, 30, 5);
+        cache.recordRejection(cacheKey, HttpURLConnection.HTTP_INTERNAL_ERROR);
+        cache.recordRejection(cacheKey, HttpURLConnection.HTTP_UNAVAILABLE);
+        assertFalse(cache.isRejected(cacheKey));
+    }
+
+    @Test
+    public void recordRejection_zeroTtlDisablesStatusClass()
+    {
+        RejectionCache cache = new RejectionCache(10, 0, 30, 5);
+        cache.recordRejection(cacheKey, HttpURLConnection.HTTP_FORBIDDEN);
+        assertFalse(cache.isRejected(cacheKey));
+        cache.recordRejection(cacheKey, HttpURLConnection.HTTP_NOT_FOUND);
+        assertTrue(cache.isRejected(cacheKey));
+    }
+
+    @Test
+    public void zeroMaxSize_disablesCaching()
+    {
+        RejectionCache cache = new RejectionCache(0, 5, 30, 5);
+        cache.recordRejection(cacheKey, HttpURLConnection.HTTP_FORBIDDEN);
+        assertFalse(cache.isRejected(cacheKey));
+    }
+}
@@ -0,0 +1,92 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.*;
+
+import com.wowza.wms.logging.WMSLogger;
+
+public class TestSessionLog
+{
+    private WMSLogger loggerMock;
+    private SessionLog sessionLog;
+
+    @Before
+    public void setUp()
+    {
+        loggerMock = mock(WMSLogger.class);
+        when(loggerMock.isInfoEnabled()).thenReturn(true);
+        sessionLog = new SessionLog("SulWowza", () -> loggerMock);
+    }
+
+    @Test
+    public void info_fillsInPlaceholders()
+    {
+        sessionLog.info(SessionLog.Category.VERIFY, "sent verify_token request to {}", "http://stacks/verify_token");
+        sessionLog.info(SessionLog.Category.SESSION, "druid: {} filename:{}", "bb012cd3456", "video.mp4");
+        sessionLog.info(SessionLog.Category.SESSION, "{} and {} and {}, but not {}", 1, 2, 3);
+        verify(loggerMock).info("SulWowza sent verify_token request to http://stacks/verify_token");
+        verify(loggerMock).info("SulWowza druid: bb012cd3456 filename:video.mp4");
+        verify(loggerMock).info("SulWowza 1 and 2 and 3, but not {}");
+    }
+
+    @Test
+    public void debug_buildsNothingIfDisabled()
+    {
+        when(loggerMock.isDebugEnabled()).thenReturn(false);
+        Object notToBeFormatted = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                throw new AssertionError("formatted a line that isn't logged");
+            }
+        };
+        sessionLog.debug(SessionLog.Category.SESSION, "userIp: {}", notToBeFormatted);
+        verify(loggerMock, never()).debug(any());
+    }
+
+    @Test
+    public void info_limitsLinesPerSecondAndCountsTheRest()
+    {
+        sessionLog.setLimits(Collections.singletonMap(SessionLog.Category.VERIFY, 2));
+        for (int i = 0; i < 10; i++)
+            sessionLog.info(SessionLog.Category.VERIFY, "verify_token response code is {}", 200);
+        for (int i = 0; i < 10; i++)
+            sessionLog.info(SessionLog.Category.SESSION, "onHTTPCupertinoStreamingSessionCreate: {}", "x.mp4");
+        // well within a second, unless this machine is very slow
+        verify(loggerMock, times(2)).info("SulWowza verify_token response code is 200");
+        verify(loggerMock, times(10)).info("SulWowza onHTTPCupertinoStreamingSessionCreate: x.mp4");
+        assertEquals(8, sessionLog.suppressedCount(SessionLog.Category.VERIFY));
+        assertEquals(0, sessionLog.suppressedCount(SessionLog.Category.SESSION));
+    }
+
+    @Test
+    public void parseLimits_readsCategoriesAndRates()
+    {
+        Map<SessionLog.Category, Integer> limits = SessionLog.parseLimits(" session=20, verify = 50,");
+        assertEquals(Integer.valueOf(20), limits.get(SessionLog.Category.SESSION));
+        assertEquals(Integer.valueOf(50), limits.get(SessionLog.Category.VERIFY));
+        assertNull(limits.get(SessionLog.Category.CACHE));
+        assertTrue(SessionLog.parseLimits("").isEmpty());
+
+        sessionLog.setLimits(limits);
+        assertEquals("SessionLog[session=20/s, verify=50/s]", sessionLog.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseLimits_rejectsUnknownCategory()
+    {
+        SessionLog.parseLimits("sessions=20");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseLimits_rejectsZero()
+    {
+        SessionLog.parseLimits("verify=0");
+    }
+}
@@ -0,0 +1,185 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSingleFlight
+{
+    @Test
+    public void execute_runsVerificationAndReturnsResult()
+    {
+        SingleFlight singleFlight = new SingleFlight();
+        assertTrue(singleFlight.execute("key", 5000, () -> true));
+        assertFalse(singleFlight.execute("key", 5000, () -> false));
+        assertEquals(2, singleFlight.executionCount());
+        assertEquals(0, singleFlight.collapsedCount());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test
+    public void execute_concurrentIdenticalCallsShareOneVerification()
+            throws Exception
+    {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger verifications = new AtomicInteger();
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        int followerCount = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(followerCount + 1);
+        try
+        {
+            Future<Boolean> leader = executor.submit(() -> singleFlight.execute("key", 5000, () -> {
+                verifications.incrementAndGet();
+                leaderStarted.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return false;
+                }
+                return true;
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+            List<Future<Boolean>> followers = new ArrayList<>();
+            for (int i = 0; i < followerCount; i++)
+                followers.add(executor.submit(() -> singleFlight.execute("key", 5000, () -> {
+                    verifications.incrementAndGet();
+                    return false;
+                })));
+            while (singleFlight.collapsedCount() < followerCount)
+                Thread.sleep(1);
+            release.countDown();
+
+            assertTrue(leader.get(5, TimeUnit.SECONDS));
+            for (Future<Boolean> follower : followers)
+                assertTrue(follower.get(5, TimeUnit.SECONDS));
+            assertEquals(1, verifications.get());
+            assertEquals(1, singleFlight.executionCount());
+            assertEquals(followerCount, singleFlight.collapsedCount());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_differentKeysDoNotCollapse()
+    {
+        SingleFlight singleFlight = new SingleFlight();
+        singleFlight.execute("key1", 5000, () -> singleFlight.execute("key2", 5000, () -> true));
+        assertEquals(2, singleFlight.executionCount());
+        assertEquals(0, singleFlight.collapsedCount());
+    }
+
+    @Test
+    public void execute_forgetsKeyWhenVerificationThrows()
+    {
+        SingleFlight singleFlight = new SingleFlight();
+        try
+        {
+            singleFlight.execute("key", 5000, () -> { throw new IllegalStateException(); });
+            fail("expected exception to propagate to the leader");
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals(0, singleFlight.inFlightCount());
+        }
+    }
+
+    @Test
+    public void execute_waitersReleasedWhenLeaderThrowsError()
+            throws Exception
+    {
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<Boolean> leader = executor.submit(() -> singleFlight.execute("key", 60000, () -> {
+                leaderStarted.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    // fall through to the error
+                }
+                throw new AssertionError("not an Exception");
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+            Future<Boolean> follower = executor.submit(() -> singleFlight.execute("key", 60000, () -> true));
+            while (singleFlight.collapsedCount() < 1)
+                Thread.sleep(1);
+            release.countDown();
+
+            assertFalse(follower.get(5, TimeUnit.SECONDS));
+            try
+            {
+                leader.get(5, TimeUnit.SECONDS);
+                fail("expected the error to propagate to the leader");
+            }
+            catch (ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof AssertionError);
+            }
+            assertEquals(0, singleFlight.inFlightCount());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_waiterGivesUpAfterWaitMillis()
+            throws Exception
+    {
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            executor.submit(() -> singleFlight.execute("key", 60000, () -> {
+                leaderStarted.countDown();
+                try
+                {
+                    return release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    return false;
+                }
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            assertFalse(singleFlight.execute("key", 50, () -> true));
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("waited " + waitedMillis + "ms", waitedMillis >= 50 && waitedMillis < 5000);
+            assertEquals(1, singleFlight.timedOutCount());
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
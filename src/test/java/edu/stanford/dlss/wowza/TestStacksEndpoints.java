@@ -0,0 +1,243 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class TestStacksEndpoints
+{
+    static final long FAST = TimeUnit.MILLISECONDS.toNanos(5);
+    static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+    List<String> healthChanges;
+    StacksEndpoints endpoints;
+    StacksEndpoints.Endpoint a;
+    StacksEndpoints.Endpoint b;
+
+    @Before
+    public void setUp()
+    {
+        healthChanges = new ArrayList<>();
+        endpoints = new StacksEndpoints(List.of("https://a.example.org", "https://b.example.org/stacks"), 2, true,
+                                        (endpoint, healthy) -> healthChanges.add(endpoint + (healthy ? " up" : " down")));
+        a = endpoints.getEndpoints().get(0);
+        b = endpoints.getEndpoints().get(1);
+    }
+
+    @Test
+    public void best_isLowestLatencyHealthyEndpoint()
+    {
+        endpoints.recordRequest(a, SLOW, false);
+        endpoints.recordRequest(b, FAST, false);
+        assertSame(b, endpoints.best());
+        assertSame(a, endpoints.hedgeFor(b));
+    }
+
+    @Test
+    public void best_triesUntriedEndpoints()
+    {
+        endpoints.recordRequest(a, FAST, false);
+        assertSame(b, endpoints.best());
+    }
+
+    @Test
+    public void abandonedRequest_slowsEndpointDown_butDoesNotFailIt()
+    {
+        endpoints.recordRequest(a, FAST, false);
+        endpoints.recordRequest(b, FAST * 2, false);
+        endpoints.recordAbandonedRequest(a, SLOW);
+        assertSame(b, endpoints.best());
+        assertTrue(a.isHealthy());
+        assertEquals(0, a.failureCount());
+        assertEquals(-1, a.hedgeDelayNanos());
+    }
+
+    @Test
+    public void abandonedRequest_neverSpeedsEndpointUp()
+    {
+        endpoints.recordRequest(a, SLOW, false);
+        endpoints.recordAbandonedRequest(a, FAST);
+        assertEquals(TimeUnit.NANOSECONDS.toMillis(SLOW), a.latencyMillis(), 0.001);
+    }
+
+    @Test
+    public void best_sticksToEndpointInUse_unlessAnotherIsClearlyFaster()
+    {
+        endpoints.recordRequest(a, SLOW, false);
+        endpoints.recordRequest(b, SLOW, false);
+        StacksEndpoints.Endpoint inUse = endpoints.best();
+        StacksEndpoints.Endpoint other = inUse == a ? b : a;
+        endpoints.recordRequest(inUse, SLOW * 11 / 10, false);
+        assertSame(inUse, endpoints.best());
+        for (int i = 0; i < 5; i++)
+            endpoints.recordRequest(inUse, SLOW * 2, false);
+        assertSame(other, endpoints.best());
+        assertEquals(1, endpoints.switchCount());
+    }
+
+    /** two equally healthy endpoints answering with a 20ms median and lognormal jitter */
+    @Test
+    public void routing_doesNotFlapUnderHealthyJitter_andHedgesAboutOneRequestInTwenty()
+    {
+        Random random = new Random(42);
+        int requests = 20000;
+        int hedged = 0;
+        int hedgeable = 0;
+        for (int i = 0; i < requests; i++)
+        {
+            StacksEndpoints.Endpoint first = endpoints.best();
+            StacksEndpoints.Endpoint second = endpoints.hedgeFor(first);
+            long firstNanos = lognormal(random);
+            long hedgeDelayNanos = second == null ? -1 : first.hedgeDelayNanos();
+            if (hedgeDelayNanos >= 0)
+                hedgeable++;
+            if (hedgeDelayNanos < 0 || firstNanos <= hedgeDelayNanos)
+            {
+                endpoints.recordRequest(first, firstNanos, false);
+                continue;
+            }
+            // as SulWowza.sendToStacksEndpoints does:  whichever answers first wins, the other is abandoned
+            hedged++;
+            long secondNanos = lognormal(random);
+            if (firstNanos <= hedgeDelayNanos + secondNanos)
+            {
+                endpoints.recordRequest(first, firstNanos, false);
+                endpoints.recordAbandonedRequest(second, firstNanos - hedgeDelayNanos);
+            }
+            else
+            {
+                endpoints.recordRequest(second, secondNanos, false);
+                endpoints.recordAbandonedRequest(first, hedgeDelayNanos + secondNanos);
+            }
+        }
+        assertTrue(endpoints.switchCount() + " switches", endpoints.switchCount() * 100 < requests);
+        double hedgeRate = (double) hedged / hedgeable;
+        assertTrue("hedge rate " + hedgeRate, hedgeRate > 0.03 && hedgeRate < 0.07);
+    }
+
+    private static long lognormal(Random random)
+    {
+        return (long) (TimeUnit.MILLISECONDS.toNanos(20) * Math.exp(0.5 * random.nextGaussian()));
+    }
+
+    @Test
+    public void endpoint_unhealthyAfterConsecutiveFailures_andHealthyAfterSuccess()
+    {
+        endpoints.recordRequest(a, FAST, false);
+        endpoints.recordRequest(b, SLOW, false);
+        endpoints.recordRequest(a, FAST, true);
+        assertTrue(a.isHealthy());
+        endpoints.recordRequest(a, FAST, true);
+        assertFalse(a.isHealthy());
+        assertSame(b, endpoints.best());
+        assertNull(endpoints.hedgeFor(b));
+        endpoints.recordRequest(a, FAST, false);
+        assertTrue(a.isHealthy());
+        assertEquals(List.of("https://a.example.org down", "https://a.example.org up"), healthChanges);
+        assertEquals(4, a.requestCount());
+        assertEquals(2, a.failureCount());
+    }
+
+    @Test
+    public void best_fallsBackToLeastFailingEndpoint_ifNoneHealthy()
+    {
+        for (int i = 0; i < 3; i++)
+            endpoints.recordRequest(a, FAST, true);
+        for (int i = 0; i < 2; i++)
+            endpoints.recordRequest(b, FAST, true);
+        assertSame(b, endpoints.best());
+    }
+
+    @Test
+    public void checkHealth_probesEachEndpoint()
+    {
+        List<String> probed = new ArrayList<>();
+        StacksEndpoints.HealthProbe probe = baseUrl ->
+        {
+            probed.add(baseUrl);
+            if (baseUrl.startsWith("https://b"))
+                throw new IOException("connection refused");
+            return true;
+        };
+        endpoints.checkHealth(probe);
+        endpoints.checkHealth(probe);
+        assertEquals(List.of("https://a.example.org", "https://b.example.org/stacks", "https://a.example.org", "https://b.example.org/stacks"), probed);
+        assertTrue(a.isHealthy());
+        assertFalse(b.isHealthy());
+    }
+
+    @Test
+    public void urlFor_reRootsOnEndpointBaseUrl()
+    {
+        String url = "https://a.example.org/media/oo000oo0000/file.mp4/verify_token?stacks_token=abc&user_ip=1.1.1.1";
+        assertEquals(url, endpoints.urlFor(a, url));
+        assertEquals("https://b.example.org/stacks/media/oo000oo0000/file.mp4/verify_token?stacks_token=abc&user_ip=1.1.1.1",
+                     endpoints.urlFor(b, url));
+    }
+
+    @Test
+    public void hedgeDelay_isP95_onceEnoughHistory()
+    {
+        for (int i = 1; i < StacksEndpoints.HEDGE_MIN_SAMPLES; i++)
+            endpoints.recordRequest(a, FAST, false);
+        assertEquals(-1, a.hedgeDelayNanos());
+        endpoints.recordRequest(a, FAST, false);
+        long delay = a.hedgeDelayNanos();
+        assertTrue("delay " + delay, delay >= FAST && delay <= FAST * 1.125);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<Void> response(int status)
+    {
+        HttpResponse<Void> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(status);
+        return response;
+    }
+
+    @Test
+    public void firstAnswer_prefersFirstNon5xx()
+            throws Exception
+    {
+        CompletableFuture<HttpResponse<Void>> first = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<Void>> second = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<Void>> answer = StacksEndpoints.firstAnswer(first, second);
+        HttpResponse<Void> ok = response(200);
+        first.complete(response(503));
+        assertFalse(answer.isDone());
+        second.complete(ok);
+        assertSame(ok, answer.get());
+    }
+
+    @Test
+    public void firstAnswer_failsIfBothFail()
+    {
+        CompletableFuture<HttpResponse<Void>> first = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<Void>> second = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<Void>> answer = StacksEndpoints.firstAnswer(first, second);
+        first.completeExceptionally(new IOException("first"));
+        second.completeExceptionally(new IOException("second"));
+        try
+        {
+            answer.get();
+            fail("expected ExecutionException");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        catch (InterruptedException e)
+        {
+            fail("interrupted");
+        }
+    }
+}
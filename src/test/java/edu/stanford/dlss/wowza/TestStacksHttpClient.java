@@ -0,0 +1,35 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+public class TestStacksHttpClient
+{
+    @Test
+    public void get_sharesClientForSameConnectTimeout()
+    {
+        HttpClient client = StacksHttpClient.get(Duration.ofSeconds(7));
+        assertSame(client, StacksHttpClient.get(Duration.ofSeconds(7)));
+    }
+
+    @Test
+    public void get_rebuildsClientWhenConnectTimeoutChanges()
+    {
+        HttpClient client = StacksHttpClient.get(Duration.ofSeconds(7));
+        HttpClient rebuilt = StacksHttpClient.get(Duration.ofSeconds(8));
+        assertNotSame(client, rebuilt);
+        assertEquals(Duration.ofSeconds(8), rebuilt.connectTimeout().get());
+    }
+
+    @Test
+    public void get_prefersHttp2AndFollowsRedirects()
+    {
+        HttpClient client = StacksHttpClient.get(Duration.ofSeconds(7));
+        assertEquals(HttpClient.Version.HTTP_2, client.version());
+        assertEquals(HttpClient.Redirect.NORMAL, client.followRedirects());
+    }
+}
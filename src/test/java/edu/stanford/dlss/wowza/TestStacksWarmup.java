@@ -0,0 +1,105 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.*;
+import org.hamcrest.CoreMatchers;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class TestStacksWarmup
+{
+    @SuppressWarnings("unchecked")
+    private static StacksWarmup.Prober answering(int status, List<URL> probed)
+    {
+        HttpResponse<Void> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(status);
+        return url ->
+        {
+            probed.add(url);
+            return CompletableFuture.completedFuture(response);
+        };
+    }
+
+    @Test
+    public void run_probesEachEndpointWithEachConnection()
+    {
+        List<URL> probed = new ArrayList<>();
+        StacksWarmup warmup = new StacksWarmup(List.of("http://localhost:3000", "http://127.0.0.1:3001"), "/status", 3,
+                                               answering(HttpURLConnection.HTTP_OK, probed));
+        warmup.run();
+
+        assertEquals(6, probed.size());
+        assertEquals("http://127.0.0.1:3001/status", probed.get(5).toString());
+        List<StacksWarmup.Timing> timings = warmup.getTimings();
+        assertEquals(2, timings.size());
+        for (StacksWarmup.Timing timing : timings)
+        {
+            assertEquals(3, timing.answered);
+            assertNull(timing.failure);
+            assertTrue(timing.dnsNanos >= 0);
+            assertTrue(timing.allResponsesNanos >= timing.firstResponseNanos);
+        }
+        assertTrue(warmup.succeeded());
+        assertTrue(warmup.totalMillis() >= 0);
+    }
+
+    @Test
+    public void run_recordsServerErrors()
+    {
+        StacksWarmup warmup = new StacksWarmup(List.of("http://localhost:3000"), "/status", 2,
+                                               answering(HttpURLConnection.HTTP_UNAVAILABLE, new ArrayList<>()));
+        warmup.run();
+        StacksWarmup.Timing timing = warmup.getTimings().get(0);
+        assertEquals(0, timing.answered);
+        assertEquals("status 503", timing.failure);
+        assertFalse(warmup.succeeded());
+    }
+
+    @Test
+    public void run_recordsConnectionFailures()
+    {
+        StacksWarmup warmup = new StacksWarmup(List.of("http://localhost:3000"), "/status", 2,
+                                               url -> CompletableFuture.failedFuture(new IOException("connection refused")));
+        warmup.run();
+        assertThat(warmup.getTimings().get(0).failure, containsString("connection refused"));
+        assertFalse(warmup.succeeded());
+    }
+
+    @Test
+    public void run_recordsUnresolvableHost()
+    {
+        List<URL> probed = new ArrayList<>();
+        StacksWarmup warmup = new StacksWarmup(List.of("http://no-such-host.invalid"), "/status", 2,
+                                               answering(HttpURLConnection.HTTP_OK, probed));
+        warmup.run();
+        assertNotNull(warmup.getTimings().get(0).failure);
+        assertTrue(probed.isEmpty());
+    }
+
+    @Test
+    public void start_warmsUpOnDaemonThread()
+            throws Exception
+    {
+        List<String> threads = new ArrayList<>();
+        StacksWarmup warmup = new StacksWarmup(List.of("http://localhost:3000"), "/status", 1, url ->
+        {
+            threads.add(Thread.currentThread().getName() + (Thread.currentThread().isDaemon() ? " daemon" : ""));
+            return CompletableFuture.failedFuture(new IOException("connection refused"));
+        });
+        assertEquals(-1, warmup.totalMillis());
+        warmup.start().get(5, TimeUnit.SECONDS);
+        assertThat(threads.get(0), CoreMatchers.startsWith("SulWowza-stacks-warmup-"));
+        assertThat(threads.get(0), CoreMatchers.endsWith(" daemon"));
+        assertTrue(warmup.totalMillis() >= 0);
+    }
+}
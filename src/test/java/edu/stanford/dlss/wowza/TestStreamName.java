@@ -0,0 +1,54 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class TestStreamName
+{
+    @Test
+    public void parse_allParts()
+    {
+        StreamName parsed = StreamName.parse("bb/123/cd/4567/mp4:some file.mp4?stacks_token=abc&x=a/b");
+        assertEquals("bb123cd4567", parsed.druid());
+        assertEquals("some file.mp4", parsed.filename());
+        assertEquals("mp4", parsed.protocol());
+        assertEquals("stacks_token=abc&x=a/b", parsed.query());
+        assertTrue(parsed.isValid());
+    }
+
+    @Test
+    public void parse_noProtocolOrQuery()
+    {
+        StreamName parsed = StreamName.parse("bb/123/cd/4567/file.mp4");
+        assertEquals("file.mp4", parsed.filename());
+        assertNull(parsed.protocol());
+        assertNull(parsed.query());
+        assertEquals("bb/123/cd/4567/file.mp4", parsed.toString());
+    }
+
+    @Test
+    public void parse_leadingColonIsPartOfFilename()
+    {
+        assertEquals(":file.mp4", StreamName.parse("bb/123/cd/4567/:file.mp4").filename());
+        assertEquals("file:2.mp4", StreamName.parse("bb/123/cd/4567/mp4:file:2.mp4").filename());
+    }
+
+    @Test
+    public void parse_druidCheckedPerSegment()
+    {
+        assertNull(StreamName.parse("b/b123/cd/4567/file.mp4").druid()); // same characters, wrong tree
+        assertNull(StreamName.parse("bB/123/cd/4567/file.mp4").druid());
+        assertNull(StreamName.parse("bb/12x/cd/4567/file.mp4").druid());
+        assertNull(StreamName.parse("bb/123/cd/45678/file.mp4").druid());
+        assertFalse(StreamName.parse("bb/123/cd/45678/file.mp4").isValid());
+    }
+
+    @Test
+    public void parse_slashesInQueryDontCount()
+    {
+        assertNotNull(StreamName.parse("bb/123/cd/4567/file.mp4?a=/b/c"));
+        assertNull(StreamName.parse("bb/123/cd/4567/?a=/b/c"));
+        assertNull(StreamName.parse("bb/123/cd/4567/extra/file.mp4?a=b"));
+    }
+}
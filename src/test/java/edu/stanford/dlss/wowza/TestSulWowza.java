@@ -7,6 +7,7 @@ import static org.hamcrest.CoreMatchers.*;
 import org.junit.*;
 
 import org.apache.log4j.*;
+import org.hamcrest.CoreMatchers;
 
 import io.honeybadger.reporter.HoneybadgerUncaughtExceptionHandler;
 
@@ -21,9 +22,17 @@ import com.wowza.wms.httpstreamer.mpegdashstreaming.httpstreamer.HTTPStreamerSes
 import com.wowza.wms.request.RequestFunction;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class TestSulWowza
 {
@@ -80,6 +89,44 @@ public class TestSulWowza
         assertEquals(exampleUrl, SulWowza.stacksTokenVerificationBaseUrl);
     }
 
+    @Test
+    public void onAppStart_severalPropertyUrls()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyStr("stacksURL", SulWowza.DEFAULT_STACKS_TOKEN_VERIFICATION_BASEURL)).thenReturn(" http://a.example.org , http://b.example.org");
+        when(mockProperties.getPropertyStr("stacksHealthCheckPath", SulWowza.DEFAULT_STACKS_HEALTH_CHECK_PATH)).thenReturn(SulWowza.DEFAULT_STACKS_HEALTH_CHECK_PATH);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.onAppStart(appInstanceMock);
+        assertEquals("http://a.example.org", SulWowza.stacksTokenVerificationBaseUrl);
+        assertFalse(testModule.invalidConfiguration);
+        assertEquals(2, testModule.stacksEndpoints.getEndpoints().size());
+        assertEquals("http://b.example.org", testModule.stacksEndpoints.getEndpoints().get(1).baseUrl);
+        testModule.onAppStop(appInstanceMock);
+    }
+
+    @Test
+    public void onAppStart_oneBadUrlAmongSeveral_setsInvalidConfiguration()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyStr("stacksURL", SulWowza.DEFAULT_STACKS_TOKEN_VERIFICATION_BASEURL)).thenReturn("http://a.example.org,badUrl");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.onAppStart(appInstanceMock);
+        assertTrue(testModule.invalidConfiguration);
+    }
+
+    @Test
+    public void onAppStart_singleUrl_noEndpointRouting()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyStr("stacksURL", SulWowza.DEFAULT_STACKS_TOKEN_VERIFICATION_BASEURL)).thenReturn("http://example.org");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.onAppStart(appInstanceMock);
+        assertNull(testModule.stacksEndpoints);
+    }
+
     @Test
     public void onAppStart_defaultUrl()
     {
@@ -281,6 +328,101 @@ public class TestSulWowza
         verify(spyModule, never()).authorizeSession(sessionMock);
     }
 
+    @Test
+    public void onHTTPCupertinoStreamingSessionCreate_calls_authorizeSessionAsync_ifAsyncAuthorization()
+    {
+        SulWowza spyModule = spy(testModule);
+        HTTPStreamerSessionCupertino sessionMock = mock(HTTPStreamerSessionCupertino.class);
+        spyModule.invalidConfiguration = false;
+        spyModule.authorizationExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        try
+        {
+            spyModule.onHTTPCupertinoStreamingSessionCreate(sessionMock);
+            verify(spyModule).authorizeSessionAsync(sessionMock);
+        }
+        finally
+        {
+            spyModule.authorizationExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void onHTTPMPEGDashStreamingSessionCreate_calls_authorizeSessionAsync_ifAsyncAuthorization()
+    {
+        SulWowza spyModule = spy(testModule);
+        HTTPStreamerSessionMPEGDash sessionMock = mock(HTTPStreamerSessionMPEGDash.class);
+        spyModule.invalidConfiguration = false;
+        spyModule.authorizationExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        try
+        {
+            spyModule.onHTTPMPEGDashStreamingSessionCreate(sessionMock);
+            verify(spyModule).authorizeSessionAsync(sessionMock);
+        }
+        finally
+        {
+            spyModule.authorizationExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void authorizeSessionAsync_authorizesOnExecutor()
+            throws InterruptedException
+    {
+        SulWowza spyModule = spy(testModule);
+        IHTTPStreamerSession sessionMock = mock(IHTTPStreamerSession.class);
+        spyModule.authorizationExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        spyModule.authorizeSessionAsync(sessionMock);
+        spyModule.authorizationExecutor.shutdown();
+        assertTrue(spyModule.authorizationExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        verify(spyModule).authorizeSession(sessionMock);
+        verify(sessionMock).rejectSession(); // the mock session has no token
+    }
+
+    @Test
+    public void authorizeSessionAsync_rejectsSession_ifExecutorSaturated()
+    {
+        IHTTPStreamerSession sessionMock = mock(IHTTPStreamerSession.class);
+        testModule.authorizationExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        testModule.authorizationExecutor.shutdown();
+        testModule.authorizeSessionAsync(sessionMock);
+
+        verify(sessionMock).rejectSession();
+    }
+
+    @Test
+    public void setAuthorizationExecutor_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksAsyncAuthorization", false)).thenReturn(false);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setAuthorizationExecutor(appInstanceMock);
+        assertNull(testModule.authorizationExecutor);
+    }
+
+    @Test
+    public void setAuthorizationExecutor_validPropertyValues()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksAsyncAuthorization", false)).thenReturn(true);
+        when(mockProperties.getPropertyInt("stacksAsyncAuthorizationThreads", SulWowza.DEFAULT_STACKS_ASYNC_AUTHORIZATION_THREADS)).thenReturn(4);
+        when(mockProperties.getPropertyInt("stacksAsyncAuthorizationQueueSize", SulWowza.DEFAULT_STACKS_ASYNC_AUTHORIZATION_QUEUE_SIZE)).thenReturn(10);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setAuthorizationExecutor(appInstanceMock);
+        try
+        {
+            assertEquals(4, testModule.authorizationExecutor.getMaximumPoolSize());
+            assertEquals(10, testModule.authorizationExecutor.getQueue().remainingCapacity());
+        }
+        finally
+        {
+            testModule.onAppStop(appInstanceMock);
+        }
+        assertTrue(testModule.authorizationExecutor.isShutdown());
+    }
+
     @Test
     public void play_shutsDownClient_ifInvalidConfiguration()
     {
@@ -473,6 +615,561 @@ public class TestSulWowza
                                        cce);
     }
 
+    @Test
+    public void setStacksConnectionTimeout_millisPropertyOverridesSeconds()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksConnectionTimeout", SulWowza.DEFAULT_STACKS_CONNECTION_TIMEOUT)).thenReturn(5);
+        when(mockProperties.getPropertyInt("stacksConnectionTimeoutMillis", 0)).thenReturn(150);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setStacksConnectionTimeout(appInstanceMock);
+        assertEquals(150, SulWowza.stacksConnectionTimeoutMillis);
+    }
+
+    @Test
+    public void setStacksConnectionTimeout_secondsUsedWithoutMillisProperty()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksConnectionTimeout", SulWowza.DEFAULT_STACKS_CONNECTION_TIMEOUT)).thenReturn(5);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setStacksConnectionTimeout(appInstanceMock);
+        assertEquals(5000, SulWowza.stacksConnectionTimeoutMillis);
+    }
+
+    @Test
+    public void setStacksReadTimeout_millisPropertyOverridesSeconds()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksReadTimeout", SulWowza.DEFAULT_STACKS_READ_TIMEOUT)).thenReturn(5);
+        when(mockProperties.getPropertyInt("stacksReadTimeoutMillis", 0)).thenReturn(300);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setStacksReadTimeout(appInstanceMock);
+        assertEquals(300, SulWowza.stacksReadTimeoutMillis);
+    }
+
+    @Test
+    public void setAdaptiveTimeout_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setAdaptiveTimeout(appInstanceMock);
+        assertNull(testModule.adaptiveTimeout);
+        SulWowza.stacksConnectionTimeoutMillis = 100;
+        SulWowza.stacksReadTimeoutMillis = 200;
+        assertEquals(300, testModule.stacksRequestTimeoutMillis());
+    }
+
+    @Test
+    public void setAdaptiveTimeout_ceilingIsConfiguredTimeouts()
+    {
+        SulWowza.stacksConnectionTimeoutMillis = 1000;
+        SulWowza.stacksReadTimeoutMillis = 2000;
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksAdaptiveTimeout", false)).thenReturn(true);
+        when(mockProperties.getPropertyStr("stacksAdaptiveTimeoutMultiplier", SulWowza.DEFAULT_STACKS_ADAPTIVE_TIMEOUT_MULTIPLIER)).thenReturn("2.5");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setAdaptiveTimeout(appInstanceMock);
+        assertThat(testModule.adaptiveTimeout.toString(), allOf(containsString("multiplier=2.5"),
+                                                                containsString("floorMillis=" + SulWowza.DEFAULT_STACKS_ADAPTIVE_TIMEOUT_FLOOR),
+                                                                containsString("ceilingMillis=3000")));
+        assertEquals(3000, testModule.stacksRequestTimeoutMillis());
+    }
+
+    @Test
+    public void setAdaptiveTimeout_callsHoneybadger_forBadMultiplier()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksAdaptiveTimeout", false)).thenReturn(true);
+        when(mockProperties.getPropertyStr("stacksAdaptiveTimeoutMultiplier", SulWowza.DEFAULT_STACKS_ADAPTIVE_TIMEOUT_MULTIPLIER)).thenReturn("lots");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        SulWowza spyModule = spy(testModule);
+        spyModule.setAdaptiveTimeout(appInstanceMock);
+        verify(spyModule).reportNotice(anyString(), any());
+        assertThat(spyModule.adaptiveTimeout.toString(), containsString("multiplier=3.0"));
+    }
+
+    @Test
+    public void setVerificationCache_validPropertyValues()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksTokenCacheMaxSize", SulWowza.DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE)).thenReturn(50);
+        when(mockProperties.getPropertyInt("stacksTokenCacheTTL", SulWowza.DEFAULT_STACKS_TOKEN_CACHE_TTL)).thenReturn(5);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setVerificationCache(appInstanceMock);
+        assertEquals(50, testModule.verificationCache.getMaxSize());
+        assertEquals(5, testModule.verificationCache.getTtlSeconds());
+    }
+
+    @Test
+    public void setVerificationCache_invalidPropertyValues_revertToDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksTokenCacheMaxSize", SulWowza.DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE)).thenReturn(-1);
+        when(mockProperties.getPropertyInt("stacksTokenCacheTTL", SulWowza.DEFAULT_STACKS_TOKEN_CACHE_TTL)).thenReturn(0);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setVerificationCache(appInstanceMock);
+        assertEquals(SulWowza.DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE, testModule.verificationCache.getMaxSize());
+        assertEquals(SulWowza.DEFAULT_STACKS_TOKEN_CACHE_TTL, testModule.verificationCache.getTtlSeconds());
+    }
+
+    @Test
+    public void setVerificationCache_zeroMaxSize_disablesCache()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksTokenCacheMaxSize", SulWowza.DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE)).thenReturn(0);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setVerificationCache(appInstanceMock);
+        assertFalse(testModule.verificationCache.isEnabled());
+    }
+
+    @Test
+    public void setVerificationCache_callsHoneybadger_ifExceptionThrown()
+    {
+        ClassCastException cce = new ClassCastException();
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksTokenCacheMaxSize", SulWowza.DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE)).thenThrow(cce);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+
+        SulWowza spyModule = spy(testModule);
+        spyModule.setVerificationCache(appInstanceMock);
+        verify(spyModule).reportNotice(spyModule.getClass().getSimpleName() +
+                                       " unable to read stacksTokenCacheMaxSize or stacksTokenCacheTTL from properties; using defaults ",
+                                       cce);
+        assertEquals(SulWowza.DEFAULT_STACKS_TOKEN_CACHE_MAX_SIZE, spyModule.verificationCache.getMaxSize());
+    }
+
+    @Test
+    public void setRejectionCache_validPropertyValues()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksTokenRejectionCacheMaxSize", SulWowza.DEFAULT_STACKS_TOKEN_REJECTION_CACHE_MAX_SIZE)).thenReturn(50);
+        when(mockProperties.getPropertyInt("stacksTokenRejectionCacheForbiddenTTL", SulWowza.DEFAULT_STACKS_TOKEN_REJECTION_CACHE_FORBIDDEN_TTL)).thenReturn(1);
+        when(mockProperties.getPropertyInt("stacksTokenRejectionCacheNotFoundTTL", SulWowza.DEFAULT_STACKS_TOKEN_REJECTION_CACHE_NOT_FOUND_TTL)).thenReturn(2);
+        when(mockProperties.getPropertyInt("stacksTokenRejectionCacheClientErrorTTL", SulWowza.DEFAULT_STACKS_TOKEN_REJECTION_CACHE_CLIENT_ERROR_TTL)).thenReturn(3);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setRejectionCache(appInstanceMock);
+        assertEquals(50, testModule.rejectionCache.getMaxSize());
+        assertEquals(1, testModule.rejectionCache.ttlSecondsFor(403));
+        assertEquals(2, testModule.rejectionCache.ttlSecondsFor(404));
+        assertEquals(3, testModule.rejectionCache.ttlSecondsFor(401));
+    }
+
+    @Test
+    public void setRejectionCache_negativePropertyValues_revertToDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("stacksTokenRejectionCacheMaxSize", SulWowza.DEFAULT_STACKS_TOKEN_REJECTION_CACHE_MAX_SIZE)).thenReturn(-1);
+        when(mockProperties.getPropertyInt("stacksTokenRejectionCacheForbiddenTTL", SulWowza.DEFAULT_STACKS_TOKEN_REJECTION_CACHE_FORBIDDEN_TTL)).thenReturn(-1);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setRejectionCache(appInstanceMock);
+        assertEquals(SulWowza.DEFAULT_STACKS_TOKEN_REJECTION_CACHE_MAX_SIZE, testModule.rejectionCache.getMaxSize());
+        assertEquals(SulWowza.DEFAULT_STACKS_TOKEN_REJECTION_CACHE_FORBIDDEN_TTL, testModule.rejectionCache.ttlSecondsFor(403));
+    }
+
+    @Test
+    public void setLocalTokenVerifier_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksLocalTokenVerification", false)).thenReturn(false);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setLocalTokenVerifier(appInstanceMock);
+        assertNull(testModule.localTokenVerifier);
+    }
+
+    @Test
+    public void setLocalTokenVerifier_offWithoutSecretKeyBase()
+    {
+        SulEnvironment mockSystem = mock(SulEnvironment.class);
+        when(mockSystem.getEnvironmentVariable(SulWowza.STACKS_SECRET_KEY_BASE_ENV_VAR)).thenReturn(null);
+        SulWowza localTestModule = spy(new SulWowza(mockSystem));
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksLocalTokenVerification", false)).thenReturn(true);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        localTestModule.setLocalTokenVerifier(appInstanceMock);
+        assertNull(localTestModule.localTokenVerifier);
+        verify(localTestModule).reportNotice(anyString());
+    }
+
+    @Test
+    public void setLocalTokenVerifier_onWithSecretKeyBase()
+    {
+        SulEnvironment mockSystem = mock(SulEnvironment.class);
+        when(mockSystem.getEnvironmentVariable(SulWowza.STACKS_SECRET_KEY_BASE_ENV_VAR)).thenReturn("0123456789abcdef");
+        SulWowza localTestModule = new SulWowza(mockSystem);
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksLocalTokenVerification", false)).thenReturn(true);
+        when(mockProperties.getPropertyInt("stacksTokenMaxAge", SulWowza.DEFAULT_STACKS_TOKEN_MAX_AGE)).thenReturn(120);
+        when(mockProperties.getPropertyStr("stacksTokenKeyDigest", SulWowza.DEFAULT_STACKS_TOKEN_KEY_DIGEST)).thenReturn("SHA256");
+        when(mockProperties.getPropertyInt("stacksTokenKeyIterations", SulWowza.DEFAULT_STACKS_TOKEN_KEY_ITERATIONS)).thenReturn(1000);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        localTestModule.setLocalTokenVerifier(appInstanceMock);
+        assertNotNull(localTestModule.localTokenVerifier);
+        assertEquals(120, localTestModule.localTokenVerifier.getMaxTokenAge().getSeconds());
+    }
+
+    @Test
+    public void setCircuitBreaker_off()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksCircuitBreaker", false)).thenReturn(false);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setCircuitBreaker(appInstanceMock);
+        assertNull(testModule.circuitBreaker);
+    }
+
+    @Test
+    public void setCircuitBreaker_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksCircuitBreaker", false)).thenReturn(false);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setCircuitBreaker(appInstanceMock);
+        assertNull(testModule.circuitBreaker);
+    }
+
+    @Test
+    public void setCircuitBreaker_usesDefaultsForInvalidSettings()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksCircuitBreaker", false)).thenReturn(true);
+        when(mockProperties.getPropertyInt("stacksCircuitBreakerFailureRateThreshold", SulWowza.DEFAULT_STACKS_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD)).thenReturn(150);
+        when(mockProperties.getPropertyInt("stacksCircuitBreakerOpenDuration", SulWowza.DEFAULT_STACKS_CIRCUIT_BREAKER_OPEN_DURATION)).thenReturn(-1);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setCircuitBreaker(appInstanceMock);
+        assertNotNull(testModule.circuitBreaker);
+        assertThat(testModule.circuitBreaker.toString(), allOf(containsString("failureRateThreshold=" + SulWowza.DEFAULT_STACKS_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD + "%"),
+                                                               containsString("openSeconds=" + SulWowza.DEFAULT_STACKS_CIRCUIT_BREAKER_OPEN_DURATION)));
+    }
+
+    @Test
+    public void setCircuitBreaker_callsHoneybadger_ifExceptionThrown()
+    {
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenThrow(new RuntimeException("properties unavailable"));
+        SulWowza spyModule = spy(testModule);
+        spyModule.setCircuitBreaker(appInstanceMock);
+        verify(spyModule).reportNotice(anyString(), any());
+        assertNull(spyModule.circuitBreaker);
+    }
+
+    @Test
+    public void onCircuitBreakerTransition_reportsOpeningOnce()
+    {
+        SulWowza spyModule = spy(testModule);
+        spyModule.onCircuitBreakerTransition(CircuitBreaker.State.CLOSED, CircuitBreaker.State.OPEN, "failure rate 100%");
+        spyModule.onCircuitBreakerTransition(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN, "trying");
+        spyModule.onCircuitBreakerTransition(CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED, "failure rate 0%");
+        verify(spyModule, times(1)).reportNotice(anyString());
+    }
+
+    @Test
+    public void warmUpStacks_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.warmUpStacks(appInstanceMock, new String[] { "http://localhost:3000" });
+        assertNull(testModule.stacksWarmup);
+    }
+
+    @Test
+    public void warmUpStacks_usesDefaultsForInvalidSettings()
+            throws IOException
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksWarmup", false)).thenReturn(true);
+        when(mockProperties.getPropertyInt("stacksWarmupConnections", SulWowza.DEFAULT_STACKS_WARMUP_CONNECTIONS)).thenReturn(0);
+        when(mockProperties.getPropertyStr("stacksWarmupPath", SulWowza.DEFAULT_STACKS_HEALTH_CHECK_PATH)).thenReturn("status");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        SulWowza spyModule = spy(testModule);
+        doReturn(CompletableFuture.failedFuture(new IOException("connection refused"))).when(spyModule).sendStacksRequestAsync(any(), anyString());
+        spyModule.warmUpStacks(appInstanceMock, new String[] { "http://localhost:3000" });
+        assertThat(spyModule.stacksWarmup.toString(), CoreMatchers.startsWith("StacksWarmup[connections=" + SulWowza.DEFAULT_STACKS_WARMUP_CONNECTIONS +
+                                                                              ", probePath=" + SulWowza.DEFAULT_STACKS_HEALTH_CHECK_PATH));
+    }
+
+    @Test
+    public void setVerificationBatcher_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setVerificationBatcher(appInstanceMock);
+        assertNull(testModule.verificationBatcher);
+    }
+
+    @Test
+    public void setVerificationBatcher_usesDefaultsForInvalidSettings()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksBatchVerification", false)).thenReturn(true);
+        when(mockProperties.getPropertyInt("stacksBatchWindowMillis", SulWowza.DEFAULT_STACKS_BATCH_WINDOW_MILLIS)).thenReturn(-1);
+        when(mockProperties.getPropertyInt("stacksBatchMaxSize", SulWowza.DEFAULT_STACKS_BATCH_MAX_SIZE)).thenReturn(20);
+        when(mockProperties.getPropertyStr("stacksBatchPath", SulWowza.DEFAULT_STACKS_BATCH_PATH)).thenReturn("no/leading/slash");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setVerificationBatcher(appInstanceMock);
+        assertEquals("VerificationBatcher[windowMillis=" + SulWowza.DEFAULT_STACKS_BATCH_WINDOW_MILLIS + ", maxBatchSize=20]",
+                     testModule.verificationBatcher.toString());
+        assertEquals(SulWowza.DEFAULT_STACKS_BATCH_PATH, testModule.stacksBatchPath);
+    }
+
+    @Test
+    public void setNoticeQueue_usesDefaultsForInvalidSettings()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("honeybadgerNoticeQueueSize", SulWowza.DEFAULT_HONEYBADGER_NOTICE_QUEUE_SIZE)).thenReturn(-1);
+        when(mockProperties.getPropertyInt("honeybadgerFlushTimeoutMillis", SulWowza.DEFAULT_HONEYBADGER_FLUSH_TIMEOUT_MILLIS)).thenReturn(250);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setNoticeQueue(appInstanceMock);
+        assertThat(testModule.noticeQueue.toString(), CoreMatchers.startsWith("NoticeQueue[capacity=" + SulWowza.DEFAULT_HONEYBADGER_NOTICE_QUEUE_SIZE + ","));
+        assertEquals(250, testModule.honeybadgerFlushTimeoutMillis);
+    }
+
+    @Test
+    public void reportNotice_queuesNoticeForSending()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        SulWowza spyModule = spy(testModule);
+        spyModule.setNoticeQueue(appInstanceMock);
+        spyModule.reportNotice("queued");
+        spyModule.flushNoticeQueue();
+        verify(spyModule).sendNotice(argThat(t -> "queued".equals(t.getMessage())));
+        assertNull(spyModule.noticeQueue);
+    }
+
+    @Test
+    public void reportNotice_sendsSynchronouslyWithoutQueue()
+    {
+        SulWowza spyModule = spy(testModule);
+        spyModule.noticeQueue = null;
+        spyModule.reportNotice("now");
+        verify(spyModule).sendNotice(argThat(t -> "now".equals(t.getMessage())));
+    }
+
+    @Test
+    public void onAppStop_flushesNoticeQueue()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setNoticeQueue(appInstanceMock);
+        NoticeQueue queue = testModule.noticeQueue;
+        testModule.onAppStop(appInstanceMock);
+        assertNull(testModule.noticeQueue);
+        assertFalse(queue.offer(new Throwable("after stop")));
+    }
+
+    @Test
+    public void setNoticeAggregator_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setNoticeAggregator(appInstanceMock);
+        assertNull(testModule.noticeAggregator);
+    }
+
+    @Test
+    public void reportNotice_mergesRepeatsIntoSummaryOnFlush()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyInt("honeybadgerAggregationWindow", 0)).thenReturn(60);
+        when(mockProperties.getPropertyInt("honeybadgerAggregationSamples", SulWowza.DEFAULT_HONEYBADGER_AGGREGATION_SAMPLES)).thenReturn(1);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        SulWowza spyModule = spy(testModule);
+        spyModule.noticeQueue = null;
+        spyModule.setNoticeAggregator(appInstanceMock);
+        spyModule.reportNotice("SulWowza: User IP missing or invalid: 1.2.3");
+        spyModule.reportNotice("SulWowza: User IP missing or invalid: 1.2.4");
+        spyModule.reportNotice("SulWowza: User IP missing or invalid: 1.2.5");
+        verify(spyModule).sendNotice(argThat(t -> "SulWowza: User IP missing or invalid: 1.2.3".equals(t.getMessage())));
+
+        spyModule.onAppStop(appInstanceMock);
+        verify(spyModule).sendNotice(argThat(t -> ("SulWowza: User IP missing or invalid: 1.2.3 (2 more like this within 60s; " +
+                                                   "e.g. SulWowza: User IP missing or invalid: 1.2.4)").equals(t.getMessage())));
+        assertNull(spyModule.noticeAggregator);
+    }
+
+    @Test
+    public void reportNotice_skipsStackTraceWhenCauseHasOne()
+    {
+        SulWowza spyModule = spy(testModule);
+        spyModule.noticeQueue = null;
+        spyModule.reportNotice("with cause", new IllegalStateException("oops"));
+        spyModule.reportNotice("without cause");
+        verify(spyModule).sendNotice(argThat(t -> "with cause".equals(t.getMessage()) && t.getStackTrace().length == 0));
+        verify(spyModule).sendNotice(argThat(t -> "without cause".equals(t.getMessage()) && t.getStackTrace().length > 0));
+    }
+
+    @Test
+    public void setAuditLog_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setAuditLog(appInstanceMock);
+        assertNull(testModule.auditLog);
+    }
+
+    @Test
+    public void authorizeSession_recordsDecisionInAuditLog()
+            throws IOException
+    {
+        Path file = Files.createTempDirectory("audit").resolve("audit.log");
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyStr("auditLogFile", "")).thenReturn(file.toString());
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setAuditLog(appInstanceMock);
+        assertThat(testModule.auditLog.toString(), CoreMatchers.startsWith("AuditLog[file=" + file + ", capacity=" + SulWowza.DEFAULT_AUDIT_LOG_BUFFER_SIZE + ","));
+
+        HTTPStreamerSessionCupertino sessionMock = mock(HTTPStreamerSessionCupertino.class);
+        when(sessionMock.getHTTPHeaderMap()).thenReturn(new HashMap<String, String>());
+        testModule.authorizeSession(sessionMock); // no token
+        testModule.onAppStop(appInstanceMock);
+        assertNull(testModule.auditLog);
+
+        String line = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertThat(line, allOf(containsString("\"protocol\":\"hls\""),
+                               containsString("\"outcome\":\"rejected\""),
+                               containsString("\"reason\":\"invalid_token\"")));
+    }
+
+    @Test
+    public void setLogSampling_readsLimits()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyStr("logSampling", "")).thenReturn("session=20, verify=50");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setLogSampling(appInstanceMock);
+        assertEquals("SessionLog[session=20/s, verify=50/s]", testModule.sessionLog.toString());
+    }
+
+    @Test
+    public void setLogSampling_invalidLimitCallsHoneybadger()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyStr("logSampling", "")).thenReturn("session=lots");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        SulWowza spyModule = spy(testModule);
+        spyModule.setLogSampling(appInstanceMock);
+        verify(spyModule).reportNotice(anyString(), any());
+        assertEquals("SessionLog[unlimited]", spyModule.sessionLog.toString());
+    }
+
+    @Test
+    public void authorizeSession_countsDecisionInMetrics()
+    {
+        HTTPStreamerSessionMPEGDash sessionMock = mock(HTTPStreamerSessionMPEGDash.class);
+        when(sessionMock.getHTTPHeaderMap()).thenReturn(new HashMap<String, String>());
+        when(sessionMock.getQueryStr()).thenReturn(queryStr);
+        testModule.authorizeSession(sessionMock); // no user IP
+        assertEquals(1, testModule.metrics.rejected(AuthorizationMetrics.Protocol.DASH));
+        assertEquals(1, testModule.metrics.rejected(AuditLog.Reason.INVALID_USER_IP));
+        assertEquals(1, testModule.metrics.authorizationLatency().count());
+    }
+
+    @Test
+    public void setTrustedProxies_offByDefault()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setTrustedProxies(appInstanceMock);
+        assertNull(testModule.trustedProxies);
+    }
+
+    @Test
+    public void setTrustedProxies_parsesRanges()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyStr("trustedProxies", "")).thenReturn(" 10.0.0.0/8 ,2001:db8::/32");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setTrustedProxies(appInstanceMock);
+        assertEquals("10.0.0.0/8, 2001:db8::/32", testModule.trustedProxies.toString());
+    }
+
+    @Test
+    public void setTrustedProxies_invalidRangeCallsHoneybadger()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyStr("trustedProxies", "")).thenReturn("10.0.0.0/33");
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        SulWowza spyModule = spy(testModule);
+        spyModule.setTrustedProxies(appInstanceMock);
+        assertNull(spyModule.trustedProxies);
+        verify(spyModule).reportNotice(eq(spyModule.getClass().getSimpleName() +
+                                          " unable to read trustedProxies from properties; user IP is the first x-forwarded-for entry "),
+                                       any());
+    }
+
+    @Test
+    public void setConcurrencyLimiter_off()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksConcurrencyLimit", false)).thenReturn(false);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setConcurrencyLimiter(appInstanceMock);
+        assertNull(testModule.concurrencyLimiter);
+    }
+
+    @Test
+    public void setConcurrencyLimiter_offIfPropertiesUnreadable()
+    {
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenThrow(new RuntimeException("properties unavailable"));
+        SulWowza spyModule = spy(testModule);
+        spyModule.setConcurrencyLimiter(appInstanceMock);
+        verify(spyModule).reportNotice(anyString(), any());
+        assertNull(spyModule.concurrencyLimiter);
+    }
+
+    @Test
+    public void setConcurrencyLimiter_usesDefaultsForInvalidSettings()
+    {
+        WMSProperties mockProperties = mock(WMSProperties.class);
+        when(mockProperties.getPropertyBoolean("stacksConcurrencyLimit", false)).thenReturn(true);
+        when(mockProperties.getPropertyInt("stacksConcurrencyLimitInitial", SulWowza.DEFAULT_STACKS_CONCURRENCY_LIMIT_INITIAL)).thenReturn(0);
+        when(mockProperties.getPropertyInt("stacksConcurrencyLimitMin", SulWowza.DEFAULT_STACKS_CONCURRENCY_LIMIT_MIN)).thenReturn(2);
+        when(mockProperties.getPropertyInt("stacksConcurrencyLimitMax", SulWowza.DEFAULT_STACKS_CONCURRENCY_LIMIT_MAX)).thenReturn(40);
+        when(mockProperties.getPropertyInt("stacksConcurrencyLimitQueueSize", SulWowza.DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_SIZE)).thenReturn(-1);
+        when(mockProperties.getPropertyInt("stacksConcurrencyLimitQueueTimeout", SulWowza.DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_TIMEOUT)).thenReturn(250);
+        IApplicationInstance appInstanceMock = mock(IApplicationInstance.class);
+        when(appInstanceMock.getProperties()).thenReturn(mockProperties);
+        testModule.setConcurrencyLimiter(appInstanceMock);
+        assertEquals("ConcurrencyLimiter[limit=" + SulWowza.DEFAULT_STACKS_CONCURRENCY_LIMIT_INITIAL + ", minLimit=2, maxLimit=40, queueSize=" +
+                        SulWowza.DEFAULT_STACKS_CONCURRENCY_LIMIT_QUEUE_SIZE + ", queueTimeoutMillis=250]", testModule.concurrencyLimiter.toString());
+    }
+
     @Test
     public void getStacksUrl_returnsEmptyString_ifExceptionThrown()
     {
@@ -520,6 +1217,26 @@ public class TestSulWowza
         verify(sessionMock).acceptSession();
     }
 
+    @Test
+    public void authorizeSession_doesNotRejectIfAuthorized()
+    {
+        String filename = "ignored";
+        String streamName = "oo/000/oo/0000/" + filename;
+        String druid = "oo000oo0000";
+        String userIp = "1.1.1.1";
+        IHTTPStreamerSession sessionMock = mock(IHTTPStreamerSession.class);
+        Map<String, String> mockHttpHeaderMap = new HashMap<String, String>();
+        mockHttpHeaderMap.put("x-forwarded-for", userIp);
+        when(sessionMock.getHTTPHeaderMap()).thenReturn(mockHttpHeaderMap);
+        when(sessionMock.getQueryStr()).thenReturn(queryStr);
+        when(sessionMock.getStreamName()).thenReturn(streamName);
+        SulWowza spyModule = spy(testModule);
+        doReturn(true).when(spyModule).verifyStacksToken(stacksToken, druid, filename, userIp);
+
+        spyModule.authorizeSession(sessionMock);
+        verify(sessionMock, never()).rejectSession();
+    }
+
     @Test
     public void authorizeSession_rejectsIfNotAuthorized()
     {
@@ -600,7 +1317,7 @@ public class TestSulWowza
     }
 
     @Test
-    public void authorizeSession_validatesStreamName()
+    public void authorizeSession_parsesStreamName()
     {
         String streamName = "anything";
         IHTTPStreamerSession sessionMock = mock(IHTTPStreamerSession.class);
@@ -612,7 +1329,7 @@ public class TestSulWowza
         SulWowza spyModule = spy(testModule);
 
         spyModule.authorizeSession(sessionMock);
-        verify(spyModule).validateStreamName(streamName);
+        verify(spyModule).parseStreamName(streamName);
     }
 
     @Test
@@ -628,17 +1345,16 @@ public class TestSulWowza
         SulWowza spyModule = spy(testModule);
 
         spyModule.authorizeSession(sessionMock);
-        verify(spyModule).getDruid(streamName);
+        verify(spyModule).verifyStacksToken(anyString(), eq("aa123bb1234"), anyString(), anyString());
     }
 
     @Test
     public void authorizeSession_rejectsForNullDruid()
     {
-        String streamName = "aa/123/bb/1234/filename.ext";
+        String streamName = "aa/12/bb/1234/filename.ext";
         IHTTPStreamerSession sessionMock = mock(IHTTPStreamerSession.class);
         when(sessionMock.getStreamName()).thenReturn(streamName);
         SulWowza spyModule = spy(testModule);
-        when(spyModule.getDruid(streamName)).thenReturn(null);
 
         spyModule.authorizeSession(sessionMock);
         verify(spyModule, never()).verifyStacksToken(anyString(), anyString(), anyString(), anyString());
@@ -658,17 +1374,16 @@ public class TestSulWowza
         SulWowza spyModule = spy(testModule);
 
         spyModule.authorizeSession(sessionMock);
-        verify(spyModule).getFilename(streamName);
+        verify(spyModule).verifyStacksToken(anyString(), anyString(), eq("filename.ext"), anyString());
     }
 
     @Test
     public void authorizeSession_rejectsForNullFilename()
     {
-        String streamName = "aa/123/bb/1234/filename.ext";
+        String streamName = "aa/123/bb/1234/mp4:";
         IHTTPStreamerSession sessionMock = mock(IHTTPStreamerSession.class);
         when(sessionMock.getStreamName()).thenReturn(streamName);
         SulWowza spyModule = spy(testModule);
-        when(spyModule.getFilename(streamName)).thenReturn(null);
 
         spyModule.authorizeSession(sessionMock);
         verify(spyModule, never()).verifyStacksToken(anyString(), anyString(), anyString(), anyString());
@@ -689,9 +1404,6 @@ public class TestSulWowza
         when(spyModule.getStacksToken(queryString)).thenReturn(token);
         when(spyModule.validateStacksToken(token)).thenReturn(true);
         when(spyModule.validateUserIp(userIp)).thenReturn(true);
-        when(spyModule.validateStreamName(streamName)).thenReturn(true);
-        when(spyModule.getDruid(streamName)).thenReturn(druid);
-        when(spyModule.getFilename(streamName)).thenReturn(filename);
         when(spyModule.verifyStacksToken(token, druid, filename, userIp)).thenReturn(true);
 
         assertEquals(true, spyModule.authorizePlay(queryString, userIp, streamName));
@@ -711,9 +1423,6 @@ public class TestSulWowza
         when(spyModule.getStacksToken(queryString)).thenReturn(token);
         when(spyModule.validateStacksToken(token)).thenReturn(true);
         when(spyModule.validateUserIp(userIp)).thenReturn(true);
-        when(spyModule.validateStreamName(streamName)).thenReturn(true);
-        when(spyModule.getDruid(streamName)).thenReturn(druid);
-        when(spyModule.getFilename(streamName)).thenReturn(filename);
         when(spyModule.verifyStacksToken(token, druid, filename, userIp)).thenReturn(false);
 
         assertEquals(false, spyModule.authorizePlay(queryString, userIp, streamName));
@@ -752,7 +1461,7 @@ public class TestSulWowza
     }
 
     @Test
-    public void authorizePlay_validatesStreamName()
+    public void authorizePlay_parsesStreamName()
     {
         String queryString = "query";
         String userIp = "1.1.1.1";
@@ -765,7 +1474,7 @@ public class TestSulWowza
         when(spyModule.validateUserIp(userIp)).thenReturn(true);
 
         spyModule.authorizePlay(queryString, userIp, streamName);
-        verify(spyModule).validateStreamName(streamName);
+        verify(spyModule).parseStreamName(streamName);
     }
 
     @Test
@@ -773,15 +1482,13 @@ public class TestSulWowza
     {
         String queryString = "query";
         String userIp = "1.1.1.1";
-        String streamName = "aa/123/bb/1234/filename.ext";
+        String streamName = "aa/12/bb/1234/filename.ext";
         String token = "abcd";
 
         SulWowza spyModule = spy(testModule);
         when(spyModule.getStacksToken(queryString)).thenReturn(token);
         when(spyModule.validateStacksToken(token)).thenReturn(true);
         when(spyModule.validateUserIp(userIp)).thenReturn(true);
-        when(spyModule.validateStreamName(streamName)).thenReturn(true);
-        when(spyModule.getDruid(streamName)).thenReturn(null);
 
         assertEquals(false, spyModule.authorizePlay(queryString, userIp, streamName));
         verify(spyModule, never()).verifyStacksToken(anyString(), anyString(), anyString(), anyString());
@@ -792,15 +1499,13 @@ public class TestSulWowza
     {
         String queryString = "query";
         String userIp = "1.1.1.1";
-        String streamName = "aa/123/bb/1234/filename.ext";
+        String streamName = "aa/123/bb/1234/mp4:";
         String token = "abcd";
 
         SulWowza spyModule = spy(testModule);
         when(spyModule.getStacksToken(queryString)).thenReturn(token);
         when(spyModule.validateStacksToken(token)).thenReturn(true);
         when(spyModule.validateUserIp(userIp)).thenReturn(true);
-        when(spyModule.validateStreamName(streamName)).thenReturn(true);
-        when(spyModule.getFilename(streamName)).thenReturn(null);
 
         assertEquals(false, spyModule.authorizePlay(queryString, userIp, streamName));
         verify(spyModule, never()).verifyStacksToken(anyString(), anyString(), anyString(), anyString());
@@ -829,10 +1534,9 @@ public class TestSulWowza
         when(spyModule.getStacksToken(queryString)).thenReturn(token);
         when(spyModule.validateStacksToken(token)).thenReturn(true);
         when(spyModule.validateUserIp(userIp)).thenReturn(true);
-        when(spyModule.validateStreamName(streamName)).thenReturn(true);
 
         spyModule.authorizePlay(queryString, userIp, streamName);
-        verify(spyModule).getFilename(streamName);
+        verify(spyModule).verifyStacksToken(anyString(), anyString(), eq("filename.ext"), anyString());
     }
 
     @Test
@@ -846,9 +1550,8 @@ public class TestSulWowza
         when(spyModule.getStacksToken(queryString)).thenReturn(token);
         when(spyModule.validateStacksToken(token)).thenReturn(true);
         when(spyModule.validateUserIp(userIp)).thenReturn(true);
-        when(spyModule.validateStreamName(streamName)).thenReturn(true);
 
         spyModule.authorizePlay(queryString, userIp, streamName);
-        verify(spyModule).getDruid(streamName);
+        verify(spyModule).verifyStacksToken(anyString(), eq("aa123bb1234"), anyString(), anyString());
     }
 }
@@ -0,0 +1,194 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.*;
+
+import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
+
+public class TestSulWowzaManagement
+{
+    private final SulWowza module = new SulWowza();
+    private final SulWowzaManagement management = new SulWowzaManagement(module);
+    private long connectionTimeoutMillis;
+    private long readTimeoutMillis;
+
+    @Before
+    public void setUp()
+    {
+        connectionTimeoutMillis = SulWowza.stacksConnectionTimeoutMillis;
+        readTimeoutMillis = SulWowza.stacksReadTimeoutMillis;
+        module.applicationName = "vod";
+        module.instanceName = "management-test";
+    }
+
+    @After
+    public void tearDown()
+    {
+        SulWowza.running.remove(module);
+        SulWowza.stacksConnectionTimeoutMillis = connectionTimeoutMillis;
+        SulWowza.stacksReadTimeoutMillis = readTimeoutMillis;
+        module.unregisterMBean();
+    }
+
+    @Test
+    public void setStacksTimeouts_changeSharedTimeouts()
+    {
+        management.setStacksConnectionTimeoutMillis(150);
+        management.setStacksReadTimeoutMillis(350);
+
+        assertEquals(150, SulWowza.stacksConnectionTimeoutMillis);
+        assertEquals(350, SulWowza.stacksReadTimeoutMillis);
+        assertEquals(500, management.getStacksRequestTimeoutMillis());
+    }
+
+    @Test
+    public void setStacksTimeouts_reboundAdaptiveTimeoutOfRunningModules()
+    {
+        module.adaptiveTimeout = new AdaptiveTimeout(3, 100, 10000, 10, 60);
+        SulWowza.running.add(module);
+
+        management.setStacksReadTimeoutMillis(200);
+
+        assertEquals(SulWowza.stacksConnectionTimeoutMillis + 200, management.getStacksRequestTimeoutMillis());
+    }
+
+    @Test
+    public void setStacksTimeouts_rejectsLessThanOneMillisecond()
+    {
+        management.setStacksReadTimeoutMillis(350);
+        try
+        {
+            management.setStacksReadTimeoutMillis(0);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertEquals(350, SulWowza.stacksReadTimeoutMillis);
+        }
+    }
+
+    @Test
+    public void setVerificationCacheMaxSize_swapsInEmptyCacheWithSameTtl()
+    {
+        module.verificationCache = new VerificationCache(10, 45);
+        module.verificationCache.recordApproval("key");
+        VerificationCache before = module.verificationCache;
+
+        management.setVerificationCacheMaxSize(20);
+
+        assertNotSame(before, module.verificationCache);
+        assertEquals(20, management.getVerificationCacheMaxSize());
+        assertEquals(45, management.getVerificationCacheTtlSeconds());
+        assertEquals(0, management.getVerificationCacheSize());
+    }
+
+    @Test
+    public void setVerificationCacheTtlSeconds_rejectsZero()
+    {
+        VerificationCache before = module.verificationCache;
+        try
+        {
+            management.setVerificationCacheTtlSeconds(0);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertSame(before, module.verificationCache);
+        }
+    }
+
+    @Test
+    public void setRejectionCacheMaxSize_zeroTurnsCacheOff()
+    {
+        management.setRejectionCacheMaxSize(0);
+
+        assertEquals(0, management.getRejectionCacheMaxSize());
+        assertFalse(module.rejectionCache.isEnabled());
+    }
+
+    @Test
+    public void invalidateCaches_forgetsApprovalsAndRejections()
+    {
+        module.verificationCache.recordApproval("approved");
+        module.rejectionCache.recordRejection("rejected", 404);
+
+        management.invalidateCaches();
+
+        assertEquals(0, management.getVerificationCacheSize());
+        assertEquals(0, management.getRejectionCacheSize());
+    }
+
+    @Test
+    public void statistics_comeFromTheModule()
+    {
+        module.metrics.recordDecision(AuthorizationMetrics.Protocol.HLS, true, AuditLog.Reason.STACKS, 1000);
+        module.metrics.recordDecision(AuthorizationMetrics.Protocol.HLS, false, AuditLog.Reason.INVALID_TOKEN, 1000);
+
+        assertEquals(1, management.getAcceptedCount());
+        assertEquals(1, management.getRejectedCount());
+        assertEquals(1, management.getAuthorizationLatencyP99Micros());
+        assertEquals("off", management.getCircuitBreakerState());
+        assertEquals(-1, management.getConcurrencyLimit());
+    }
+
+    @Test
+    public void isAnMXBean()
+            throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = SulWowza.mbeanName("vod", "mxbean-test");
+        server.registerMBean(management, name);
+        try
+        {
+            server.setAttribute(name, new Attribute("VerificationCacheMaxSize", 5L));
+            assertEquals(5L, server.getAttribute(name, "VerificationCacheMaxSize"));
+            assertEquals("off", JMX.newMXBeanProxy(server, name, SulWowzaMXBean.class).getCircuitBreakerState());
+            server.invoke(name, "invalidateCaches", null, null);
+        }
+        finally
+        {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void registerMBean_namedForApplicationInstance()
+            throws Exception
+    {
+        IApplicationInstance appInstance = mock(IApplicationInstance.class);
+        WMSProperties properties = mock(WMSProperties.class);
+        when(appInstance.getProperties()).thenReturn(properties);
+        when(properties.getPropertyBoolean("jmx", false)).thenReturn(true);
+
+        module.registerMBean(appInstance);
+
+        ObjectName name = SulWowza.mbeanName("vod", "management-test");
+        assertEquals(name, module.mbeanName);
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        module.unregisterMBean();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void registerMBean_offUnlessJmxPropertyTrue()
+    {
+        IApplicationInstance appInstance = mock(IApplicationInstance.class);
+        WMSProperties properties = mock(WMSProperties.class);
+        when(appInstance.getProperties()).thenReturn(properties);
+        when(properties.getPropertyBoolean("jmx", false)).thenReturn(false);
+
+        module.registerMBean(appInstance);
+
+        assertNull(module.mbeanName);
+    }
+}
@@ -94,6 +94,14 @@ public class TestValidationMethods
         assertFalse(testModule.validateUserIp("1.1.1"));
     }
 
+    @Test
+    public void validateUserIp_ipv6()
+    {
+        assertTrue(testModule.validateUserIp("2001:db8::1"));
+        assertTrue(testModule.validateUserIp("::ffff:1.1.1.1"));
+        assertFalse(testModule.validateUserIp("2001:db8::1::2"));
+    }
+
     @Test
     public void validateUserIp_logsError()
     {
@@ -121,42 +129,42 @@ public class TestValidationMethods
     }
 
     @Test
-    public void validateStreamName_goodEnough()
+    public void parseStreamName_goodEnough()
     {
-        assertTrue(testModule.validateStreamName("oo/00/oo/0000/filename.ext"));
+        assertNotNull(StreamName.parse("oo/00/oo/0000/filename.ext"));
     }
 
     @Test
-    public void validateStreamName_nullValue()
+    public void parseStreamName_nullValue()
     {
-        assertFalse(testModule.validateStreamName(null));
+        assertNull(StreamName.parse(null));
     }
 
     @Test
-    public void validateStreamName_emptyString()
+    public void parseStreamName_emptyString()
     {
-        assertFalse(testModule.validateStreamName(""));
+        assertNull(StreamName.parse(""));
     }
 
     @Test
-    public void validateStreamName_shortString()
+    public void parseStreamName_shortString()
     {
-        assertFalse(testModule.validateStreamName("short"));
+        assertNull(StreamName.parse("short"));
     }
 
     @Test
-    public void validateStreamName_not4Slashes()
+    public void parseStreamName_not4Slashes()
     {
-        assertFalse(testModule.validateStreamName("oo/00/oo/0000/extra/stream.mp4"));
-        assertFalse(testModule.validateStreamName("a/a/a/a/a"));
-        assertFalse(testModule.validateStreamName("stream.mp4"));
-        assertFalse(testModule.validateStreamName("oo/00/oo/0000"));
-        assertFalse(testModule.validateStreamName(""));
-        assertFalse(testModule.validateStreamName(null));
+        assertNull(StreamName.parse("oo/00/oo/0000/extra/stream.mp4"));
+        assertNull(StreamName.parse("a/a/a/a/a"));
+        assertNull(StreamName.parse("stream.mp4"));
+        assertNull(StreamName.parse("oo/00/oo/0000"));
+        assertNull(StreamName.parse(""));
+        assertNull(StreamName.parse(null));
     }
 
     @Test
-    public void validateStreamName_logsError()
+    public void parseStreamName_logsError()
     {
         // logger is the rootLogger, per test/resources/log4j.properties
         Logger logger = Logger.getRootLogger();
@@ -168,7 +176,7 @@ public class TestValidationMethods
         try
         {
             String badStreamName = "short";
-            testModule.validateStreamName(badStreamName);
+            testModule.parseStreamName(badStreamName);
             String logMsg = out.toString();
             assertThat(logMsg, allOf(containsString("ERROR"),
                                      containsString(testModule.getClass().getSimpleName()),
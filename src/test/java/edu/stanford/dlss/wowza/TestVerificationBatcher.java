@@ -0,0 +1,223 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestVerificationBatcher
+{
+    static final long TIMEOUT_MILLIS = 5000;
+
+    /** stands in for the stacks bulk endpoint:  approves paths containing "good", rejects the rest */
+    static class StubStacks implements VerificationBatcher.BatchSender
+    {
+        final List<List<Object>> batches = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public String send(String jsonPaths)
+        {
+            List<Object> paths = (List<Object>) JsonParser.parse(jsonPaths);
+            batches.add(paths);
+            List<String> statuses = new ArrayList<>();
+            for (Object path : paths)
+                statuses.add(((String) path).contains("good") ? "200" : "403");
+            return "[" + String.join(",", statuses) + "]";
+        }
+    }
+
+    ExecutorService callers;
+
+    @Before
+    public void setUp()
+    {
+        callers = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown()
+    {
+        callers.shutdownNow();
+    }
+
+    private List<Future<Integer>> verifyConcurrently(VerificationBatcher batcher, String... paths)
+            throws InterruptedException
+    {
+        CountDownLatch ready = new CountDownLatch(paths.length);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (String path : paths)
+            results.add(callers.submit(() ->
+            {
+                ready.countDown();
+                return batcher.verify(path, TIMEOUT_MILLIS);
+            }));
+        ready.await();
+        return results;
+    }
+
+    @Test
+    public void verify_sendsConcurrentVerificationsAsOneBatch()
+            throws Exception
+    {
+        StubStacks stacks = new StubStacks();
+        VerificationBatcher batcher = new VerificationBatcher(200, 10, stacks);
+        List<Future<Integer>> results = verifyConcurrently(batcher, "/media/good1", "/media/bad", "/media/good2");
+        assertEquals(200, (int) results.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals(403, (int) results.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals(200, (int) results.get(2).get(5, TimeUnit.SECONDS));
+        assertEquals(1, stacks.batches.size());
+        assertEquals(3, stacks.batches.get(0).size());
+        assertEquals(1, batcher.batchCount());
+        assertEquals(3, batcher.itemCount());
+    }
+
+    @Test
+    public void verify_sendsFullBatchWithoutWaitingOutWindow()
+            throws Exception
+    {
+        StubStacks stacks = new StubStacks();
+        VerificationBatcher batcher = new VerificationBatcher(TimeUnit.MINUTES.toMillis(1), 2, stacks);
+        List<Future<Integer>> results = verifyConcurrently(batcher, "/media/good1", "/media/good2");
+        assertEquals(200, (int) results.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals(200, (int) results.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals(1, stacks.batches.size());
+    }
+
+    @Test
+    public void verify_zeroWindow_sendsEachAlone()
+            throws Exception
+    {
+        StubStacks stacks = new StubStacks();
+        VerificationBatcher batcher = new VerificationBatcher(0, 10, stacks);
+        assertEquals(200, batcher.verify("/media/good", TIMEOUT_MILLIS));
+        assertEquals(403, batcher.verify("/media/bad", TIMEOUT_MILLIS));
+        assertEquals(2, stacks.batches.size());
+    }
+
+    @Test
+    public void verify_failedBatch_throwsForEveryItem()
+            throws Exception
+    {
+        VerificationBatcher batcher = new VerificationBatcher(200, 10, jsonPaths -> { throw new IOException("connection refused"); });
+        List<Future<Integer>> results = verifyConcurrently(batcher, "/media/good1", "/media/good2");
+        for (Future<Integer> result : results)
+        {
+            try
+            {
+                result.get(5, TimeUnit.SECONDS);
+                fail("expected the batch failure");
+            }
+            catch (ExecutionException e)
+            {
+                assertThat(e.getCause(), instanceOf(IOException.class));
+                assertEquals("connection refused", e.getCause().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void verify_errorFromSender_releasesEveryItem()
+            throws Exception
+    {
+        VerificationBatcher batcher = new VerificationBatcher(200, 10, jsonPaths -> { throw new AssertionError("not an Exception"); });
+        List<Future<Integer>> results = verifyConcurrently(batcher, "/media/good1", "/media/good2");
+        List<Class<?>> causes = new ArrayList<>();
+        for (Future<Integer> result : results)
+        {
+            try
+            {
+                result.get(5, TimeUnit.SECONDS);
+                fail("expected the batch failure");
+            }
+            catch (ExecutionException e)
+            {
+                causes.add(e.getCause().getClass());
+            }
+        }
+        // the leader gets the Error, the other item an IOException
+        assertTrue(causes.toString(), causes.contains(AssertionError.class) && causes.contains(IOException.class));
+    }
+
+    @Test
+    public void verify_itemGivesUpAfterWindowPlusTimeout()
+            throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        VerificationBatcher batcher = new VerificationBatcher(200, 2, jsonPaths ->
+        {
+            release.await(5, TimeUnit.SECONDS);
+            return "[200,200]";
+        });
+        try
+        {
+            Thread[] leaderThread = new Thread[1];
+            callers.submit(() ->
+            {
+                leaderThread[0] = Thread.currentThread();
+                return batcher.verify("/media/good1", TIMEOUT_MILLIS);
+            });
+            // the leader is waiting out the window for more items
+            while (leaderThread[0] == null || leaderThread[0].getState() != Thread.State.TIMED_WAITING)
+                Thread.sleep(1);
+
+            long start = System.nanoTime();
+            try
+            {
+                batcher.verify("/media/good2", 50);
+                fail("expected a timeout");
+            }
+            catch (HttpTimeoutException e)
+            {
+                long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue("waited " + waitedMillis + "ms", waitedMillis >= 250 && waitedMillis < 5000);
+            }
+            assertEquals(1, batcher.timedOutCount());
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void verify_responseMissingStatuses_throws()
+            throws Exception
+    {
+        new VerificationBatcher(0, 10, jsonPaths -> "[]").verify("/media/good", TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void toJsonArray_escapesStrings()
+    {
+        String json = VerificationBatcher.toJsonArray(List.of("/media/a\"b\\c/verify_token?x=1", "tab\there"));
+        assertEquals("[\"/media/a\\\"b\\\\c/verify_token?x=1\",\"tab\\u0009here\"]", json);
+        assertEquals(List.of("/media/a\"b\\c/verify_token?x=1", "tab\there"), JsonParser.parse(json));
+    }
+
+    @Test
+    public void parseStatuses_rejectsNonIntegerStatuses()
+    {
+        try
+        {
+            VerificationBatcher.parseStatuses("[200, \"ok\"]", 2);
+            fail("expected IOException");
+        }
+        catch (IOException e)
+        {
+            assertThat(e.getMessage(), containsString("non-integer"));
+        }
+    }
+}
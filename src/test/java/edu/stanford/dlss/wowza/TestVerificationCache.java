@@ -0,0 +1,59 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class TestVerificationCache
+{
+    final static String cacheKey = "/media/oo000oo0000/filename.ext/verify_token?stacks_token=encryptedStacksMediaToken&user_ip=0.0.0.0";
+
+    @Test
+    public void isApproved_falseUntilApprovalRecorded()
+    {
+        VerificationCache cache = new VerificationCache(10, 60);
+        assertFalse(cache.isApproved(cacheKey));
+        cache.recordApproval(cacheKey);
+        assertTrue(cache.isApproved(cacheKey));
+    }
+
+    @Test
+    public void isApproved_countsHitsAndMisses()
+    {
+        VerificationCache cache = new VerificationCache(10, 60);
+        cache.isApproved(cacheKey);
+        cache.recordApproval(cacheKey);
+        cache.isApproved(cacheKey);
+        cache.isApproved(cacheKey);
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void recordApproval_evictsWhenFull()
+    {
+        VerificationCache cache = new VerificationCache(1, 60);
+        cache.recordApproval(cacheKey);
+        cache.recordApproval(cacheKey + "other");
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void zeroMaxSize_disablesCaching()
+    {
+        VerificationCache cache = new VerificationCache(0, 60);
+        assertFalse(cache.isEnabled());
+        cache.recordApproval(cacheKey);
+        assertFalse(cache.isApproved(cacheKey));
+    }
+
+    @Test
+    public void invalidateAll_removesApprovals()
+    {
+        VerificationCache cache = new VerificationCache(10, 60);
+        cache.recordApproval(cacheKey);
+        cache.invalidateAll();
+        assertFalse(cache.isApproved(cacheKey));
+    }
+}
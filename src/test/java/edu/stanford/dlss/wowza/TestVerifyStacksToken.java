@@ -11,11 +11,23 @@ import org.apache.log4j.*;
 import com.wowza.wms.application.IApplicationInstance;
 import com.wowza.wms.application.WMSProperties;
 
+import com.sun.net.httpserver.HttpServer;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class TestVerifyStacksToken
 {
@@ -63,6 +75,39 @@ public class TestVerifyStacksToken
         verify(spyModule, never()).verifyTokenAgainstStacksService(null);
     }
 
+    @Test
+    /** a token approved locally doesn't need a round trip to stacks */
+    public void verifyStacksToken_locallyApproved()
+    {
+        SulWowza spyModule = spy(testModule);
+        spyModule.localTokenVerifier = mock(LocalTokenVerifier.class);
+        when(spyModule.localTokenVerifier.verify(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0")).thenReturn(LocalTokenVerifier.Decision.APPROVED);
+        assertTrue(spyModule.verifyStacksToken(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0"));
+        verify(spyModule, never()).getVerifyStacksTokenUrl(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0");
+    }
+
+    @Test
+    /** a token rejected locally doesn't need a round trip to stacks */
+    public void verifyStacksToken_locallyRejected()
+    {
+        SulWowza spyModule = spy(testModule);
+        spyModule.localTokenVerifier = mock(LocalTokenVerifier.class);
+        when(spyModule.localTokenVerifier.verify(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0")).thenReturn(LocalTokenVerifier.Decision.REJECTED);
+        assertFalse(spyModule.verifyStacksToken(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0"));
+        verify(spyModule, never()).getVerifyStacksTokenUrl(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0");
+    }
+
+    @Test
+    /** if the local verifier can't decide, stacks is asked */
+    public void verifyStacksToken_locallyUndecided_asksStacks()
+    {
+        SulWowza spyModule = spy(testModule);
+        spyModule.localTokenVerifier = mock(LocalTokenVerifier.class);
+        when(spyModule.localTokenVerifier.verify(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0")).thenReturn(LocalTokenVerifier.Decision.UNDECIDED);
+        spyModule.verifyStacksToken(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0");
+        verify(spyModule).getVerifyStacksTokenUrl(stacksToken, "oo000oo0000", "filename.ext", "0.0.0.0");
+    }
+
     @Test
     public void getVerifyStacksTokenUrl_validUrl()
     {
@@ -160,8 +205,8 @@ public class TestVerifyStacksToken
 
     @Test
     /** returns true and logs request made */
-    public void verifyTokenAgainstStacksService_getsStacksHttpURLConn()
-            throws IOException
+    public void verifyTokenAgainstStacksService_sendsStacksRequest()
+            throws IOException, InterruptedException
     {
         String expPath = "/media/oo000oo0000/filename.ext/verify_token";
         String expQueryStr = "?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
@@ -170,13 +215,14 @@ public class TestVerifyStacksToken
 
         SulWowza spyModule = spy(testModule);
         spyModule.verifyTokenAgainstStacksService(stacksURL);
-        verify(spyModule).getStacksHttpURLConn(stacksURL, "HEAD");
+        verify(spyModule).sendStacksRequest(stacksURL, "HEAD");
     }
 
     @Test
     /** returns true and logs request made */
+    @SuppressWarnings("unchecked")
     public void verifyTokenAgainstStacksService_HTTP_OK()
-            throws IOException
+            throws IOException, InterruptedException
     {
         String expPath = "/media/oo000oo0000/filename.ext/verify_token";
         String expQueryStr = "?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
@@ -193,9 +239,9 @@ public class TestVerifyStacksToken
         try
         {
             SulWowza spyModule = spy(testModule);
-            HttpURLConnection mockStacksConn = mock(HttpURLConnection.class);
-            when(spyModule.getStacksHttpURLConn(stacksURL, "HEAD")).thenReturn(mockStacksConn);
-            when(mockStacksConn.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+            HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+            doReturn(mockStacksResponse).when(spyModule).sendStacksRequest(stacksURL, "HEAD");
+            when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_OK);
             assertTrue(spyModule.verifyTokenAgainstStacksService(stacksURL));
             String logMsg = out.toString();
             assertThat(logMsg, allOf(containsString("INFO"),
@@ -211,8 +257,9 @@ public class TestVerifyStacksToken
 
     @Test
     /** returns false and logs request made */
+    @SuppressWarnings("unchecked")
     public void verifyTokenAgainstStacksService_HTTP_FORBIDDEN()
-            throws IOException
+            throws IOException, InterruptedException
     {
         String expPath = "/media/oo000oo0000/filename.ext/verify_token";
         String expQueryStr = "?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
@@ -229,9 +276,9 @@ public class TestVerifyStacksToken
         try
         {
             SulWowza spyModule = spy(testModule);
-            HttpURLConnection mockStacksConn = mock(HttpURLConnection.class);
-            when(spyModule.getStacksHttpURLConn(stacksURL, "HEAD")).thenReturn(mockStacksConn);
-            when(mockStacksConn.getResponseCode()).thenReturn(HttpURLConnection.HTTP_FORBIDDEN);
+            HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+            doReturn(mockStacksResponse).when(spyModule).sendStacksRequest(stacksURL, "HEAD");
+            when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_FORBIDDEN);
             assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
             String logMsg = out.toString();
             assertThat(logMsg, allOf(containsString("INFO"),
@@ -245,6 +292,296 @@ public class TestVerifyStacksToken
         }
     }
 
+    @Test
+    /** a second verification of the same url is answered from the cache without contacting stacks */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_HTTP_OK_isCached()
+            throws IOException, InterruptedException
+    {
+        String urlStr = "http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
+        URL stacksURL = new URL(urlStr);
+
+        SulWowza spyModule = spy(testModule);
+        HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+        doReturn(mockStacksResponse).when(spyModule).sendStacksRequest(stacksURL, "HEAD");
+        when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        assertTrue(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        assertTrue(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule, times(1)).sendStacksRequest(stacksURL, "HEAD");
+        assertEquals(1, spyModule.verificationCache.hitCount());
+    }
+
+    @Test
+    /** rejections are not cached as approvals */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_HTTP_FORBIDDEN_notCachedAsApproval()
+            throws IOException, InterruptedException
+    {
+        String urlStr = "http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
+        URL stacksURL = new URL(urlStr);
+
+        SulWowza spyModule = spy(testModule);
+        HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+        doReturn(mockStacksResponse).when(spyModule).sendStacksRequest(stacksURL, "HEAD");
+        when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_FORBIDDEN);
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        assertFalse(spyModule.verificationCache.isApproved(stacksURL.getFile()));
+    }
+
+    @Test
+    /** a second verification of a url stacks rejected is answered from the rejection cache */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_HTTP_FORBIDDEN_isCachedAsRejection()
+            throws IOException, InterruptedException
+    {
+        String urlStr = "http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
+        URL stacksURL = new URL(urlStr);
+
+        SulWowza spyModule = spy(testModule);
+        HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+        doReturn(mockStacksResponse).when(spyModule).sendStacksRequest(stacksURL, "HEAD");
+        when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_FORBIDDEN);
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule, times(1)).sendStacksRequest(stacksURL, "HEAD");
+        assertEquals(1, spyModule.rejectionCache.hitCount());
+    }
+
+    @Test
+    /** transport failures say nothing about the token, so they aren't cached */
+    public void verifyTokenAgainstStacksService_wException_notCached()
+            throws IOException, InterruptedException
+    {
+        String urlStr = "http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
+        URL stacksURL = new URL(urlStr);
+
+        SulWowza spyModule = spy(testModule);
+        doThrow(new HttpTimeoutException("request timed out")).when(spyModule).sendStacksRequest(stacksURL, "HEAD");
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule, times(2)).sendStacksRequest(stacksURL, "HEAD");
+        assertEquals(0, spyModule.rejectionCache.size());
+    }
+
+    @Test
+    /** once the circuit breaker opens, verifications are rejected without contacting stacks */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_circuitBreakerOpen_failsFast()
+            throws IOException, InterruptedException
+    {
+        String urlStr = "http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
+        URL stacksURL = new URL(urlStr);
+
+        SulWowza spyModule = spy(testModule);
+        spyModule.circuitBreaker = new CircuitBreaker(2, 2, 50, 100, 60000, 30, 1, null);
+        HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+        doReturn(mockStacksResponse).when(spyModule).sendStacksRequest(stacksURL, "HEAD");
+        when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        assertEquals(CircuitBreaker.State.OPEN, spyModule.circuitBreaker.getState());
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule, times(2)).sendStacksRequest(stacksURL, "HEAD");
+        assertEquals(1, spyModule.circuitBreaker.notPermittedCount());
+    }
+
+    @Test
+    /** a 4xx is a definitive answer from a healthy stacks, so it doesn't count against the circuit breaker */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_HTTP_FORBIDDEN_notCircuitBreakerFailure()
+            throws IOException, InterruptedException
+    {
+        String urlStr = "http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
+        URL stacksURL = new URL(urlStr);
+
+        SulWowza spyModule = spy(testModule);
+        spyModule.circuitBreaker = new CircuitBreaker(2, 1, 50, 100, 60000, 30, 1, null);
+        HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+        doReturn(mockStacksResponse).when(spyModule).sendStacksRequest(stacksURL, "HEAD");
+        when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_FORBIDDEN);
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        assertEquals(CircuitBreaker.State.CLOSED, spyModule.circuitBreaker.getState());
+        assertEquals(0, spyModule.circuitBreaker.failureRate());
+    }
+
+    @Test
+    /** with no slot free for another request to stacks, verification is rejected without contacting stacks */
+    public void verifyTokenAgainstStacksService_concurrencyLimitReached()
+            throws IOException, InterruptedException
+    {
+        String urlStr = "http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
+        URL stacksURL = new URL(urlStr);
+
+        SulWowza spyModule = spy(testModule);
+        spyModule.concurrencyLimiter = new ConcurrencyLimiter(1, 1, 1, 0, 0);
+        assertTrue(spyModule.concurrencyLimiter.acquire());
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule, never()).sendStacksRequest(stacksURL, "HEAD");
+        assertEquals(1, spyModule.concurrencyLimiter.rejectedCount());
+    }
+
+    @Test
+    /** a request refused by the circuit breaker gives back its concurrency slot */
+    public void verifyTokenAgainstStacksService_circuitBreakerOpen_releasesConcurrencySlot()
+            throws IOException, InterruptedException
+    {
+        String urlStr = "http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0";
+        URL stacksURL = new URL(urlStr);
+
+        SulWowza spyModule = spy(testModule);
+        spyModule.concurrencyLimiter = new ConcurrencyLimiter(1, 1, 1, 0, 0);
+        spyModule.circuitBreaker = new CircuitBreaker(1, 1, 50, 100, 60000, 30, 1, null);
+        assertTrue(spyModule.circuitBreaker.tryAcquirePermission());
+        spyModule.circuitBreaker.onCallComplete(0, true);
+        assertFalse(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule, never()).sendStacksRequest(stacksURL, "HEAD");
+        assertEquals(0, spyModule.concurrencyLimiter.inFlightCount());
+    }
+
+    @Test
+    /** with several stacks endpoints, the request goes to the fastest one, re-rooted on its base URL */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_routesToFastestEndpoint()
+            throws IOException, InterruptedException
+    {
+        URL stacksURL = new URL("http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+        URL otherURL = new URL("http://localhost:3001/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+
+        SulWowza spyModule = spy(testModule);
+        spyModule.stacksEndpoints = new StacksEndpoints(List.of("http://localhost:3000", "http://localhost:3001"), 3, false, null);
+        spyModule.stacksEndpoints.recordRequest(spyModule.stacksEndpoints.getEndpoints().get(0), TimeUnit.MILLISECONDS.toNanos(50), false);
+        spyModule.stacksEndpoints.recordRequest(spyModule.stacksEndpoints.getEndpoints().get(1), TimeUnit.MILLISECONDS.toNanos(5), false);
+        HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+        when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        doReturn(mockStacksResponse).when(spyModule).sendStacksRequest(otherURL, "HEAD");
+        assertTrue(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule, never()).sendStacksRequest(stacksURL, "HEAD");
+    }
+
+    @Test
+    /** with hedging on, a request the best endpoint doesn't answer within its p95 is also sent to the next best */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_hedgesSlowEndpoint()
+            throws IOException, InterruptedException
+    {
+        URL stacksURL = new URL("http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+        URL otherURL = new URL("http://localhost:3001/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+
+        SulWowza spyModule = spy(testModule);
+        StacksEndpoints endpoints = new StacksEndpoints(List.of("http://localhost:3000", "http://localhost:3001"), 3, true, null);
+        spyModule.stacksEndpoints = endpoints;
+        for (int i = 0; i < StacksEndpoints.HEDGE_MIN_SAMPLES; i++)
+            endpoints.recordRequest(endpoints.getEndpoints().get(0), TimeUnit.MILLISECONDS.toNanos(5), false);
+        endpoints.recordRequest(endpoints.getEndpoints().get(1), TimeUnit.MILLISECONDS.toNanos(50), false);
+        HttpResponse<Void> mockStacksResponse = mock(HttpResponse.class);
+        when(mockStacksResponse.statusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        CompletableFuture<HttpResponse<Void>> neverAnswered = new CompletableFuture<>();
+        doReturn(neverAnswered).when(spyModule).sendStacksRequestAsync(stacksURL, "HEAD");
+        doReturn(CompletableFuture.completedFuture(mockStacksResponse)).when(spyModule).sendStacksRequestAsync(otherURL, "HEAD");
+
+        assertTrue(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        assertEquals(1, endpoints.hedgeCount());
+        assertTrue(neverAnswered.isCancelled());
+    }
+
+    @Test
+    /** with hedging on, a 5xx from the best endpoint, before its p95 is up, sends the request to the next best */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_fast5xxTriesNextEndpoint()
+            throws IOException, InterruptedException
+    {
+        URL stacksURL = new URL("http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+        URL otherURL = new URL("http://localhost:3001/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+
+        SulWowza spyModule = spy(testModule);
+        StacksEndpoints endpoints = new StacksEndpoints(List.of("http://localhost:3000", "http://localhost:3001"), 3, true, null);
+        spyModule.stacksEndpoints = endpoints;
+        for (int i = 0; i < StacksEndpoints.HEDGE_MIN_SAMPLES; i++)
+            endpoints.recordRequest(endpoints.getEndpoints().get(0), TimeUnit.MILLISECONDS.toNanos(500), false);
+        endpoints.recordRequest(endpoints.getEndpoints().get(1), TimeUnit.MILLISECONDS.toNanos(600), false);
+        HttpResponse<Void> unavailable = mock(HttpResponse.class);
+        when(unavailable.statusCode()).thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
+        HttpResponse<Void> ok = mock(HttpResponse.class);
+        when(ok.statusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        doReturn(CompletableFuture.completedFuture(unavailable)).when(spyModule).sendStacksRequestAsync(stacksURL, "HEAD");
+        doReturn(CompletableFuture.completedFuture(ok)).when(spyModule).sendStacksRequestAsync(otherURL, "HEAD");
+
+        assertTrue(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule).sendStacksRequestAsync(otherURL, "HEAD");
+        assertEquals(0, endpoints.hedgeCount());
+        assertEquals(1, endpoints.getEndpoints().get(0).failureCount());
+    }
+
+    @Test
+    /** with hedging on, a refused connection to the best endpoint sends the request to the next best */
+    @SuppressWarnings("unchecked")
+    public void verifyTokenAgainstStacksService_connectionRefusedTriesNextEndpoint()
+            throws IOException, InterruptedException
+    {
+        URL stacksURL = new URL("http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+        URL otherURL = new URL("http://localhost:3001/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+
+        SulWowza spyModule = spy(testModule);
+        StacksEndpoints endpoints = new StacksEndpoints(List.of("http://localhost:3000", "http://localhost:3001"), 3, true, null);
+        spyModule.stacksEndpoints = endpoints;
+        for (int i = 0; i < StacksEndpoints.HEDGE_MIN_SAMPLES; i++)
+            endpoints.recordRequest(endpoints.getEndpoints().get(0), TimeUnit.MILLISECONDS.toNanos(500), false);
+        endpoints.recordRequest(endpoints.getEndpoints().get(1), TimeUnit.MILLISECONDS.toNanos(600), false);
+        HttpResponse<Void> ok = mock(HttpResponse.class);
+        when(ok.statusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        doReturn(CompletableFuture.failedFuture(new ConnectException("Connection refused"))).when(spyModule).sendStacksRequestAsync(stacksURL, "HEAD");
+        doReturn(CompletableFuture.completedFuture(ok)).when(spyModule).sendStacksRequestAsync(otherURL, "HEAD");
+
+        assertTrue(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule).sendStacksRequestAsync(otherURL, "HEAD");
+        assertEquals(0, endpoints.hedgeCount());
+    }
+
+    @Test
+    /** with batching on, the verify_token request goes to stacks as part of a bulk request */
+    public void verifyTokenAgainstStacksService_batched()
+            throws IOException, InterruptedException
+    {
+        URL stacksURL = new URL("http://localhost:3000/media/oo000oo0000/filename.ext/verify_token?stacks_token=" + stacksToken + "&user_ip=0.0.0.0");
+
+        SulWowza spyModule = spy(testModule);
+        SulWowza.stacksTokenVerificationBaseUrl = "http://localhost:3000";
+        spyModule.verificationBatcher = new VerificationBatcher(0, 10, spyModule::sendStacksBatchRequest);
+        doReturn("[200]").when(spyModule).sendStacksBatchRequest("[\"/media/oo000oo0000/filename.ext/verify_token?stacks_token=" +
+                                                                  stacksToken + "&user_ip=0.0.0.0\"]");
+        assertTrue(spyModule.verifyTokenAgainstStacksService(stacksURL));
+        verify(spyModule, never()).sendStacksRequest(any(), anyString());
+    }
+
+    @Test
+    /** the bulk request is a JSON POST to stacksBatchPath;  a local stub stands in for the stacks bulk endpoint */
+    public void sendStacksBatchRequest_postsJsonToBatchPath()
+            throws IOException, InterruptedException
+    {
+        List<String> received = new ArrayList<>();
+        HttpServer stubStacks = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        stubStacks.createContext("/media/verify_tokens", exchange ->
+        {
+            received.add(exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("Content-Type") + " " +
+                         new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] body = "[200,403]".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stubStacks.start();
+        try
+        {
+            SulWowza.stacksTokenVerificationBaseUrl = "http://localhost:" + stubStacks.getAddress().getPort();
+            assertEquals("[200,403]", testModule.sendStacksBatchRequest("[\"/media/a\",\"/media/b\"]"));
+            assertEquals(List.of("POST application/json [\"/media/a\",\"/media/b\"]"), received);
+        }
+        finally
+        {
+            stubStacks.stop(0);
+        }
+    }
+
     @Test
     /** it logs an error and returns false */
     public void verifyTokenAgainstStacksService_wException()
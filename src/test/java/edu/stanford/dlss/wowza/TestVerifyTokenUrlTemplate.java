@@ -0,0 +1,86 @@
+package edu.stanford.dlss.wowza;
+
+import static org.junit.Assert.*;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.junit.*;
+
+public class TestVerifyTokenUrlTemplate
+{
+    final static String stacksToken = "encryptedStacksMediaToken";
+
+    /** what getVerifyStacksTokenUrl used to build */
+    private static URL concatenated(String baseUrl, String stacksToken, String druid, String filename, String userIp)
+            throws MalformedURLException
+    {
+        return new URL(baseUrl + "/media/" + SulWowza.escapePathSegment(druid) + "/" + SulWowza.escapePathSegment(filename) +
+                       "/verify_token?stacks_token=" + SulWowza.escapeFormParam(stacksToken) +
+                       "&user_ip=" + SulWowza.escapeFormParam(userIp));
+    }
+
+    @Test
+    public void build_sameAsConcatenating()
+            throws MalformedURLException
+    {
+        String[] baseUrls = { "https://stacks.example.edu", "http://localhost:3000", "https://example.edu/stacks",
+                              "https://example.edu/", "http://[::1]:8080", "https://user:pw@example.edu", "https://example.edu?x=1" };
+        for (String baseUrl : baseUrls)
+        {
+            VerifyTokenUrlTemplate template = new VerifyTokenUrlTemplate(baseUrl);
+            URL expected = concatenated(baseUrl, stacksToken, "oo000oo0000", "a file+.mp4", "2001:db8::1");
+            URL built = template.build(stacksToken, "oo000oo0000", "a file+.mp4", "2001:db8::1");
+            assertEquals(baseUrl, expected.toString(), built.toString());
+            assertEquals(baseUrl, expected.getFile(), built.getFile());
+            assertEquals(baseUrl, expected.getAuthority(), built.getAuthority());
+        }
+    }
+
+    @Test
+    public void build_escapesEachPart()
+            throws MalformedURLException
+    {
+        VerifyTokenUrlTemplate template = new VerifyTokenUrlTemplate("https://stacks.example.edu");
+        URL built = template.build("a+b c/=", "oo000oo0000", "x/y z.mp4", "1.2.3.4");
+        assertEquals("/media/oo000oo0000/x%2Fy%20z.mp4/verify_token?stacks_token=a%2Bb+c%2F%3D&user_ip=1.2.3.4", built.getFile());
+    }
+
+    @Test
+    public void build_reusesBufferBetweenCalls()
+            throws MalformedURLException
+    {
+        VerifyTokenUrlTemplate template = new VerifyTokenUrlTemplate("https://stacks.example.edu");
+        StringBuilder longFilename = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            longFilename.append('x');
+        assertEquals("/media/oo000oo0000/" + longFilename + "/verify_token?stacks_token=" + stacksToken + "&user_ip=1.2.3.4",
+                     template.build(stacksToken, "oo000oo0000", longFilename.toString(), "1.2.3.4").getFile());
+        assertEquals("/media/oo000oo0000/f.mp4/verify_token?stacks_token=" + stacksToken + "&user_ip=1.2.3.4",
+                     template.build(stacksToken, "oo000oo0000", "f.mp4", "1.2.3.4").getFile());
+    }
+
+    @Test
+    public void isFor()
+            throws MalformedURLException
+    {
+        VerifyTokenUrlTemplate template = new VerifyTokenUrlTemplate("https://stacks.example.edu");
+        assertTrue(template.isFor(new String("https://stacks.example.edu")));
+        assertFalse(template.isFor("https://other.example.edu"));
+        assertFalse(template.isFor(null));
+    }
+
+    @Test(expected = MalformedURLException.class)
+    public void badBaseUrl()
+            throws MalformedURLException
+    {
+        new VerifyTokenUrlTemplate("badUrl");
+    }
+
+    @Test
+    public void escapersAreShared()
+    {
+        assertSame(SulWowza.formParamEscaper(), SulWowza.formParamEscaper());
+        assertSame(SulWowza.pathSegmentEscaper(), SulWowza.pathSegmentEscaper());
+    }
+}